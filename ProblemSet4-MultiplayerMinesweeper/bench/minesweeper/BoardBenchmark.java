@@ -0,0 +1,202 @@
+package minesweeper;
+
+import java.util.BitSet;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the hot paths of the boards, for every storage that can be loaded with chosen bombs:
+ * making a random board, digging with and without propagation, toggling flags and rendering the board.
+ * Boards have SIZE x SIZE squares, and a DENSITY fraction of them have a bomb, except random boards,
+ * whose density is BoardStorage.DENSITY. Every board is made from a fixed seed, so runs are comparable.
+ * <br> Usage, with jmh-core and jmh-generator-annprocess on the class path when compiling and running:
+ *      BoardBenchmark [JMH OPTIONS]
+ * <br> E.g. "BoardBenchmark -p storage=BITSET -p size=256" only benchmarks BitBoards of 256x256 squares,
+ *      "BoardBenchmark -h" lists the options of JMH.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    private static final long SEED = 6005;
+
+    /**
+     * @return indices x*size + y of the squares with a bomb, each with probability density.
+     */
+    static BitSet bombs(int size, double density, SplittableRandom random) {
+        BitSet bombs = new BitSet(size * size);
+        for (int i = 0; i < size * size; i++) {
+            if (random.nextDouble() < density) {
+                bombs.set(i);
+            }
+        }
+        return bombs;
+    }
+
+    /**
+     * A board, and the squares of it to move on, in a random order. Once every square has been moved
+     * on, the board is made again, so digs keep finding untouched squares.
+     */
+    @State(Scope.Thread)
+    public static class Moves {
+
+        @Param({"ARRAY", "BITSET", "STRIPED"})
+        public BoardStorage storage;
+        @Param({"16", "256"})
+        public int size;
+        @Param({"0.1", "0.2", "0.4"})
+        public double density;
+
+        GameBoard board;
+        BitSet bombs;
+        int[] order;
+        int next;
+
+        @Setup(Level.Iteration)
+        public void setUp() {
+            SplittableRandom random = new SplittableRandom(SEED);
+            bombs = bombs(size, density, random);
+            board = storage.newBoard(size, size, bombs);
+            order = new int[size * size];
+            for (int i = 0; i < order.length; i++) {
+                int j = random.nextInt(i + 1);
+                order[i] = order[j];
+                order[j] = i;
+            }
+            next = 0;
+        }
+
+        /**
+         * @return the index of the next square to move on.
+         */
+        int next() {
+            if (next == order.length) {
+                board = storage.newBoard(size, size, bombs);
+                next = 0;
+            }
+            return order[next++];
+        }
+    }
+
+    /**
+     * A new board before every invocation, and an untouched square of it to dig.
+     */
+    @State(Scope.Thread)
+    public static class FreshBoard {
+
+        @Param({"ARRAY", "BITSET", "STRIPED"})
+        public BoardStorage storage;
+        @Param({"16", "256"})
+        public int size;
+        @Param({"0.1", "0.2", "0.4"})
+        public double density;
+
+        GameBoard board;
+        BitSet bombs;
+        SplittableRandom random;
+        int square;
+
+        @Setup(Level.Trial)
+        public void setUpBombs() {
+            random = new SplittableRandom(SEED);
+            bombs = bombs(size, density, random);
+        }
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            board = storage.newBoard(size, size, bombs);
+            square = random.nextInt(size * size);
+        }
+    }
+
+    /**
+     * A board a third of whose squares have been dug without propagation, and some of them flagged.
+     */
+    @State(Scope.Thread)
+    public static class PlayedBoard {
+
+        @Param({"ARRAY", "BITSET", "STRIPED"})
+        public BoardStorage storage;
+        @Param({"16", "256"})
+        public int size;
+
+        GameBoard board;
+        int[] flags;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            SplittableRandom random = new SplittableRandom(SEED);
+            board = storage.newBoard(size, size, bombs(size, BoardStorage.DENSITY, random));
+            for (int move = 0; move < size * size / 3; move++) {
+                board.setSquare(random.nextInt(size), random.nextInt(size), "dug", false);
+            }
+            flags = new int[64];
+            for (int i = 0; i < flags.length; i++) {
+                flags[i] = random.nextInt(size * size);
+            }
+        }
+    }
+
+    /**
+     * A size for random boards, made as the server makes them.
+     */
+    @State(Scope.Thread)
+    public static class RandomBoard {
+
+        @Param({"ARRAY", "BITSET", "STRIPED"})
+        public BoardStorage storage;
+        @Param({"16", "256"})
+        public int size;
+    }
+
+    @Benchmark
+    public GameBoard newRandomBoard(RandomBoard state) {
+        return state.storage.newBoard(state.size, state.size, SEED);
+    }
+
+    @Benchmark
+    public String dig(Moves state) {
+        int i = state.next();
+        return state.board.setSquare(i / state.size, i % state.size, "dug", false);
+    }
+
+    @Benchmark
+    public String digPropagate(FreshBoard state) {
+        return state.board.setSquare(state.square / state.size, state.square % state.size, "dug", true);
+    }
+
+    @Benchmark
+    public String toggleFlag(PlayedBoard state) {
+        int i = state.flags[state.next++ & (state.flags.length - 1)];
+        return state.board.setSquare(i / state.size, i % state.size, "flagged", false);
+    }
+
+    @Benchmark
+    public String render(PlayedBoard state) {
+        return state.board.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] options = new String[args.length + 1];
+        options[0] = BoardBenchmark.class.getName();
+        System.arraycopy(args, 0, options, 1, args.length);
+        org.openjdk.jmh.Main.main(options);
+    }
+}
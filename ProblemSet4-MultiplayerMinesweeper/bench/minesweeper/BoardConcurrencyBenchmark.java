@@ -0,0 +1,132 @@
+package minesweeper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Load benchmark of concurrent moves on a single board, comparing a board locked as a whole (BitBoard,
+ * one monitor) with a board locked by region (StripedBoard).
+ * <p>
+ * For every storage and every number of threads, a new random board is made and the threads play random
+ * moves on it for SECONDS seconds: three flag or deflag moves for every dig with propagation, on squares
+ * chosen uniformly, so most moves of different threads land on different regions. It reports the moves
+ * per second of all the threads together, and the speedup relative to one thread.
+ * <br> Usage:
+ *      BoardConcurrencyBenchmark [--size SIZE] [--seconds SECONDS] [--threads N,N,...] [--storage bitset|striped]
+ * <br> By default the board is MAX_SIZE x MAX_SIZE, and the threads go from 1 to twice the number of
+ *      processors. Run it on a machine with several cores, the board locked as a whole can't scale.
+ */
+public class BoardConcurrencyBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+
+        int size = GameBoard.MAX_SIZE;
+        int seconds = 3;
+        List<Integer> threadCounts = new ArrayList<>();
+        List<BoardStorage> storages = new ArrayList<>(List.of(BoardStorage.BITSET, BoardStorage.STRIPED));
+
+        Queue<String> arguments = new LinkedList<>(Arrays.asList(args));
+        try {
+            while ( ! arguments.isEmpty()) {
+                String flag = arguments.remove();
+                if (flag.equals("--size")) {
+                    size = Integer.parseInt(arguments.remove());
+                } else if (flag.equals("--seconds")) {
+                    seconds = Integer.parseInt(arguments.remove());
+                } else if (flag.equals("--threads")) {
+                    for (String count : arguments.remove().split(",")) {
+                        threadCounts.add(Integer.parseInt(count));
+                    }
+                } else if (flag.equals("--storage")) {
+                    storages = List.of(BoardStorage.valueOf(arguments.remove().toUpperCase()));
+                } else {
+                    throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
+                }
+            }
+        } catch (NoSuchElementException | IllegalArgumentException e) {
+            System.err.println("usage: BoardConcurrencyBenchmark [--size SIZE] [--seconds SECONDS] "
+                    + "[--threads N,N,...] [--storage bitset|striped]");
+            return;
+        }
+        if (threadCounts.isEmpty()) {
+            for (int threads = 1; threads <= 2 * Runtime.getRuntime().availableProcessors(); threads *= 2) {
+                threadCounts.add(threads);
+            }
+        }
+
+        System.out.printf("%d processors, %dx%d board%n", Runtime.getRuntime().availableProcessors(), size, size);
+        System.out.printf("%-10s %8s %14s %8s%n", "storage", "threads", "moves/s", "speedup");
+        for (BoardStorage storage : storages) {
+            double single = 0;
+            for (int threads : threadCounts) {
+                double movesPerSecond = run(storage.newBoard(size, size, 0), threads, seconds);
+                if (single == 0) {
+                    single = movesPerSecond / threads;
+                }
+                System.out.printf("%-10s %8d %14.0f %7.2fx%n", storage, threads, movesPerSecond,
+                        movesPerSecond / single);
+            }
+        }
+    }
+
+    /**
+     * Plays random moves on the board from the given number of threads.
+     * @return moves per second of all the threads together
+     */
+    private static double run(GameBoard board, int threads, int seconds) throws InterruptedException {
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        CountDownLatch start = new CountDownLatch(1);
+        long[] moves = new long[threads];
+        Thread[] players = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            final int player = t;
+            players[t] = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(player);
+                int sizeX = board.getSizeX();
+                int sizeY = board.getSizeY();
+                try {
+                    start.await();
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                long count = 0;
+                while (running.get()) {
+                    int x = random.nextInt(sizeX);
+                    int y = random.nextInt(sizeY);
+                    if (random.nextInt(4) == 0) {
+                        board.setSquare(x, y, "dug", true);
+                    } else {
+                        board.setSquare(x, y, "flagged", false);
+                    }
+                    count++;
+                }
+                moves[player] = count;
+            });
+            players[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread player : players) {
+            player.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        long total = 0;
+        for (long count : moves) {
+            total += count;
+        }
+        return total * 1e9 / elapsed;
+    }
+}
@@ -0,0 +1,190 @@
+package minesweeper.server;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+import minesweeper.Board;
+
+/**
+ * Load benchmark comparing the connection modes of MinesweeperServer.
+ * <p>
+ * For every mode it starts a server, opens CONNECTIONS clients that log in and then stay idle, and
+ * reports how long it took to get all of them welcomed, how many live platform threads and how much
+ * heap the server process needed to hold them, and the latency of REQUESTS "help" requests spread
+ * over the idle clients.
+ * <p>
+ * Every mode runs in its own JVM, so threads and heap left behind by one mode don't skew the next one.
+ * <br> Usage:
+ *      ConnectionModeBenchmark [--connections CONNECTIONS] [--requests REQUESTS] [--mode THREAD|VIRTUAL_THREAD|NIO]
+ * <br> Without --mode every mode supported by the running JVM is measured and a table is printed.
+ * <br> Clients and server share the machine, so CONNECTIONS is bounded by the open files limit
+ *      (each connection uses two descriptors). E.g. "ulimit -n 200000" before measuring 50000 connections.
+ */
+public class ConnectionModeBenchmark {
+
+    private static final String LOCALHOST = "127.0.0.1";
+    private static final String RESULT = "RESULT";
+    private static final int MAX_CONNECTION_ATTEMPTS = 10;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        int connections = 2000;
+        int requests = 10000;
+        ConnectionMode mode = null;
+
+        Queue<String> arguments = new LinkedList<>(Arrays.asList(args));
+        try {
+            while ( ! arguments.isEmpty()) {
+                String flag = arguments.remove();
+                if (flag.equals("--connections")) {
+                    connections = Integer.parseInt(arguments.remove());
+                } else if (flag.equals("--requests")) {
+                    requests = Integer.parseInt(arguments.remove());
+                } else if (flag.equals("--mode")) {
+                    mode = ConnectionMode.valueOf(arguments.remove());
+                } else {
+                    throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
+                }
+            }
+        } catch (NoSuchElementException | IllegalArgumentException e) {
+            System.err.println("usage: ConnectionModeBenchmark [--connections CONNECTIONS] [--requests REQUESTS] "
+                    + "[--mode THREAD|VIRTUAL_THREAD|NIO]");
+            return;
+        }
+
+        if (mode != null) {
+            runMode(mode, connections, requests);
+            System.exit(0); // the server never stops serving
+        }
+
+        System.out.printf("%-15s %12s %10s %10s %12s %10s %10s %12s%n", "mode", "connections", "login ms",
+                "threads", "heap KB/conn", "p50 us", "p99 us", "requests/s");
+        for (ConnectionMode each : ConnectionMode.values()) {
+            if ( ! each.isSupported()) {
+                System.out.printf("%-15s not supported by this JVM%n", each);
+                continue;
+            }
+            System.out.println(fork(each, connections, requests));
+        }
+    }
+
+    /**
+     * Runs the benchmark for the given mode in a new JVM with the same class path.
+     * @return the result line printed by the new JVM
+     */
+    private static String fork(ConnectionMode mode, int connections, int requests)
+            throws IOException, InterruptedException {
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ConnectionModeBenchmark.class.getName(), "--mode", mode.name(),
+                "--connections", Integer.toString(connections), "--requests", Integer.toString(requests));
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process process = builder.start();
+
+        String result = mode + " failed";
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(RESULT)) {
+                    result = line.substring(RESULT.length() + 1);
+                }
+            }
+        }
+        process.waitFor();
+        return result;
+    }
+
+    private static void runMode(ConnectionMode mode, int connections, int requests) throws IOException {
+
+        final int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        MinesweeperServer server = new MinesweeperServer(port, true, new Board(10, 10, true),
+                new ServerOptions().withMode(mode));
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heapBefore = usedHeap();
+
+        // log every client in, then wait for all the welcome messages
+        long start = System.nanoTime();
+        List<BufferedReader> ins = new ArrayList<>(connections);
+        List<PrintWriter> outs = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            Socket socket = connect(port);
+            ins.add(new BufferedReader(new InputStreamReader(socket.getInputStream()), 256));
+            outs.add(new PrintWriter(socket.getOutputStream(), true));
+            outs.get(i).println("bot" + i);
+        }
+        for (BufferedReader in : ins) {
+            in.readLine(); // username prompt
+            in.readLine(); // welcome
+            in.readLine();
+        }
+        long loginMillis = (System.nanoTime() - start) / 1_000_000;
+
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+        long heapPerConnection = (usedHeap() - heapBefore) / 1024 / connections;
+
+        // one request at a time, round-robin over the idle clients
+        long[] latencies = new long[requests];
+        start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            int client = i % connections;
+            long sent = System.nanoTime();
+            outs.get(client).println("help");
+            ins.get(client).readLine();
+            ins.get(client).readLine();
+            latencies[i] = System.nanoTime() - sent;
+        }
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+
+        System.out.printf("%s %-15s %12d %10d %10d %12d %10d %10d %12d%n", RESULT, mode, connections, loginMillis,
+                threads, heapPerConnection, latencies[requests / 2] / 1000, latencies[requests * 99 / 100] / 1000,
+                requests * 1_000_000_000L / elapsed);
+    }
+
+    private static Socket connect(int port) throws IOException {
+        int attempts = 0;
+        while (true) {
+            try {
+                return new Socket(LOCALHOST, port);
+            } catch (ConnectException ce) {
+                if (++attempts > MAX_CONNECTION_ATTEMPTS) {
+                    throw new IOException("Exceeded max connection attempts", ce);
+                }
+                try { Thread.sleep(attempts * 10); } catch (InterruptedException ie) { }
+            }
+        }
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,474 @@
+package minesweeper.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import minesweeper.BoardStorage;
+
+/**
+ * Load generator driving a MinesweeperServer with many simulated players over real sockets, to find how
+ * many players and requests a server can take before an event.
+ * <p>
+ * Every player has its own connection and thread. It logs in, then sends requests for SECONDS seconds:
+ * random look, dig, flag, deflag and help requests in the proportions of MIX, on random squares of the
+ * board, or the lines of SCRIPT in order. All the players together send RATE requests per second,
+ * evenly spread, whether or not the server keeps up: the latency of a request is counted from when it
+ * should have been sent, so a stalled server shows in the percentiles instead of slowing the load down.
+ * With a RATE of 0, every player sends its next request as soon as the last one is answered.
+ * <p>
+ * Players that explode out of debug mode are disconnected by the server, and log in again. Requests
+ * that time out, connections closed or refused are counted as errors, and the player logs in again.
+ * The first WARMUP seconds are not measured. It reports the requests per second answered and the
+ * latency percentiles of every command, then the errors.
+ * <br> Usage:
+ *      LoadGenerator [--host HOST] [--port PORT] [--local [--debug] [--storage array|bitset|striped] [--size SIZE]]
+ *                    [--connections N] [--rate RATE] [--seconds SECONDS] [--warmup WARMUP]
+ *                    [--mix COMMAND=WEIGHT,...] [--script SCRIPT] [--timeout MILLIS] [--seed SEED]
+ * <br> --local starts a server in this JVM, on a free port, with a random SIZE x SIZE board, in debug mode
+ *      if --debug is given, where "look" also lists the bombs and players stay connected when they explode.
+ *      Otherwise the server at HOST:PORT, 127.0.0.1:4444 by default, is driven.
+ * <br> E.g. "LoadGenerator --local --storage striped --connections 2000 --rate 20000 --mix look=1,dig=1,flag=2"
+ * <br> Clients and a local server share the machine, so N is bounded by the open files limit (each
+ *      connection uses two descriptors) and the number of threads.
+ */
+public class LoadGenerator {
+
+    private static final String LOCALHOST = "127.0.0.1";
+    private static final int DEFAULT_PORT = 4444;
+    /** Commands of the requests sent, OTHER counts the lines of a script with any other command. */
+    private static final String[] COMMANDS = {"look", "dig", "flag", "deflag", "help", "other"};
+    private static final int OTHER = COMMANDS.length - 1;
+    private static final String[] ERRORS = {"timeout", "closed", "refused", "io"};
+    private static final int TIMEOUT = 0;
+    private static final int CLOSED = 1;
+    private static final int REFUSED = 2;
+    private static final int IO = 3;
+    /** Pause before a player logs in again after an error, so a failing server isn't hammered. */
+    private static final long RECONNECT_PAUSE_MILLIS = 100;
+
+    private final String host;
+    private final int port;
+    private final int connections;
+    private final double rate;
+    private final long seconds;
+    private final long warmup;
+    private final int[] mix;
+    private final List<String> script;
+    private final int timeoutMillis;
+    private final long seed;
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[COMMANDS.length];
+    private final LatencyHistogram all = new LatencyHistogram();
+    private final LongAdder[] errors = new LongAdder[ERRORS.length];
+    private final LongAdder explosions = new LongAdder();
+    private final LongAdder logins = new LongAdder();
+
+    private long start;
+    private long measureFrom;
+    private long end;
+
+    private LoadGenerator(String host, int port, int connections, double rate, long seconds, long warmup,
+                          int[] mix, List<String> script, int timeoutMillis, long seed) {
+        this.host = host;
+        this.port = port;
+        this.connections = connections;
+        this.rate = rate;
+        this.seconds = seconds;
+        this.warmup = warmup;
+        this.mix = mix;
+        this.script = script;
+        this.timeoutMillis = timeoutMillis;
+        this.seed = seed;
+        for (int c = 0; c < latencies.length; c++) {
+            latencies[c] = new LatencyHistogram();
+        }
+        for (int e = 0; e < errors.length; e++) {
+            errors[e] = new LongAdder();
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        String host = LOCALHOST;
+        int port = DEFAULT_PORT;
+        boolean local = false;
+        boolean debug = false;
+        BoardStorage storage = BoardStorage.BITSET;
+        int size = 100;
+        int connections = 100;
+        double rate = 1000;
+        long seconds = 10;
+        long warmup = 2;
+        int[] mix = {4, 1, 2, 1, 0, 0};
+        List<String> script = null;
+        int timeoutMillis = 5000;
+        long seed = 6005;
+
+        Queue<String> arguments = new LinkedList<>(Arrays.asList(args));
+        try {
+            while ( ! arguments.isEmpty()) {
+                String flag = arguments.remove();
+                if (flag.equals("--host")) {
+                    host = arguments.remove();
+                } else if (flag.equals("--port")) {
+                    port = Integer.parseInt(arguments.remove());
+                } else if (flag.equals("--local")) {
+                    local = true;
+                } else if (flag.equals("--debug")) {
+                    debug = true;
+                } else if (flag.equals("--storage")) {
+                    storage = BoardStorage.valueOf(arguments.remove().toUpperCase());
+                } else if (flag.equals("--size")) {
+                    size = Integer.parseInt(arguments.remove());
+                } else if (flag.equals("--connections")) {
+                    connections = Integer.parseInt(arguments.remove());
+                } else if (flag.equals("--rate")) {
+                    rate = Double.parseDouble(arguments.remove());
+                } else if (flag.equals("--seconds")) {
+                    seconds = Long.parseLong(arguments.remove());
+                } else if (flag.equals("--warmup")) {
+                    warmup = Long.parseLong(arguments.remove());
+                } else if (flag.equals("--mix")) {
+                    mix = parseMix(arguments.remove());
+                } else if (flag.equals("--script")) {
+                    script = Files.readAllLines(Paths.get(arguments.remove()));
+                    script.removeIf(String::isEmpty);
+                    if (script.isEmpty()) {
+                        throw new IllegalArgumentException("empty script");
+                    }
+                } else if (flag.equals("--timeout")) {
+                    timeoutMillis = Integer.parseInt(arguments.remove());
+                } else if (flag.equals("--seed")) {
+                    seed = Long.parseLong(arguments.remove());
+                } else {
+                    throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
+                }
+            }
+            if (connections < 1 || rate < 0 || seconds < 1 || warmup < 0) {
+                throw new IllegalArgumentException("connections and seconds must be positive, rate and warmup not negative");
+            }
+        } catch (NoSuchElementException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: LoadGenerator [--host HOST] [--port PORT] "
+                    + "[--local [--debug] [--storage array|bitset|striped] [--size SIZE]] [--connections N] [--rate RATE] "
+                    + "[--seconds SECONDS] [--warmup WARMUP] [--mix COMMAND=WEIGHT,...] [--script SCRIPT] "
+                    + "[--timeout MILLIS] [--seed SEED]");
+            return;
+        }
+
+        if (local) {
+            host = LOCALHOST;
+            port = startLocalServer(debug, storage, size);
+        }
+        new LoadGenerator(host, port, connections, rate, seconds, warmup, mix, script, timeoutMillis, seed).run();
+        System.exit(0); // a local server never stops serving
+    }
+
+    /**
+     * @param mix weights of the commands, as "look=4,dig=1".
+     * @return the weight of every command of COMMANDS, 0 for those not given.
+     */
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[COMMANDS.length];
+        int total = 0;
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split("=");
+            int command = Arrays.asList(COMMANDS).indexOf(parts[0]);
+            if (parts.length != 2 || command < 0 || command == OTHER) {
+                throw new IllegalArgumentException("bad mix entry: \"" + entry + "\"");
+            }
+            weights[command] = Integer.parseInt(parts[1]);
+            total += weights[command];
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("the mix must have a positive weight");
+        }
+        return weights;
+    }
+
+    /**
+     * Starts a server on a free port.
+     * @return the port of the server
+     */
+    private static int startLocalServer(boolean debug, BoardStorage storage, int size) throws IOException {
+
+        final int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        MinesweeperServer server = new MinesweeperServer(port, debug, storage.newBoard(size, size, 0),
+                new ServerOptions().withStorage(storage));
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }, "local-server");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        return port;
+    }
+
+    private void run() throws InterruptedException {
+
+        System.out.printf("%d connections to %s:%d, %s, %d s measured after %d s of warmup%n", connections, host, port,
+                (rate > 0) ? String.format("%.0f requests/s", rate) : "as fast as answered", seconds, warmup);
+
+        start = System.nanoTime();
+        measureFrom = start + warmup * 1_000_000_000L;
+        end = measureFrom + seconds * 1_000_000_000L;
+        CountDownLatch done = new CountDownLatch(connections);
+        for (int id = 0; id < connections; id++) {
+            int player = id;
+            Thread thread = new Thread(() -> {
+                try {
+                    play(player);
+                } finally {
+                    done.countDown();
+                }
+            }, "player-" + id);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        report();
+    }
+
+    /**
+     * A connection of a player, logged in.
+     */
+    private class Session implements AutoCloseable {
+
+        final Socket socket;
+        final BufferedReader in;
+        final PrintWriter out;
+        int sizeX;
+        int sizeY;
+
+        /**
+         * Connects and logs in, reading the welcome message for the size of the board.
+         */
+        Session(int id) throws IOException {
+            socket = new Socket(host, port);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out = new PrintWriter(socket.getOutputStream(), false);
+            out.println("player" + id);
+            out.flush();
+
+            String line;
+            do {
+                line = readLine(in);
+            } while ( ! line.startsWith("**> Welcome"));
+            String[] words = line.split(" ");
+            for (int i = 0; i + 1 < words.length; i++) {
+                if (words[i + 1].equals("columns")) {
+                    sizeX = Integer.parseInt(words[i]);
+                } else if (words[i + 1].startsWith("rows")) {
+                    sizeY = Integer.parseInt(words[i]);
+                }
+            }
+            readLine(in); // the end of the response
+            logins.increment();
+        }
+
+        /**
+         * Sends a request and reads its response, as readResponse() frames it.
+         * @return whether the player exploded and was disconnected
+         */
+        boolean request(String request) throws IOException {
+            out.println(request);
+            out.flush();
+            for (String line : readResponse(in)) {
+                if (line.startsWith("**> Bye")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                // already closed
+            }
+        }
+    }
+
+    /**
+     * Reads a response of the text protocol. Boards and player lists start with an empty line, and the
+     * rows of a board are never empty, so a response is its lines up to the first empty line following
+     * one that is not empty.
+     *
+     * @param in stream of the responses of a server, after the welcome message.
+     * @return the lines of the response, without the empty lines around them.
+     * @throws ClosedException if the server closes the connection before the end of the response.
+     */
+    static List<String> readResponse(BufferedReader in) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String line;
+        do {
+            line = readLine(in);
+        } while (line.isEmpty());
+        do {
+            lines.add(line);
+        } while ( ! (line = readLine(in)).isEmpty());
+        return lines;
+    }
+
+    private static String readLine(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw new ClosedException();
+        }
+        return line;
+    }
+
+    /** Thrown when the server closes a connection in the middle of a response. */
+    private static class ClosedException extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Plays as the player with the given id until the end of the run, logging in again after every
+     * explosion or error.
+     */
+    private void play(int id) {
+
+        SplittableRandom random = new SplittableRandom(seed + id);
+        long interval = (rate > 0) ? (long) (connections * 1e9 / rate) : 0;
+        long next = start + ((interval > 0) ? random.nextLong(interval) : 0);
+        int line = id;
+        int totalWeight = Arrays.stream(mix).sum();
+
+        while (System.nanoTime() < end) {
+            try (Session session = new Session(id)) {
+                while (true) {
+                    if (interval > 0) {
+                        long wait;
+                        while ((wait = next - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    } else {
+                        next = System.nanoTime();
+                    }
+                    if (next >= end) {
+                        return;
+                    }
+
+                    String request;
+                    int command;
+                    if (script != null) {
+                        request = script.get(line++ % script.size());
+                        command = command(request);
+                    } else {
+                        command = pick(random, totalWeight);
+                        request = (command == 0 || command == 4) ? COMMANDS[command] : COMMANDS[command] + " "
+                                + random.nextInt(session.sizeX) + " " + random.nextInt(session.sizeY);
+                    }
+
+                    boolean exploded = session.request(request);
+                    long latency = System.nanoTime() - next;
+                    if (next >= measureFrom) {
+                        latencies[command].record(latency);
+                        all.record(latency);
+                    }
+                    next += interval;
+                    if (exploded) {
+                        explosions.increment();
+                        break;
+                    }
+                }
+            } catch (IOException ioe) {
+                int error = (ioe instanceof SocketTimeoutException) ? TIMEOUT
+                        : (ioe instanceof ClosedException) ? CLOSED
+                        : (ioe instanceof ConnectException) ? REFUSED : IO;
+                errors[error].increment();
+                try {
+                    Thread.sleep(RECONNECT_PAUSE_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                // requests that should have been sent meanwhile are skipped, not sent in a burst
+                if (interval > 0) {
+                    long now = System.nanoTime();
+                    if (next < now) {
+                        next += ((now - next) / interval + 1) * interval;
+                    }
+                }
+            }
+        }
+    }
+
+    private int pick(SplittableRandom random, int totalWeight) {
+        int r = random.nextInt(totalWeight);
+        for (int c = 0; c < mix.length; c++) {
+            r -= mix[c];
+            if (r < 0) {
+                return c;
+            }
+        }
+        return OTHER;
+    }
+
+    private static int command(String request) {
+        String word = request.split(" ", 2)[0];
+        for (int c = 0; c < OTHER; c++) {
+            if (COMMANDS[c].equals(word)) {
+                return c;
+            }
+        }
+        return OTHER;
+    }
+
+    private void report() {
+
+        double measured = seconds;
+        System.out.printf("%-8s %10s %12s %10s %10s %10s %10s %10s%n", "command", "requests", "requests/s",
+                "mean us", "p50 us", "p99 us", "p99.9 us", "max us");
+        List<String> names = new ArrayList<>(Arrays.asList(COMMANDS));
+        names.add("all");
+        for (int c = 0; c < names.size(); c++) {
+            LatencyHistogram histogram = (c < COMMANDS.length) ? latencies[c] : all;
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            System.out.printf("%-8s %10d %12.0f %10d %10d %10d %10d %10d%n", names.get(c), histogram.getCount(),
+                    histogram.getCount() / measured, histogram.getMean() / 1000,
+                    histogram.getPercentile(0.5) / 1000, histogram.getPercentile(0.99) / 1000,
+                    histogram.getPercentile(0.999) / 1000, histogram.getMax() / 1000);
+        }
+
+        StringBuilder line = new StringBuilder("errors:");
+        for (int e = 0; e < ERRORS.length; e++) {
+            line.append(' ').append(ERRORS[e]).append(' ').append(errors[e].sum()).append(',');
+        }
+        line.append(" explosions ").append(explosions.sum()).append(", logins ").append(logins.sum());
+        System.out.println(line);
+        if (rate > 0 && all.getCount() < rate * measured * 0.95) {
+            System.out.println("the server answered less than 95% of the target rate");
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package minesweeper.server;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import minesweeper.BoardStorage;
+import minesweeper.GameBoard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of Protocol.handleRequest() end to end, from the request line to the response text,
+ * without the network: "look", flag and deflag moves answered with the board, moves of a client in
+ * delta mode answered with the move message alone, a batch of BATCH_SIZE of those moves, and "help".
+ * <br> Usage, with jmh-core and jmh-generator-annprocess on the class path when compiling and running:
+ *      ProtocolBenchmark [JMH OPTIONS]
+ * <br> E.g. "ProtocolBenchmark -p size=100 -f 2" benchmarks games of 100x100 squares in two forks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+
+    private static final long SEED = 6005;
+    /** Moves in a batch request. */
+    private static final int BATCH_SIZE = 16;
+
+    /** Client in delta mode, which drops the deltas pushed to it. */
+    private static class DeltaClient implements Client {
+
+        private final Player player = new Player("bench");
+
+        @Override
+        public void push(String message) {
+        }
+
+        @Override
+        public Player getPlayer() {
+            return player;
+        }
+
+        @Override
+        public void joined(Protocol game) {
+        }
+    }
+
+    /**
+     * A game on a random board a third of whose squares have been dug, and flag requests on squares of it.
+     */
+    @State(Scope.Thread)
+    public static class Game {
+
+        @Param({"ARRAY", "BITSET", "STRIPED"})
+        public BoardStorage storage;
+        @Param({"10", "100"})
+        public int size;
+
+        Protocol protocol;
+        Client client;
+        String[] flags;
+        String[] deflags;
+        String batch;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            SplittableRandom random = new SplittableRandom(SEED);
+            GameBoard board = storage.newBoard(size, size, SEED);
+            protocol = new GameRegistry(null, false, storage, 0).register(board);
+            for (int move = 0; move < size * size / 3; move++) {
+                board.setSquare(random.nextInt(size), random.nextInt(size), "dug", false);
+            }
+            client = new DeltaClient();
+            protocol.addPlayer(client.getPlayer());
+            protocol.handleRequest("delta on", client);
+
+            flags = new String[64];
+            deflags = new String[flags.length];
+            for (int i = 0; i < flags.length; i++) {
+                int x = random.nextInt(size);
+                int y = random.nextInt(size);
+                flags[i] = "flag " + x + " " + y;
+                deflags[i] = "deflag " + x + " " + y;
+            }
+            StringBuilder moves = new StringBuilder("batch ");
+            for (int i = 0; i < BATCH_SIZE; i += 2) {
+                moves.append(flags[i]).append("; ").append(deflags[i]).append(i + 2 < BATCH_SIZE ? "; " : "");
+            }
+            batch = moves.toString();
+        }
+
+        /**
+         * @return the next flag request, followed by the deflag request of the same square, so the board
+         *         changes at every move without running out of squares.
+         */
+        String nextMove() {
+            int i = next++;
+            return ((i & 1) == 0 ? flags : deflags)[(i >> 1) & (flags.length - 1)];
+        }
+    }
+
+    @Benchmark
+    public String look(Game game) {
+        return game.protocol.handleRequest("look");
+    }
+
+    @Benchmark
+    public String help(Game game) {
+        return game.protocol.handleRequest("help");
+    }
+
+    @Benchmark
+    public String moveAnsweredWithBoard(Game game) {
+        return game.protocol.handleRequest(game.nextMove());
+    }
+
+    @Benchmark
+    public String moveInDeltaMode(Game game) {
+        return game.protocol.handleRequest(game.nextMove(), game.client);
+    }
+
+    @Benchmark
+    public String batchInDeltaMode(Game game) {
+        return game.protocol.handleRequest(game.batch, game.client);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] options = new String[args.length + 1];
+        options[0] = ProtocolBenchmark.class.getName();
+        System.arraycopy(args, 0, options, 1, args.length);
+        org.openjdk.jmh.Main.main(options);
+    }
+}
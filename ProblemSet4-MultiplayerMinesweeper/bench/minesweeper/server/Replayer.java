@@ -0,0 +1,113 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+import minesweeper.BoardStorage;
+import minesweeper.GameBoard;
+
+/**
+ * Headless replayer of the games recorded by a server started with --record, to debug them offline and
+ * to measure GameBoard.setSquare() on the moves of real games instead of random ones.
+ * <p>
+ * Every recording is replayed ROUNDS times, each time on a new board, as fast as the board takes the moves,
+ * without any server, socket or protocol in the way. The first WARMUP rounds are not measured. Making the
+ * board is not measured either. Every round must end in the same board, whose version and number of active
+ * bombs are reported with the moves per second and the nanoseconds per move, which are reported for the
+ * moves of every recording together too.
+ * <br> Usage:
+ *      Replayer [--storage array|bitset|striped] [--rounds ROUNDS] [--warmup WARMUP] RECORDING...
+ * <br> --storage replays on boards stored another way than the recorded ones, which must have been recorded
+ *      by their placement, or stored in any way but chunked.
+ * <br> E.g. "Replayer --storage striped --rounds 50 recordings/game-*.rec"
+ */
+public class Replayer {
+
+    public static void main(String[] args) throws IOException {
+
+        BoardStorage storage = null;
+        int rounds = 20;
+        int warmup = 5;
+        List<Path> files = new ArrayList<>();
+
+        Queue<String> arguments = new LinkedList<>(Arrays.asList(args));
+        try {
+            while ( ! arguments.isEmpty()) {
+                String flag = arguments.remove();
+                if (flag.equals("--storage")) {
+                    storage = BoardStorage.valueOf(arguments.remove().toUpperCase());
+                } else if (flag.equals("--rounds")) {
+                    rounds = Integer.parseInt(arguments.remove());
+                } else if (flag.equals("--warmup")) {
+                    warmup = Integer.parseInt(arguments.remove());
+                } else if (flag.startsWith("--")) {
+                    throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
+                } else {
+                    files.add(Paths.get(flag));
+                }
+            }
+            if (rounds < 1 || warmup < 0 || files.isEmpty()) {
+                throw new IllegalArgumentException("rounds must be positive, warmup not negative, and a recording given");
+            }
+        } catch (NoSuchElementException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: Replayer [--storage array|bitset|striped] [--rounds ROUNDS] [--warmup WARMUP] "
+                    + "RECORDING...");
+            return;
+        }
+
+        long totalMoves = 0;
+        long totalNanos = 0;
+        for (Path file : files) {
+            GameRecorder.Recording recording = GameRecorder.read(file);
+            BoardStorage replayedOn = (storage == null) ? recording.getStorage() : storage;
+            String expected = null;
+            long moves = 0;
+            long nanos = 0;
+            GameBoard board = null;
+            for (int round = 0; round < warmup + rounds; round++) {
+                board = recording.newBoard(replayedOn);
+                long start = System.nanoTime();
+                recording.replay(board);
+                long elapsed = System.nanoTime() - start;
+                String squares = board.toString();
+                if (expected == null) {
+                    expected = squares;
+                } else if ( ! expected.equals(squares)) {
+                    throw new IllegalStateException(file + ": round " + round + " ended in another board");
+                }
+                if (round >= warmup) {
+                    moves += recording.size();
+                    nanos += elapsed;
+                }
+            }
+            System.out.printf("%s: %d x %d %s, %d moves over %.1f s, version %d, %d active bombs, "
+                            + "%.0f moves/s, %.1f ns/move%n",
+                    file, recording.getSizeX(), recording.getSizeY(), replayedOn.name().toLowerCase(),
+                    recording.size(), (recording.size() == 0) ? 0.0
+                            : (recording.getTime(recording.size() - 1) - recording.getStart()) / 1000.0,
+                    board.getVersion(), board.getNumberActiveBombs(), rate(moves, nanos), perMove(moves, nanos));
+            totalMoves += moves;
+            totalNanos += nanos;
+        }
+        if (files.size() > 1) {
+            System.out.printf("total: %d moves replayed, %.0f moves/s, %.1f ns/move%n",
+                    totalMoves, rate(totalMoves, totalNanos), perMove(totalMoves, totalNanos));
+        }
+    }
+
+    private static double rate(long moves, long nanos) {
+        return (nanos == 0) ? 0 : moves * 1e9 / nanos;
+    }
+
+    private static double perMove(long moves, long nanos) {
+        return (moves == 0) ? 0 : (double) nanos / moves;
+    }
+}
@@ -0,0 +1,394 @@
+package minesweeper;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A GameBoard that stores the bombs in a packed bitset and keeps the number of neighboring bombs of
+ * every square precomputed, instead of counting the bombs around a square on every dig. Digging a square, with or
+ * without propagation, takes constant time per square revealed and allocates nothing once the flood
+ * fill queue has grown to the size the board needs.
+ * <p>
+ * It behaves exactly like Board: same dimensions allowed, same results from setSquare, same text
+ * from toString and the same active bomb count.
+ */
+public class BitBoard implements GameBoard {
+
+    /**
+     * Abstraction function:
+     * Represents a board from the game Minesweeper. The square (x, y) has index i = x*sizeY + y.
+     * Its state is the character squares[i], it contains a bomb iff bit i of bombs is set, and it has
+     * counts[i] neighboring bombs.
+     * <p>
+     * Rep invariant:
+     * squares.length == counts.length == sizeX*sizeY, and bombs has at least sizeX*sizeY bits.
+     * Every square has one of the 4 valid states.
+     * counts[i] is the number of set bits of bombs among the neighbors of i.
+     * activeBombCount is the number of bombs whose square is not flagged.
+     * <p>
+     * Safety from rep exposure:
+     * sizeX, sizeY are final. All other fields are private, and the arrays and the queue are never returned:
+     * getBombLocations() builds new Bomb objects and toString() copies the states into a new String.
+     * <p>
+     * Thread safety:
+     * sizeX, sizeY are immutable. All other fields are read and mutated exclusively under synchronized
+     * methods, except version and snapshot. Private methods are called only by synchronized methods.
+     * version and snapshot are volatile and written only while holding the lock of this, so getVersion()
+     * and getSnapshot() read them without the lock. snapshot is immutable.
+     * <p>
+     * BitBoard is mutable, so two boards are equal only if they are the same object, as defined by Object.
+     */
+
+    private final int sizeX;
+    private final int sizeY;
+    private final long[] bombs;
+    private final byte[] counts;
+    private final byte[] squares;
+    private int activeBombCount;
+    /** Number of calls to setSquare that modified the board. Written only under the lock of this. */
+    private volatile long version = 0;
+    /** Snapshot of the board at some version, rebuilt by getSnapshot() once the board has changed. */
+    private volatile BoardSnapshot snapshot;
+    /** Squares waiting to propagate during a flood fill, reused by every dig. */
+    private final IntQueue frontier = new IntQueue(64);
+
+    /**
+     * Make a board without bombs, or with bombs placed randomly if populate is true.
+     *
+     * @param sizeX number of lines, requires MIN_SIZE <= sizeX <= MAX_SIZE.
+     * @param sizeY number of squares per line, requires MIN_SIZE <= sizeY <= MAX_SIZE.
+     * @param populate whether bombs are placed randomly, with a density of 0.2.
+     */
+    public BitBoard(int sizeX, int sizeY, boolean populate) {
+        this(sizeX, sizeY, List.of());
+        if (populate) {
+            this.populate(0.2);
+        }
+    }
+
+    /**
+     * Make a board with bombs in the given locations.
+     *
+     * @param sizeX number of lines, requires MIN_SIZE <= sizeX <= MAX_SIZE.
+     * @param sizeY number of squares per line, requires MIN_SIZE <= sizeY <= MAX_SIZE.
+     * @param bombLocations locations of the bombs, each inside the grid.
+     */
+    public BitBoard(int sizeX, int sizeY, List<Bomb> bombLocations) {
+        this(sizeX, sizeY, new BitSet());
+        for (Bomb bomb : bombLocations) {
+            placeBomb(bomb.getX() * sizeY + bomb.getY());
+        }
+        checkRep();
+    }
+
+    /**
+     * Make a board with a bomb in every square (x, y) whose index x*sizeY + y is set in bombs, as
+     * loaded by BoardFile, without making a Bomb object per bomb.
+     *
+     * @param sizeX number of lines, requires MIN_SIZE <= sizeX <= MAX_SIZE.
+     * @param sizeY number of squares per line, requires MIN_SIZE <= sizeY <= MAX_SIZE.
+     * @param bombs indices of the squares with a bomb, each less than sizeX*sizeY. Not modified.
+     */
+    public BitBoard(int sizeX, int sizeY, BitSet bombs) {
+
+        if(sizeX < MIN_SIZE || sizeX > MAX_SIZE || sizeY < MIN_SIZE || sizeY > MAX_SIZE) {
+            throw new RuntimeException("These dimensions are not allowed");
+        }
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.bombs = new long[(sizeX * sizeY + 63) / 64];
+        this.counts = new byte[sizeX * sizeY];
+        this.squares = new byte[sizeX * sizeY];
+        Arrays.fill(squares, (byte) '-');
+
+        for (int i = bombs.nextSetBit(0); i >= 0; i = bombs.nextSetBit(i + 1)) {
+            placeBomb(i);
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert squares.length == sizeX * sizeY;
+        assert counts.length == sizeX * sizeY;
+        assert bombs.length * 64 >= sizeX * sizeY;
+        assert activeBombCount >= 0;
+    }
+
+    /**
+     * Sets the state of every square and the version, restoring a board saved at that version. Requires a
+     * new board, made with the bombs the saved board had, and no moves made on it yet.
+     *
+     * @param packed states of the squares, packed as BoardSnapshot.getPackedSquares() packs them.
+     * @param version version of the saved board.
+     */
+    synchronized void restore(ByteBuffer packed, long version) {
+        for (int i = 0; i < squares.length; i++) {
+            squares[i] = (byte) BoardSnapshot.unpack(packed, i);
+            if (squares[i] == 'F' && hasBomb(i)) {
+                activeBombCount--;
+            }
+        }
+        this.version = version;
+        checkRep();
+    }
+
+    @Override
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    @Override
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    private boolean hasBomb(int i) {
+        return (bombs[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /**
+     * Adds a bomb to the square with index i, if it doesn't have one already, and updates the
+     * counts of its neighbors.
+     */
+    private void placeBomb(int i) {
+        if (hasBomb(i)) {
+            return;
+        }
+        bombs[i >>> 6] |= 1L << i;
+        activeBombCount++;
+        addToNeighborCounts(i, 1);
+    }
+
+    /**
+     * Removes the bomb in the square with index i and updates the counts of its neighbors.
+     */
+    private void removeBomb(int i) {
+        bombs[i >>> 6] &= ~(1L << i);
+        addToNeighborCounts(i, -1);
+    }
+
+    private void addToNeighborCounts(int i, int delta) {
+        int x = i / sizeY;
+        int y = i % sizeY;
+        for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, sizeX - 1); nx++) {
+            for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, sizeY - 1); ny++) {
+                if (nx != x || ny != y) {
+                    counts[nx * sizeY + ny] += delta;
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized String setSquare(int X, int Y, String command, boolean propagate, BoardListener listener)
+            throws RuntimeException {
+        if (listener != null) {
+            listener.locked();
+        }
+
+        if(X < 0 || Y < 0 || X >= sizeX || Y >= sizeY) {
+            throw new RuntimeException("Out of bounds square");
+        }
+
+        String outcome = "false";
+        if (command.equals("dug")) {
+            outcome = setDug(X * sizeY + Y, propagate, listener);
+        } else if (command.equals("flagged")) {
+            outcome = setFlagged(X * sizeY + Y, listener) ? "true" : "false";
+        }
+
+        if (!outcome.equals("false")) {
+            version++;
+            if (listener != null) {
+                listener.moveApplied(version, activeBombCount);
+            }
+        }
+        return outcome;
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public BoardSnapshot getSnapshot() {
+
+        BoardSnapshot current = snapshot;
+        if (current != null && current.getVersion() == version) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null || snapshot.getVersion() != version) {
+                snapshot = new BoardSnapshot(version, toString());
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Toggles the square with index i between untouched and flagged, keeping activeBombCount.
+     *
+     * @return Whether the status was successfully changed.
+     */
+    private boolean setFlagged(int i, BoardListener listener) {
+
+        if (squares[i] == '-') {
+            setState(i, (byte) 'F', listener);
+            if (hasBomb(i)) {
+                activeBombCount--;
+            }
+            checkRep();
+            return true;
+
+        } else if (squares[i] == 'F') {
+            setState(i, (byte) '-', listener);
+            if (hasBomb(i)) {
+                activeBombCount++;
+            }
+            checkRep();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Digs the untouched square with index i, revealing its count. If propagate is true and it has
+     * no neighboring bombs, the flood fill digs its neighbors too. A bomb in the square is removed.
+     *
+     * @return "bomb" if a bomb was found. "true" if the square was dug without finding a bomb.
+     * "false" if the board was not modified.
+     */
+    private String setDug(int i, boolean propagate, BoardListener listener) {
+
+        if (squares[i] != '-') {
+            return "false";
+        }
+
+        if (propagate && counts[i] == 0) {
+            floodFill(i, listener);
+        } else {
+            reveal(i, listener);
+        }
+
+        if (hasBomb(i)) {
+            removeBomb(i);
+            activeBombCount--;
+            checkRep();
+            return "bomb";
+        }
+        checkRep();
+        return "true";
+    }
+
+    private void reveal(int i, BoardListener listener) {
+        setState(i, (counts[i] == 0) ? (byte) ' ' : (byte) ('0' + counts[i]), listener);
+    }
+
+    /**
+     * Sets the state of the square with index i, telling the listener, if not null, when it changes.
+     */
+    private void setState(int i, byte state, BoardListener listener) {
+        if (squares[i] != state) {
+            squares[i] = state;
+            if (listener != null) {
+                listener.squareChanged(i / sizeY, i % sizeY, (char) state);
+            }
+        }
+    }
+
+    private static boolean isUntouchedOrCount(byte square) {
+        return square == '-' || (square >= '1' && square <= '8');
+    }
+
+    /**
+     * Digs the square with index i, which has no neighboring bombs, and every untouched square
+     * reachable from it through squares without neighboring bombs, breadth first. Every square is
+     * queued at most once, since it is revealed before being queued, so the revealed squares double as
+     * the visited bitmap.
+     * <p>
+     * As in Board, squares already showing a count are refreshed too: a count made stale by a bomb
+     * dug next to it is updated, and if it dropped to zero the flood fill goes on through it.
+     */
+    private void floodFill(int i, BoardListener listener) {
+
+        frontier.clear();
+        reveal(i, listener);
+        frontier.add(i);
+
+        while (!frontier.isEmpty()) {
+            int current = frontier.poll();
+            int x = current / sizeY;
+            int y = current % sizeY;
+
+            for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, sizeX - 1); nx++) {
+                for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, sizeY - 1); ny++) {
+                    int neighbor = nx * sizeY + ny;
+                    if (!isUntouchedOrCount(squares[neighbor])) {
+                        continue;
+                    }
+                    reveal(neighbor, listener);
+                    if (counts[neighbor] == 0) {
+                        frontier.add(neighbor);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized int getNumberActiveBombs() {
+        return activeBombCount;
+    }
+
+    @Override
+    public synchronized List<Bomb> getBombLocations() {
+        List<Bomb> locations = new ArrayList<>();
+        for (int i = 0; i < squares.length; i++) {
+            if (hasBomb(i)) {
+                Bomb bomb = new Bomb(i / sizeY, i % sizeY);
+                bomb.setFlag(squares[i] == 'F');
+                locations.add(bomb);
+            }
+        }
+        return locations;
+    }
+
+    @Override
+    public synchronized String toString() {
+
+        StringBuilder result = new StringBuilder(32 + sizeX * (sizeY * 3 + 2));
+        result.append("\r\nSize: ").append(sizeX).append("x").append(sizeY)
+                .append(" Bombs: ").append(activeBombCount).append("\r\n");
+
+        for (int x = 0; x < sizeX; x++) {
+            result.append('[');
+            for (int y = 0; y < sizeY; y++) {
+                if (y > 0) {
+                    result.append(", ");
+                }
+                result.append((char) squares[x * sizeY + y]);
+            }
+            result.append("]\r\n");
+        }
+        return result.toString();
+    }
+
+    /**
+     * Places (int) (sizeX*sizeY*density) bombs in random squares, so that no square has two bombs,
+     * where a BombPlacement with a random seed puts them.
+     * @param density desired density for the bombs.
+     */
+    private void populate(double density) {
+
+        BitSet placed = new BombPlacement(density, new Random().nextLong(), false).place(sizeX, sizeY);
+        for (int i = placed.nextSetBit(0); i >= 0; i = placed.nextSetBit(i + 1)) {
+            placeBomb(i);
+        }
+        checkRep();
+    }
+}
@@ -3,15 +3,20 @@
  */
 package minesweeper;
 
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 
 import java.util.Random;
 
 /**
  * Given horizontal and vertical sizes, it represents a board of the game minesweeper. Minimum
- * and maximum dimensions are 5x5 and 30x16, respectively.
+ * and maximum dimensions are MIN_SIZE x MIN_SIZE and MAX_SIZE x MAX_SIZE, respectively.
+ * The bombs are kept in a bitset indexed by square, so finding whether a square has a bomb takes
+ * constant time however many bombs the board has.
  * <p>
  * The board is composed of X lines, each with Y squares. Every square can represent 4
  * states: untouched, flagged, dug and count. (Where count displays the number of neighboring bombs, and
@@ -20,20 +25,27 @@ import java.util.Random;
  * The coordinates (0,0) start in the top-left corner. X coordinates increase downwards. Y coordinates
  * increase rightwards.
  */
-public class Board {
+public class Board implements GameBoard {
 
     /**
      * Abstraction function:
-     * Represents a board from the game Minesweeper.
+     * Represents a board from the game Minesweeper. The square (x, y) has a bomb iff bit x*sizeY + y of
+     * bombs is set; a bomb is flagged iff its square is 'F'. bombLocations lists the same bombs, in the
+     * order of their squares.
      * <p>
      * Rep invariant:
      * The original number of rows and columns must be maintained.
      * A square must have any of the 4 valid states.
      * activeBombCount and the board must account for the same number of ACTIVE bombs (not flagged or detonated).
+     * bombs has no bit set at or above sizeX*sizeY. bombList, if not null, lists the bombs of bombs.
+     * If pendingPlacement is not null, no square has been dug, bombs is empty, and activeBombCount is the
+     * number of bombs it will place.
      * <p>
      * Safety from rep exposure:
      * sizeX, sizeY are final.
-     * The reference to board, activeBombCount and bombLocations are final.
+     * The reference to board, activeBombCount and bombLocations are final. bombs and bombList are private,
+     * bombLocations and getBombLocations() only hand out Bomb objects made from them, and bombLocations
+     * is read-only.
      * Mutations to the board are exclusively performed from setSquare, which calls the required methods
      * as necessary. All other methods are private.
      * getNumberActiveBombs() is the getter for activeBombCount, which doesn't expose how the number
@@ -42,17 +54,40 @@ public class Board {
      * Thread safety:
      * sizeX, sizeY are immutable. So they do not pose a risk of interleaving.
      * The reference to board is final. board can only be mutated under synchronized methods, which is thread safe.
-     * The reference to bombLocations is final, and mutations are perform exclusively under synchronized methods.
+     * bombs and bombList are only read and written under the lock of this, including by the methods of
+     * bombLocations.
      * Reads from and mutations to activeBombCount are performed exclusively under synchronized methods.
      * methods toString(), equals(), hashCode() are synchronized.
+     * version is volatile and only incremented by setSquare, which is synchronized, so getVersion() reads
+     * it without the lock. snapshot is volatile and immutable, getSnapshot() returns it without the lock
+     * while its version is current, and replaces it while holding the lock otherwise.
      * getNumberActiveBombs() is synchronized and is a getter to activeBombCounter.
      * All other methods are private and called only by setSquare, which is a synchronized method.
+     * visited, frontier and marked are confined to propagate, called only under the lock of this.
      */
     public final int sizeX;
     public final int sizeY;
     public final char[][] board;
-    public final ArrayList<Bomb> bombLocations = new ArrayList<>();
+    /**
+     * Read-only view of the bombs, for debug output and tests. Reading it lists the bombs if they changed
+     * since it was last read.
+     */
+    public final List<Bomb> bombLocations = new BombList();
+    private final BitSet bombs;
+    /** Bombs listed by bombLocations, or null until it is read after a change of the bombs. */
+    private List<Bomb> bombList;
+    /** Placement of the bombs, until they are placed by the first dig, then null. */
+    private BombPlacement pendingPlacement;
     private int activeBombCount;
+    /** Number of calls to setSquare that modified the board. Written only under the lock of this. */
+    private volatile long version = 0;
+    /** Snapshot of the board at some version, rebuilt by getSnapshot() once the board has changed. */
+    private volatile BoardSnapshot snapshot;
+    /** Squares visited by the current propagation, cleared after it, reused by every dig. */
+    private final BitSet visited = new BitSet();
+    /** Squares waiting to propagate, and squares to clear from visited after it, reused by every dig. */
+    private final IntQueue frontier = new IntQueue(64);
+    private final IntQueue marked = new IntQueue(64);
     private final ArrayList<Character> counterCharacters = new ArrayList<>(List.of('-', '1', '2', '3', '4', '5', '6', '7', '8'));
     private final ArrayList<Character> allValidStates = new ArrayList<>(List.of(' ', 'F', '-', '1', '2', '3', '4', '5', '6', '7', '8'));
     public Board(int sizeX, int sizeY, boolean populate) {
@@ -60,20 +95,21 @@ public class Board {
     }
     public Board(int sizeX, int sizeY, boolean populate, final ArrayList<Bomb> bombLocations, int activeBombCount) {
 
-        if(sizeX < 5 || sizeX > 30 || sizeY < 5 || sizeY > 16) {
+        if(sizeX < MIN_SIZE || sizeX > MAX_SIZE || sizeY < MIN_SIZE || sizeY > MAX_SIZE) {
             throw new RuntimeException("These dimensions are not allowed");
         } else {
 
             this.sizeX = sizeX;
             this.sizeY = sizeY;
             this.board = new char[sizeX][sizeY];
+            this.bombs = new BitSet(sizeX * sizeY);
 
 
             if(bombLocations != null) {
 
-                this.bombLocations.addAll(bombLocations);
-                System.out.println(Arrays.toString(bombLocations.toArray()));
-                System.out.println(Arrays.toString((this.bombLocations.toArray())));
+                for (Bomb bomb : bombLocations) {
+                    bombs.set(bomb.getX() * sizeY + bomb.getY());
+                }
                 this.activeBombCount = activeBombCount;
 
             } else {
@@ -90,6 +126,39 @@ public class Board {
         }
         checkRep();
     }
+
+    /**
+     * Make a board with a bomb in every square (x, y) whose index x*sizeY + y is set in bombs, as
+     * loaded by BoardFile, without making a Bomb object per bomb.
+     *
+     * @param sizeX number of lines, requires MIN_SIZE <= sizeX <= MAX_SIZE.
+     * @param sizeY number of squares per line, requires MIN_SIZE <= sizeY <= MAX_SIZE.
+     * @param bombs indices of the squares with a bomb, each less than sizeX*sizeY. Not modified.
+     */
+    public Board(int sizeX, int sizeY, BitSet bombs) {
+        this(sizeX, sizeY, false);
+        this.bombs.or(bombs);
+        this.activeBombCount = bombs.cardinality();
+    }
+
+    /**
+     * Make a board with bombs placed as placement says, right away, or once the first square is dug if
+     * placement.isFirstClickSafe().
+     *
+     * @param sizeX number of lines, requires MIN_SIZE <= sizeX <= MAX_SIZE.
+     * @param sizeY number of squares per line, requires MIN_SIZE <= sizeY <= MAX_SIZE.
+     * @param placement where the bombs go.
+     */
+    public Board(int sizeX, int sizeY, BombPlacement placement) {
+        this(sizeX, sizeY, false);
+        if (placement.isFirstClickSafe()) {
+            this.pendingPlacement = placement;
+            this.activeBombCount = placement.count(sizeX, sizeY);
+        } else {
+            this.bombs.or(placement.place(sizeX, sizeY));
+            this.activeBombCount = bombs.cardinality();
+        }
+    }
     private void checkRep() {
 
         //dimensions of the grid are guarantee by the immutability of an array.
@@ -102,16 +171,95 @@ public class Board {
             }
         }
     }
+    @Override
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    @Override
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    /**
+     * Sets the state of every square and the version, restoring a board saved at that version. Requires a
+     * new board, made with the bombs the saved board had, and no moves made on it yet.
+     *
+     * @param packed states of the squares, packed as BoardSnapshot.getPackedSquares() packs them.
+     * @param version version of the saved board.
+     */
+    synchronized void restore(ByteBuffer packed, long version) {
+        for (int x = 0; x < sizeX; x++) {
+            for (int y = 0; y < sizeY; y++) {
+                board[x][y] = BoardSnapshot.unpack(packed, x * sizeY + y);
+                if (board[x][y] == 'F' && bombs.get(x * sizeY + y)) {
+                    activeBombCount--;
+                }
+            }
+        }
+        this.version = version;
+        bombList = null;
+        checkRep();
+    }
+
+    @Override
+    public synchronized List<Bomb> getBombLocations() {
+        List<Bomb> copy = new ArrayList<>(bombs.cardinality());
+        for (int i = bombs.nextSetBit(0); i >= 0; i = bombs.nextSetBit(i + 1)) {
+            Bomb bomb = new Bomb(i / sizeY, i % sizeY);
+            bomb.setFlag(board[i / sizeY][i % sizeY] == 'F');
+            copy.add(bomb);
+        }
+        return copy;
+    }
+
+    /**
+     * bombLocations: a read-only list of the bombs, made from bombs only when it is read after they
+     * changed. Bombs leave the board only when they are dug, through setSquare.
+     */
+    private class BombList extends AbstractList<Bomb> {
+
+        @Override
+        public Bomb get(int index) {
+            synchronized (Board.this) {
+                if (bombList == null) {
+                    bombList = getBombLocations();
+                }
+                return bombList.get(index);
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized (Board.this) {
+                return bombs.cardinality();
+            }
+        }
+
+        @Override
+        public boolean remove(Object obj) {
+            throw new UnsupportedOperationException("the bombs of a board are read-only");
+        }
+    }
+
     @Override
     public synchronized String toString() {
-        String result;
 
-        result = "\r\nSize: " + sizeX + "x" + sizeY + " Bombs: " + activeBombCount + "\r\n";
+        StringBuilder result = new StringBuilder(32 + sizeX * (sizeY * 3 + 2));
+        result.append("\r\nSize: ").append(sizeX).append("x").append(sizeY)
+                .append(" Bombs: ").append(activeBombCount).append("\r\n");
 
         for(char[] arr : board) {
-            result = result + Arrays.toString(arr) + "\r\n";
+            result.append('[');
+            for (int y = 0; y < arr.length; y++) {
+                if (y > 0) {
+                    result.append(", ");
+                }
+                result.append(arr[y]);
+            }
+            result.append("]\r\n");
         }
-        return result;
+        return result.toString();
     }
 
     /**
@@ -135,19 +283,19 @@ public class Board {
 
         final Board other = (Board) obj;
 
-        return ((this.board == other.board) && (this.bombLocations == other.bombLocations));
+        return ((this.board == other.board) && (this.bombs == other.bombs));
     }
 
     /**
      * Two objects which are considered equal must calculate equal hashes.
      * Since we define equality of Board objects as having equal boards and bomb's qualities (location and quantity),
-     * we hash using board and bombLocations fields only.
+     * we hash using board and bombs fields only.
      *
      * @return int representing a hash for this object.
      */
     @Override
     public synchronized int hashCode() {
-        return Arrays.deepHashCode(this.board) + this.bombLocations.hashCode();
+        return Arrays.deepHashCode(this.board) + this.bombs.hashCode();
     }
 
     /**
@@ -155,7 +303,8 @@ public class Board {
      * new state indicated by the command parameter.
      * <p>
      * This method is the public interface for the setFlagged, setDug, setCount
-     * methods. setSquare makes all of this methods thread safe.
+     * methods. setSquare makes all of this methods thread safe, and checks the rep once they are done,
+     * rather than every helper checking the whole board after each square it changes.
      * <p>
      *
      * The square specified by X, Y must be INSIDE the grid OR be a boundary square. Otherwise, a
@@ -169,74 +318,101 @@ public class Board {
      * @param X coordinate on the X axis.
      * @param Y coordinate on the Y axis.
      * @param command A String equal to: flagged, dug or count.
+     * @param listener told about every square whose state changes, or null.
      *
      * @return "bomb", "true" or "false", as explained above.
      * @throws RuntimeException when the coordinates are not inside the grid or part of a boundary.
      */
-
-    public synchronized String setSquare(int X, int Y, String command, boolean propagate) throws RuntimeException {
+    @Override
+    public synchronized String setSquare(int X, int Y, String command, boolean propagate, BoardListener listener)
+            throws RuntimeException {
+        if (listener != null) {
+            listener.locked();
+        }
         //TODO This use case is better fitted for an Enum datatype.
         if(X < 0 || Y < 0 || X >= sizeX || Y >= sizeY) {
             throw new RuntimeException("Out of bounds square");
         }
 
+        String outcome = "false";
         if(command.equals("dug")) {
-            return setDug(X, Y, propagate);
+            if (pendingPlacement != null) {
+                placeBombs(X, Y);
+            }
+            outcome = setDug(X, Y, propagate, listener);
 
         } else if(command.equals("flagged")) {
 
-            if (setFlagged(X, Y)) {
-                return "true";
+            if (setFlagged(X, Y, listener)) {
+                outcome = "true";
+            }
+        }
 
-            } else {
-                return "false";
+        if (!outcome.equals("false")) {
+            version++;
+            if (listener != null) {
+                listener.moveApplied(version, activeBombCount);
+            }
+        }
+        checkRep();
+        return outcome;
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public BoardSnapshot getSnapshot() {
+
+        BoardSnapshot current = snapshot;
+        if (current != null && current.getVersion() == version) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null || snapshot.getVersion() != version) {
+                snapshot = new BoardSnapshot(version, toString());
             }
+            return snapshot;
         }
-        return "false";
     }
 
     /**
      * Sets the status of the square indicated by the given coordinates
-     * to be flagged. The method marks the bombs as tracked using the
-     * bombLocations array, and keeps track of remaining, active bombs
-     * using the activeBombCount field.
+     * to be flagged. A flagged bomb is a bomb whose square is flagged, and
+     * the method keeps track of remaining, active bombs using the activeBombCount field.
      * <p>
      * The square specified by X, Y must be INSIDE the grid OR be a boundary square.
      *
      * @param X coordinate on the X axis.
      * @param Y coordinate on the Y axis.
+     * @param listener told about the change, or null.
      * @return Whether the status was successfully changed.
      */
-    private boolean setFlagged(int X, int Y) {
+    private boolean setFlagged(int X, int Y, BoardListener listener) {
 
         char square = this.board[X][Y];
 
         if (square == '-') {
-            this.board[X][Y] = 'F';
+            setState(X, Y, 'F', listener);
 
-            int indexBomb = bombLocations.indexOf(new Bomb(X, Y));
-
-            if (indexBomb != -1) {
-                bombLocations.get(indexBomb).setFlag(true);
+            if (bombs.get(X * sizeY + Y)) {
+                bombList = null;
                 activeBombCount--;
             }
-            checkRep();
             return true;
 
         } else if(square == 'F') {
-            this.board[X][Y] = '-';
-
-            int indexBomb = bombLocations.indexOf(new Bomb(X, Y));
+            setState(X, Y, '-', listener);
 
-            if (indexBomb != -1) {
-                bombLocations.get(indexBomb).setFlag(false);
+            if (bombs.get(X * sizeY + Y)) {
+                bombList = null;
                 activeBombCount++;
             }
-            checkRep();
             return true;
 
         } else {
-            checkRep();
             return false;
         }
     }
@@ -244,36 +420,35 @@ public class Board {
     /**
      * Sets the status of the square indicated by the given coordinates
      * to be dug. Should the square contain a bomb, it returns a String "bomb" and removes
-     * the bomb from bombLocations and bombCount.
+     * the bomb from bombs and bombCount.
      * Otherwise, it will change the status from untouched to count, calling calculateCount and propagate.
      * <p>
      * The square specified by X, Y must be INSIDE the grid OR be a boundary square.
      *
      * @param X coordinate on the X axis.
      * @param Y coordinate on the Y axis.
+     * @param listener told about every square dug, or null.
      * @return "bomb" if a bomb was found at X, Y. "true" if we successfully changed the status to count, but a bomb was not found.
      * "false" if the board was not modified, and a bomb was not found.
      */
-    private String setDug(int X, int Y, boolean propagate) {
+    private String setDug(int X, int Y, boolean propagate, BoardListener listener) {
         //TODO This use case is better fitted for an Enum datatype.
         if(this.board[X][Y] == '-') {
 
             int nNearbyBombs = calculateCount(X, Y);
-            if(propagate) propagate(X, Y);
-            setCount(X, Y, nNearbyBombs);
+            if(propagate) propagate(X, Y, listener);
+            setCount(X, Y, nNearbyBombs, listener);
 
-            if (bombLocations.contains(new Bomb(X, Y))) {
-                bombLocations.remove(new Bomb(X, Y));
+            if (bombs.get(X * sizeY + Y)) {
+                bombs.clear(X * sizeY + Y);
+                bombList = null;
                 activeBombCount--;
 
-                checkRep();
                 return "bomb";
             } else {
-                checkRep();
                 return "true";
             }
         } else {
-            checkRep();
             return "false";
         }
     }
@@ -287,28 +462,45 @@ public class Board {
      * @param X coordinate on the X axis.
      * @param Y coordinate on the Y axis.
      * @param counter Integer to be displayed in the board.
+     * @param listener told about the change, or null.
      * @return true if it successfully replaced the character. Otherwise, false.
      */
-    private boolean setCount(int X, int Y, int counter) {
+    private boolean setCount(int X, int Y, int counter, BoardListener listener) {
 
         char square = this.board[X][Y];
 
         if(counterCharacters.contains(square)) {
 
             if(counter == 0) {
-                this.board[X][Y] = ' ';
+                setState(X, Y, ' ', listener);
             } else {
-                this.board[X][Y] = (char) (counter + '0');
+                setState(X, Y, (char) (counter + '0'), listener);
             }
-            checkRep();
             return true;
 
         } else {
-            checkRep();
             return false;
         }
     }
 
+    /**
+     * Sets the state of the square indicated by the given coordinates, telling the listener if it changed.
+     *
+     * @param X coordinate on the X axis.
+     * @param Y coordinate on the Y axis.
+     * @param state new state of the square.
+     * @param listener told about the change, or null.
+     */
+    private void setState(int X, int Y, char state, BoardListener listener) {
+
+        if (this.board[X][Y] != state) {
+            this.board[X][Y] = state;
+            if (listener != null) {
+                listener.squareChanged(X, Y, state);
+            }
+        }
+    }
+
     /**
      * Calculates the number of neighboring bombs in the 8-square grid
      * surround the given coordinate.
@@ -323,89 +515,118 @@ public class Board {
 
         int count = 0;
 
-            if (bombLocations.contains(new Bomb(X-1, Y))) count++;
-            if (bombLocations.contains(new Bomb(X-1, Y+1))) count++;
-            if (bombLocations.contains(new Bomb(X, Y+1))) count++;
-            if (bombLocations.contains(new Bomb(X+1, Y+1))) count++;
-            if (bombLocations.contains(new Bomb(X+1, Y))) count++;
-            if (bombLocations.contains(new Bomb(X+1, Y-1))) count++;
-            if (bombLocations.contains(new Bomb(X, Y-1))) count++;
-            if (bombLocations.contains(new Bomb(X-1, Y-1))) count++;
+            if (hasBomb(X-1, Y)) count++;
+            if (hasBomb(X-1, Y+1)) count++;
+            if (hasBomb(X, Y+1)) count++;
+            if (hasBomb(X+1, Y+1)) count++;
+            if (hasBomb(X+1, Y)) count++;
+            if (hasBomb(X+1, Y-1)) count++;
+            if (hasBomb(X, Y-1)) count++;
+            if (hasBomb(X-1, Y-1)) count++;
 
         return count;
     }
 
+    /**
+     * @return whether the square X, Y is inside the grid and has a bomb.
+     */
+    private boolean hasBomb(int X, int Y) {
+        return X >= 0 && Y >= 0 && X < sizeX && Y < sizeY && bombs.get(X * sizeY + Y);
+    }
+
     /**
      * Returns the number of bombs which have not been flagged or dug.
      *
      * @return int, the number of bombs which have not been or dug.
      */
+    @Override
     public synchronized int getNumberActiveBombs() {
         checkRep();
         return activeBombCount;
     }
 
     /**
-     * If the square x,y has no neighbor squares with bombs, then for each of x,y’s untouched
+     * If the square x,y has no neighbor squares with bombs, then for each of x,y's untouched
      * neighbor squares, change said square to dug and repeat this step (not the entire DIG procedure)
-     * recursively for said neighbor square unless said neighbor square was already dug before said change.
+     * for said neighbor square unless said neighbor square was already dug before said change.
+     * <p>
+     * The squares are visited breadth first from a queue instead of recursively, so the depth of the
+     * propagation is not limited by the stack. Every square is visited at most once. The visited bitmap
+     * and the queues are kept from one dig to the next, and only the bits this propagation set are cleared,
+     * so a dig costs the squares it reaches, not the size of the board.
      *
      * @param X x coordinate.
      * @param Y y coordinate.
+     * @param listener told about every square dug, or null.
      * @return It propagates the dug state, modifying the board array.
      */
-    private synchronized void propagate(int X, int Y) {
-
-        if(X >= board.length || Y >= board.length || X < 0 || Y < 0) {
-            return;
-        }
+    private void propagate(int X, int Y, BoardListener listener) {
 
-        if(counterCharacters.contains(this.board[X][Y])) {
+        frontier.clear();
+        marked.clear();
+        visited.set(X * sizeY + Y);
+        marked.add(X * sizeY + Y);
+        frontier.add(X * sizeY + Y);
 
-            if (calculateCount(X, Y) == 0) {
-                this.board[X][Y] = ' ';
+        while (!frontier.isEmpty()) {
+            int square = frontier.poll();
+            int x = square / sizeY;
+            int y = square % sizeY;
 
-                    propagate(X - 1, Y);
-                    propagate(X - 1, Y + 1);
-                    propagate(X, Y + 1);
-                    propagate(X + 1, Y + 1);
-                    propagate(X + 1, Y);
-                    propagate(X + 1, Y - 1);
-                    propagate(X, Y - 1);
-                    propagate(X - 1, Y - 1);
+            if (!counterCharacters.contains(this.board[x][y])) {
+                continue;
+            }
 
-            } else {
-                setCount(X, Y, calculateCount(X, Y));
-                checkRep();
-                return;
+            int count = calculateCount(x, y);
+            if (count != 0) {
+                setCount(x, y, count, listener);
+                continue;
             }
-        } else {
-            checkRep();
-            return;
+            setState(x, y, ' ', listener);
+
+            for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, sizeX - 1); nx++) {
+                for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, sizeY - 1); ny++) {
+                    int neighbor = nx * sizeY + ny;
+                    if (!visited.get(neighbor)) {
+                        visited.set(neighbor);
+                        marked.add(neighbor);
+                        frontier.add(neighbor);
+                    }
+                }
+            }
+        }
+        while (!marked.isEmpty()) {
+            visited.clear(marked.poll());
         }
     }
+    /**
+     * Places the bombs of pendingPlacement away from the square X, Y, dug first. Flagged squares which
+     * get a bomb are flagged bombs, which are not active.
+     *
+     * @param X coordinate on the X axis of the first square dug.
+     * @param Y coordinate on the Y axis of the first square dug.
+     */
+    private void placeBombs(int X, int Y) {
+
+        bombs.or(pendingPlacement.place(sizeX, sizeY, X, Y));
+        pendingPlacement = null;
+        bombList = null;
+        activeBombCount = 0;
+        for (int i = bombs.nextSetBit(0); i >= 0; i = bombs.nextSetBit(i + 1)) {
+            if (board[i / sizeY][i % sizeY] != 'F') {
+                activeBombCount++;
+            }
+        }
+    }
+
     /**
      * Given a desired density of bombs, the method computes the maximum number of bombs and
-     * places them in the grid. This method mutates the grid and the activeBombCount fields.
+     * places them in the grid, at random. This method mutates the grid and the activeBombCount fields.
      * @param density desired density for the bombs.
      */
     private synchronized void populate(double density) {
 
-        int nBombs = (int) ((sizeX*sizeY)*density);
-
-        Random random = new Random();
-        for (int count = 0; count < nBombs; count++) {
-            int row = random.nextInt(sizeX);
-            int col = random.nextInt(sizeY);
-
-            Bomb newBomb = new Bomb(row, col);
-
-            if(!bombLocations.contains(newBomb)) {
-                bombLocations.add(newBomb);
-            } else {
-                count--;
-            }
-        }
-        this.activeBombCount = nBombs;
+        bombs.or(new BombPlacement(density, new Random().nextLong(), false).place(sizeX, sizeY));
+        this.activeBombCount = bombs.cardinality();
     }
 }
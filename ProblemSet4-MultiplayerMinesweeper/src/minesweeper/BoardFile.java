@@ -0,0 +1,396 @@
+package minesweeper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * BoardFile is the layout of a board stored in a file: its size and where its bombs are. Files are
+ * read through a memory mapping, parsing the bytes in place, and written in either of two formats.
+ * <p>
+ * The text format, used with the "--file" option of the server, is specified by the following grammar:
+ * <pre>
+ *   FILE ::= BOARD LINE+
+ *   BOARD ::= X SPACE Y NEWLINE
+ *   LINE ::= (VAL SPACE)* VAL NEWLINE
+ *   VAL ::= 0 | 1
+ *   X ::= INT
+ *   Y ::= INT
+ *   SPACE ::= " "
+ *   NEWLINE ::= "\n" | "\r" "\n"?
+ *   INT ::= [0-9]+
+ * </pre>
+ * where there are X LINEs of Y VALs each, LINE x listing the squares (x, y) of the board, 1 for a bomb.
+ * The NEWLINE of the last LINE may be missing, and empty lines may follow it.
+ * <p>
+ * The binary format holds the same layout in 1 bit per square, for boards that must load fast:
+ * <pre>
+ *   FILE ::= MAGIC FORMAT X Y BOMBS
+ *   MAGIC ::= "MSWB"
+ *   FORMAT ::= uint8, 1
+ *   X, Y ::= int32, big endian
+ *   BOMBS ::= (X*Y + 7) / 8 bytes, bit (i % 8) of byte (i / 8) set iff the square of index i = x*Y + y has a bomb
+ * </pre>
+ * read() tells the formats apart by the magic, which can't start a text file.
+ */
+public class BoardFile {
+
+    /**
+     * Abstraction function:
+     * Represents a board of sizeX lines of sizeY squares, where square (x, y) has a bomb iff bit
+     * x*sizeY + y of bombs is set.
+     * <p>
+     * Rep invariant:
+     * MIN_SIZE <= sizeX, sizeY <= MAX_SIZE. bombs has no bit set at sizeX*sizeY or beyond.
+     * <p>
+     * Safety from rep exposure:
+     * All fields are private and final. bombs is copied when it is passed in, and only passed on to
+     * BoardStorage.newBoard(), which doesn't modify it.
+     * <p>
+     * Thread safety:
+     * BoardFile is immutable: its fields are final and bombs is never mutated after construction.
+     */
+
+    private static final byte[] MAGIC = "MSWB".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT = 1;
+    private static final int BINARY_HEADER_LENGTH = MAGIC.length + 1 + 4 + 4;
+
+    private final int sizeX;
+    private final int sizeY;
+    private final BitSet bombs;
+
+    /**
+     * FormatException reports a file which isn't a valid board file, with the line where it went wrong.
+     */
+    public static class FormatException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+        private final int line;
+
+        /**
+         * @param file file being read.
+         * @param line number of the line that is not valid, starting at 1. Binary files have a single line.
+         * @param message what is wrong with the line.
+         */
+        public FormatException(Path file, int line, String message) {
+            super(file + ":" + line + ": " + message);
+            this.line = line;
+        }
+
+        /**
+         * @return number of the line that is not valid, starting at 1.
+         */
+        public int getLine() {
+            return line;
+        }
+    }
+
+    /**
+     * Make the layout of a board with bombs in the given squares.
+     *
+     * @param sizeX number of lines, requires MIN_SIZE <= sizeX <= MAX_SIZE.
+     * @param sizeY number of squares per line, requires MIN_SIZE <= sizeY <= MAX_SIZE.
+     * @param bombs indices x*sizeY + y of the squares with a bomb, each less than sizeX*sizeY.
+     */
+    public BoardFile(int sizeX, int sizeY, BitSet bombs) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.bombs = (BitSet) bombs.clone();
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert sizeX >= GameBoard.MIN_SIZE && sizeX <= GameBoard.MAX_SIZE;
+        assert sizeY >= GameBoard.MIN_SIZE && sizeY <= GameBoard.MAX_SIZE;
+        assert bombs.length() <= sizeX * sizeY;
+    }
+
+    /**
+     * @return number of lines of the board.
+     */
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    /**
+     * @return number of squares in every line of the board.
+     */
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    /**
+     * @return number of bombs of the board.
+     */
+    public int getBombCount() {
+        return bombs.cardinality();
+    }
+
+    /**
+     * @return a new list with a Bomb, not flagged, for every bomb of the board, in index order.
+     */
+    public List<Bomb> getBombLocations() {
+        List<Bomb> locations = new ArrayList<>(bombs.cardinality());
+        for (int i = bombs.nextSetBit(0); i >= 0; i = bombs.nextSetBit(i + 1)) {
+            locations.add(new Bomb(i / sizeY, i % sizeY));
+        }
+        return locations;
+    }
+
+    /**
+     * Make a board, untouched, with this layout.
+     *
+     * @param storage how the board is stored.
+     * @return a new board of this size with a bomb in every square of this layout which has one.
+     * @throws UnsupportedOperationException if storage is CHUNKED, which can't be loaded.
+     */
+    public GameBoard newBoard(BoardStorage storage) {
+        return storage.newBoard(sizeX, sizeY, bombs);
+    }
+
+    /**
+     * Reads a board file, in the text or the binary format.
+     *
+     * @param file path of the file.
+     * @return the layout stored in the file.
+     * @throws FormatException if the file is not a valid board file, with the number of the first line
+     *                         which is not valid.
+     * @throws IOException if the file can't be read.
+     */
+    public static BoardFile read(Path file) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new FormatException(file, 1, "file too large for a board");
+            }
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (bytes.remaining() >= MAGIC.length && bytes.slice().limit(MAGIC.length).equals(ByteBuffer.wrap(MAGIC))) {
+                return readBinary(file, bytes);
+            }
+            return new TextParser(file, bytes).parse();
+        }
+    }
+
+    /**
+     * Writes this layout to a file in the binary format, replacing the file if it exists.
+     *
+     * @param file path of the file.
+     * @throws IOException if the file can't be written.
+     */
+    public void writeBinary(Path file) throws IOException {
+
+        int squares = sizeX * sizeY;
+        ByteBuffer bytes = ByteBuffer.allocate(BINARY_HEADER_LENGTH + (squares + 7) / 8);
+        bytes.put(MAGIC).put((byte) FORMAT).putInt(sizeX).putInt(sizeY);
+        bytes.put(bombs.toByteArray());
+        bytes.position(0);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Writes this layout to a file in the text format, replacing the file if it exists.
+     *
+     * @param file path of the file.
+     * @throws IOException if the file can't be written.
+     */
+    public void writeText(Path file) throws IOException {
+
+        ByteBuffer bytes = ByteBuffer.allocate(24 + sizeX * (2 * sizeY + 1));
+        bytes.put((sizeX + " " + sizeY + "\n").getBytes(StandardCharsets.US_ASCII));
+        for (int x = 0; x < sizeX; x++) {
+            for (int y = 0; y < sizeY; y++) {
+                bytes.put(bombs.get(x * sizeY + y) ? (byte) '1' : (byte) '0');
+                bytes.put(y == sizeY - 1 ? (byte) '\n' : (byte) ' ');
+            }
+        }
+        bytes.flip();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Converts a board file, in either format, to the binary format, so the server can load it faster.
+     * <br> Usage:
+     *      BoardFile INPUT OUTPUT
+     *
+     * @param args paths of the file to read and of the file to write.
+     * @throws IOException if a file can't be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: BoardFile INPUT OUTPUT");
+            return;
+        }
+        try {
+            BoardFile board = read(Path.of(args[0]));
+            board.writeBinary(Path.of(args[1]));
+            System.out.printf("%dx%d board with %d bombs written to %s%n", board.sizeX, board.sizeY,
+                    board.getBombCount(), args[1]);
+        } catch (FormatException fe) {
+            System.err.println(fe.getMessage());
+        }
+    }
+
+    private static BoardFile readBinary(Path file, ByteBuffer bytes) {
+
+        bytes.order(ByteOrder.BIG_ENDIAN);
+        if (bytes.remaining() < BINARY_HEADER_LENGTH) {
+            throw new FormatException(file, 1, "truncated header");
+        }
+        bytes.position(MAGIC.length);
+        int format = bytes.get() & 0xFF;
+        if (format != FORMAT) {
+            throw new FormatException(file, 1, "unknown binary format " + format);
+        }
+        int sizeX = bytes.getInt();
+        int sizeY = bytes.getInt();
+        checkSize(file, sizeX, sizeY);
+        int squares = sizeX * sizeY;
+        if (bytes.remaining() != (squares + 7) / 8) {
+            throw new FormatException(file, 1, "expected " + (squares + 7) / 8 + " bytes of bombs, found " + bytes.remaining());
+        }
+        BitSet bombs = BitSet.valueOf(bytes);
+        if (bombs.length() > squares) {
+            throw new FormatException(file, 1, "bomb outside the board");
+        }
+        return new BoardFile(sizeX, sizeY, bombs);
+    }
+
+    private static void checkSize(Path file, int sizeX, int sizeY) {
+        if (sizeX < GameBoard.MIN_SIZE || sizeX > GameBoard.MAX_SIZE || sizeY < GameBoard.MIN_SIZE || sizeY > GameBoard.MAX_SIZE) {
+            throw new FormatException(file, 1, "board size " + sizeX + "x" + sizeY + " not allowed, sizes must be "
+                    + GameBoard.MIN_SIZE + " to " + GameBoard.MAX_SIZE);
+        }
+    }
+
+    /**
+     * Parses the text format from a buffer, byte by byte, without making a String per line.
+     */
+    private static class TextParser {
+
+        private final Path file;
+        private final ByteBuffer bytes;
+        private int position = 0;
+        private int line = 1;
+
+        private TextParser(Path file, ByteBuffer bytes) {
+            this.file = file;
+            this.bytes = bytes;
+        }
+
+        private BoardFile parse() {
+
+            int sizeX = parseInt("the number of lines");
+            expect(' ', "a space after the number of lines");
+            int sizeY = parseInt("the number of squares per line");
+            expectNewline("the end of the line after the number of squares per line");
+            checkSize(file, sizeX, sizeY);
+
+            BitSet bombs = new BitSet(sizeX * sizeY);
+            for (int x = 0; x < sizeX; x++) {
+                if (position == bytes.limit()) {
+                    throw new FormatException(file, line, "expected " + sizeX + " lines of squares, found " + x);
+                }
+                for (int y = 0; y < sizeY; y++) {
+                    if (y > 0) {
+                        if (atNewline()) {
+                            throw new FormatException(file, line, "expected " + sizeY + " squares, found " + y);
+                        }
+                        expect(' ', "a space between squares");
+                    }
+                    byte square = next("a square, 0 or 1");
+                    if (square == '1') {
+                        bombs.set(x * sizeY + y);
+                    } else if (square != '0') {
+                        throw new FormatException(file, line, "expected a square, 0 or 1, found " + describe(square));
+                    }
+                }
+                if (position < bytes.limit() && bytes.get(position) == ' ') {
+                    throw new FormatException(file, line, "expected " + sizeY + " squares, found more");
+                }
+                if (x < sizeX - 1 || position < bytes.limit()) {
+                    expectNewline("the end of the line");
+                }
+            }
+
+            while (position < bytes.limit()) {
+                if ( ! atNewline()) {
+                    throw new FormatException(file, line, "expected the end of the file after " + sizeX + " lines of squares");
+                }
+                expectNewline("the end of the file");
+            }
+            return new BoardFile(sizeX, sizeY, bombs);
+        }
+
+        private byte next(String expected) {
+            if (position == bytes.limit()) {
+                throw new FormatException(file, line, "expected " + expected + ", found the end of the file");
+            }
+            return bytes.get(position++);
+        }
+
+        private void expect(char c, String expected) {
+            byte b = next(expected);
+            if (b != c) {
+                throw new FormatException(file, line, "expected " + expected + ", found " + describe(b));
+            }
+        }
+
+        private boolean atNewline() {
+            return position < bytes.limit() && (bytes.get(position) == '\n' || bytes.get(position) == '\r');
+        }
+
+        private void expectNewline(String expected) {
+            byte b = next(expected);
+            if (b == '\r') {
+                if (position < bytes.limit() && bytes.get(position) == '\n') {
+                    position++;
+                }
+            } else if (b != '\n') {
+                throw new FormatException(file, line, "expected " + expected + ", found " + describe(b));
+            }
+            line++;
+        }
+
+        private int parseInt(String expected) {
+            long value = 0;
+            int digits = 0;
+            while (position < bytes.limit() && bytes.get(position) >= '0' && bytes.get(position) <= '9') {
+                value = Math.min(value * 10 + (bytes.get(position++) - '0'), Integer.MAX_VALUE);
+                digits++;
+            }
+            if (digits == 0) {
+                byte b = next(expected);
+                throw new FormatException(file, line, "expected " + expected + ", found " + describe(b));
+            }
+            return (int) value;
+        }
+
+        private static String describe(byte b) {
+            if (b == '\n' || b == '\r') {
+                return "the end of the line";
+            } else if (b >= ' ' && b < 127) {
+                return "\"" + (char) b + "\"";
+            }
+            return "byte " + (b & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package minesweeper;
+
+/**
+ * A BoardListener is told about every square whose state is changed by a move, so the change can be
+ * sent to the players without sending the whole board.
+ */
+public interface BoardListener {
+
+    /**
+     * Called by the board as soon as the move holds the lock it needs to start, before it checks or
+     * changes anything, so the listener can tell how long the move waited for the board.
+     */
+    public default void locked() {
+    }
+
+    /**
+     * Called by the board, while it is locked by the move, every time the state of a square changes.
+     *
+     * @param x coordinate on the X axis of the square.
+     * @param y coordinate on the Y axis of the square.
+     * @param state the new state of the square, as shown by the board's toString(): '-', 'F', ' ' or '1' to '8'.
+     */
+    public void squareChanged(int x, int y, char state);
+
+    /**
+     * Called by the board once a move that changed the board has reported all its squares, before the
+     * board is unlocked, so whatever the listener does with the changes is ordered like the moves that
+     * made them. Not called for moves that didn't change the board.
+     *
+     * @param version version of the board after the move, as returned by GameBoard.getVersion().
+     * @param activeBombs number of active bombs after the move.
+     */
+    public default void moveApplied(long version, int activeBombs) {
+    }
+}
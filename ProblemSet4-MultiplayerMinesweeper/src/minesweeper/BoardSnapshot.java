@@ -0,0 +1,182 @@
+package minesweeper;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An immutable picture of a GameBoard at a given version: the text returned by its toString(), and
+ * the same text already encoded, so it can be sent to any number of clients without being rendered
+ * or encoded again.
+ * <p>
+ * The squares can also be had packed in 4 bits each, for the binary protocol: square (x, y) is the
+ * (x * sizeY + y)-th nibble, high nibble first, holding its count 0 to 8 if dug (0 for ' '), UNTOUCHED
+ * or FLAGGED.
+ */
+public class BoardSnapshot {
+
+    /**
+     * Abstraction function:
+     * Represents the board with version number version, whose toString() was text. bytes is text
+     * encoded in US-ASCII. sizeX, sizeY and activeBombs are read from the header of text. packed is
+     * null, or the squares of text packed in 4 bits each.
+     * <p>
+     * Rep invariant:
+     * version >= 0. bytes is the US-ASCII encoding of text.
+     * text has sizeX lines of sizeY squares after its header.
+     * <p>
+     * Safety from rep exposure:
+     * All fields are private, and final but packed. text is an immutable String, bytes and packed are
+     * only returned wrapped in a read-only ByteBuffer.
+     * <p>
+     * Thread safety:
+     * BoardSnapshot is immutable, and its fields are final, so it can be shared between threads, except
+     * packed, which is computed the first time it is needed. Threads computing it at the same time
+     * compute equal arrays, and packed is volatile, so any of them is a correct one to publish.
+     */
+
+    /** Packed value of an untouched square. Dug squares are packed as their count, 0 to 8. */
+    public static final byte UNTOUCHED = 9;
+    /** Packed value of a flagged square. */
+    public static final byte FLAGGED = 10;
+
+    private final long version;
+    private final String text;
+    private final byte[] bytes;
+    private final int sizeX;
+    private final int sizeY;
+    private final int activeBombs;
+    /** Offset in bytes of the first line of squares. */
+    private final int headerLength;
+    private volatile byte[] packed;
+
+    /**
+     * Make a snapshot of a board.
+     *
+     * @param version version of the board, as returned by GameBoard.getVersion().
+     * @param text the board's toString() at that version, as specified by GameBoard.toString().
+     *             Board texts are plain ASCII.
+     */
+    public BoardSnapshot(long version, String text) {
+        this.version = version;
+        this.text = text;
+        this.bytes = text.getBytes(StandardCharsets.US_ASCII);
+
+        // "\r\nSize: XxY Bombs: N\r\n"
+        int times = text.indexOf('x');
+        int bombs = text.indexOf(" Bombs: ", times);
+        this.headerLength = text.indexOf('\n', bombs) + 1;
+        this.sizeX = Integer.parseInt(text.substring("\r\nSize: ".length(), times));
+        this.sizeY = Integer.parseInt(text.substring(times + 1, bombs));
+        this.activeBombs = Integer.parseInt(text.substring(bombs + " Bombs: ".length(), headerLength - 2));
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert version >= 0;
+        assert bytes.length == text.length();
+        assert bytes.length == headerLength + sizeX * (3 * sizeY + 2);
+    }
+
+    /**
+     * @return version of the board this is a snapshot of.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the board's toString() at this version.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return a new read-only buffer, positioned at the start, with the text encoded in US-ASCII
+     *         (which any ASCII compatible charset decodes the same way).
+     */
+    public ByteBuffer getBytes() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return number of lines of the board.
+     */
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    /**
+     * @return number of squares in every line of the board.
+     */
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    /**
+     * @return number of active bombs of the board, as shown in the header of the text.
+     */
+    public int getActiveBombs() {
+        return activeBombs;
+    }
+
+    /**
+     * Returns the squares of the board packed in 4 bits each, as described above. They are packed the
+     * first time this is called and shared by every later caller.
+     *
+     * @return a new read-only buffer, positioned at the start, with (sizeX * sizeY + 1) / 2 bytes.
+     *         If the number of squares is odd, the low nibble of the last byte is 0.
+     */
+    public ByteBuffer getPackedSquares() {
+        byte[] squares = packed;
+        if (squares == null) {
+            squares = pack();
+            packed = squares;
+        }
+        return ByteBuffer.wrap(squares).asReadOnlyBuffer();
+    }
+
+    /**
+     * Unpacks the state of a square from squares packed as getPackedSquares() packs them.
+     *
+     * @param packed packed squares, positioned at the start.
+     * @param index index x * sizeY + y of the square.
+     * @return the state of the square, as shown by toString(): '-', 'F', ' ' or '1' to '8'.
+     * @throws RuntimeException if the packed value is not a valid state.
+     */
+    public static char unpack(ByteBuffer packed, int index) {
+        int value = (packed.get(packed.position() + (index >> 1)) >> (((index & 1) == 0) ? 4 : 0)) & 0xF;
+        if (value == UNTOUCHED) {
+            return '-';
+        } else if (value == FLAGGED) {
+            return 'F';
+        } else if (value == 0) {
+            return ' ';
+        } else if (value <= 8) {
+            return (char) ('0' + value);
+        }
+        throw new RuntimeException("Not a packed square: " + value);
+    }
+
+    private byte[] pack() {
+
+        byte[] squares = new byte[(int) (((long) sizeX * sizeY + 1) / 2)];
+        int lineLength = 3 * sizeY + 2;
+        int i = 0;
+        for (int x = 0; x < sizeX; x++) {
+            // "[s, s, ..., s]\r\n": square y is at offset 1 + 3y of its line
+            int offset = headerLength + x * lineLength + 1;
+            for (int y = 0; y < sizeY; y++, i++) {
+                byte square = bytes[offset + 3 * y];
+                int value = (square == '-') ? UNTOUCHED : (square == 'F') ? FLAGGED : (square == ' ') ? 0 : square - '0';
+                squares[i >> 1] |= ((i & 1) == 0) ? value << 4 : value;
+            }
+        }
+        return squares;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,135 @@
+package minesweeper;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * BoardStorage names the GameBoard implementations the server can create a random board with.
+ */
+public enum BoardStorage {
+
+    /** Board: a grid of characters and a bitset of the bombs. */
+    ARRAY,
+    /** BitBoard: bombs in a packed bitset and precomputed neighbor counts. */
+    BITSET,
+    /** ChunkedBoard: chunks materialized on demand, with bombs generated from a seed. */
+    CHUNKED,
+    /** StripedBoard: stored like BITSET, with a lock per region so moves on different regions run concurrently. */
+    STRIPED;
+
+    /** Fraction of the squares of a random board that have a bomb. */
+    public static final double DENSITY = 0.2;
+
+    /**
+     * @param sizeX number of lines of a board.
+     * @param sizeY number of squares per line of a board.
+     * @return whether boards of that size can be stored as this storage mode says: with MIN_SIZE to
+     *         MAX_SIZE lines and squares per line, or, if this is CHUNKED, with at least MIN_SIZE lines
+     *         and squares per line, and at most ChunkedBoard.MAX_SQUARES squares.
+     */
+    public boolean allows(int sizeX, int sizeY) {
+        if (this == CHUNKED) {
+            return sizeX >= GameBoard.MIN_SIZE && sizeY >= GameBoard.MIN_SIZE
+                    && (long) sizeX * sizeY <= ChunkedBoard.MAX_SQUARES;
+        }
+        return sizeX >= GameBoard.MIN_SIZE && sizeX <= GameBoard.MAX_SIZE
+                && sizeY >= GameBoard.MIN_SIZE && sizeY <= GameBoard.MAX_SIZE;
+    }
+
+    /**
+     * Make a board of the given size with randomly placed bombs, DENSITY of the squares having one.
+     *
+     * @param sizeX number of lines of the board.
+     * @param sizeY number of squares per line of the board.
+     * @param seed seed of the bomb placement. Boards of the same storage, size and seed have the same bombs.
+     * @return a new board stored as this storage mode says.
+     * @throws RuntimeException if the dimensions are not allowed.
+     */
+    public GameBoard newBoard(int sizeX, int sizeY, long seed) {
+        return newBoard(sizeX, sizeY, new BombPlacement(DENSITY, seed, false));
+    }
+
+    /**
+     * Make a board of the given size with bombs placed as placement says.
+     *
+     * @param sizeX number of lines of the board.
+     * @param sizeY number of squares per line of the board.
+     * @param placement where the bombs go. Boards of the same storage, size and placement have the same bombs.
+     * @return a new board stored as this storage mode says.
+     * @throws RuntimeException if the dimensions are not allowed.
+     * @throws UnsupportedOperationException if placement.isFirstClickSafe() and this is not ARRAY, the
+     *                                       only storage which can place its bombs after the first dig.
+     */
+    public GameBoard newBoard(int sizeX, int sizeY, BombPlacement placement) {
+        if (placement.isFirstClickSafe() && this != ARRAY) {
+            throw new UnsupportedOperationException("only array boards can make the first click safe");
+        }
+        switch (this) {
+            case CHUNKED:
+                return new ChunkedBoard(sizeX, sizeY, placement.getDensity(), placement.getSeed());
+            case BITSET:
+            case STRIPED:
+                return newBoard(sizeX, sizeY, placement.place(sizeX, sizeY));
+            case ARRAY:
+            default:
+                return new Board(sizeX, sizeY, placement);
+        }
+    }
+
+    /**
+     * Make a board of the given size with bombs in the given squares, such as one loaded by BoardFile.
+     *
+     * @param sizeX number of lines of the board.
+     * @param sizeY number of squares per line of the board.
+     * @param bombs indices x*sizeY + y of the squares with a bomb, each less than sizeX*sizeY. Not modified.
+     * @return a new board stored as this storage mode says.
+     * @throws RuntimeException if the dimensions are not allowed.
+     * @throws UnsupportedOperationException if this is CHUNKED, whose bombs are always generated from a seed.
+     */
+    public GameBoard newBoard(int sizeX, int sizeY, BitSet bombs) {
+        switch (this) {
+            case BITSET:
+                return new BitBoard(sizeX, sizeY, bombs);
+            case CHUNKED:
+                throw new UnsupportedOperationException("chunked boards can't be loaded, their bombs are generated from a seed");
+            case STRIPED:
+                return new StripedBoard(sizeX, sizeY, bombs);
+            case ARRAY:
+            default:
+                return new Board(sizeX, sizeY, bombs);
+        }
+    }
+
+    /**
+     * Make a board restored from a saved one: with the given bombs, squares and version.
+     *
+     * @param sizeX number of lines of the board.
+     * @param sizeY number of squares per line of the board.
+     * @param bombs indices x*sizeY + y of the squares with a bomb on the saved board. Not modified.
+     * @param packed states of the squares of the saved board, packed as BoardSnapshot.getPackedSquares()
+     *               packs them.
+     * @param version version of the saved board.
+     * @return a new board stored as this storage mode says, equal to the saved one.
+     * @throws RuntimeException if the dimensions are not allowed or a square is not valid.
+     * @throws UnsupportedOperationException if this is CHUNKED, whose bombs are always generated from a seed.
+     */
+    public GameBoard restore(int sizeX, int sizeY, BitSet bombs, ByteBuffer packed, long version) {
+        switch (this) {
+            case BITSET:
+                BitBoard bitBoard = new BitBoard(sizeX, sizeY, bombs);
+                bitBoard.restore(packed, version);
+                return bitBoard;
+            case STRIPED:
+                StripedBoard stripedBoard = new StripedBoard(sizeX, sizeY, bombs);
+                stripedBoard.restore(packed, version);
+                return stripedBoard;
+            case ARRAY:
+                Board board = new Board(sizeX, sizeY, bombs);
+                board.restore(packed, version);
+                return board;
+            case CHUNKED:
+            default:
+                throw new UnsupportedOperationException("chunked boards can't be restored, their bombs are generated from a seed");
+        }
+    }
+}
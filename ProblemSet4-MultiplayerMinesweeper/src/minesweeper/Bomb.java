@@ -37,6 +37,13 @@ public class Bomb {
         this.flagged = false;
     }
 
+    public int getX() {
+        return this.x;
+    }
+    public int getY() {
+        return this.y;
+    }
+
     public synchronized void setFlag(boolean state) {
         this.flagged = state;
     }
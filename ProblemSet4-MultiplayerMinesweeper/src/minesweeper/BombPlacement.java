@@ -0,0 +1,156 @@
+package minesweeper;
+
+import java.util.BitSet;
+import java.util.SplittableRandom;
+
+/**
+ * BombPlacement says where the bombs of a random board go: a fraction density of the squares, chosen by
+ * a partial Fisher-Yates shuffle of the square indices seeded with seed, so the same placement, size and
+ * safe square always give the same bombs, in time linear in the number of squares at any density.
+ * <p>
+ * If firstClickSafe, the bombs are placed once the first square is dug, away from it: neither it nor,
+ * when there are enough other squares, its neighbors get a bomb, so the first dig opens the board.
+ */
+public class BombPlacement {
+
+    /**
+     * Abstraction function:
+     * Represents the placement of (int) (sizeX * sizeY * density) bombs on a board of sizeX by sizeY
+     * squares, drawn from a SplittableRandom seeded with seed, after the first dig if firstClickSafe.
+     * <p>
+     * Representation invariant:
+     * 0 <= density <= 1.
+     * <p>
+     * Safety from Rep exposure:
+     * All fields are private, final and immutable. place() returns a new BitSet.
+     * <p>
+     * Thread safety:
+     * Immutable.
+     */
+
+    private final double density;
+    private final long seed;
+    private final boolean firstClickSafe;
+
+    /**
+     * Make a placement.
+     *
+     * @param density fraction of the squares with a bomb, requires 0 <= density <= 1.
+     * @param seed seed of the shuffle.
+     * @param firstClickSafe whether the bombs are placed away from the first square dug.
+     * @throws IllegalArgumentException if density is not between 0 and 1.
+     */
+    public BombPlacement(double density, long seed, boolean firstClickSafe) {
+        if ( ! (density >= 0 && density <= 1)) {
+            throw new IllegalArgumentException("density " + density + " not between 0 and 1");
+        }
+        this.density = density;
+        this.seed = seed;
+        this.firstClickSafe = firstClickSafe;
+    }
+
+    /**
+     * @return the fraction of the squares with a bomb.
+     */
+    public double getDensity() {
+        return density;
+    }
+
+    /**
+     * @return the seed of the shuffle.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @return whether the bombs are placed away from the first square dug.
+     */
+    public boolean isFirstClickSafe() {
+        return firstClickSafe;
+    }
+
+    /**
+     * @param seed seed of the shuffle.
+     * @return the same placement with another seed.
+     */
+    public BombPlacement withSeed(long seed) {
+        return new BombPlacement(density, seed, firstClickSafe);
+    }
+
+    /**
+     * @return the number of bombs placed on a board of sizeX by sizeY squares, at most every square
+     *         but the first one dug if firstClickSafe.
+     */
+    public int count(int sizeX, int sizeY) {
+        int count = (int) ((sizeX * sizeY) * density);
+        return firstClickSafe ? Math.min(count, sizeX * sizeY - 1) : count;
+    }
+
+    /**
+     * Places the bombs on a board of sizeX by sizeY squares, anywhere.
+     *
+     * @return indices x*sizeY + y of the squares with a bomb.
+     */
+    public BitSet place(int sizeX, int sizeY) {
+        return place(sizeX, sizeY, -1, -1);
+    }
+
+    /**
+     * Places the bombs on a board of sizeX by sizeY squares, none of them on the square (safeX, safeY),
+     * nor on its neighbors if that leaves enough squares for count(sizeX, sizeY) bombs.
+     *
+     * @param safeX coordinate on the X axis of the safe square, or -1 for none.
+     * @param safeY coordinate on the Y axis of the safe square, or -1 for none.
+     * @return indices x*sizeY + y of the squares with a bomb.
+     */
+    public BitSet place(int sizeX, int sizeY, int safeX, int safeY) {
+
+        int squares = sizeX * sizeY;
+        int count = (int) (squares * density);
+
+        BitSet safe = new BitSet(squares);
+        if (safeX >= 0) {
+            for (int x = Math.max(safeX - 1, 0); x <= Math.min(safeX + 1, sizeX - 1); x++) {
+                for (int y = Math.max(safeY - 1, 0); y <= Math.min(safeY + 1, sizeY - 1); y++) {
+                    safe.set(x * sizeY + y);
+                }
+            }
+            if (squares - safe.cardinality() < count) {
+                safe.clear();
+                safe.set(safeX * sizeY + safeY);
+                count = Math.min(count, squares - 1);
+            }
+        }
+
+        int[] cells = new int[squares - safe.cardinality()];
+        for (int i = 0, cell = 0; i < squares; i++) {
+            if ( ! safe.get(i)) {
+                cells[cell++] = i;
+            }
+        }
+
+        // shuffle only as many cells as the smaller of bombs and squares without a bomb
+        boolean chooseBombs = count <= cells.length / 2;
+        int chosen = chooseBombs ? count : cells.length - count;
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < chosen; i++) {
+            int j = i + random.nextInt(cells.length - i);
+            int cell = cells[j];
+            cells[j] = cells[i];
+            cells[i] = cell;
+        }
+
+        BitSet bombs = new BitSet(squares);
+        if (chooseBombs) {
+            for (int i = 0; i < chosen; i++) {
+                bombs.set(cells[i]);
+            }
+        } else {
+            for (int i = chosen; i < cells.length; i++) {
+                bombs.set(cells[i]);
+            }
+        }
+        return bombs;
+    }
+}
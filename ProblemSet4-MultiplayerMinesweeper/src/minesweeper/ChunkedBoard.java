@@ -0,0 +1,482 @@
+package minesweeper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * A GameBoard for very large boards, split in chunks of CHUNK_SIZE x CHUNK_SIZE squares which are
+ * materialized only when a square in them is dug or flagged, or when a dig next to them needs to know
+ * where their bombs are. The bombs of every chunk are generated deterministically from the board's
+ * seed and the chunk coordinates, so a chunk doesn't need to exist until then, and memory stays
+ * proportional to the explored area instead of the size of the board.
+ * <p>
+ * Every chunk gets exactly (int) (squares*density) bombs, where squares is the number of squares of
+ * the chunk, so the number of bombs of the whole board is known without generating them.
+ * <p>
+ * Apart from its size limits and its bomb placement, it behaves like Board.
+ */
+public class ChunkedBoard implements GameBoard {
+
+    /**
+     * Abstraction function:
+     * Represents a board from the game Minesweeper of sizeX*sizeY squares. The square (x, y) belongs to
+     * the chunk (x / CHUNK_SIZE, y / CHUNK_SIZE). A chunk missing from chunks has the bombs generated
+     * from seed and is entirely untouched. A chunk in chunks has its current bombs in Chunk.bombs, and
+     * its squares are all untouched if Chunk.squares is null, otherwise their states are in Chunk.squares.
+     * <p>
+     * Rep invariant:
+     * MIN_SIZE <= sizeX, sizeY and sizeX*sizeY <= MAX_SQUARES.
+     * 0 <= density < 1.
+     * Every square in a materialized chunk has one of the 4 valid states.
+     * activeBombCount == initialBombCount - (bombs dug) - (bombs under a flag).
+     * <p>
+     * Safety from rep exposure:
+     * sizeX, sizeY, seed and density are private, final and immutable. chunks and the arrays of every
+     * Chunk are never returned: getBombLocations() builds new Bomb objects and toString() copies the
+     * states into a new String.
+     * <p>
+     * Thread safety:
+     * All the fields which are not final are read and mutated exclusively under synchronized methods,
+     * except version and snapshot. Private methods are called only by synchronized methods.
+     * version and snapshot are volatile and written only while holding the lock of this, so getVersion()
+     * and getSnapshot() read them without the lock. snapshot is immutable.
+     * <p>
+     * ChunkedBoard is mutable, so two boards are equal only if they are the same object, as defined by Object.
+     */
+
+    /** Number of lines, and of squares per line, of a chunk. */
+    public static final int CHUNK_SIZE = 64;
+    /** Maximum number of squares of a board, so every square has an int index. */
+    public static final long MAX_SQUARES = Integer.MAX_VALUE;
+    private static final int CHUNK_BITS = 6;
+
+    private final int sizeX;
+    private final int sizeY;
+    private final long seed;
+    private final double density;
+    private final Map<Long, Chunk> chunks = new HashMap<>();
+    private int activeBombCount;
+    /** Number of calls to setSquare that modified the board. Written only under the lock of this. */
+    private volatile long version = 0;
+    /** Snapshot of the board at some version, rebuilt by getSnapshot() once the board has changed. */
+    private volatile BoardSnapshot snapshot;
+    /** Squares waiting to propagate during a flood fill, reused by every dig. */
+    private final IntQueue frontier = new IntQueue(64);
+    /** The chunk found by the last lookup, since consecutive lookups mostly hit the same chunk. */
+    private Chunk lastChunk;
+
+    /**
+     * Chunk holds the materialized part of a chunk: its bombs and, once one of its squares was
+     * touched, the states of its squares. Square (x, y) of the board is at index
+     * (x % CHUNK_SIZE) * CHUNK_SIZE + (y % CHUNK_SIZE) of its chunk.
+     */
+    private static class Chunk {
+        private final int chunkX;
+        private final int chunkY;
+        private final long[] bombs = new long[CHUNK_SIZE * CHUNK_SIZE / 64];
+        private byte[] squares;
+
+        private Chunk(int chunkX, int chunkY) {
+            this.chunkX = chunkX;
+            this.chunkY = chunkY;
+        }
+    }
+
+    /**
+     * Make a board whose bombs are placed from the given seed.
+     *
+     * @param sizeX number of lines, requires MIN_SIZE <= sizeX.
+     * @param sizeY number of squares per line, requires MIN_SIZE <= sizeY and sizeX*sizeY <= MAX_SQUARES.
+     * @param density fraction of the squares of every chunk that have a bomb, requires 0 <= density < 1.
+     * @param seed seed of the bomb placement. Boards with the same size, density and seed have the same bombs.
+     */
+    public ChunkedBoard(int sizeX, int sizeY, double density, long seed) {
+
+        if (sizeX < MIN_SIZE || sizeY < MIN_SIZE || (long) sizeX * sizeY > MAX_SQUARES) {
+            throw new RuntimeException("These dimensions are not allowed");
+        }
+        if (density < 0 || density >= 1) {
+            throw new RuntimeException("The density must be in [0, 1)");
+        }
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.density = density;
+        this.seed = seed;
+        this.activeBombCount = initialBombCount();
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert sizeX >= MIN_SIZE && sizeY >= MIN_SIZE;
+        assert (long) sizeX * sizeY <= MAX_SQUARES;
+        assert density >= 0 && density < 1;
+        assert activeBombCount >= 0;
+    }
+
+    @Override
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    @Override
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    /**
+     * @return number of chunks materialized so far, a measure of the memory used by this board.
+     */
+    public synchronized int getMaterializedChunks() {
+        return chunks.size();
+    }
+
+    private int chunksX() {
+        return (sizeX + CHUNK_SIZE - 1) >> CHUNK_BITS;
+    }
+
+    private int chunksY() {
+        return (sizeY + CHUNK_SIZE - 1) >> CHUNK_BITS;
+    }
+
+    private int chunkLines(int chunkX) {
+        return Math.min(CHUNK_SIZE, sizeX - (chunkX << CHUNK_BITS));
+    }
+
+    private int chunkSquares(int chunkY) {
+        return Math.min(CHUNK_SIZE, sizeY - (chunkY << CHUNK_BITS));
+    }
+
+    private int bombsPerChunk(int lines, int squares) {
+        return (int) (lines * squares * density);
+    }
+
+    /**
+     * Adds up the bombs of every chunk: full chunks, chunks cut by the last line, chunks cut by the
+     * last square of the lines, and the corner chunk.
+     */
+    private int initialBombCount() {
+        int fullX = sizeX >> CHUNK_BITS;
+        int fullY = sizeY >> CHUNK_BITS;
+        int restX = sizeX & (CHUNK_SIZE - 1);
+        int restY = sizeY & (CHUNK_SIZE - 1);
+
+        long total = (long) fullX * fullY * bombsPerChunk(CHUNK_SIZE, CHUNK_SIZE)
+                + (long) fullY * bombsPerChunk(restX, CHUNK_SIZE)
+                + (long) fullX * bombsPerChunk(CHUNK_SIZE, restY)
+                + bombsPerChunk(restX, restY);
+        return (int) total;
+    }
+
+    private static long chunkKey(int chunkX, int chunkY) {
+        return ((long) chunkX << 32) | chunkY;
+    }
+
+    /**
+     * Murmur3's 64 bit finalizer, so chunks with close coordinates get unrelated bombs.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * Writes into bombs the initial bombs of the given chunk, placing bombsPerChunk() of them in
+     * distinct random squares drawn from a generator seeded by seed and the chunk coordinates.
+     */
+    private void generateBombs(int chunkX, int chunkY, long[] bombs) {
+        int lines = chunkLines(chunkX);
+        int squares = chunkSquares(chunkY);
+        SplittableRandom random = new SplittableRandom(mix(seed ^ mix(chunkKey(chunkX, chunkY))));
+
+        for (int placed = 0; placed < bombsPerChunk(lines, squares); ) {
+            int i = random.nextInt(lines) * CHUNK_SIZE + random.nextInt(squares);
+            if ((bombs[i >>> 6] & (1L << i)) == 0) {
+                bombs[i >>> 6] |= 1L << i;
+                placed++;
+            }
+        }
+    }
+
+    /**
+     * Returns the chunk with the given coordinates, or null if it is not materialized.
+     */
+    private Chunk findChunk(int chunkX, int chunkY) {
+        if (lastChunk != null && lastChunk.chunkX == chunkX && lastChunk.chunkY == chunkY) {
+            return lastChunk;
+        }
+        Chunk chunk = chunks.get(chunkKey(chunkX, chunkY));
+        if (chunk != null) {
+            lastChunk = chunk;
+        }
+        return chunk;
+    }
+
+    /**
+     * Returns the chunk of the square (x, y), materializing its bombs if needed.
+     */
+    private Chunk chunk(int x, int y) {
+        int chunkX = x >> CHUNK_BITS;
+        int chunkY = y >> CHUNK_BITS;
+        Chunk chunk = findChunk(chunkX, chunkY);
+        if (chunk == null) {
+            chunk = new Chunk(chunkX, chunkY);
+            generateBombs(chunkX, chunkY, chunk.bombs);
+            chunks.put(chunkKey(chunkX, chunkY), chunk);
+        }
+        lastChunk = chunk;
+        return chunk;
+    }
+
+    private static int indexInChunk(int x, int y) {
+        return ((x & (CHUNK_SIZE - 1)) << CHUNK_BITS) | (y & (CHUNK_SIZE - 1));
+    }
+
+    private boolean hasBomb(int x, int y) {
+        int i = indexInChunk(x, y);
+        return (chunk(x, y).bombs[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private byte getSquare(int x, int y) {
+        Chunk chunk = findChunk(x >> CHUNK_BITS, y >> CHUNK_BITS);
+        if (chunk == null || chunk.squares == null) {
+            return '-';
+        }
+        return chunk.squares[indexInChunk(x, y)];
+    }
+
+    /**
+     * Sets the state of the square (x, y), materializing its chunk, and tells the listener, if not null,
+     * when the state changes.
+     */
+    private void setState(int x, int y, byte state, BoardListener listener) {
+        if (getSquare(x, y) == state) {
+            return;
+        }
+        Chunk chunk = chunk(x, y);
+        if (chunk.squares == null) {
+            chunk.squares = new byte[CHUNK_SIZE * CHUNK_SIZE];
+            Arrays.fill(chunk.squares, (byte) '-');
+        }
+        chunk.squares[indexInChunk(x, y)] = state;
+        if (listener != null) {
+            listener.squareChanged(x, y, (char) state);
+        }
+    }
+
+    private int calculateCount(int x, int y) {
+        int count = 0;
+        for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, sizeX - 1); nx++) {
+            for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, sizeY - 1); ny++) {
+                if ((nx != x || ny != y) && hasBomb(nx, ny)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized String setSquare(int X, int Y, String command, boolean propagate, BoardListener listener)
+            throws RuntimeException {
+        if (listener != null) {
+            listener.locked();
+        }
+
+        if(X < 0 || Y < 0 || X >= sizeX || Y >= sizeY) {
+            throw new RuntimeException("Out of bounds square");
+        }
+
+        String outcome = "false";
+        if (command.equals("dug")) {
+            outcome = setDug(X, Y, propagate, listener);
+        } else if (command.equals("flagged")) {
+            outcome = setFlagged(X, Y, listener) ? "true" : "false";
+        }
+
+        if (!outcome.equals("false")) {
+            version++;
+            if (listener != null) {
+                listener.moveApplied(version, activeBombCount);
+            }
+        }
+        return outcome;
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public BoardSnapshot getSnapshot() {
+
+        BoardSnapshot current = snapshot;
+        if (current != null && current.getVersion() == version) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null || snapshot.getVersion() != version) {
+                snapshot = new BoardSnapshot(version, toString());
+            }
+            return snapshot;
+        }
+    }
+
+    private boolean setFlagged(int x, int y, BoardListener listener) {
+
+        byte square = getSquare(x, y);
+        if (square == '-') {
+            setState(x, y, (byte) 'F', listener);
+            if (hasBomb(x, y)) {
+                activeBombCount--;
+            }
+            checkRep();
+            return true;
+
+        } else if (square == 'F') {
+            setState(x, y, (byte) '-', listener);
+            if (hasBomb(x, y)) {
+                activeBombCount++;
+            }
+            checkRep();
+            return true;
+        }
+        return false;
+    }
+
+    private String setDug(int x, int y, boolean propagate, BoardListener listener) {
+
+        if (getSquare(x, y) != '-') {
+            return "false";
+        }
+
+        int count = calculateCount(x, y);
+        if (propagate && count == 0) {
+            floodFill(x, y, listener);
+        } else {
+            reveal(x, y, count, listener);
+        }
+
+        if (hasBomb(x, y)) {
+            Chunk chunk = chunk(x, y);
+            int i = indexInChunk(x, y);
+            chunk.bombs[i >>> 6] &= ~(1L << i);
+            activeBombCount--;
+            checkRep();
+            return "bomb";
+        }
+        checkRep();
+        return "true";
+    }
+
+    private void reveal(int x, int y, int count, BoardListener listener) {
+        setState(x, y, (count == 0) ? (byte) ' ' : (byte) ('0' + count), listener);
+    }
+
+    private static boolean isUntouchedOrCount(byte square) {
+        return square == '-' || (square >= '1' && square <= '8');
+    }
+
+    /**
+     * Digs the square (x, y), which has no neighboring bombs, and every untouched square reachable from
+     * it through squares without neighboring bombs, breadth first. Squares already showing a count are
+     * refreshed too, as in Board. Squares are identified by their index x*sizeY + y, and every square is
+     * queued at most once since it is revealed before being queued.
+     */
+    private void floodFill(int x, int y, BoardListener listener) {
+
+        frontier.clear();
+        reveal(x, y, 0, listener);
+        frontier.add(x * sizeY + y);
+
+        while (!frontier.isEmpty()) {
+            int current = frontier.poll();
+            int cx = current / sizeY;
+            int cy = current % sizeY;
+
+            for (int nx = Math.max(cx - 1, 0); nx <= Math.min(cx + 1, sizeX - 1); nx++) {
+                for (int ny = Math.max(cy - 1, 0); ny <= Math.min(cy + 1, sizeY - 1); ny++) {
+                    if (!isUntouchedOrCount(getSquare(nx, ny))) {
+                        continue;
+                    }
+                    int count = calculateCount(nx, ny);
+                    reveal(nx, ny, count, listener);
+                    if (count == 0) {
+                        frontier.add(nx * sizeY + ny);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized int getNumberActiveBombs() {
+        return activeBombCount;
+    }
+
+    /**
+     * Returns the bombs still on the board. Chunks not materialized yet have their bombs generated
+     * again for the list, without materializing them, so this takes time proportional to the size
+     * of the board. Meant for debugging small boards.
+     */
+    @Override
+    public synchronized List<Bomb> getBombLocations() {
+        List<Bomb> locations = new ArrayList<>();
+        long[] generated = new long[CHUNK_SIZE * CHUNK_SIZE / 64];
+
+        for (int chunkX = 0; chunkX < chunksX(); chunkX++) {
+            for (int chunkY = 0; chunkY < chunksY(); chunkY++) {
+                Chunk chunk = chunks.get(chunkKey(chunkX, chunkY));
+                long[] bombs = generated;
+                if (chunk != null) {
+                    bombs = chunk.bombs;
+                } else {
+                    Arrays.fill(generated, 0);
+                    generateBombs(chunkX, chunkY, generated);
+                }
+
+                for (int i = 0; i < CHUNK_SIZE * CHUNK_SIZE; i++) {
+                    if ((bombs[i >>> 6] & (1L << i)) != 0) {
+                        int x = (chunkX << CHUNK_BITS) + (i >> CHUNK_BITS);
+                        int y = (chunkY << CHUNK_BITS) + (i & (CHUNK_SIZE - 1));
+                        Bomb bomb = new Bomb(x, y);
+                        bomb.setFlag(getSquare(x, y) == 'F');
+                        locations.add(bomb);
+                    }
+                }
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Renders every square of the board, so it is meant for boards small enough to be looked at whole:
+     * Protocol never renders boards of more than Protocol.MAX_SHOWN_SQUARES squares. Chunks not
+     * materialized are rendered as untouched without materializing them.
+     */
+    @Override
+    public synchronized String toString() {
+
+        long length = 32 + (long) sizeX * (sizeY * 3L + 2);
+        StringBuilder result = new StringBuilder((int) Math.min(length, Integer.MAX_VALUE - 8));
+        result.append("\r\nSize: ").append(sizeX).append("x").append(sizeY)
+                .append(" Bombs: ").append(activeBombCount).append("\r\n");
+
+        for (int x = 0; x < sizeX; x++) {
+            result.append('[');
+            for (int y = 0; y < sizeY; y++) {
+                if (y > 0) {
+                    result.append(", ");
+                }
+                result.append((char) getSquare(x, y));
+            }
+            result.append("]\r\n");
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,131 @@
+package minesweeper;
+
+import java.util.List;
+
+/**
+ * A mutable, thread safe board of the game minesweeper, of sizeX lines with sizeY squares each.
+ * <p>
+ * Every square is in one of 4 states: untouched ('-'), flagged ('F'), dug (' ') and count ('1' to '8',
+ * the number of neighboring bombs). The coordinates (0,0) start in the top-left corner. X coordinates
+ * increase downwards. Y coordinates increase rightwards.
+ * <p>
+ * Implementations differ only in how they store the board. Board keeps a grid of characters and its
+ * bombs in a bitset, listed as Bomb objects by a read-only view, BitBoard keeps the bombs in a packed
+ * bitset and the neighbor counts precomputed, ChunkedBoard materializes chunks of the board as they are
+ * explored, StripedBoard is stored like BitBoard and locked by region. They behave identically through
+ * this interface, so the server can use any of them.
+ * <p>
+ * Every move that modifies the board increments its version, so readers can tell whether the board
+ * changed since they last looked at it. getSnapshot() serves the board's text from a cache rebuilt at
+ * most once per version.
+ */
+public interface GameBoard {
+
+    /** Minimum number of lines, and of squares per line, of a board. */
+    public static final int MIN_SIZE = 5;
+    /** Maximum number of lines, and of squares per line, of a board. */
+    public static final int MAX_SIZE = 4096;
+
+    /**
+     * @return number of lines of this board.
+     */
+    public int getSizeX();
+
+    /**
+     * @return number of squares in every line of this board.
+     */
+    public int getSizeY();
+
+    /**
+     * Changes the state of the square at the given X,Y coordinates to the
+     * new state indicated by the command parameter.
+     * <p>
+     * "dug" on an untouched square reveals its count, and removes the bomb if there was one. If propagate
+     * is true and the square has no neighboring bombs, its untouched neighbors are dug too, recursively.
+     * "flagged" toggles an untouched square to flagged and a flagged square back to untouched.
+     *
+     * @param X coordinate on the X axis.
+     * @param Y coordinate on the Y axis.
+     * @param command A String equal to: flagged or dug.
+     * @param propagate whether digging a square without neighboring bombs digs its neighbors too.
+     * @return "bomb" if the player activated a bomb. "true" if the board was modified successfully and
+     *         there is no further consequences for the player. "false" if the board was not modified.
+     * @throws RuntimeException when the coordinates are not inside the grid or part of a boundary.
+     */
+    public default String setSquare(int X, int Y, String command, boolean propagate) throws RuntimeException {
+        return setSquare(X, Y, command, propagate, null);
+    }
+
+    /**
+     * Changes the state of the square at the given X,Y coordinates as setSquare(X, Y, command, propagate)
+     * does, telling the listener about every square whose state changed, including the squares dug by the
+     * propagation. Squares whose state is written again with the same value are not reported.
+     *
+     * @param X coordinate on the X axis.
+     * @param Y coordinate on the Y axis.
+     * @param command A String equal to: flagged or dug.
+     * @param propagate whether digging a square without neighboring bombs digs its neighbors too.
+     * @param listener told about every square changed by this move, in the order they changed, or null.
+     * @return "bomb", "true" or "false", as setSquare(X, Y, command, propagate).
+     * @throws RuntimeException when the coordinates are not inside the grid or part of a boundary.
+     */
+    public String setSquare(int X, int Y, String command, boolean propagate, BoardListener listener)
+            throws RuntimeException;
+
+    /**
+     * Runs the given moves, calls to setSquare() on this board made by the calling thread, as a single
+     * critical section: no other move runs, and no other thread reads the board, in between them. Every
+     * move still increments the version and reports its own changes to its listener.
+     * <p>
+     * Boards that take the lock of this object for every move, the default, hold it once around all
+     * the moves, so a batch of moves costs a single lock acquisition when no other thread contends.
+     *
+     * @param moves the moves to run. Must not wait for other threads.
+     */
+    public default void batch(Runnable moves) {
+        synchronized (this) {
+            moves.run();
+        }
+    }
+
+    /**
+     * Returns the version of the board: the number of calls to setSquare that modified it. Reading it
+     * doesn't wait for a move in progress.
+     *
+     * @return the version of the board, starting at 0.
+     */
+    public long getVersion();
+
+    /**
+     * Returns the text of the board, as toString() would, for the current version. The snapshot is
+     * rendered once per version and shared by every caller, so while the board doesn't change this
+     * doesn't wait for the board's lock nor allocates.
+     *
+     * @return a snapshot of the board, whose getText() equals toString() at the snapshot's version.
+     */
+    public BoardSnapshot getSnapshot();
+
+    /**
+     * Returns the number of bombs which have not been flagged or dug.
+     *
+     * @return int, the number of bombs which have not been flagged or dug.
+     */
+    public int getNumberActiveBombs();
+
+    /**
+     * Returns the bombs still on the board, for debugging purposes. Flagged bombs are included,
+     * with their flag set.
+     *
+     * @return a new list with a Bomb for every bomb on the board. Mutating it doesn't affect the board.
+     */
+    public List<Bomb> getBombLocations();
+
+    /**
+     * Returns the board as text: a header line with the size and the active bombs, then one line per X
+     * coordinate listing the state of its squares.
+     *
+     * @return "\r\nSize: XxY Bombs: N\r\n" followed by "[s, s, ..., s]\r\n" for every line of the board.
+     */
+    @Override
+    public String toString();
+}
@@ -0,0 +1,92 @@
+package minesweeper;
+
+import java.util.Arrays;
+
+/**
+ * A first-in first-out queue of ints, backed by a circular array that doubles its capacity when full.
+ * Used by the boards as the frontier of their flood fills, so propagating a dig neither recurses nor
+ * boxes square indices.
+ */
+class IntQueue {
+
+    /**
+     * Abstraction function:
+     * Represents the sequence elements[head], elements[(head+1) % capacity], ... of length size,
+     * where capacity = elements.length.
+     * <p>
+     * Rep invariant:
+     * elements.length is a power of two.
+     * 0 <= head < elements.length, 0 <= size <= elements.length.
+     * <p>
+     * Safety from rep exposure:
+     * All fields are private, elements is never returned.
+     * <p>
+     * Thread safety:
+     * IntQueue is not thread safe. Every board confines its queue to methods called while holding
+     * the board's lock.
+     */
+
+    private int[] elements;
+    private int head = 0;
+    private int size = 0;
+
+    /**
+     * Make an empty queue.
+     * @param initialCapacity number of elements it holds before growing, requires initialCapacity >= 1.
+     */
+    IntQueue(int initialCapacity) {
+        elements = new int[Integer.highestOneBit(Math.max(initialCapacity - 1, 1)) << 1];
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert Integer.bitCount(elements.length) == 1;
+        assert head >= 0 && head < elements.length;
+        assert size >= 0 && size <= elements.length;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Adds an element at the end of the queue.
+     * @param element element to add.
+     */
+    void add(int element) {
+        if (size == elements.length) {
+            grow();
+        }
+        elements[(head + size) & (elements.length - 1)] = element;
+        size++;
+    }
+
+    /**
+     * Removes the element at the front of the queue.
+     * @return the element removed, requires the queue not to be empty.
+     */
+    int poll() {
+        assert size > 0;
+        int element = elements[head];
+        head = (head + 1) & (elements.length - 1);
+        size--;
+        return element;
+    }
+
+    void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private void grow() {
+        int[] larger = Arrays.copyOfRange(elements, head, head + elements.length * 2);
+        System.arraycopy(elements, 0, larger, elements.length - head, head);
+        elements = larger;
+        head = 0;
+        checkRep();
+    }
+}
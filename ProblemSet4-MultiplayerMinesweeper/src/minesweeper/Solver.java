@@ -0,0 +1,804 @@
+package minesweeper;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Solver analyzes what the players of a board can see of it: which untouched squares are certainly
+ * safe, which certainly have a bomb, and the probability that each of the others has one, from the
+ * counts of the dug squares and the number of active bombs. Flags are players' guesses, so flagged
+ * squares are analyzed as untouched ones, and are never said to be safe or bombs on account of a flag.
+ * <p>
+ * The analysis first propagates the constraints of the counts: a count whose bombs are all known makes
+ * its other untouched neighbors safe, a count with as many untouched neighbors left as bombs left makes
+ * them all bombs, until nothing changes. The untouched squares next to a count still undecided, the
+ * frontier, are then split into components that share no count, which are independent, and every
+ * component is solved on its own, in parallel on a fork/join pool, by enumerating the assignments of
+ * bombs to its squares that satisfy its counts. An assignment with k bombs is weighted by
+ * (p / (1 - p))^k, p being the density of the active bombs on the untouched squares, since the squares
+ * away from the frontier take the bombs an assignment doesn't. Squares away from the frontier all get the
+ * same probability, the density of the bombs left for them. Only the squares certainly safe get
+ * probability 0, and only those certainly with a bomb get 1.
+ * <p>
+ * An analysis takes time linear in the number of squares, plus the enumerations, and is bounded by its
+ * timeout: a component of more than MAX_COMPONENT squares, or whose enumeration takes more than
+ * MAX_NODES steps, or runs past half the timeout, is left unsolved, its squares getting the probability
+ * of the squares away from the frontier, and its squares decided by propagation stay decided. An
+ * analysis whose passes over the board run past the timeout is abandoned. Boards of more than MAX_SQUARES squares are not analyzed.
+ */
+public class Solver {
+
+    /**
+     * Largest number of squares of a board analyzed, 1024 x 1024: the passes over such a board take
+     * about 25 ms, and a timeout of 50 ms leaves the other half to the enumerations. Larger boards would
+     * spend any such timeout reading the board.
+     */
+    public static final int MAX_SQUARES = 1 << 20;
+    /** Largest number of assignments tried when solving a component. */
+    static final long MAX_NODES = 1 << 22;
+    /**
+     * Largest number of squares of a component enumerated. MAX_NODES steps don't go deeper than a few
+     * dozen squares of a long frontier, and the counts of a component take its size squared in memory.
+     */
+    static final int MAX_COMPONENT = 64;
+    /** Largest number of frontier squares a task solves without forking. */
+    private static final int SEQUENTIAL_SQUARES = 32;
+    /** Steps of a pass over the board between two looks at the clock. */
+    private static final int TICK_PERIOD = 1 << 14;
+    /** Distance to 0 and 1 of the probabilities of the squares neither certainly safe nor with a bomb. */
+    private static final double UNCERTAINTY = 1e-6;
+
+    /** Solves the components of every analysis, one fork/join pool for the whole server. */
+    private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("solver-" + thread.getPoolIndex());
+        thread.setDaemon(true);
+        return thread;
+    }, null, false);
+
+    /** Marks of the untouched squares: not decided, decided safe, decided bomb, on the frontier. */
+    private static final byte UNDECIDED = 0;
+    private static final byte SAFE = 1;
+    private static final byte BOMB = 2;
+    private static final byte FRONTIER = 3;
+
+    private static final int[] DX = {-1, -1, -1, 0, 0, 1, 1, 1};
+    private static final int[] DY = {-1, 0, 1, -1, 1, -1, 0, 1};
+
+    private Solver() {
+    }
+
+    /**
+     * The analysis of a board at one version: what is known of every square, and the best move.
+     */
+    public static final class Analysis {
+
+        /**
+         * Abstraction function:
+         * Represents the analysis of snapshot: the untouched or flagged square of index i is certainly
+         * safe if marks[i] is SAFE, certainly a bomb if it is BOMB, has a bomb with probability
+         * probabilities[j] if marks[i] is FRONTIER and frontier[j] == i, and with probability other if
+         * it is UNDECIDED or on a frontier component left unsolved. The best move is command on
+         * (bestX, bestY), whose square has a bomb with probability bestProbability, or there is none if
+         * command is null.
+         * <p>
+         * Representation invariant:
+         * marks has a mark per square of snapshot, which is UNDECIDED for dug squares. frontier is sorted
+         * and holds the squares marked FRONTIER, and the squares of the frontier that the enumeration
+         * decided, marked SAFE or BOMB. Probabilities are between 0 and 1.
+         * <p>
+         * Safety from Rep exposure:
+         * All fields are private and never returned.
+         * <p>
+         * Thread safety:
+         * Immutable once analyze() returns it, so it can be shared by the players of a game.
+         */
+
+        private final BoardSnapshot snapshot;
+        private final byte[] marks;
+        private final int[] frontier;
+        private final double[] probabilities;
+        private final double other;
+        private final int safe;
+        private final int bombs;
+        private final String command;
+        private final int bestX;
+        private final int bestY;
+        private final double bestProbability;
+
+        private Analysis(BoardSnapshot snapshot, byte[] marks, int[] frontier, double[] probabilities, double other,
+                         int safe, int bombs, String command, int best, double bestProbability) {
+            this.snapshot = snapshot;
+            this.marks = marks;
+            this.frontier = frontier;
+            this.probabilities = probabilities;
+            this.other = other;
+            this.safe = safe;
+            this.bombs = bombs;
+            this.command = command;
+            this.bestX = (command == null) ? -1 : best / snapshot.getSizeY();
+            this.bestY = (command == null) ? -1 : best % snapshot.getSizeY();
+            this.bestProbability = bestProbability;
+        }
+
+        /**
+         * @return the version of the board analyzed.
+         */
+        public long getVersion() {
+            return snapshot.getVersion();
+        }
+
+        /**
+         * @param x coordinate on the X axis of a square of the board.
+         * @param y coordinate on the Y axis of a square of the board.
+         * @return the probability that the square has a bomb: 0 for a dug square.
+         */
+        public double getProbability(int x, int y) {
+            int i = x * snapshot.getSizeY() + y;
+            if (state(snapshot.getPackedSquares(), i) < BoardSnapshot.UNTOUCHED) {
+                return 0;
+            }
+            switch (marks[i]) {
+                case SAFE:
+                    return 0;
+                case BOMB:
+                    return 1;
+                case FRONTIER:
+                    return probabilities[Arrays.binarySearch(frontier, i)];
+                default:
+                    // the active bombs don't count those flagged, so a flagged square may have one anyway
+                    return (state(snapshot.getPackedSquares(), i) == BoardSnapshot.FLAGGED) ? uncertain(other) : other;
+            }
+        }
+
+        /**
+         * @return the number of untouched or flagged squares certainly safe.
+         */
+        public int getSafeCount() {
+            return safe;
+        }
+
+        /**
+         * @return the number of untouched or flagged squares certainly with a bomb.
+         */
+        public int getBombCount() {
+            return bombs;
+        }
+
+        /**
+         * @return the best move: "dig" on an untouched square certainly safe, if there is one, else "flag"
+         *         on an untouched square certainly with a bomb, else "dig" on the untouched square least
+         *         likely to have one, or null if no square is untouched.
+         */
+        public String getCommand() {
+            return command;
+        }
+
+        /**
+         * @return the coordinate on the X axis of the square of the best move, or -1 if there is none.
+         */
+        public int getX() {
+            return bestX;
+        }
+
+        /**
+         * @return the coordinate on the Y axis of the square of the best move, or -1 if there is none.
+         */
+        public int getY() {
+            return bestY;
+        }
+
+        /**
+         * @return the probability that the square of the best move has a bomb.
+         */
+        public double getBestProbability() {
+            return bestProbability;
+        }
+    }
+
+    /**
+     * Analyzes a board, within timeoutMillis. The enumerations of the components get the first half of
+     * it, after which the components not solved yet are left unsolved, and the passes over the board
+     * the rest.
+     *
+     * @param snapshot the board, as its players see it.
+     * @param timeoutMillis longest time spent analyzing the board, in milliseconds.
+     * @return the analysis of the board, or null if it took longer than timeoutMillis.
+     * @throws IllegalArgumentException if the board has more than MAX_SQUARES squares.
+     */
+    public static Analysis analyze(BoardSnapshot snapshot, long timeoutMillis) {
+
+        if ((long) snapshot.getSizeX() * snapshot.getSizeY() > MAX_SQUARES) {
+            throw new IllegalArgumentException("boards of more than " + MAX_SQUARES + " squares are not analyzed");
+        }
+        long start = System.nanoTime();
+        long timeout = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            return analyze(snapshot, start + timeout / 2, start + timeout);
+        } catch (TimedOut timedOut) {
+            return null;
+        }
+    }
+
+    /**
+     * @param solveBy time, as given by System.nanoTime(), after which components are left unsolved.
+     * @param deadline time, as given by System.nanoTime(), after which the analysis is abandoned.
+     * @throws TimedOut past the deadline.
+     */
+    private static Analysis analyze(BoardSnapshot snapshot, long solveBy, long deadline) {
+
+        int sizeX = snapshot.getSizeX();
+        int sizeY = snapshot.getSizeY();
+        ByteBuffer packed = snapshot.getPackedSquares();
+        int squares = sizeX * sizeY;
+        byte[] marks = new byte[squares];
+
+        propagate(packed, sizeX, sizeY, marks, deadline);
+
+        // the counts still undecided, and their undecided neighbors, the frontier
+        int[] parent = new int[squares];
+        List<Integer> counts = new ArrayList<>();
+        int untouched = 0;
+        for (int i = 0; i < squares; i++) {
+            tick(i, deadline);
+            parent[i] = i;
+        }
+        for (int i = 0; i < squares; i++) {
+            tick(i, deadline);
+            int state = state(packed, i);
+            if (state >= BoardSnapshot.UNTOUCHED) {
+                untouched++;
+                continue;
+            }
+            int first = -1;
+            for (int d = 0; d < DX.length; d++) {
+                int n = neighbor(i, d, sizeX, sizeY);
+                if (n >= 0 && state(packed, n) >= BoardSnapshot.UNTOUCHED
+                        && (marks[n] == UNDECIDED || marks[n] == FRONTIER)) {
+                    marks[n] = FRONTIER;
+                    if (first < 0) {
+                        first = n;
+                    } else {
+                        union(parent, first, n);
+                    }
+                }
+            }
+            if (first >= 0) {
+                counts.add(i);
+            }
+        }
+
+        // a component per root of the frontier
+        int[] frontier = frontier(marks, deadline);
+        int[] componentOf = new int[frontier.length];
+        List<Component> components = new ArrayList<>();
+        int[] componentOfRoot = new int[squares];
+        Arrays.fill(componentOfRoot, -1);
+        for (int j = 0; j < frontier.length; j++) {
+            tick(j, deadline);
+            int root = find(parent, frontier[j]);
+            if (componentOfRoot[root] < 0) {
+                componentOfRoot[root] = components.size();
+                components.add(new Component());
+            }
+            componentOf[j] = componentOfRoot[root];
+            components.get(componentOf[j]).squares.add(frontier[j]);
+        }
+        for (int c = 0; c < counts.size(); c++) {
+            tick(c, deadline);
+            int count = counts.get(c);
+            int j = Arrays.binarySearch(frontier, firstFrontierNeighbor(count, marks, sizeX, sizeY));
+            components.get(componentOf[j]).counts.add(count);
+        }
+
+        double density = (untouched == 0) ? 0 : clamp((double) snapshot.getActiveBombs() / untouched);
+        double[] probabilities = new double[frontier.length];
+        if ( ! components.isEmpty()) {
+            Context context = new Context(packed, sizeX, sizeY, marks, frontier, probabilities, density, solveBy);
+            POOL.invoke(new Solve(context, components, 0, components.size()));
+        }
+
+        // the bombs not expected on the frontier are spread over the other untouched squares, which are
+        // certainly all safe or all bombs only if the frontier is decided, since expectations are no proof
+        double expected = 0;
+        boolean decided = true;
+        int others = 0;
+        for (int i = 0; i < squares; i++) {
+            tick(i, deadline);
+            if (state(packed, i) != BoardSnapshot.UNTOUCHED) {
+                continue;
+            }
+            if (marks[i] == BOMB) {
+                expected++;
+            } else if (marks[i] == FRONTIER) {
+                expected += probabilities[Arrays.binarySearch(frontier, i)];
+                decided = false;
+            } else if (marks[i] == UNDECIDED) {
+                others++;
+            }
+        }
+        double other = (others == 0) ? density : clamp((snapshot.getActiveBombs() - expected) / others);
+        if ( ! decided) {
+            other = uncertain(other);
+        }
+        for (Component component : components) {
+            if ( ! component.solved) {
+                for (int square : component.squares) {
+                    probabilities[Arrays.binarySearch(frontier, square)] = other;
+                }
+            }
+        }
+        return best(snapshot, marks, frontier, probabilities, other, deadline);
+    }
+
+    /**
+     * @return the analysis, with the best move: the first safe untouched square, else the first untouched
+     *         bomb, else the first untouched square least likely to have a bomb, in the order of their indices.
+     */
+    private static Analysis best(BoardSnapshot snapshot, byte[] marks, int[] frontier, double[] probabilities,
+                                 double other, long deadline) {
+
+        ByteBuffer packed = snapshot.getPackedSquares();
+        int safe = 0;
+        int bombs = 0;
+        int firstSafe = -1;
+        int firstBomb = -1;
+        int leastLikely = -1;
+        double least = 2;
+        for (int i = 0; i < marks.length; i++) {
+            tick(i, deadline);
+            int state = state(packed, i);
+            if (state < BoardSnapshot.UNTOUCHED) {
+                continue;
+            }
+            double probability;
+            if (marks[i] == SAFE) {
+                safe++;
+                probability = 0;
+            } else if (marks[i] == BOMB) {
+                bombs++;
+                probability = 1;
+            } else if (marks[i] == FRONTIER) {
+                probability = probabilities[Arrays.binarySearch(frontier, i)];
+            } else {
+                probability = other;
+            }
+            if (state != BoardSnapshot.UNTOUCHED) {
+                continue;
+            }
+            if (probability == 0 && firstSafe < 0) {
+                firstSafe = i;
+            } else if (probability == 1 && firstBomb < 0) {
+                firstBomb = i;
+            }
+            if (probability < least) {
+                least = probability;
+                leastLikely = i;
+            }
+        }
+        if (firstSafe >= 0) {
+            return new Analysis(snapshot, marks, frontier, probabilities, other, safe, bombs, "dig", firstSafe, 0);
+        } else if (firstBomb >= 0) {
+            return new Analysis(snapshot, marks, frontier, probabilities, other, safe, bombs, "flag", firstBomb, 1);
+        } else if (leastLikely >= 0) {
+            return new Analysis(snapshot, marks, frontier, probabilities, other, safe, bombs, "dig", leastLikely, least);
+        }
+        return new Analysis(snapshot, marks, frontier, probabilities, other, safe, bombs, null, -1, 0);
+    }
+
+    /**
+     * Decides the untouched squares that the counts alone decide, until no count decides any more.
+     */
+    private static void propagate(ByteBuffer packed, int sizeX, int sizeY, byte[] marks, long deadline) {
+
+        IntQueue pending = new IntQueue(1024);
+        boolean[] queued = new boolean[marks.length];
+        for (int i = 0; i < marks.length; i++) {
+            tick(i, deadline);
+            if (state(packed, i) < BoardSnapshot.UNTOUCHED) {
+                pending.add(i);
+                queued[i] = true;
+            }
+        }
+        int[] undecided = new int[DX.length];
+        for (int popped = 1; ! pending.isEmpty(); popped++) {
+            tick(popped, deadline);
+            int count = pending.poll();
+            queued[count] = false;
+            int bombsLeft = state(packed, count);
+            int free = 0;
+            for (int d = 0; d < DX.length; d++) {
+                int n = neighbor(count, d, sizeX, sizeY);
+                if (n < 0 || state(packed, n) < BoardSnapshot.UNTOUCHED) {
+                    continue;
+                }
+                if (marks[n] == BOMB) {
+                    bombsLeft--;
+                } else if (marks[n] == UNDECIDED) {
+                    undecided[free++] = n;
+                }
+            }
+            if (free == 0 || (bombsLeft != 0 && bombsLeft != free)) {
+                continue;
+            }
+            byte mark = (bombsLeft == 0) ? SAFE : BOMB;
+            for (int k = 0; k < free; k++) {
+                marks[undecided[k]] = mark;
+                // the counts around a square just decided may decide more
+                for (int d = 0; d < DX.length; d++) {
+                    int n = neighbor(undecided[k], d, sizeX, sizeY);
+                    if (n >= 0 && ! queued[n] && state(packed, n) < BoardSnapshot.UNTOUCHED) {
+                        pending.add(n);
+                        queued[n] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /** What every task solving components of the same analysis shares. */
+    private static final class Context {
+
+        final ByteBuffer packed;
+        final int sizeX;
+        final int sizeY;
+        final byte[] marks;
+        final int[] frontier;
+        final double[] probabilities;
+        /** log(p / (1 - p)), the log of the weight of a bomb. */
+        final double logRatio;
+        /** Time, as given by System.nanoTime(), after which components are left unsolved. */
+        final long solveBy;
+
+        Context(ByteBuffer packed, int sizeX, int sizeY, byte[] marks, int[] frontier, double[] probabilities,
+                double density, long solveBy) {
+            this.packed = packed;
+            this.sizeX = sizeX;
+            this.sizeY = sizeY;
+            this.marks = marks;
+            this.frontier = frontier;
+            this.probabilities = probabilities;
+            double p = uncertain(density);
+            this.logRatio = Math.log(p / (1 - p));
+            this.solveBy = solveBy;
+        }
+    }
+
+    /** Squares of the frontier that share counts, and those counts. */
+    private static final class Component {
+
+        final List<Integer> squares = new ArrayList<>();
+        final List<Integer> counts = new ArrayList<>();
+        boolean solved = false;
+    }
+
+    /**
+     * Solves the components from..to-1, forking while they have more than SEQUENTIAL_SQUARES squares.
+     * Tasks write the marks and probabilities of the squares of their own components only.
+     */
+    private static final class Solve extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Context context;
+        private final transient List<Component> components;
+        private final int from;
+        private final int to;
+
+        Solve(Context context, List<Component> components, int from, int to) {
+            this.context = context;
+            this.components = components;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int squares = 0;
+            for (int c = from; c < to; c++) {
+                squares += components.get(c).squares.size();
+            }
+            if (to - from == 1 || squares <= SEQUENTIAL_SQUARES) {
+                for (int c = from; c < to; c++) {
+                    solve(context, components.get(c));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Solve(context, components, from, middle), new Solve(context, components, middle, to));
+        }
+    }
+
+    /**
+     * Enumerates the assignments of bombs to the squares of a component that satisfy its counts, and sets
+     * the probabilities of its squares, and the marks of those safe or bombs in every assignment, unless
+     * the component has more than MAX_COMPONENT squares, or the enumeration takes more than MAX_NODES
+     * steps or runs past the deadline.
+     */
+    private static void solve(Context context, Component component) {
+
+        int n = component.squares.size();
+        if (n > MAX_COMPONENT) {
+            return;
+        }
+        int[] squares = new int[n];
+        for (int k = 0; k < n; k++) {
+            squares[k] = component.squares.get(k);
+        }
+        Arrays.sort(squares);
+
+        // every count, with the bombs it still needs and the squares of the component around it
+        int m = component.counts.size();
+        int[] need = new int[m];
+        int[][] around = new int[m][];
+        List<List<Integer>> countsOf = new ArrayList<>();
+        for (int k = 0; k < n; k++) {
+            countsOf.add(new ArrayList<>());
+        }
+        for (int c = 0; c < m; c++) {
+            int count = component.counts.get(c);
+            need[c] = state(context.packed, count);
+            int[] local = new int[DX.length];
+            int size = 0;
+            for (int d = 0; d < DX.length; d++) {
+                int neighbor = neighbor(count, d, context.sizeX, context.sizeY);
+                if (neighbor < 0 || state(context.packed, neighbor) < BoardSnapshot.UNTOUCHED) {
+                    continue;
+                }
+                if (context.marks[neighbor] == BOMB) {
+                    need[c]--;
+                } else if (context.marks[neighbor] == FRONTIER) {
+                    int k = Arrays.binarySearch(squares, neighbor);
+                    local[size++] = k;
+                    countsOf.get(k).add(c);
+                }
+            }
+            around[c] = Arrays.copyOf(local, size);
+        }
+        int[][] countsAround = new int[n][];
+        for (int k = 0; k < n; k++) {
+            countsAround[k] = countsOf.get(k).stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        Enumeration enumeration = new Enumeration(n, need, around, countsAround, context.solveBy);
+        if ( ! enumeration.run() || sum(enumeration.solutions) == 0) {
+            return;
+        }
+
+        // weigh the assignments with k bombs by ratio^k, relative to the heaviest, so nothing overflows
+        double heaviest = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k <= n; k++) {
+            if (enumeration.solutions[k] > 0) {
+                heaviest = Math.max(heaviest, Math.log(enumeration.solutions[k]) + k * context.logRatio);
+            }
+        }
+        double[] weight = new double[n + 1];
+        double total = 0;
+        for (int k = 0; k <= n; k++) {
+            if (enumeration.solutions[k] > 0) {
+                weight[k] = Math.exp(k * context.logRatio - heaviest);
+                total += enumeration.solutions[k] * weight[k];
+            }
+        }
+        for (int s = 0; s < n; s++) {
+            double bombs = 0;
+            long always = 0;
+            long never = 0;
+            for (int k = 0; k <= n; k++) {
+                bombs += enumeration.bombs[s][k] * weight[k];
+                if (enumeration.solutions[k] > 0) {
+                    always += (enumeration.bombs[s][k] == enumeration.solutions[k]) ? 1 : 0;
+                    never += (enumeration.bombs[s][k] == 0) ? 1 : 0;
+                }
+            }
+            int j = Arrays.binarySearch(context.frontier, squares[s]);
+            long kinds = nonZero(enumeration.solutions);
+            if (never == kinds) {
+                context.marks[squares[s]] = SAFE;
+                context.probabilities[j] = 0;
+            } else if (always == kinds) {
+                context.marks[squares[s]] = BOMB;
+                context.probabilities[j] = 1;
+            } else {
+                context.probabilities[j] = uncertain(bombs / total);
+            }
+        }
+        component.solved = true;
+    }
+
+    /**
+     * Depth first enumeration of the assignments of bombs to the squares of a component, counting them
+     * by their number of bombs, and, for every square, those of them where it has a bomb.
+     */
+    private static final class Enumeration {
+
+        /** Steps between two looks at the clock. */
+        private static final int CLOCK_PERIOD = 1 << 10;
+
+        final int n;
+        final int[] need;
+        final int[][] around;
+        final int[][] countsAround;
+        final long deadline;
+        /** solutions[k]: number of assignments with k bombs. */
+        final double[] solutions;
+        /** bombs[s][k]: number of assignments with k bombs where square s has one. */
+        final double[][] bombs;
+
+        private final int[] placed;
+        private final int[] left;
+        private final boolean[] bomb;
+        private long nodes = 0;
+        private boolean aborted = false;
+
+        Enumeration(int n, int[] need, int[][] around, int[][] countsAround, long deadline) {
+            this.n = n;
+            this.need = need;
+            this.around = around;
+            this.countsAround = countsAround;
+            this.deadline = deadline;
+            this.solutions = new double[n + 1];
+            this.bombs = new double[n][n + 1];
+            this.placed = new int[need.length];
+            this.left = new int[need.length];
+            this.bomb = new boolean[n];
+            for (int c = 0; c < need.length; c++) {
+                left[c] = around[c].length;
+            }
+        }
+
+        /**
+         * @return false if the enumeration was aborted, past MAX_NODES steps or the deadline.
+         */
+        boolean run() {
+            assign(0, 0);
+            return ! aborted;
+        }
+
+        private void assign(int s, int total) {
+            if (aborted) {
+                return;
+            }
+            if (++nodes > MAX_NODES || ((nodes & (CLOCK_PERIOD - 1)) == 0 && System.nanoTime() > deadline)) {
+                aborted = true;
+                return;
+            }
+            if (s == n) {
+                solutions[total]++;
+                for (int k = 0; k < n; k++) {
+                    if (bomb[k]) {
+                        bombs[k][total]++;
+                    }
+                }
+                return;
+            }
+            for (int value = 0; value <= 1; value++) {
+                boolean fits = true;
+                for (int c : countsAround[s]) {
+                    placed[c] += value;
+                    left[c]--;
+                    if (placed[c] > need[c] || placed[c] + left[c] < need[c]) {
+                        fits = false;
+                    }
+                }
+                bomb[s] = value == 1;
+                if (fits) {
+                    assign(s + 1, total + value);
+                }
+                for (int c : countsAround[s]) {
+                    placed[c] -= value;
+                    left[c]++;
+                }
+            }
+            bomb[s] = false;
+        }
+    }
+
+    private static double sum(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static long nonZero(double[] values) {
+        long nonZero = 0;
+        for (double value : values) {
+            nonZero += (value > 0) ? 1 : 0;
+        }
+        return nonZero;
+    }
+
+    private static double clamp(double probability) {
+        return Math.min(Math.max(probability, 0), 1);
+    }
+
+    /**
+     * @return probability, kept off 0 and 1, which only squares certainly safe or with a bomb get.
+     */
+    private static double uncertain(double probability) {
+        return Math.min(Math.max(probability, UNCERTAINTY), 1 - UNCERTAINTY);
+    }
+
+    /**
+     * @return the squares marked FRONTIER, in increasing order.
+     */
+    private static int[] frontier(byte[] marks, long deadline) {
+        int size = 0;
+        for (byte mark : marks) {
+            size += (mark == FRONTIER) ? 1 : 0;
+        }
+        int[] frontier = new int[size];
+        for (int i = 0, j = 0; i < marks.length; i++) {
+            tick(i, deadline);
+            if (marks[i] == FRONTIER) {
+                frontier[j++] = i;
+            }
+        }
+        return frontier;
+    }
+
+    /**
+     * Looks at the clock every TICK_PERIOD steps of a pass over the board.
+     *
+     * @param step number of steps of the pass so far.
+     * @param deadline time, as given by System.nanoTime(), after which the analysis is abandoned.
+     * @throws TimedOut past the deadline.
+     */
+    private static void tick(int step, long deadline) {
+        if ((step & (TICK_PERIOD - 1)) == 0 && System.nanoTime() > deadline) {
+            throw new TimedOut();
+        }
+    }
+
+    /** Thrown by the passes over the board past the deadline of their analysis. */
+    private static class TimedOut extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static int firstFrontierNeighbor(int count, byte[] marks, int sizeX, int sizeY) {
+        for (int d = 0; d < DX.length; d++) {
+            int n = neighbor(count, d, sizeX, sizeY);
+            if (n >= 0 && marks[n] == FRONTIER) {
+                return n;
+            }
+        }
+        throw new AssertionError("count " + count + " has no frontier square around it");
+    }
+
+    /**
+     * @return the state of square i, packed as BoardSnapshot packs it: its count if dug, UNTOUCHED or FLAGGED.
+     */
+    private static int state(ByteBuffer packed, int i) {
+        int b = packed.get(i >> 1);
+        return ((i & 1) == 0) ? (b >> 4) & 0xF : b & 0xF;
+    }
+
+    /**
+     * @return the index of the d-th neighbor of square i, or -1 if it is outside the board.
+     */
+    private static int neighbor(int i, int d, int sizeX, int sizeY) {
+        int x = i / sizeY + DX[d];
+        int y = i % sizeY + DY[d];
+        return (x < 0 || y < 0 || x >= sizeX || y >= sizeY) ? -1 : x * sizeY + y;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        parent[find(parent, a)] = find(parent, b);
+    }
+}
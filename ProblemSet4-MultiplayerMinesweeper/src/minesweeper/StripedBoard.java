@@ -0,0 +1,737 @@
+package minesweeper;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A GameBoard on which moves on different parts of the board run at the same time. Instead of one
+ * monitor for the whole board, the board is divided in regions of REGION_SIZE x REGION_SIZE squares,
+ * each one with its own lock, and a move locks only the regions it reads or writes: the region of the
+ * square, the regions of its neighbors when digging (their counts change if a bomb is dug) and every
+ * region a flood fill reaches.
+ * <p>
+ * Moves wait for locks only in increasing region order, so they never deadlock. A flood fill can't
+ * know in advance how far it goes, so it is planned before it is made. When the plan reaches a region
+ * the move doesn't hold, it locks it if that keeps the order, or if the lock happens to be free. If not,
+ * the move releases all its locks, locks again the regions held plus the missing ones, in order, and
+ * plans again. Once the plan only reaches held regions, the flood fill is made.
+ * <p>
+ * Reading the whole board (toString, getSnapshot, getBombLocations) locks every region. Otherwise it
+ * stores the board like BitBoard, and behaves exactly like Board.
+ */
+public class StripedBoard implements GameBoard {
+
+    /**
+     * Abstraction function:
+     * Represents a board from the game Minesweeper. The square (x, y) has index i = x*sizeY + y. Its
+     * state is the character squares[i], it contains a bomb iff bombs[i], it has counts[i] neighboring
+     * bombs, and it belongs to the region (x / REGION_SIZE)*regionsY + (y / REGION_SIZE), guarded by
+     * locks[region].
+     * <p>
+     * Rep invariant:
+     * squares.length == counts.length == bombs.length == sizeX*sizeY.
+     * locks.length == regionsX*regionsY, where regionsY = ceil(sizeY / REGION_SIZE).
+     * Every square has one of the 4 valid states.
+     * counts[i] is the number of bombs among the neighbors of i.
+     * activeBombCount is the number of bombs whose square is not flagged.
+     * <p>
+     * Safety from rep exposure:
+     * All fields are private and final, the arrays, locks and planners are never returned:
+     * getBombLocations() builds new Bomb objects and toString() copies the states into a new String.
+     * <p>
+     * Thread safety:
+     * sizeX, sizeY and regionsY are immutable. squares[i], counts[i] and bombs[i] are read and written
+     * only while holding the lock of the region of i. Arrays of bytes and booleans are written element
+     * by element, so squares of different regions never interfere.
+     * Moves wait for the locks of their regions in increasing order, or take them with tryLock() without
+     * waiting, and whole board reads lock all of them in increasing order, so there is no deadlock.
+     * activeBombCount and version are atomic, since moves in different regions update them at the same
+     * time. snapshot is volatile and immutable, and it is replaced while holding every lock.
+     * planners is a thread safe queue, and a Planner is used by one move at a time.
+     * <p>
+     * StripedBoard is mutable, so two boards are equal only if they are the same object, as defined by Object.
+     */
+
+    /** Number of lines, and of squares per line, of a region. */
+    public static final int REGION_SIZE = 16;
+    private static final int REGION_BITS = 4;
+
+    private final int sizeX;
+    private final int sizeY;
+    private final int regionsY;
+    private final boolean[] bombs;
+    private final byte[] counts;
+    private final byte[] squares;
+    private final ReentrantLock[] locks;
+    private final AtomicInteger activeBombCount = new AtomicInteger();
+    private final AtomicLong version = new AtomicLong();
+    /** Snapshot of the board at some version, rebuilt by getSnapshot() once the board has changed. */
+    private volatile BoardSnapshot snapshot;
+    /** Scratch space of the moves, reused so moves don't allocate. */
+    private final Queue<Planner> planners = new ConcurrentLinkedQueue<>();
+
+    /**
+     * A sorted set of region numbers, the order in which their locks are acquired.
+     */
+    private static class Regions {
+        private int[] ids = new int[8];
+        private int size = 0;
+
+        private void clear() {
+            size = 0;
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+
+        private void add(int id) {
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if (position >= 0) {
+                return;
+            }
+            position = -position - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, position, ids, position + 1, size - position);
+            ids[position] = id;
+            size++;
+        }
+
+        private void addAll(Regions other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.ids[i]);
+            }
+        }
+    }
+
+    /**
+     * Scratch space of a move: the regions it holds, the regions its flood fill plan is missing, the
+     * squares visited by the plan and the flood fill queue.
+     */
+    private static class Planner {
+        private final Regions held = new Regions();
+        private final Regions missing = new Regions();
+        private final IntQueue frontier = new IntQueue(64);
+        private final IntQueue visitedList = new IntQueue(64);
+        private BitSet visited;
+    }
+
+    /**
+     * Make a board without bombs, or with bombs placed randomly if populate is true.
+     *
+     * @param sizeX number of lines, requires MIN_SIZE <= sizeX <= MAX_SIZE.
+     * @param sizeY number of squares per line, requires MIN_SIZE <= sizeY <= MAX_SIZE.
+     * @param populate whether bombs are placed randomly, with a density of 0.2.
+     */
+    public StripedBoard(int sizeX, int sizeY, boolean populate) {
+        this(sizeX, sizeY, List.of());
+        if (populate) {
+            this.populate(0.2);
+        }
+    }
+
+    /**
+     * Make a board with bombs in the given locations.
+     *
+     * @param sizeX number of lines, requires MIN_SIZE <= sizeX <= MAX_SIZE.
+     * @param sizeY number of squares per line, requires MIN_SIZE <= sizeY <= MAX_SIZE.
+     * @param bombLocations locations of the bombs, each inside the grid.
+     */
+    public StripedBoard(int sizeX, int sizeY, List<Bomb> bombLocations) {
+        this(sizeX, sizeY, new BitSet());
+        for (Bomb bomb : bombLocations) {
+            placeBomb(bomb.getX() * sizeY + bomb.getY());
+        }
+        checkRep();
+    }
+
+    /**
+     * Make a board with a bomb in every square (x, y) whose index x*sizeY + y is set in bombs, as
+     * loaded by BoardFile, without making a Bomb object per bomb.
+     *
+     * @param sizeX number of lines, requires MIN_SIZE <= sizeX <= MAX_SIZE.
+     * @param sizeY number of squares per line, requires MIN_SIZE <= sizeY <= MAX_SIZE.
+     * @param bombs indices of the squares with a bomb, each less than sizeX*sizeY. Not modified.
+     */
+    public StripedBoard(int sizeX, int sizeY, BitSet bombs) {
+
+        if(sizeX < MIN_SIZE || sizeX > MAX_SIZE || sizeY < MIN_SIZE || sizeY > MAX_SIZE) {
+            throw new RuntimeException("These dimensions are not allowed");
+        }
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.regionsY = (sizeY + REGION_SIZE - 1) >> REGION_BITS;
+        this.bombs = new boolean[sizeX * sizeY];
+        this.counts = new byte[sizeX * sizeY];
+        this.squares = new byte[sizeX * sizeY];
+        Arrays.fill(squares, (byte) '-');
+
+        this.locks = new ReentrantLock[((sizeX + REGION_SIZE - 1) >> REGION_BITS) * regionsY];
+        for (int region = 0; region < locks.length; region++) {
+            locks[region] = new ReentrantLock();
+        }
+
+        for (int i = bombs.nextSetBit(0); i >= 0; i = bombs.nextSetBit(i + 1)) {
+            placeBomb(i);
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert squares.length == sizeX * sizeY;
+        assert counts.length == sizeX * sizeY;
+        assert bombs.length == sizeX * sizeY;
+        assert activeBombCount.get() >= 0;
+    }
+
+    /**
+     * Sets the state of every square and the version, restoring a board saved at that version. Requires a
+     * new board, made with the bombs the saved board had, and no moves made on it yet.
+     *
+     * @param packed states of the squares, packed as BoardSnapshot.getPackedSquares() packs them.
+     * @param version version of the saved board.
+     */
+    void restore(ByteBuffer packed, long version) {
+        lockAll();
+        try {
+            for (int i = 0; i < squares.length; i++) {
+                squares[i] = (byte) BoardSnapshot.unpack(packed, i);
+                if (squares[i] == 'F' && bombs[i]) {
+                    activeBombCount.decrementAndGet();
+                }
+            }
+            this.version.set(version);
+            checkRep();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Runs the moves holding the lock of every region. The locks are reentrant, so the moves take the
+     * locks of their regions again without waiting.
+     */
+    @Override
+    public void batch(Runnable moves) {
+        lockAll();
+        try {
+            moves.run();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public int getSizeX() {
+        return sizeX;
+    }
+
+    @Override
+    public int getSizeY() {
+        return sizeY;
+    }
+
+    private int region(int x, int y) {
+        return (x >> REGION_BITS) * regionsY + (y >> REGION_BITS);
+    }
+
+    private void lock(Regions regions) {
+        for (int i = 0; i < regions.size; i++) {
+            locks[regions.ids[i]].lock();
+        }
+    }
+
+    private void unlock(Regions regions) {
+        for (int i = regions.size - 1; i >= 0; i--) {
+            locks[regions.ids[i]].unlock();
+        }
+    }
+
+    private void lockAll() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int region = locks.length - 1; region >= 0; region--) {
+            locks[region].unlock();
+        }
+    }
+
+    /**
+     * Adds to regions the regions of the square (x, y) and of its neighbors.
+     */
+    private void addNeighborhood(Regions regions, int x, int y) {
+        for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, sizeX - 1); nx++) {
+            for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, sizeY - 1); ny++) {
+                regions.add(region(nx, ny));
+            }
+        }
+    }
+
+    /**
+     * Adds a bomb to the square with index i, if it doesn't have one already, and updates the
+     * counts of its neighbors. Requires the locks of the neighborhood of i.
+     */
+    private void placeBomb(int i) {
+        if (bombs[i]) {
+            return;
+        }
+        bombs[i] = true;
+        activeBombCount.incrementAndGet();
+        addToNeighborCounts(i, 1);
+    }
+
+    /**
+     * Removes the bomb in the square with index i and updates the counts of its neighbors.
+     * Requires the locks of the neighborhood of i.
+     */
+    private void removeBomb(int i) {
+        bombs[i] = false;
+        addToNeighborCounts(i, -1);
+    }
+
+    private void addToNeighborCounts(int i, int delta) {
+        int x = i / sizeY;
+        int y = i % sizeY;
+        for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, sizeX - 1); nx++) {
+            for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, sizeY - 1); ny++) {
+                if (nx != x || ny != y) {
+                    counts[nx * sizeY + ny] += delta;
+                }
+            }
+        }
+    }
+
+    private Planner planner() {
+        Planner planner = planners.poll();
+        return (planner != null) ? planner : new Planner();
+    }
+
+    @Override
+    public String setSquare(int X, int Y, String command, boolean propagate, BoardListener listener)
+            throws RuntimeException {
+
+        if(X < 0 || Y < 0 || X >= sizeX || Y >= sizeY) {
+            throw new RuntimeException("Out of bounds square");
+        }
+        int i = X * sizeY + Y;
+
+        // moves without a flood fill touch at most the 4 regions around the square, locked directly
+        boolean dug = command.equals("dug");
+        lockNeighborhood(X, Y, dug);
+        try {
+            if (listener != null) {
+                listener.locked();
+            }
+            if ( ! isFloodFill(i, command, propagate)) {
+                return move(i, command, false, null, listener);
+            }
+        } finally {
+            unlockNeighborhood(X, Y, dug);
+        }
+
+        Planner planner = planner();
+        try {
+            Regions held = planner.held;
+            held.clear();
+            if (command.equals("dug")) {
+                addNeighborhood(held, X, Y);
+            } else {
+                held.add(region(X, Y));
+            }
+
+            while (true) {
+                lock(held);
+                try {
+                    boolean floodFill = isFloodFill(i, command, propagate);
+                    if ( ! floodFill || plan(i, planner)) {
+                        return move(i, command, floodFill, planner, listener);
+                    }
+                } finally {
+                    unlock(held);
+                }
+                held.addAll(planner.missing);
+            }
+        } finally {
+            planners.add(planner);
+        }
+    }
+
+    /**
+     * @return whether the move digs the square with index i with a flood fill. Requires the lock of the region of i.
+     */
+    private boolean isFloodFill(int i, String command, boolean propagate) {
+        return command.equals("dug") && propagate && squares[i] == '-' && counts[i] == 0;
+    }
+
+    /**
+     * Locks the region of the square (x, y) and, if neighbors is true, the regions of its neighbors.
+     * The 3x3 neighborhood spans at most 2x2 regions: a <= b <= c <= d below, locked in this order.
+     */
+    private void lockNeighborhood(int x, int y, boolean neighbors) {
+        if ( ! neighbors) {
+            locks[region(x, y)].lock();
+            return;
+        }
+        int x0 = Math.max(x - 1, 0);
+        int x1 = Math.min(x + 1, sizeX - 1);
+        int y0 = Math.max(y - 1, 0);
+        int y1 = Math.min(y + 1, sizeY - 1);
+        int a = region(x0, y0);
+        int b = region(x0, y1);
+        int c = region(x1, y0);
+        int d = region(x1, y1);
+
+        locks[a].lock();
+        if (b != a) {
+            locks[b].lock();
+        }
+        if (c != a) {
+            locks[c].lock();
+        }
+        if (d != b && d != c) {
+            locks[d].lock();
+        }
+    }
+
+    /**
+     * Unlocks what lockNeighborhood(x, y, neighbors) locked.
+     */
+    private void unlockNeighborhood(int x, int y, boolean neighbors) {
+        if ( ! neighbors) {
+            locks[region(x, y)].unlock();
+            return;
+        }
+        int x0 = Math.max(x - 1, 0);
+        int x1 = Math.min(x + 1, sizeX - 1);
+        int y0 = Math.max(y - 1, 0);
+        int y1 = Math.min(y + 1, sizeY - 1);
+        int a = region(x0, y0);
+        int b = region(x0, y1);
+        int c = region(x1, y0);
+        int d = region(x1, y1);
+
+        if (d != b && d != c) {
+            locks[d].unlock();
+        }
+        if (c != a) {
+            locks[c].unlock();
+        }
+        if (b != a) {
+            locks[b].unlock();
+        }
+        locks[a].unlock();
+    }
+
+    /**
+     * Makes the move on the square with index i. Requires the locks of every square it reads or writes.
+     * planner is only used by flood fills, and may be null otherwise.
+     *
+     * @return "bomb", "true" or "false", as setSquare().
+     */
+    private String move(int i, String command, boolean floodFill, Planner planner, BoardListener listener) {
+
+        String outcome = "false";
+        if (command.equals("dug")) {
+            outcome = setDug(i, floodFill, planner, listener);
+        } else if (command.equals("flagged")) {
+            outcome = setFlagged(i, listener) ? "true" : "false";
+        }
+
+        if (!outcome.equals("false")) {
+            long newVersion = version.incrementAndGet();
+            if (listener != null) {
+                listener.moveApplied(newVersion, activeBombCount.get());
+            }
+        }
+        return outcome;
+    }
+
+    @Override
+    public long getVersion() {
+        return version.get();
+    }
+
+    @Override
+    public BoardSnapshot getSnapshot() {
+
+        BoardSnapshot current = snapshot;
+        if (current != null && current.getVersion() == version.get()) {
+            return current;
+        }
+        lockAll();
+        try {
+            if (snapshot == null || snapshot.getVersion() != version.get()) {
+                snapshot = new BoardSnapshot(version.get(), render());
+            }
+            return snapshot;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Toggles the square with index i between untouched and flagged, keeping activeBombCount.
+     *
+     * @return Whether the status was successfully changed.
+     */
+    private boolean setFlagged(int i, BoardListener listener) {
+
+        if (squares[i] == '-') {
+            setState(i, (byte) 'F', listener);
+            if (bombs[i]) {
+                activeBombCount.decrementAndGet();
+            }
+            return true;
+
+        } else if (squares[i] == 'F') {
+            setState(i, (byte) '-', listener);
+            if (bombs[i]) {
+                activeBombCount.incrementAndGet();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Digs the untouched square with index i, revealing its count, or flood fills from it if floodFill
+     * is true. A bomb in the square is removed.
+     *
+     * @return "bomb" if a bomb was found. "true" if the square was dug without finding a bomb.
+     * "false" if the board was not modified.
+     */
+    private String setDug(int i, boolean floodFill, Planner planner, BoardListener listener) {
+
+        if (squares[i] != '-') {
+            return "false";
+        }
+
+        if (floodFill) {
+            floodFill(i, planner.frontier, listener);
+        } else {
+            reveal(i, listener);
+        }
+
+        if (bombs[i]) {
+            removeBomb(i);
+            activeBombCount.decrementAndGet();
+            return "bomb";
+        }
+        return "true";
+    }
+
+    private void reveal(int i, BoardListener listener) {
+        setState(i, (counts[i] == 0) ? (byte) ' ' : (byte) ('0' + counts[i]), listener);
+    }
+
+    /**
+     * Sets the state of the square with index i, telling the listener, if not null, when it changes.
+     */
+    private void setState(int i, byte state, BoardListener listener) {
+        if (squares[i] != state) {
+            squares[i] = state;
+            if (listener != null) {
+                listener.squareChanged(i / sizeY, i % sizeY, (char) state);
+            }
+        }
+    }
+
+    private static boolean isUntouchedOrCount(byte square) {
+        return square == '-' || (square >= '1' && square <= '8');
+    }
+
+    /**
+     * Locks a region a flood fill reached, and adds it to held, if it can be done without deadlock: either
+     * it comes after every region held, so the lock order is kept, or its lock is free right now.
+     *
+     * @return whether the region was locked.
+     */
+    private boolean acquire(int region, Regions held) {
+        if (region > held.ids[held.size - 1]) {
+            locks[region].lock();
+        } else if ( ! locks[region].tryLock()) {
+            return false;
+        }
+        held.add(region);
+        return true;
+    }
+
+    /**
+     * Plans the flood fill from the square with index i without changing the board, visiting the same
+     * squares floodFill() would. When it reaches a region the move doesn't hold, it tries to lock it
+     * without breaking the lock order. If it can't, the squares of that region are not visited and the
+     * region is added to planner.missing instead.
+     *
+     * @return true if the flood fill only reaches regions in planner.held, so it can be made now.
+     */
+    private boolean plan(int i, Planner planner) {
+
+        Regions missing = planner.missing;
+        IntQueue frontier = planner.frontier;
+        IntQueue visitedList = planner.visitedList;
+        if (planner.visited == null || planner.visited.size() < squares.length) {
+            planner.visited = new BitSet(squares.length);
+        }
+        BitSet visited = planner.visited;
+
+        missing.clear();
+        frontier.clear();
+        visited.set(i);
+        visitedList.add(i);
+        frontier.add(i);
+        int heldRegion = -1;
+
+        while (!frontier.isEmpty()) {
+            int current = frontier.poll();
+            int x = current / sizeY;
+            int y = current % sizeY;
+
+            for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, sizeX - 1); nx++) {
+                for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, sizeY - 1); ny++) {
+                    int neighbor = nx * sizeY + ny;
+                    if (visited.get(neighbor)) {
+                        continue;
+                    }
+                    // neighbors mostly share the region of the last one, checked already
+                    int region = region(nx, ny);
+                    if (region != heldRegion) {
+                        if (!planner.held.contains(region) && !acquire(region, planner.held)) {
+                            missing.add(region);
+                            continue;
+                        }
+                        heldRegion = region;
+                    }
+                    visited.set(neighbor);
+                    visitedList.add(neighbor);
+                    if (isUntouchedOrCount(squares[neighbor]) && counts[neighbor] == 0) {
+                        frontier.add(neighbor);
+                    }
+                }
+            }
+        }
+
+        while (!visitedList.isEmpty()) {
+            visited.clear(visitedList.poll());
+        }
+        return missing.isEmpty();
+    }
+
+    /**
+     * Digs the square with index i, which has no neighboring bombs, and every untouched square
+     * reachable from it through squares without neighboring bombs, breadth first, as BitBoard does.
+     * Requires the locks of every region plan() reached.
+     */
+    private void floodFill(int i, IntQueue frontier, BoardListener listener) {
+
+        frontier.clear();
+        reveal(i, listener);
+        frontier.add(i);
+
+        while (!frontier.isEmpty()) {
+            int current = frontier.poll();
+            int x = current / sizeY;
+            int y = current % sizeY;
+
+            for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, sizeX - 1); nx++) {
+                for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, sizeY - 1); ny++) {
+                    int neighbor = nx * sizeY + ny;
+                    if (!isUntouchedOrCount(squares[neighbor])) {
+                        continue;
+                    }
+                    reveal(neighbor, listener);
+                    if (counts[neighbor] == 0) {
+                        frontier.add(neighbor);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getNumberActiveBombs() {
+        return activeBombCount.get();
+    }
+
+    @Override
+    public List<Bomb> getBombLocations() {
+        lockAll();
+        try {
+            List<Bomb> locations = new ArrayList<>();
+            for (int i = 0; i < squares.length; i++) {
+                if (bombs[i]) {
+                    Bomb bomb = new Bomb(i / sizeY, i % sizeY);
+                    bomb.setFlag(squares[i] == 'F');
+                    locations.add(bomb);
+                }
+            }
+            return locations;
+        } finally {
+            unlockAll();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lockAll();
+        try {
+            return render();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Renders the board as toString() specifies. Requires every lock.
+     */
+    private String render() {
+
+        StringBuilder result = new StringBuilder(32 + sizeX * (sizeY * 3 + 2));
+        result.append("\r\nSize: ").append(sizeX).append("x").append(sizeY)
+                .append(" Bombs: ").append(activeBombCount.get()).append("\r\n");
+
+        for (int x = 0; x < sizeX; x++) {
+            result.append('[');
+            for (int y = 0; y < sizeY; y++) {
+                if (y > 0) {
+                    result.append(", ");
+                }
+                result.append((char) squares[x * sizeY + y]);
+            }
+            result.append("]\r\n");
+        }
+        return result.toString();
+    }
+
+    /**
+     * Places (int) (sizeX*sizeY*density) bombs in random squares, so that no square has two bombs,
+     * where a BombPlacement with a random seed puts them.
+     * Called only by the constructor, before the board is shared.
+     * @param density desired density for the bombs.
+     */
+    private void populate(double density) {
+
+        BitSet placed = new BombPlacement(density, new Random().nextLong(), false).place(sizeX, sizeY);
+        for (int i = placed.nextSetBit(0); i >= 0; i = placed.nextSetBit(i + 1)) {
+            placeBomb(i);
+        }
+        checkRep();
+    }
+}
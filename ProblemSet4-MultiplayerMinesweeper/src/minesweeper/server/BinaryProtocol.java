@@ -0,0 +1,215 @@
+package minesweeper.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import minesweeper.BoardSnapshot;
+
+/**
+ * BinaryProtocol is a compact alternative to the text protocol, for clients such as bots that parse
+ * boards programmatically. A client asks for it by answering the username prompt with "BINARY NAME"
+ * instead of its name. Every message after that line, in both directions, is a frame:
+ * <pre>
+ *   FRAME ::= LENGTH OPCODE PAYLOAD
+ *   LENGTH ::= int32, number of bytes of OPCODE and PAYLOAD
+ *   OPCODE ::= uint8
+ * </pre>
+ * with every integer big endian. Requests:
+ * <pre>
+ *   LOOK    0x01                      DIG     0x02 X:uint16 Y:uint16
+ *   FLAG    0x03 X:uint16 Y:uint16    DEFLAG  0x04 X:uint16 Y:uint16
+ *   BYE     0x05
+ * </pre>
+ * Responses:
+ * <pre>
+ *   BOARD   0x80 STATUS:uint8 SIZE_X:uint16 SIZE_Y:uint16 BOMBS:int32 SQUARES
+ *   GOODBYE 0x85
+ *   ERROR   0xFF MESSAGE, in UTF-8
+ * </pre>
+ * Every request but BYE is answered with a BOARD, whose STATUS is LOOKED for LOOK, and MOVED, REJECTED
+ * (not possible now, or outside the board) or EXPLODED for a move. SQUARES are the squares packed in 4
+ * bits each, as BoardSnapshot.getPackedSquares() describes. Unless the server is in debug mode, the
+ * connection is closed after EXPLODED, as after GOODBYE and ERROR, which answers malformed frames.
+ */
+class BinaryProtocol {
+
+    /**
+     * Abstraction function:
+     * Represents the binary protocol spoken on the connection whose streams are in and out, with a
+     * client in the game whose protocol is game.
+     * <p>
+     * Representation invariant:
+     * payload is large enough for the payload of every valid request.
+     * <p>
+     * Safety from Rep exposure:
+     * All fields are private. The streams are never returned. squares is a view of out.
+     * <p>
+     * Thread safety:
+     * Not thread safe. A BinaryProtocol is confined to the thread serving its connection; game is thread safe.
+     */
+
+    /** Answer to the username prompt asking for this protocol, followed by a space and the name. */
+    static final String HANDSHAKE = "BINARY";
+
+    static final int LOOK = 0x01;
+    static final int DIG = 0x02;
+    static final int FLAG = 0x03;
+    static final int DEFLAG = 0x04;
+    static final int BYE = 0x05;
+
+    static final int BOARD = 0x80;
+    static final int GOODBYE = 0x85;
+    static final int ERROR = 0xFF;
+
+    static final int LOOKED = 0;
+    static final int MOVED = 1;
+    static final int REJECTED = 2;
+    static final int EXPLODED = 3;
+
+    /** Length of the longest valid request, a move: opcode and two uint16. */
+    private static final int MAX_REQUEST_LENGTH = 5;
+    /** Length of a BOARD frame without its squares. */
+    private static final int BOARD_HEADER_LENGTH = 1 + 1 + 2 + 2 + 4;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    /** out as a channel, to write the packed squares without copying them first. */
+    private final WritableByteChannel squares;
+    private final Protocol game;
+    /** Player of the connection, scored for its moves. */
+    private final Player player;
+    private final byte[] payload = new byte[MAX_REQUEST_LENGTH - 1];
+
+    /**
+     * Make a BinaryProtocol serving a connection.
+     *
+     * @param in stream of the frames from the client, buffered.
+     * @param out stream of the frames to the client, buffered. Every response is flushed.
+     * @param game protocol of the game the client is in.
+     * @param player player of the connection, or null not to score its moves.
+     */
+    BinaryProtocol(DataInputStream in, DataOutputStream out, Protocol game, Player player) {
+        this.in = in;
+        this.out = out;
+        this.squares = Channels.newChannel(out);
+        this.game = game;
+        this.player = player;
+    }
+
+    /**
+     * Reads a request and answers it.
+     *
+     * @return whether the connection stays open: false once the client has said bye, activated a bomb
+     *         out of debug mode, sent a malformed frame or closed its side of the connection.
+     * @throws IOException if the connection fails.
+     */
+    boolean handleRequest() throws IOException {
+
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException eof) {
+            return false;
+        }
+        if (length < 1 || length > MAX_REQUEST_LENGTH) {
+            return error("bad frame length " + length);
+        }
+        int opcode = in.readUnsignedByte();
+        in.readFully(payload, 0, length - 1);
+
+        Metrics metrics = game.getMetrics();
+        if (metrics == null) {
+            return answer(opcode, length);
+        }
+        long start = System.nanoTime();
+        try {
+            return answer(opcode, length);
+        } finally {
+            metrics.requestHandled(command(opcode), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Answers the request read in payload.
+     *
+     * @return whether the connection stays open.
+     */
+    private boolean answer(int opcode, int length) throws IOException {
+
+        if (opcode == LOOK && length == 1) {
+            writeBoard(LOOKED);
+            return true;
+        } else if (opcode == BYE && length == 1) {
+            out.writeInt(1);
+            out.writeByte(GOODBYE);
+            out.flush();
+            return false;
+        } else if ((opcode == DIG || opcode == FLAG || opcode == DEFLAG) && length == MAX_REQUEST_LENGTH) {
+            int x = ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF);
+            int y = ((payload[2] & 0xFF) << 8) | (payload[3] & 0xFF);
+            return move(opcode, x, y);
+        }
+        return error("bad request " + opcode + " of length " + length);
+    }
+
+    /**
+     * @return the command of Metrics the request with the given opcode is counted as.
+     */
+    private static int command(int opcode) {
+        switch (opcode) {
+            case LOOK: return Metrics.LOOK;
+            case DIG: return Metrics.DIG;
+            case FLAG: return Metrics.FLAG;
+            case DEFLAG: return Metrics.DEFLAG;
+            case BYE: return Metrics.BYE;
+            default: return Metrics.OTHER;
+        }
+    }
+
+    private boolean move(int opcode, int x, int y) throws IOException {
+
+        if (x >= game.getSizeX() || y >= game.getSizeY()) {
+            writeBoard(REJECTED);
+            return true;
+        }
+        String outcome = (opcode == DIG) ? game.move(x, y, "dug", true, player) : game.move(x, y, "flagged", false);
+
+        if (outcome.equals("bomb")) {
+            writeBoard(EXPLODED);
+            return game.isDebug();
+        }
+        writeBoard(outcome.equals("true") ? MOVED : REJECTED);
+        return true;
+    }
+
+    private void writeBoard(int status) throws IOException {
+
+        BoardSnapshot snapshot = game.getSnapshot();
+        ByteBuffer packed = snapshot.getPackedSquares();
+        out.writeInt(BOARD_HEADER_LENGTH + packed.remaining());
+        out.writeByte(BOARD);
+        out.writeByte(status);
+        out.writeShort(snapshot.getSizeX());
+        out.writeShort(snapshot.getSizeY());
+        out.writeInt(snapshot.getActiveBombs());
+        while (packed.hasRemaining()) {
+            squares.write(packed);
+        }
+        out.flush();
+    }
+
+    private boolean error(String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(1 + bytes.length);
+        out.writeByte(ERROR);
+        out.write(bytes);
+        out.flush();
+        return false;
+    }
+}
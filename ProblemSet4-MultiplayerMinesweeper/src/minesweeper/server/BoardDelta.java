@@ -0,0 +1,136 @@
+package minesweeper.server;
+
+import java.util.function.Consumer;
+
+import minesweeper.BoardListener;
+
+/**
+ * BoardDelta collects the squares changed by a single move and writes them in the format sent to the
+ * clients in delta mode:
+ * <pre>
+ *   DELTA ::= NEWLINE "Delta: " VERSION " Bombs: " INT " Squares: " INT NEWLINE CHANGE*
+ *   CHANGE ::= X SPACE Y SPACE "[" STATE "]" NEWLINE
+ *   STATE ::= "-" | "F" | " " | [1-8]
+ * </pre>
+ * where VERSION numbers the moves that changed the board, starting at 1, Bombs is the number of
+ * active bombs after the move, Squares is the number of CHANGE lines, and STATE is the new state of
+ * the square as shown by "look". A client keeps its copy of the board current by applying every
+ * delta in the order received, and can resynchronize at any time with "look". Deltas changing the
+ * same square are always received in VERSION order; on boards that run moves concurrently, deltas of
+ * moves on distant squares may be received out of VERSION order.
+ * <p>
+ * A delta made while no client is in delta mode is not listed: it only counts the squares changed,
+ * which scoring needs, without writing their CHANGE lines.
+ */
+class BoardDelta implements BoardListener {
+
+    /**
+     * Abstraction function:
+     * Represents the changed squares listed in changes, if listed, count of them, made by the move number version,
+     * which left activeBombs bombs on the board. onApplied is given the delta once the move is applied.
+     * If timed, lockedNanos is the System.nanoTime() at which the move got the lock of the board.
+     * <p>
+     * Representation invariant:
+     * changes is null if not listed, otherwise it has exactly count CHANGE lines.
+     * <p>
+     * Safety from Rep exposure:
+     * All fields are private. toString() copies changes into a new String.
+     * <p>
+     * Thread safety:
+     * Not thread safe. A BoardDelta is confined to the thread making the move, and is written while
+     * it holds the lock of the board. onApplied must not keep a reference to it, only to its text.
+     */
+
+    private static final String NEWLINE = "\r\n";
+
+    private final StringBuilder changes;
+    private int count = 0;
+    private long version;
+    private int activeBombs;
+    private long lockedNanos;
+    private final Consumer<BoardDelta> onApplied;
+    private final boolean timed;
+
+    /**
+     * Make an empty delta.
+     *
+     * @param onApplied given the delta when the board reports the move applied, still under the lock of the
+     *                  board, so it can hand the delta's text over in the order of the moves.
+     */
+    BoardDelta(Consumer<BoardDelta> onApplied) {
+        this(onApplied, false, true);
+    }
+
+    /**
+     * Make an empty delta.
+     *
+     * @param onApplied given the delta when the board reports the move applied, still under the lock of the
+     *                  board, so it can hand the delta's text over in the order of the moves.
+     * @param timed whether to read the clock when the move gets the lock of the board.
+     * @param listed whether to write the CHANGE lines of the squares changed, or only count them.
+     */
+    BoardDelta(Consumer<BoardDelta> onApplied, boolean timed, boolean listed) {
+        this.onApplied = onApplied;
+        this.timed = timed;
+        this.changes = listed ? new StringBuilder() : null;
+    }
+
+    @Override
+    public void locked() {
+        if (timed) {
+            lockedNanos = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void squareChanged(int x, int y, char state) {
+        if (changes != null) {
+            changes.append(x).append(' ').append(y).append(" [").append(state).append(']').append(NEWLINE);
+        }
+        count++;
+    }
+
+    @Override
+    public void moveApplied(long version, int activeBombs) {
+        this.version = version;
+        this.activeBombs = activeBombs;
+        onApplied.accept(this);
+    }
+
+    /**
+     * @return the number of squares changed by the move.
+     */
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * @return whether the delta lists the squares changed, so it can be sent with toString().
+     */
+    boolean isListed() {
+        return changes != null;
+    }
+
+    /**
+     * @return the version of the board after the move, once the board reported it applied.
+     */
+    long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the System.nanoTime() at which the move got the lock of the board, if the delta is timed.
+     */
+    long getLockedNanos() {
+        return lockedNanos;
+    }
+
+    /**
+     * @return the delta as sent to the clients in delta mode, requires the delta to be listed.
+     */
+    @Override
+    public String toString() {
+        assert changes != null;
+        return NEWLINE + "Delta: " + version + " Bombs: " + activeBombs + " Squares: " + count + NEWLINE + changes;
+    }
+}
@@ -0,0 +1,44 @@
+package minesweeper.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A Client is the server's side of the connection with a player, able to receive messages the
+ * player didn't ask for, such as the changes made to the board by the other players.
+ */
+public interface Client {
+
+    /**
+     * Sends a message to the client, after the messages already sent to it. Can be called from any
+     * thread. A client that has disconnected ignores the message.
+     *
+     * @param message message to the client. A line terminator is appended.
+     */
+    public void push(String message);
+
+    /**
+     * Sends a message already encoded, such as an update shared by every spectator of a game, as
+     * push(String) does. Clients writing bytes send it as is, without encoding it again.
+     *
+     * @param message bytes of the message in the default charset, without a line terminator, which
+     *                is appended. The client may keep the buffer, whose content never changes.
+     */
+    public default void push(ByteBuffer message) {
+        push(Charset.defaultCharset().decode(message).toString());
+    }
+
+    /**
+     * @return the player of this client, or null if it hasn't identified itself yet.
+     */
+    public Player getPlayer();
+
+    /**
+     * Called by the protocol of the game the client was in, once the client has joined another game.
+     * The requests of the client are handled by the protocol of that game from then on. Called from the
+     * thread handling the client's requests.
+     *
+     * @param game protocol of the game joined.
+     */
+    public void joined(Protocol game);
+}
@@ -0,0 +1,182 @@
+package minesweeper.server;
+
+/**
+ * Command is a request of the text protocol, recognized by its first word and the shape of its
+ * arguments. of() recognizes a request with a table lookup by the first letter and a single pass over
+ * the line, without regular expressions, splitting or allocating, so malformed requests are rejected
+ * as cheaply as valid ones are recognized. number() then reads the numbers of a recognized request in
+ * place.
+ */
+enum Command {
+
+    LOOK("look", Arguments.NONE),
+    HELP("help", Arguments.NONE),
+    BYE("bye", Arguments.NONE),
+    TEST("test", Arguments.NONE),
+    HELLO("hello", Arguments.NONE),
+    STATS("stats", Arguments.NONE),
+    HINT("hint", Arguments.NONE),
+    PLAYERS("players", Arguments.OPTIONAL_NUMBER),
+    JOIN("join", Arguments.WORD),
+    NEW("new", Arguments.TWO_NUMBERS),
+    BATCH("batch", Arguments.TEXT),
+    DELTA("delta", Arguments.WORD),
+    DIG("dig", Arguments.TWO_NUMBERS),
+    FLAG("flag", Arguments.TWO_NUMBERS),
+    DEFLAG("deflag", Arguments.TWO_NUMBERS);
+
+    /** Shapes of the arguments following the first word of a request, separated by single spaces. */
+    private enum Arguments {
+        /** Nothing. */
+        NONE,
+        /** A number, or nothing. */
+        OPTIONAL_NUMBER,
+        /** A word without spaces. */
+        WORD,
+        /** Two numbers. */
+        TWO_NUMBERS,
+        /** Any non empty text. */
+        TEXT
+    }
+
+    /** Most digits of a number, so every number read fits an int. */
+    private static final int MAX_DIGITS = 9;
+
+    /** Commands by the first letter of their name, 'a' to 'z'. */
+    private static final Command[][] BY_INITIAL = new Command[26][];
+
+    static {
+        for (char initial = 'a'; initial <= 'z'; initial++) {
+            int count = 0;
+            for (Command command : values()) {
+                if (command.name.charAt(0) == initial) {
+                    count++;
+                }
+            }
+            BY_INITIAL[initial - 'a'] = new Command[count];
+            for (Command command : values()) {
+                if (command.name.charAt(0) == initial) {
+                    BY_INITIAL[initial - 'a'][--count] = command;
+                }
+            }
+        }
+    }
+
+    /** First word of the request. */
+    final String name;
+    /** Index of the first argument in the request. */
+    final int start;
+    /** Command of Metrics the request is counted as. */
+    final int metric;
+    private final Arguments arguments;
+
+    private Command(String name, Arguments arguments) {
+        this.name = name;
+        this.start = name.length() + 1;
+        this.metric = Metrics.command(name);
+        this.arguments = arguments;
+    }
+
+    /**
+     * Recognizes a request.
+     *
+     * @param input request of a client.
+     * @return the command of the request, or null if the request is not one of the text protocol: an
+     *         unknown first word, or arguments of the wrong shape. Numbers are integers of at most
+     *         MAX_DIGITS digits, with an optional '-' sign.
+     */
+    static Command of(String input) {
+        if (input.isEmpty()) {
+            return null;
+        }
+        int initial = input.charAt(0) - 'a';
+        if (initial < 0 || initial >= BY_INITIAL.length) {
+            return null;
+        }
+        for (Command command : BY_INITIAL[initial]) {
+            if (input.startsWith(command.name) && command.accepts(input)) {
+                return command;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param input a request starting with the name of this command.
+     * @return whether the arguments of the request have the shape this command takes.
+     */
+    private boolean accepts(String input) {
+        int length = input.length();
+        if (length == name.length()) {
+            return arguments == Arguments.NONE || arguments == Arguments.OPTIONAL_NUMBER;
+        }
+        if (input.charAt(name.length()) != ' ') {
+            return false;
+        }
+        switch (arguments) {
+            case OPTIONAL_NUMBER:
+                return numberEnd(input, start) == length;
+            case WORD:
+                return start < length && input.indexOf(' ', start) < 0;
+            case TWO_NUMBERS:
+                int end = numberEnd(input, start);
+                return end > 0 && end < length && input.charAt(end) == ' ' && numberEnd(input, end + 1) == length;
+            case TEXT:
+                return start < length;
+            case NONE:
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return the index just after the number starting at from in input, or -1 if there is no number of
+     *         at most MAX_DIGITS digits there.
+     */
+    private static int numberEnd(String input, int from) {
+        int i = from;
+        if (i < input.length() && input.charAt(i) == '-') {
+            i++;
+        }
+        int digits = i;
+        while (i < input.length() && i - digits < MAX_DIGITS && isDigit(input.charAt(i))) {
+            i++;
+        }
+        if (i == digits || (i < input.length() && isDigit(input.charAt(i)))) {
+            return -1;
+        }
+        return i;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Reads a number of a request recognized by of().
+     *
+     * @param input a request of this command.
+     * @param from index of the number in input: start for the first one.
+     * @return the number.
+     */
+    static int number(String input, int from) {
+        int i = from;
+        boolean negative = input.charAt(i) == '-';
+        if (negative) {
+            i++;
+        }
+        int number = 0;
+        for (; i < input.length() && input.charAt(i) != ' '; i++) {
+            number = number * 10 + (input.charAt(i) - '0');
+        }
+        return negative ? -number : number;
+    }
+
+    /**
+     * @param input a request of this command taking TWO_NUMBERS.
+     * @return the index of the second number in input.
+     */
+    int second(String input) {
+        return input.indexOf(' ', start) + 1;
+    }
+}
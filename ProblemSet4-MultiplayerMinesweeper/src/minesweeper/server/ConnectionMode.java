@@ -0,0 +1,52 @@
+package minesweeper.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ConnectionMode tells the server how client connections are served. Every mode speaks the same
+ * text protocol, they only differ in which threads run the connections.
+ */
+public enum ConnectionMode {
+
+    /** One platform Thread running a PlayerThread per connection. */
+    THREAD,
+    /** One virtual thread running a PlayerThread per connection. Requires Java 21 or later. */
+    VIRTUAL_THREAD,
+    /** Every connection multiplexed on the event loops of a NioFrontEnd. */
+    NIO;
+
+    /**
+     * Returns whether the running JVM can use this mode.
+     *
+     * @return false if this mode is VIRTUAL_THREAD and the JVM doesn't provide virtual threads, otherwise true.
+     */
+    public boolean isSupported() {
+        if (this != VIRTUAL_THREAD) {
+            return true;
+        }
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException nsme) {
+            return false;
+        }
+    }
+
+    /**
+     * Makes an executor that starts a new virtual thread for each task.
+     * <p>
+     * Executors.newVirtualThreadPerTaskExecutor() only exists from Java 21 on, so it is looked up
+     * reflectively. That way the server still builds and runs its other modes on older JDKs.
+     *
+     * @return a new virtual thread per task executor.
+     * @throws UnsupportedOperationException if the running JVM doesn't provide virtual threads.
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException roe) {
+            throw new UnsupportedOperationException("virtual threads require Java 21 or later", roe);
+        }
+    }
+}
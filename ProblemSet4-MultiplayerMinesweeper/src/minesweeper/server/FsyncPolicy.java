@@ -0,0 +1,18 @@
+package minesweeper.server;
+
+/**
+ * FsyncPolicy tells a MoveLog when the moves it has written are forced to the disk, trading the
+ * throughput of the moves for how many of them a crash of the machine can lose.
+ */
+public enum FsyncPolicy {
+
+    /** Every batch of moves is forced to the disk before the moves in it are answered. No move answered is lost. */
+    ALWAYS,
+    /** Batches are forced at most once per PERIOD_MILLIS, and moves are answered without waiting. */
+    PERIODIC,
+    /** Batches are written without forcing them, the operating system decides when they reach the disk. */
+    NEVER;
+
+    /** How often PERIODIC forces the batches written to the disk. */
+    public static final long PERIOD_MILLIS = 1000;
+}
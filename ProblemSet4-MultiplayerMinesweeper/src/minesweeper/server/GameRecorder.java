@@ -0,0 +1,504 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import minesweeper.BoardSnapshot;
+import minesweeper.BoardStorage;
+import minesweeper.Bomb;
+import minesweeper.BombPlacement;
+import minesweeper.GameBoard;
+
+/**
+ * GameRecorder records a game to replay it offline: how its board was made, then every move that changed
+ * the board, with the time it was made, in a compact binary file. Recording.replay() makes the moves of a
+ * recording again on a new board, as fast as the board takes them, which ends in the board recorded.
+ * <p>
+ * A recording is a single file:
+ * <pre>
+ *   recording ::= MAGIC FORMAT STORAGE:uint8 X Y START BOARD RECORD*
+ *   BOARD ::= PLACEMENT DENSITY:float64 SEED:int64 SAFE:uint8
+ *           | SQUARES VERSION BOMBS SQUARES
+ *   RECORD ::= (DELAY &lt;&lt; 2 | OP):varint X:varint Y:varint
+ * </pre>
+ * where MAGIC is "MSWR", FORMAT is 1, STORAGE is the ordinal of the BoardStorage of the board, X and Y
+ * are int32, START is the int64 time the recording started, in milliseconds since the epoch, PLACEMENT
+ * is 0 and SQUARES 1. A board made from a BombPlacement is recorded by its placement, SAFE being 1 if it
+ * is first click safe, any other board by its version, bombs and squares, as MoveLog saves them. DELAY
+ * is the time since the previous record, or START, in milliseconds, and OP is as in MoveLog. varints
+ * are unsigned LEB128, so a move on a board of less than 128 squares a side, made within a few seconds
+ * of the previous one, takes 3 or 4 bytes. Every other integer is big endian.
+ * <p>
+ * Moves are appended to memory by the threads making them, and written to the file every FLUSH_MILLIS
+ * by a single thread shared by every recorder. A record torn by a crash is ignored when reading.
+ * Recordings are for debugging and tuning: a recorder that can't write its file prints why and stops
+ * recording, without failing the moves.
+ */
+public class GameRecorder {
+
+    /**
+     * Abstraction function:
+     * Represents the recording of a game in file: the header written by create(), then the records in
+     * file, then the records in pending. last is the time of the last record, in milliseconds since the
+     * epoch. flushing runs flush() every FLUSH_MILLIS until the recorder is closed or fails.
+     * <p>
+     * Representation invariant:
+     * pending holds whole records. last is at least START.
+     * <p>
+     * Safety from Rep exposure:
+     * All fields are private, the channel and the buffers are never returned.
+     * <p>
+     * Thread safety:
+     * pending, last and stopped are guarded by the lock of this, which record() only takes for a few
+     * writes to memory, so it can be called by a board while it holds its own locks. spare and file are
+     * guarded by the lock of file, so a flush by close() and a flush by the writer don't interleave.
+     */
+
+    /** Period of the writes of the moves recorded, in milliseconds. */
+    static final long FLUSH_MILLIS = 1000;
+    /** Extension of the files of the recordings made by a server. */
+    public static final String EXTENSION = ".rec";
+
+    /** Writes the moves of every recorder, on a single thread. */
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "game-recorder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final byte[] MAGIC = "MSWR".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT = 1;
+    private static final int PLACEMENT = 0;
+    private static final int SQUARES = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 1 + 4 + 4 + 8 + 1;
+    /** Longest record: three varints of at most 10, 5 and 5 bytes. */
+    private static final int MAX_RECORD_LENGTH = 20;
+    /** Attempts at taking a consistent snapshot of a board being played. */
+    private static final int SNAPSHOT_ATTEMPTS = 10;
+
+    private final FileChannel file;
+    private final ScheduledFuture<?> flushing;
+
+    private ByteBuffer pending = ByteBuffer.allocate(4096);
+    private long last;
+    private boolean stopped = false;
+
+    private ByteBuffer spare = ByteBuffer.allocate(4096);
+
+    private GameRecorder(FileChannel file, long start) {
+        this.file = file;
+        this.last = start;
+        this.flushing = WRITER.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts recording a game, replacing any file of the same name.
+     *
+     * @param path file of the recording.
+     * @param board board of the game, recorded from its current state if placement is null, which requires
+     *              a board that can be restored: stored in any way but CHUNKED.
+     * @param storage how the board is stored.
+     * @param placement placement the board was made with by storage, with no move made on it yet, or null
+     *                  to record its bombs and squares instead.
+     * @return a recorder of the moves of board.
+     * @throws IOException if the file can't be written.
+     * @throws UnsupportedOperationException if placement is null and storage is CHUNKED.
+     */
+    public static GameRecorder create(Path path, GameBoard board, BoardStorage storage, BombPlacement placement)
+            throws IOException {
+
+        long start = System.currentTimeMillis();
+        ByteBuffer header;
+        if (placement != null) {
+            header = ByteBuffer.allocate(HEADER_LENGTH + 8 + 8 + 1);
+            putHeader(header, storage, board, start, PLACEMENT);
+            header.putDouble(placement.getDensity()).putLong(placement.getSeed())
+                    .put((byte) (placement.isFirstClickSafe() ? 1 : 0));
+        } else if (storage == BoardStorage.CHUNKED) {
+            throw new UnsupportedOperationException("chunked boards can only be recorded by their placement");
+        } else {
+            header = squares(board, storage, start);
+        }
+        header.flip();
+
+        FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (header.hasRemaining()) {
+                file.write(header);
+            }
+        } catch (IOException ioe) {
+            file.close();
+            throw ioe;
+        }
+        return new GameRecorder(file, start);
+    }
+
+    private static void putHeader(ByteBuffer header, BoardStorage storage, GameBoard board, long start, int kind) {
+        header.put(MAGIC).put((byte) FORMAT).put((byte) storage.ordinal())
+                .putInt(board.getSizeX()).putInt(board.getSizeY()).putLong(start).put((byte) kind);
+    }
+
+    /**
+     * @return the header of a recording of the board from its current state, retried until the board
+     *         didn't change while taking it.
+     * @throws IllegalStateException if the board changed every time.
+     */
+    private static ByteBuffer squares(GameBoard board, BoardStorage storage, long start) {
+
+        for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+            long version = board.getVersion();
+            BoardSnapshot squares = board.getSnapshot();
+            List<Bomb> bombs = board.getBombLocations();
+            if (squares.getVersion() != version || board.getVersion() != version) {
+                continue;
+            }
+
+            int sizeY = board.getSizeY();
+            ByteBuffer packed = squares.getPackedSquares();
+            byte[] bombBytes = new byte[(board.getSizeX() * sizeY + 7) / 8];
+            for (Bomb bomb : bombs) {
+                int i = bomb.getX() * sizeY + bomb.getY();
+                bombBytes[i >> 3] |= 1 << (i & 7);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + 8 + bombBytes.length + packed.remaining());
+            putHeader(header, storage, board, start, SQUARES);
+            return header.putLong(version).put(bombBytes).put(packed);
+        }
+        throw new IllegalStateException("the board changed while it was recorded");
+    }
+
+    /**
+     * Records a move that changed the board. Called by the board once it applied the move, while it still
+     * holds the locks of the squares the move changed, so moves changing the same squares are recorded in
+     * the order they were applied. Doesn't wait for the move to be written.
+     *
+     * @param x coordinate on the X axis of the move.
+     * @param y coordinate on the Y axis of the move.
+     * @param command "dug" or "flagged", as given to GameBoard.setSquare().
+     * @param propagate as given to GameBoard.setSquare().
+     */
+    public synchronized void record(int x, int y, String command, boolean propagate) {
+
+        if (stopped) {
+            return;
+        }
+        if (pending.remaining() < MAX_RECORD_LENGTH) {
+            ByteBuffer larger = ByteBuffer.allocate(pending.capacity() * 2);
+            pending.flip();
+            pending = larger.put(pending);
+        }
+        long now = System.currentTimeMillis();
+        // the clock may go back, moves are never recorded before the previous one
+        long delay = Math.max(now - last, 0);
+        last += delay;
+        int op = (command.equals("dug") ? MoveLog.DIG : 0) | (propagate ? MoveLog.PROPAGATE : 0);
+        putVarint(pending, delay << 2 | op);
+        putVarint(pending, x);
+        putVarint(pending, y);
+    }
+
+    private static void putVarint(ByteBuffer bytes, long value) {
+        while ((value & ~0x7FL) != 0) {
+            bytes.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        bytes.put((byte) value);
+    }
+
+    /**
+     * Writes the moves recorded since the last flush. Run by the writer every FLUSH_MILLIS, and by close().
+     */
+    private void flush() {
+        synchronized (file) {
+            ByteBuffer batch;
+            synchronized (this) {
+                if (pending.position() == 0) {
+                    return;
+                }
+                batch = pending;
+                pending = spare;
+            }
+            try {
+                batch.flip();
+                while (batch.hasRemaining()) {
+                    file.write(batch);
+                }
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+                stop();
+            }
+            batch.clear();
+            spare = batch;
+        }
+    }
+
+    /**
+     * Stops recording, after a failed write.
+     */
+    private void stop() {
+        synchronized (this) {
+            stopped = true;
+            pending.clear();
+        }
+        flushing.cancel(false);
+    }
+
+    /**
+     * Writes every move recorded so far and closes the file. Moves recorded later are ignored.
+     *
+     * @throws IOException if the file can't be closed.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            stopped = true;
+        }
+        flushing.cancel(false);
+        flush();
+        synchronized (file) {
+            file.close();
+        }
+    }
+
+    /**
+     * Reads a recording.
+     *
+     * @param path file of the recording.
+     * @return the recording.
+     * @throws IOException if the file can't be read, or is not a valid recording.
+     */
+    public static Recording read(Path path) throws IOException {
+
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (bytes.remaining() < HEADER_LENGTH
+                || ! Arrays.equals(Arrays.copyOf(bytes.array(), MAGIC.length), MAGIC)
+                || bytes.get(MAGIC.length) != FORMAT
+                || bytes.get(MAGIC.length + 1) >= BoardStorage.values().length) {
+            throw new IOException(path + ": not a recording");
+        }
+        bytes.position(MAGIC.length + 2);
+        BoardStorage storage = BoardStorage.values()[bytes.get(MAGIC.length + 1)];
+        int sizeX = bytes.getInt();
+        int sizeY = bytes.getInt();
+        long start = bytes.getLong();
+        int kind = bytes.get();
+        if ( ! storage.allows(sizeX, sizeY)) {
+            throw new IOException(path + ": recording of a board of size " + sizeX + "x" + sizeY + " not valid");
+        }
+
+        BombPlacement placement = null;
+        BitSet bombs = null;
+        ByteBuffer packed = null;
+        long version = 0;
+        int squares = sizeX * sizeY;
+        if (kind == PLACEMENT && bytes.remaining() >= 8 + 8 + 1) {
+            double density = bytes.getDouble();
+            long seed = bytes.getLong();
+            boolean firstClickSafe = bytes.get() != 0;
+            if ( ! (density >= 0 && density <= 1)) {
+                throw new IOException(path + ": density " + density + " not valid");
+            }
+            placement = new BombPlacement(density, seed, firstClickSafe);
+        } else if (kind == SQUARES && storage != BoardStorage.CHUNKED
+                && bytes.remaining() >= 8 + (squares + 7) / 8 + (squares + 1) / 2) {
+            version = bytes.getLong();
+            bombs = BitSet.valueOf(bytes.slice(bytes.position(), (squares + 7) / 8));
+            packed = bytes.slice(bytes.position() + (squares + 7) / 8, (squares + 1) / 2);
+            bytes.position(bytes.position() + (squares + 7) / 8 + (squares + 1) / 2);
+        } else {
+            throw new IOException(path + ": board of the recording not valid");
+        }
+
+        // every record takes at least 3 bytes
+        int[] xs = new int[bytes.remaining() / 3];
+        int[] ys = new int[xs.length];
+        byte[] ops = new byte[xs.length];
+        long[] times = new long[xs.length];
+        int count = 0;
+        long time = start;
+        while (bytes.hasRemaining()) {
+            long first = getVarint(bytes);
+            long x = getVarint(bytes);
+            long y = getVarint(bytes);
+            if ( ! bytes.hasRemaining() && (first < 0 || x < 0 || y < 0)) {
+                break; // torn by a crash
+            }
+            if (first < 0 || x < 0 || y < 0 || x >= sizeX || y >= sizeY) {
+                throw new IOException(path + ": move " + count + " not valid");
+            }
+            time += first >>> 2;
+            xs[count] = (int) x;
+            ys[count] = (int) y;
+            ops[count] = (byte) (first & (MoveLog.DIG | MoveLog.PROPAGATE));
+            times[count] = time;
+            count++;
+        }
+        return new Recording(storage, sizeX, sizeY, start, placement, bombs, packed, version,
+                Arrays.copyOf(xs, count), Arrays.copyOf(ys, count), Arrays.copyOf(ops, count),
+                Arrays.copyOf(times, count));
+    }
+
+    /**
+     * @return the varint at the position of bytes, moving past it, or -1 if bytes ends before it does.
+     */
+    private static long getVarint(ByteBuffer bytes) {
+        long value = 0;
+        for (int shift = 0; shift < 64 && bytes.hasRemaining(); shift += 7) {
+            byte b = bytes.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A recording read by read(): how the board of the game was made, and the moves made on it, in the
+     * order they were recorded.
+     */
+    public static final class Recording {
+
+        /**
+         * Abstraction function:
+         * Represents a game recorded on a board of sizeX by sizeY squares, stored as storage says, made
+         * from placement if it is not null, otherwise restored from bombs, packed and version. Move i was
+         * made on (xs[i], ys[i]), with ops[i] as in MoveLog, at times[i], in milliseconds since the epoch.
+         * <p>
+         * Representation invariant:
+         * Exactly one of placement and bombs is null, packed is null iff bombs is. xs, ys, ops and times
+         * have the same length, every move is inside the board, times are non decreasing from start.
+         * <p>
+         * Safety from Rep exposure:
+         * All fields are private and never returned, packed is only read through duplicates.
+         * <p>
+         * Thread safety:
+         * Immutable, so replay() can run on several boards at once.
+         */
+
+        private final BoardStorage storage;
+        private final int sizeX;
+        private final int sizeY;
+        private final long start;
+        private final BombPlacement placement;
+        private final BitSet bombs;
+        private final ByteBuffer packed;
+        private final long version;
+        private final int[] xs;
+        private final int[] ys;
+        private final byte[] ops;
+        private final long[] times;
+
+        private Recording(BoardStorage storage, int sizeX, int sizeY, long start, BombPlacement placement,
+                          BitSet bombs, ByteBuffer packed, long version, int[] xs, int[] ys, byte[] ops, long[] times) {
+            this.storage = storage;
+            this.sizeX = sizeX;
+            this.sizeY = sizeY;
+            this.start = start;
+            this.placement = placement;
+            this.bombs = bombs;
+            this.packed = packed;
+            this.version = version;
+            this.xs = xs;
+            this.ys = ys;
+            this.ops = ops;
+            this.times = times;
+        }
+
+        /**
+         * @return how the recorded board was stored.
+         */
+        public BoardStorage getStorage() {
+            return storage;
+        }
+
+        public int getSizeX() {
+            return sizeX;
+        }
+
+        public int getSizeY() {
+            return sizeY;
+        }
+
+        /**
+         * @return the placement the recorded board was made with, or null if it was recorded by its squares.
+         */
+        public BombPlacement getPlacement() {
+            return placement;
+        }
+
+        /**
+         * @return the time the recording started, in milliseconds since the epoch.
+         */
+        public long getStart() {
+            return start;
+        }
+
+        /**
+         * @return the number of moves recorded.
+         */
+        public int size() {
+            return xs.length;
+        }
+
+        /**
+         * @param i index of a move, requires 0 <= i < size().
+         * @return the time the move was made, in milliseconds since the epoch.
+         */
+        public long getTime(int i) {
+            return times[i];
+        }
+
+        /**
+         * @return a new board, stored as the recorded one was, as it was when the recording started.
+         */
+        public GameBoard newBoard() {
+            return newBoard(storage);
+        }
+
+        /**
+         * @param storage how the new board is stored. Boards recorded by their placement get the same bombs
+         *                with any storage if the recorded one, and this one, are not CHUNKED; boards
+         *                recorded by their squares can't be CHUNKED.
+         * @return a new board as the recorded one was when the recording started.
+         * @throws UnsupportedOperationException if storage doesn't support the recorded board.
+         */
+        public GameBoard newBoard(BoardStorage storage) {
+            if (placement != null) {
+                return storage.newBoard(sizeX, sizeY, placement);
+            }
+            return storage.restore(sizeX, sizeY, bombs, packed.duplicate(), version);
+        }
+
+        /**
+         * Makes the recorded moves on a board, in the order they were recorded, as fast as it takes them.
+         * On a board made by newBoard(), this ends in the board the game was recorded on.
+         *
+         * @param board board to make the moves on, at least as large as the recorded one.
+         * @return the number of moves that changed the board.
+         */
+        public int replay(GameBoard board) {
+            int changed = 0;
+            for (int i = 0; i < xs.length; i++) {
+                String outcome = board.setSquare(xs[i], ys[i], ((ops[i] & MoveLog.DIG) != 0) ? "dug" : "flagged",
+                        (ops[i] & MoveLog.PROPAGATE) != 0);
+                if ( ! outcome.equals("false")) {
+                    changed++;
+                }
+            }
+            return changed;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import minesweeper.BombPlacement;
+import minesweeper.BoardStorage;
+import minesweeper.GameBoard;
+
+/**
+ * GameRegistry holds every game hosted by a server, each with its own board, players and Protocol,
+ * by game id. Clients start in the first game registered, the default game, and move between games
+ * with "new X Y" and "join ID".
+ * <p>
+ * A game other than the default one is evicted once it has had no players for longer than the idle
+ * timeout. Evicted games can't be joined anymore, and their board is left to the garbage collector.
+ * <p>
+ * So that clients can't fill the memory of the server with boards, the games created and not evicted yet
+ * have at most MAX_CREATED_SQUARES squares together, and each player creates at most
+ * MAX_GAMES_PER_PLAYER of them.
+ * <p>
+ * Games may be recorded by a GameRecorder, each in a file of its own, named after its id, in a directory
+ * of recordings. A recording is closed once its game is evicted.
+ */
+public class GameRegistry {
+
+    /**
+     * Abstraction function:
+     * Represents the games hosted by a server: games maps the id of every game to its Protocol.
+     * defaultGame is the game every client starts in. New games get a board stored as storage says,
+     * with bombs placed as placement says, from a seed of their own.
+     * Every game records its requests in metrics, if it is not null, and is recorded in recordings, if
+     * it is not null. creations maps the id of every game created and not evicted yet to its creator and
+     * number of squares.
+     * <p>
+     * Representation invariant:
+     * games contains defaultGame, once it is registered.
+     * createdSquares is the sum of the squares of creations, at most MAX_CREATED_SQUARES, and createdBy
+     * maps every creator of creations to its number of games there, at most MAX_GAMES_PER_PLAYER.
+     * Every Protocol in games was registered with the id it is mapped from.
+     * ids are the decimal representations of the values taken from nextId, so they are never reused.
+     * <p>
+     * Safety from Rep exposure:
+     * All fields are private and final. games is never returned, only the Protocols in it, which are
+     * meant to be shared with the clients.
+     * <p>
+     * Thread safety:
+     * games is a concurrent map and nextId is atomic. creations, createdSquares and createdBy are guarded
+     * by the lock of creations. A game is evicted while holding the lock of its
+     * players, and only if it has none, so a client joining it at the same time either joins before
+     * the eviction, which then doesn't happen, or finds the game closed. The evictor runs on its own
+     * daemon thread.
+     */
+
+    /** Largest number of squares of the games created and not evicted yet, four boards of the largest size. */
+    public static final long MAX_CREATED_SQUARES = 4L * GameBoard.MAX_SIZE * GameBoard.MAX_SIZE;
+    /** Largest number of games created by a player and not evicted yet. */
+    public static final int MAX_GAMES_PER_PLAYER = 3;
+
+    private final ConcurrentMap<String, Protocol> games = new ConcurrentHashMap<>();
+    private final Map<String, Creation> creations = new HashMap<>();
+    private final Map<Player, Integer> createdBy = new HashMap<>();
+    private long createdSquares = 0;
+    private final AtomicLong nextId = new AtomicLong();
+    private final ServerSocket socket;
+    private final boolean debug;
+    private final BoardStorage storage;
+    private final long idleTimeoutMillis;
+    private final Metrics metrics;
+    private final BombPlacement placement;
+    private final Path recordings;
+    private final Random random = new Random();
+    private volatile Protocol defaultGame;
+
+    /**
+     * Make a registry without games.
+     *
+     * @param socket socket of the server, answered to "test".
+     * @param debug debug mode flag of every game.
+     * @param storage how the boards of the games made with "new X Y" are stored.
+     * @param idleTimeoutMillis how long a game without players is kept, or 0 to keep every game.
+     *                          Requires idleTimeoutMillis >= 0.
+     */
+    public GameRegistry(ServerSocket socket, boolean debug, BoardStorage storage, long idleTimeoutMillis) {
+        this(socket, debug, storage, idleTimeoutMillis, null);
+    }
+
+    /**
+     * Make a registry without games, whose games record their requests in the given metrics.
+     *
+     * @param socket socket of the server, answered to "test".
+     * @param debug debug mode flag of every game.
+     * @param storage how the boards of the games made with "new X Y" are stored.
+     * @param idleTimeoutMillis how long a game without players is kept, or 0 to keep every game.
+     *                          Requires idleTimeoutMillis >= 0.
+     * @param metrics metrics of the requests of every game, or null not to record them.
+     */
+    public GameRegistry(ServerSocket socket, boolean debug, BoardStorage storage, long idleTimeoutMillis,
+                        Metrics metrics) {
+        this(socket, debug, storage, idleTimeoutMillis, metrics, new BombPlacement(BoardStorage.DENSITY, 0, false));
+    }
+
+    /**
+     * Make a registry without games, whose games made with "new X Y" have their bombs placed as the
+     * given placement says, each with a seed of its own.
+     *
+     * @param socket socket of the server, answered to "test".
+     * @param debug debug mode flag of every game.
+     * @param storage how the boards of the games made with "new X Y" are stored.
+     * @param idleTimeoutMillis how long a game without players is kept, or 0 to keep every game.
+     *                          Requires idleTimeoutMillis >= 0.
+     * @param metrics metrics of the requests of every game, or null not to record them.
+     * @param placement density and first click safety of the boards of the games made with "new X Y",
+     *                  whose seed is ignored. Requires storage to support it, see BoardStorage.newBoard().
+     */
+    public GameRegistry(ServerSocket socket, boolean debug, BoardStorage storage, long idleTimeoutMillis,
+                        Metrics metrics, BombPlacement placement) {
+        this(socket, debug, storage, idleTimeoutMillis, metrics, placement, null);
+    }
+
+    /**
+     * Make a registry without games, whose games made with "new X Y" have their bombs placed as the
+     * given placement says, each with a seed of its own, and whose games are recorded.
+     *
+     * @param socket socket of the server, answered to "test".
+     * @param debug debug mode flag of every game.
+     * @param storage how the boards of every game are stored.
+     * @param idleTimeoutMillis how long a game without players is kept, or 0 to keep every game.
+     *                          Requires idleTimeoutMillis >= 0.
+     * @param metrics metrics of the requests of every game, or null not to record them.
+     * @param placement density and first click safety of the boards of the games made with "new X Y",
+     *                  whose seed is ignored. Requires storage to support it, see BoardStorage.newBoard().
+     * @param recordings existing directory where every game is recorded, in "game-ID.rec" for the game
+     *                   of id ID, or null not to record them.
+     */
+    public GameRegistry(ServerSocket socket, boolean debug, BoardStorage storage, long idleTimeoutMillis,
+                        Metrics metrics, BombPlacement placement, Path recordings) {
+        this.socket = socket;
+        this.recordings = recordings;
+        this.metrics = metrics;
+        this.placement = placement;
+        this.debug = debug;
+        this.storage = storage;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+
+        if (idleTimeoutMillis > 0) {
+            ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "game-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long period = Math.max(idleTimeoutMillis / 2, 1);
+            evictor.scheduleWithFixedDelay(() -> evictIdle(System.currentTimeMillis()),
+                    period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Registers a new game played on the given board. The first game registered becomes the default
+     * game, which is never evicted.
+     *
+     * @param board board of the game.
+     * @return the Protocol of the new game.
+     */
+    public Protocol register(GameBoard board) {
+        return register(board, null);
+    }
+
+    /**
+     * Registers a new game played on the board of the given log, logging its moves, and recording it
+     * from its current squares if games are recorded. The first game registered becomes the default game,
+     * which is never evicted.
+     *
+     * @param board board of the game.
+     * @param log log of the moves of board, or null not to log them.
+     * @return the Protocol of the new game.
+     */
+    public Protocol register(GameBoard board, MoveLog log) {
+        return register(board, log, null);
+    }
+
+    /**
+     * Registers a new game played on the board of the given log, logging its moves, and recording the
+     * game if games are recorded. The first game registered becomes the default game, which is never
+     * evicted.
+     *
+     * @param board board of the game, stored as the boards of this registry are.
+     * @param log log of the moves of board, or null not to log them.
+     * @param placement placement board was made with, with no move made on it yet, recorded instead of
+     *                  the squares of board, or null. Boards whose bombs are placed on the first dig, or
+     *                  CHUNKED, can only be recorded by their placement.
+     * @return the Protocol of the new game.
+     */
+    public Protocol register(GameBoard board, MoveLog log, BombPlacement placement) {
+
+        String id = Long.toString(nextId.getAndIncrement());
+        Protocol game = new Protocol(this, id, socket, board, log, record(id, board, placement), debug);
+        games.put(id, game);
+        if (defaultGame == null) {
+            defaultGame = game;
+        }
+        return game;
+    }
+
+    /** The creator of a game created and not evicted yet, and the number of squares of its board. */
+    private static class Creation {
+        private final Player creator;
+        private final long squares;
+
+        Creation(Player creator, long squares) {
+            this.creator = creator;
+            this.squares = squares;
+        }
+    }
+
+    /**
+     * Registers a new game on a random board of the given size, created by no player in particular.
+     *
+     * @param sizeX number of lines, requires GameBoard.MIN_SIZE <= sizeX <= GameBoard.MAX_SIZE.
+     * @param sizeY number of squares per line, requires GameBoard.MIN_SIZE <= sizeY <= GameBoard.MAX_SIZE.
+     * @return the Protocol of the new game.
+     * @throws IllegalStateException if the games created would have more than MAX_CREATED_SQUARES squares.
+     */
+    public Protocol create(int sizeX, int sizeY) {
+        return create(sizeX, sizeY, null);
+    }
+
+    /**
+     * Registers a new game on a random board of the given size, created by the given player.
+     *
+     * @param sizeX number of lines, requires GameBoard.MIN_SIZE <= sizeX <= GameBoard.MAX_SIZE.
+     * @param sizeY number of squares per line, requires GameBoard.MIN_SIZE <= sizeY <= GameBoard.MAX_SIZE.
+     * @param creator player creating the game, or null.
+     * @return the Protocol of the new game.
+     * @throws IllegalStateException if the games created would have more than MAX_CREATED_SQUARES squares,
+     *                               or creator more than MAX_GAMES_PER_PLAYER games, with a message
+     *                               for the player saying which.
+     */
+    public Protocol create(int sizeX, int sizeY, Player creator) {
+
+        long squares = (long) sizeX * sizeY;
+        synchronized (creations) {
+            if (creator != null && createdBy.getOrDefault(creator, 0) >= MAX_GAMES_PER_PLAYER) {
+                throw new IllegalStateException("You can't have more than " + MAX_GAMES_PER_PLAYER
+                        + " games of yours at once");
+            } else if (createdSquares + squares > MAX_CREATED_SQUARES) {
+                throw new IllegalStateException("The server has no room for a board of " + sizeX + " by "
+                        + sizeY + " squares now");
+            }
+            // reserved before the board is made, so concurrent creations can't exceed the limits together
+            createdSquares += squares;
+            if (creator != null) {
+                createdBy.merge(creator, 1, Integer::sum);
+            }
+        }
+
+        Protocol game;
+        try {
+            long seed;
+            synchronized (random) {
+                seed = random.nextLong();
+            }
+            BombPlacement seeded = placement.withSeed(seed);
+            game = register(storage.newBoard(sizeX, sizeY, seeded), null, seeded);
+        } catch (RuntimeException | Error e) {
+            release(new Creation(creator, squares));
+            throw e;
+        }
+        synchronized (creations) {
+            creations.put(game.getId(), new Creation(creator, squares));
+        }
+        return game;
+    }
+
+    /**
+     * Gives back the squares and the game of a creation to the limits of the games created.
+     */
+    private void release(Creation creation) {
+        synchronized (creations) {
+            createdSquares -= creation.squares;
+            if (creation.creator != null) {
+                createdBy.computeIfPresent(creation.creator, (creator, count) -> (count == 1) ? null : count - 1);
+            }
+        }
+    }
+
+    /**
+     * @return the recorder of the game of the given id, or null if games are not recorded, or it can't
+     *         be recorded, which doesn't stop it from being played.
+     */
+    private GameRecorder record(String id, GameBoard board, BombPlacement placement) {
+        if (recordings == null) {
+            return null;
+        }
+        try {
+            return GameRecorder.create(recordings.resolve("game-" + id + GameRecorder.EXTENSION), board, storage,
+                    placement);
+        } catch (IOException | UnsupportedOperationException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @param id id of a game.
+     * @return the Protocol of the game with the given id, or null if there is no such game or it was evicted.
+     */
+    public Protocol get(String id) {
+        return games.get(id);
+    }
+
+    /**
+     * @return the game every client starts in, or null if no game has been registered yet.
+     */
+    public Protocol getDefaultGame() {
+        return defaultGame;
+    }
+
+    /**
+     * @return the number of games hosted, including the default game.
+     */
+    public int size() {
+        return games.size();
+    }
+
+    /**
+     * @return the number of players in every game hosted, which is the number of clients connected.
+     */
+    public int getPlayerCount() {
+        int count = 0;
+        for (Protocol game : games.values()) {
+            count += game.getPlayerCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the metrics every game records its requests in, or null if they are not recorded.
+     */
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Evicts every game, other than the default one, which has had no players since more than the idle
+     * timeout before now. Called periodically by the evictor when the idle timeout is positive.
+     *
+     * @param now current time, in milliseconds since the epoch.
+     * @return the number of games evicted.
+     */
+    public int evictIdle(long now) {
+
+        if (idleTimeoutMillis <= 0) {
+            return 0;
+        }
+        int evicted = 0;
+        for (Protocol game : games.values()) {
+            if (game != defaultGame && game.closeIfIdleSince(now - idleTimeoutMillis)) {
+                games.remove(game.getId(), game);
+                game.stopRecording();
+                Creation creation;
+                synchronized (creations) {
+                    creation = creations.remove(game.getId());
+                }
+                if (creation != null) {
+                    release(creation);
+                }
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+}
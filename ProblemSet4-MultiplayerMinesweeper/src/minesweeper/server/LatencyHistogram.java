@@ -0,0 +1,126 @@
+package minesweeper.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram counts durations in log-linear buckets, the way HDR histograms do: durations below
+ * 2^SUB_BUCKET_BITS nanoseconds each get their own bucket, and every power of two above is split in
+ * 2^(SUB_BUCKET_BITS-1) buckets of equal width, so every duration is counted within 1/16 of its value,
+ * from a nanosecond to centuries, in a fixed array of counters.
+ */
+class LatencyHistogram {
+
+    /**
+     * Abstraction function:
+     * Represents the multiset of durations recorded, known to the precision of a bucket: counts[i]
+     * durations were in bucket i, whose bounds are lowest(i) and highest(i). count of them were
+     * recorded, adding up to sum nanoseconds, the longest of them max nanoseconds.
+     * <p>
+     * Representation invariant:
+     * count is the sum of counts, once every record() in progress has returned.
+     * <p>
+     * Safety from Rep exposure:
+     * All fields are private and final, only numbers are returned.
+     * <p>
+     * Thread safety:
+     * Every field is an atomic counter, updated without locks. A report made while durations are being
+     * recorded may miss some of them, and its percentiles may not match its count exactly.
+     */
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 2) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Counts a duration.
+     *
+     * @param nanos duration in nanoseconds, negative durations count as 0.
+     */
+    void record(long nanos) {
+
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * @return the bucket counting value, requires value >= 0.
+     */
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the highest value counted by the bucket i.
+     */
+    static long highest(int i) {
+        if (i < SUB_BUCKETS) {
+            return i;
+        }
+        int shift = i / HALF - 1;
+        long mantissa = i % HALF + HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * @return the number of durations recorded.
+     */
+    long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the mean of the durations recorded in nanoseconds, or 0 if none was.
+     */
+    long getMean() {
+        long n = count.sum();
+        return (n == 0) ? 0 : sum.sum() / n;
+    }
+
+    /**
+     * @return the longest duration recorded in nanoseconds, or 0 if none was.
+     */
+    long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param quantile fraction of the durations, requires 0 <= quantile <= 1.
+     * @return the duration in nanoseconds under which, to the precision of a bucket, the given fraction
+     *         of the durations recorded are, or 0 if none was.
+     */
+    long getPercentile(double quantile) {
+
+        long n = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        long rank = Math.max((long) Math.ceil(quantile * n), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highest(i), max.get());
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,265 @@
+package minesweeper.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Leaderboard ranks the players of a game by score, best first, kept in order as the scores change,
+ * so "players" answers with the best players and the rank of the asking player without sorting them.
+ * Players with the same score are ranked by name, then by the order they joined.
+ * <p>
+ * Updating a score, adding or removing a player and finding the rank of a player take O(log n)
+ * expected time, listing the k best players O(k + log n), for n players in the game.
+ */
+class Leaderboard {
+
+    /**
+     * Abstraction function:
+     * Represents the players in nodes, ranked by the in-order traversal of the treap rooted at root:
+     * the node of a player has its score when it was last added or scored here, and seq, the number of
+     * players added before it.
+     * <p>
+     * Representation invariant:
+     * The treap holds exactly the nodes of nodes, ordered as before() says, with every node's priority
+     * at least the priority of its children, and its size the number of nodes of its subtree.
+     * The score of every node equals the score of its player.
+     * <p>
+     * Safety from Rep exposure:
+     * All fields are private, nodes are never returned: top() copies their names and scores.
+     * <p>
+     * Thread safety:
+     * Every method is synchronized. Scores are only changed by addScore(), under the lock, so the
+     * players of a game are scored through its leaderboard only, while they are in the game.
+     */
+
+    /** A player with its rank, as listed by top(). */
+    static final class Standing {
+
+        final int rank;
+        final String name;
+        final int score;
+
+        Standing(int rank, String name, int score) {
+            this.rank = rank;
+            this.name = name;
+            this.score = score;
+        }
+    }
+
+    private static final class Node {
+
+        final Player player;
+        final long seq;
+        final int priority;
+        int score;
+        int size = 1;
+        Node left;
+        Node right;
+
+        Node(Player player, int score, long seq, int priority) {
+            this.player = player;
+            this.score = score;
+            this.seq = seq;
+            this.priority = priority;
+        }
+    }
+
+    private final Map<Player, Node> nodes = new IdentityHashMap<>();
+    private final SplittableRandom random = new SplittableRandom();
+    private Node root;
+    private long nextSeq = 0;
+
+    /**
+     * Adds a player at its current score, unless it is already here.
+     *
+     * @param player player joining the game.
+     */
+    synchronized void add(Player player) {
+        if (nodes.containsKey(player)) {
+            return;
+        }
+        Node node = new Node(player, player.getScore(), nextSeq++, random.nextInt());
+        nodes.put(player, node);
+        root = insert(root, node);
+    }
+
+    /**
+     * Removes a player, if it is here.
+     *
+     * @param player player leaving the game.
+     */
+    synchronized void remove(Player player) {
+        Node node = nodes.remove(player);
+        if (node != null) {
+            root = delete(root, node);
+        }
+    }
+
+    /**
+     * Adds points to the score of a player, moving it to its new rank. A player which is not here, having
+     * left the game, is scored all the same.
+     *
+     * @param player player scoring.
+     * @param points points scored, negative to lose points.
+     * @return the new score of the player.
+     */
+    synchronized int addScore(Player player, int points) {
+        int score = player.getScore() + points;
+        player.setScore(score);
+        Node node = nodes.get(player);
+        if (node != null && points != 0) {
+            root = delete(root, node);
+            node.score = score;
+            node.left = null;
+            node.right = null;
+            node.size = 1;
+            root = insert(root, node);
+        }
+        return score;
+    }
+
+    /**
+     * @param player a player.
+     * @return the rank of the player, 1 for the best one, or 0 if it is not here.
+     */
+    synchronized int rank(Player player) {
+        Node node = nodes.get(player);
+        if (node == null) {
+            return 0;
+        }
+        int rank = 1;
+        for (Node current = root; current != node; ) {
+            if (before(node, current)) {
+                current = current.left;
+            } else {
+                rank += size(current.left) + 1;
+                current = current.right;
+            }
+        }
+        return rank + size(node.left);
+    }
+
+    /**
+     * @param k number of players listed, requires k >= 0.
+     * @return the k best players, or every player if there are fewer, best first.
+     */
+    synchronized List<Standing> top(int k) {
+        List<Standing> standings = new ArrayList<>(Math.min(k, nodes.size()));
+        ArrayDeque<Node> path = new ArrayDeque<>();
+        Node current = root;
+        while (standings.size() < k && (current != null || ! path.isEmpty())) {
+            if (current != null) {
+                path.push(current);
+                current = current.left;
+            } else {
+                Node node = path.pop();
+                standings.add(new Standing(standings.size() + 1, node.player.name, node.score));
+                current = node.right;
+            }
+        }
+        return standings;
+    }
+
+    /**
+     * @return the number of players here.
+     */
+    synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * @return whether a is ranked before b: it has a higher score, or the same and a smaller name, or the
+     *         same name and joined first.
+     */
+    private static boolean before(Node a, Node b) {
+        if (a.score != b.score) {
+            return a.score > b.score;
+        }
+        int names = a.player.name.compareTo(b.player.name);
+        return (names != 0) ? names < 0 : a.seq < b.seq;
+    }
+
+    private static int size(Node node) {
+        return (node == null) ? 0 : node.size;
+    }
+
+    private static Node update(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+        return node;
+    }
+
+    /**
+     * @return the root of the treap rooted at root with node, a single node, inserted.
+     */
+    private static Node insert(Node root, Node node) {
+        if (root == null) {
+            return node;
+        }
+        if (node.priority > root.priority) {
+            Node[] parts = split(root, node);
+            node.left = parts[0];
+            node.right = parts[1];
+            return update(node);
+        }
+        if (before(node, root)) {
+            root.left = insert(root.left, node);
+        } else {
+            root.right = insert(root.right, node);
+        }
+        return update(root);
+    }
+
+    /**
+     * @return the root of the treap rooted at root without node, which must be in it.
+     */
+    private static Node delete(Node root, Node node) {
+        if (root == node) {
+            return merge(root.left, root.right);
+        }
+        if (before(node, root)) {
+            root.left = delete(root.left, node);
+        } else {
+            root.right = delete(root.right, node);
+        }
+        return update(root);
+    }
+
+    /**
+     * @return the treaps of the nodes of the treap rooted at root ranked before key, and after it.
+     */
+    private static Node[] split(Node root, Node key) {
+        if (root == null) {
+            return new Node[] {null, null};
+        }
+        if (before(root, key)) {
+            Node[] parts = split(root.right, key);
+            root.right = parts[0];
+            parts[0] = update(root);
+            return parts;
+        }
+        Node[] parts = split(root.left, key);
+        root.left = parts[1];
+        parts[1] = update(root);
+        return parts;
+    }
+
+    /**
+     * @return the treap of the nodes of a followed by the nodes of b, all ranked before them.
+     */
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        } else if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            return update(a);
+        }
+        b.left = merge(a, b.left);
+        return update(b);
+    }
+}
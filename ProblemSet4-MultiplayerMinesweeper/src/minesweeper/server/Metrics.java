@@ -0,0 +1,162 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics instruments the requests handled by every game of a server: for each command, how many were
+ * handled and how long they took, and for each move, how long it waited for the locks of the board.
+ * The report answering "stats" also gives the number of games and of connected players, counted from
+ * the games themselves. A server without Metrics doesn't read the clock at all.
+ */
+public class Metrics {
+
+    /**
+     * Abstraction function:
+     * Represents the requests handled since startNanos: latency[c] holds the durations of the requests
+     * of command COMMANDS[c], lockWait[m] how long the moves of MOVES[m] waited for the board.
+     * <p>
+     * Representation invariant:
+     * latency has one histogram per command, lockWait one per move.
+     * <p>
+     * Safety from Rep exposure:
+     * All fields are private and final, only reports are returned.
+     * <p>
+     * Thread safety:
+     * The histograms are thread safe and updated without locks. The dumper runs on its own daemon thread.
+     */
+
+    /** Commands instrumented, as the first word of their request. OTHER counts everything else. */
+    static final String[] COMMANDS = {"look", "dig", "flag", "deflag", "help", "bye", "hello", "players",
+            "join", "new", "delta", "stats", "batch", "hint", "other"};
+    static final int LOOK = 0;
+    static final int DIG = 1;
+    static final int FLAG = 2;
+    static final int DEFLAG = 3;
+    static final int BYE = 5;
+    static final int OTHER = COMMANDS.length - 1;
+    /** Moves whose lock waits are instrumented, as given to GameBoard.setSquare(). */
+    private static final String[] MOVES = {"dug", "flagged"};
+
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private final LatencyHistogram[] latency = new LatencyHistogram[COMMANDS.length];
+    private final LatencyHistogram[] lockWait = new LatencyHistogram[MOVES.length];
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Make metrics without any request handled.
+     */
+    public Metrics() {
+        for (int c = 0; c < latency.length; c++) {
+            latency[c] = new LatencyHistogram();
+        }
+        for (int m = 0; m < lockWait.length; m++) {
+            lockWait[m] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param input request of a client.
+     * @return the command of the request, an index in COMMANDS.
+     */
+    static int command(String input) {
+        for (int c = 0; c < OTHER; c++) {
+            String name = COMMANDS[c];
+            if (input.startsWith(name) && (input.length() == name.length() || input.charAt(name.length()) == ' ')) {
+                return c;
+            }
+        }
+        return OTHER;
+    }
+
+    /**
+     * Counts a request handled.
+     *
+     * @param command command of the request, an index in COMMANDS.
+     * @param nanos time taken to handle it, in nanoseconds.
+     */
+    void requestHandled(int command, long nanos) {
+        latency[command].record(nanos);
+    }
+
+    /**
+     * Counts the time a move waited for the lock of the board.
+     *
+     * @param command "dug" or "flagged", as given to GameBoard.setSquare().
+     * @param nanos time between the call to setSquare() and the move holding the lock, in nanoseconds.
+     */
+    void lockWaited(String command, long nanos) {
+        lockWait[command.equals("dug") ? 0 : 1].record(nanos);
+    }
+
+    /**
+     * @param games games hosted by the server.
+     * @return the report answering "stats": a summary line, then one line per command handled and per
+     *         move which waited for a lock, with its count, rate, latency percentiles and maximum in
+     *         microseconds.
+     */
+    public String report(GameRegistry games) {
+
+        double seconds = Math.max((System.nanoTime() - startNanos) / 1e9, 1e-9);
+        long requests = 0;
+        for (LatencyHistogram histogram : latency) {
+            requests += histogram.getCount();
+        }
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("**> Stats after %.1f s: %d requests, %.1f requests/s, %d games, %d players.\r\n",
+                seconds, requests, requests / seconds, games.size(), games.getPlayerCount()));
+        for (int c = 0; c < latency.length; c++) {
+            line(report, COMMANDS[c], latency[c], seconds);
+        }
+        for (int m = 0; m < lockWait.length; m++) {
+            line(report, "lock " + MOVES[m], lockWait[m], seconds);
+        }
+        return report.toString();
+    }
+
+    private static void line(StringBuilder report, String name, LatencyHistogram histogram, double seconds) {
+        long count = histogram.getCount();
+        if (count == 0) {
+            return;
+        }
+        report.append(String.format("||> %s: %d, %.1f/s, mean %d us, p50 %d us, p99 %d us, p99.9 %d us, max %d us\r\n",
+                name, count, count / seconds,
+                histogram.getMean() / NANOS_PER_MICRO,
+                histogram.getPercentile(0.5) / NANOS_PER_MICRO,
+                histogram.getPercentile(0.99) / NANOS_PER_MICRO,
+                histogram.getPercentile(0.999) / NANOS_PER_MICRO,
+                histogram.getMax() / NANOS_PER_MICRO));
+    }
+
+    /**
+     * Writes the report to a file every period, on a daemon thread, replacing the previous report.
+     *
+     * @param file file the report is written to.
+     * @param periodMillis time between two reports, requires periodMillis > 0.
+     * @param games games hosted by the server.
+     */
+    public void startDump(Path file, long periodMillis, GameRegistry games) {
+
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-dumper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        dumper.scheduleWithFixedDelay(() -> {
+            try {
+                Files.write(temporary, report(games).getBytes(StandardCharsets.UTF_8));
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ioe) {
+                ioe.printStackTrace(); // but keep dumping
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -5,9 +5,18 @@ package minesweeper.server;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import minesweeper.Board;
+import minesweeper.BoardFile;
+import minesweeper.BoardStorage;
+import minesweeper.BombPlacement;
+import minesweeper.GameBoard;
 
 /**
  * Multiplayer Minesweeper server.
@@ -21,20 +30,20 @@ public class MinesweeperServer {
 
     /**
      * Abstraction function:
-     * Represents a game of minesweeper, handling player moves in a single board.
+     * Represents a server hosting games of minesweeper, every one of them handling player moves in its own
+     * board. games holds them, clients start in mainProtocol, the game played on board.
      * <p>
      * Rep invariant:
      * The board size and content (where are the bombs located) is initialized at the creating of the server.
+     * mainProtocol is the default game of games.
      * <p>
      * Safety from rep exposure:
      * Fields required for the communication are private and final.
      * board is final and is mutated through the protocol.
-     * ALl other fields are static.
      * <p>
      * Thread safety:
-     * Fields playerCount, players and board are mutated by each thread by acquiring the lock of each object
-     * respectively.
-     * All other fields are static or final, which means they do not pose a risk of interleaving.
+     * All fields are final. The players of every game are kept by its protocol, and games and protocols
+     * are thread safe.
      */
 
     /** Default server port. */
@@ -43,15 +52,27 @@ public class MinesweeperServer {
     private static final int MAXIMUM_PORT = 65535;
     /** Default square board size. */
     private static final int DEFAULT_SIZE = 10;
+    /** How long a game created with "new X Y" is kept once it has no players. */
+    private static final long GAME_IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    /** Time between two reports written to the file given with --metrics-file. */
+    private static final long METRICS_DUMP_PERIOD_MILLIS = 10 * 1000;
+    /** Number of event loops multiplexing the connections when running with --nio. */
+    private static final int NIO_EVENT_LOOPS = Runtime.getRuntime().availableProcessors();
     /** Socket for receiving incoming connections. */
     private final ServerSocket serverSocket;
     /** True if the server should *not* disconnect a client after a BOOM message. */
     private final boolean debug;
-    static int playerCount;
-    static final ArrayList<Player> players = new ArrayList<>();
-    /**Default protocol to be used */
-    static Protocol mainProtocol;
-    final Board board;
+    /** How connections are served: one platform Thread, one virtual thread or a NioFrontEnd. */
+    private final ConnectionMode mode;
+    /** Runs the PlayerThreads when mode is VIRTUAL_THREAD, otherwise null. */
+    private final ExecutorService executor;
+    /** Games hosted by the server. */
+    private final GameRegistry games;
+    /** Protocol of the game every client starts in. */
+    private final Protocol mainProtocol;
+    /** How long a player can go without sending a request before it is disconnected, or 0 for ever. */
+    private final long idleTimeoutMillis;
+    final GameBoard board;
 
     /**
      * Make a MinesweeperServer that listens for connections on port. This method sets the
@@ -62,17 +83,42 @@ public class MinesweeperServer {
      * @throws IOException if an error occurs opening the server socket
      */
     public MinesweeperServer(int port, boolean debug, int X, int Y) throws IOException {
-        playerCount = 0;
-        serverSocket = new ServerSocket(port);
+        this(port, debug, new Board(X, Y, true), new ServerOptions());
+    }
+
+    /**
+     * Make a MinesweeperServer that listens for connections on port and plays on the given board, served,
+     * logged, timed and recorded as options say. Clients can create more games, stored and placed as
+     * options say, which are not logged.
+     *
+     * @param port port number, requires 0 <= port <= 65535
+     * @param debug debug mode flag
+     * @param board board of the game every client starts in.
+     * @param options how connections are served, and the games stored, logged, timed and recorded.
+     * @throws IOException if an error occurs opening the server socket
+     * @throws UnsupportedOperationException if the mode of options is not supported by the running JVM
+     */
+    public MinesweeperServer(int port, boolean debug, GameBoard board, ServerOptions options) throws IOException {
+        ConnectionMode mode = options.getMode();
+        this.idleTimeoutMillis = options.getIdleTimeoutMillis();
+        this.executor = (mode == ConnectionMode.VIRTUAL_THREAD) ? ConnectionMode.newVirtualThreadPerTaskExecutor() : null;
+        if (mode == ConnectionMode.NIO) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            channel.bind(new InetSocketAddress(port));
+            serverSocket = channel.socket();
+        } else {
+            serverSocket = new ServerSocket(port);
+        }
         this.debug = debug;
+        this.mode = mode;
 
         //Create a new game.
-        board = new Board(X, Y, true);
-        mainProtocol = new Protocol(serverSocket, board, X, Y, debug);
+        this.board = board;
+        this.games = new GameRegistry(serverSocket, debug, options.getStorage(), GAME_IDLE_TIMEOUT_MILLIS,
+                options.getMetrics(), options.getPlacement(), options.getRecordings());
+        this.mainProtocol = games.register(board, options.getLog(), options.getBoardPlacement());
     }
 
-    //TODO fix deleting players objects and counter when a players is disconnected.
-
     /**
      * Run the server, listening for client connections and handling them.
      * Never returns unless an exception is thrown.
@@ -82,35 +128,66 @@ public class MinesweeperServer {
      */
     public void serve() throws IOException {
 
-        Socket socket = null;
+        if (mode == ConnectionMode.NIO) {
+            new NioFrontEnd(serverSocket.getChannel(), mainProtocol, NIO_EVENT_LOOPS, idleTimeoutMillis).serve();
+            return;
+        }
 
         while (true) {
+            Socket socket;
             try {
                 socket = serverSocket.accept();
             } catch (IOException ioe) {
                 ioe.printStackTrace(); // but don't terminate serve()
+                continue;
             }
             handleConnection(socket);
         }
     }
 
     /**
-     * Handle a single client connection. Returns when client disconnects.
-     * This method keeps track of a Player object upon successful connection.
+     * Handle a single client connection. Returns at once, the client being served by a thread of its own.
+     * This method adds the Player object to the default game upon successful connection, unless the
+     * client is a spectator.
      * A new Thread is created for every Player connected. This Thread manages the
-     * connection with the client.
+     * connection with the client, and ends once the client is disconnected.
+     * <p>
+     * The PlayerThread is created on that thread, so waiting for the username doesn't hold up the accept
+     * loop. In VIRTUAL_THREAD mode it runs on its own virtual thread, and the writer of its Outbox runs
+     * on another one.
      * 
      * @param socket socket where the client is connected
-     * @throws IOException if the connection encounters an error or terminates unexpectedly
      */
-    private void handleConnection(Socket socket) throws IOException {
-
-        PlayerThread thread = new PlayerThread(mainProtocol, socket);
-
-        players.add(thread.getPlayer());
-        playerCount++;
+    private void handleConnection(Socket socket) {
 
-        new Thread(thread).start();
+        Runnable connection = () -> {
+            try {
+                PlayerThread thread = (mode == ConnectionMode.VIRTUAL_THREAD)
+                        ? new PlayerThread(mainProtocol, socket, executor, idleTimeoutMillis)
+                        : new PlayerThread(mainProtocol, socket, PlayerThread.DAEMON_WRITERS, idleTimeoutMillis);
+                if ( ! thread.isSpectator()) {
+                    if (thread.getPlayer() == null) {
+                        // disconnected or timed out before sending its username
+                        return;
+                    }
+                    mainProtocol.addPlayer(thread.getPlayer());
+                }
+                thread.run();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException closeError) {
+                    closeError.printStackTrace();
+                }
+            }
+        };
+        if (mode == ConnectionMode.VIRTUAL_THREAD) {
+            executor.execute(connection);
+        } else {
+            new Thread(connection).start();
+        }
     }
 
     /**
@@ -129,13 +206,46 @@ public class MinesweeperServer {
      * Start a MinesweeperServer using the given arguments.
      * 
      * <br> Usage:
-     *      MinesweeperServer [--debug | --no-debug] [--port PORT] [--size SIZE_X,SIZE_Y | --file FILE]
+     *      MinesweeperServer [--debug | --no-debug] [--nio | --virtual] [--storage array|bitset|chunked|striped]
+     *                        [--seed SEED] [--density DENSITY] [--first-click-safe]
+     *                        [--port PORT] [--size SIZE_X,SIZE_Y | --file FILE]
+     *                        [--log DIR [--fsync always|periodic|never]] [--metrics | --metrics-file FILE]
+     *                        [--idle-timeout SECONDS] [--record RECORDINGS]
      * 
      * <br> The --debug argument means the server should run in debug mode. The server should disconnect a
      *      client after a BOOM message if and only if the --debug flag was NOT given.
      *      Using --no-debug is the same as using no flag at all.
      * <br> E.g. "MinesweeperServer --debug" starts the server in debug mode.
      * 
+     * <br> The --nio argument means the server should multiplex all connections on a small, fixed number
+     *      of event loops using non-blocking channels, instead of starting one Thread per connection.
+     * <br> E.g. "MinesweeperServer --nio" starts the server using a NioFrontEnd.
+     * 
+     * <br> The --virtual argument means the server should run every connection on its own virtual thread
+     *      instead of a platform Thread. It requires Java 21 or later. --nio and --virtual may not be
+     *      specified simultaneously, the last one given is used.
+     * <br> E.g. "MinesweeperServer --virtual" starts the server running PlayerThreads on virtual threads.
+     * 
+     * <br> The --storage argument chooses how a random board, and the boards of the games created by the
+     *      clients with "new X Y", are stored: "array" (the default) keeps a grid of
+     *      characters and the bombs in a bitset, "bitset" keeps the bombs in a packed bitset with precomputed
+     *      neighbor counts, "chunked" materializes chunks of the board only once they are explored, for
+     *      boards with millions of squares, "striped" stores it like "bitset" but locks it by region, so
+     *      moves of players on different parts of the board run concurrently. All of them play identically.
+     * <br> E.g. "MinesweeperServer --storage bitset" starts the server with a random BitBoard.
+     * 
+     * <br> SEED is an optional integer seeding the bomb placement of a random board, the same SEED, storage
+     *      and size always give the same bombs. If it is not given, a random seed is used.
+     * <br> E.g. "MinesweeperServer --storage chunked --seed 6005 --size 10000,10000" starts the server with
+     *      a reproducible board of a hundred million squares.
+     * 
+     * <br> DENSITY is an optional number between 0 and 1, the fraction of the squares of random boards, and
+     *      of the boards of the games created by the clients, which have a bomb. It is 0.2 by default.
+     * <br> The --first-click-safe argument means the bombs of those boards are placed once their first
+     *      square is dug, away from it and its neighbors, so the first dig never explodes. Only "array"
+     *      boards support it, and they can't be logged with it.
+     * <br> E.g. "MinesweeperServer --density 0.15 --first-click-safe" starts an easier game.
+     * 
      * <br> PORT is an optional integer in the range 0 to 65535 inclusive, specifying the port the server
      *      should be listening on for incoming connections.
      * <br> E.g. "MinesweeperServer --port 1234" starts the server listening on port 1234.
@@ -146,7 +256,8 @@ public class MinesweeperServer {
      *      42*58.
      * 
      * <br> FILE is an optional argument specifying a file pathname where a board has been stored. If this
-     *      argument is given, the stored board should be loaded as the starting board.
+     *      argument is given, the stored board should be loaded as the starting board, stored as --storage
+     *      says, except "chunked", which can't be loaded.
      * <br> E.g. "MinesweeperServer --file boardfile.txt" starts the server initialized with the board stored
      *      in boardfile.txt.
      * 
@@ -162,9 +273,36 @@ public class MinesweeperServer {
      *   NEWLINE ::= "\n" | "\r" "\n"?
      *   INT ::= [0-9]+
      * </pre>
+     * <br> with X LINEs of Y VALs each. A file in the binary format of BoardFile, which loads faster, can be
+     *      given too. If the file is not valid, the server reports the first line which is not and exits.
      * 
      * <br> If neither --file nor --size is given, generate a random board of size 10x10.
      * 
+     * <br> DIR is an optional directory where the moves of the starting board are logged, see MoveLog. If
+     *      it already holds a log, the board is restored from it, as it was after the last move logged, and
+     *      --file and --size are ignored. Otherwise the starting board is made as usual and logged from the
+     *      start. The board is stored as --storage says, except "chunked", which can't be logged.
+     * <br> --fsync chooses when the logged moves are forced to the disk: "always" before answering every
+     *      move, "periodic" (the default) at most once a second, so a crash loses at most the last second of
+     *      moves, "never" leaves it to the operating system.
+     * <br> E.g. "MinesweeperServer --log game --fsync always" resumes the game logged in the directory game.
+     * 
+     * <br> The --metrics argument means the server should time every request, answering "stats" with the
+     *      number of requests of every command, their latency percentiles and how long moves waited for
+     *      the board. --metrics-file also writes that report to FILE every 10 seconds. Without either,
+     *      requests are not timed.
+     * <br> E.g. "MinesweeperServer --metrics-file stats.txt" keeps the latest report in stats.txt.
+     * 
+     * <br> SECONDS is an optional integer, how long a player can go without sending a request, or a client
+     *      without sending its username, before it is disconnected. 0 never disconnects them. It is 1800,
+     *      half an hour, by default. Spectators are never disconnected for being idle.
+     * <br> E.g. "MinesweeperServer --idle-timeout 60" disconnects players idle for a minute.
+     * 
+     * <br> RECORDINGS is an optional directory, created if needed, where every game is recorded by a
+     *      GameRecorder, in game-ID.rec for the game of id ID, to be replayed offline. Random boards are
+     *      recorded by their seed, other boards by their squares.
+     * <br> E.g. "MinesweeperServer --record recordings" records every game in the directory recordings.
+     * 
      * <br> Note that --file and --size may not be specified simultaneously.
      * 
      * @param args arguments as described
@@ -172,10 +310,21 @@ public class MinesweeperServer {
     public static void main(String[] args) {
         // Command-line argument parsing is provided. Do not change this method.
         boolean debug = false;
+        ConnectionMode mode = ConnectionMode.THREAD;
+        BoardStorage storage = BoardStorage.ARRAY;
+        long seed = new Random().nextLong();
+        double density = BoardStorage.DENSITY;
+        boolean firstClickSafe = false;
         int port = DEFAULT_PORT;
         int sizeX = DEFAULT_SIZE;
         int sizeY = DEFAULT_SIZE;
         Optional<File> file = Optional.empty();
+        Optional<Path> log = Optional.empty();
+        FsyncPolicy fsync = FsyncPolicy.PERIODIC;
+        boolean metrics = false;
+        Optional<Path> metricsFile = Optional.empty();
+        long idleTimeoutMillis = ServerOptions.DEFAULT_IDLE_TIMEOUT_MILLIS;
+        Optional<Path> record = Optional.empty();
 
         Queue<String> arguments = new LinkedList<String>(Arrays.asList(args));
         try {
@@ -186,6 +335,35 @@ public class MinesweeperServer {
                         debug = true;
                     } else if (flag.equals("--no-debug")) {
                         debug = false;
+                    } else if (flag.equals("--nio")) {
+                        mode = ConnectionMode.NIO;
+                    } else if (flag.equals("--virtual")) {
+                        mode = ConnectionMode.VIRTUAL_THREAD;
+                        if ( ! mode.isSupported()) {
+                            throw new IllegalArgumentException("virtual threads require Java 21 or later");
+                        }
+                    } else if (flag.equals("--storage")) {
+                        String name = arguments.remove();
+                        if (name.equals("array")) {
+                            storage = BoardStorage.ARRAY;
+                        } else if (name.equals("bitset")) {
+                            storage = BoardStorage.BITSET;
+                        } else if (name.equals("chunked")) {
+                            storage = BoardStorage.CHUNKED;
+                        } else if (name.equals("striped")) {
+                            storage = BoardStorage.STRIPED;
+                        } else {
+                            throw new IllegalArgumentException("unknown storage: \"" + name + "\"");
+                        }
+                    } else if (flag.equals("--seed")) {
+                        seed = Long.parseLong(arguments.remove());
+                    } else if (flag.equals("--density")) {
+                        density = Double.parseDouble(arguments.remove());
+                        if ( ! (density >= 0 && density <= 1)) {
+                            throw new IllegalArgumentException("density " + density + " out of range");
+                        }
+                    } else if (flag.equals("--first-click-safe")) {
+                        firstClickSafe = true;
                     } else if (flag.equals("--port")) {
                         port = Integer.parseInt(arguments.remove());
                         if (port < 0 || port > MAXIMUM_PORT) {
@@ -203,6 +381,32 @@ public class MinesweeperServer {
                         if ( ! file.get().isFile()) {
                             throw new IllegalArgumentException("file not found: \"" + file.get() + "\"");
                         }
+                    } else if (flag.equals("--log")) {
+                        log = Optional.of(new File(arguments.remove()).toPath());
+                    } else if (flag.equals("--fsync")) {
+                        String name = arguments.remove();
+                        if (name.equals("always")) {
+                            fsync = FsyncPolicy.ALWAYS;
+                        } else if (name.equals("periodic")) {
+                            fsync = FsyncPolicy.PERIODIC;
+                        } else if (name.equals("never")) {
+                            fsync = FsyncPolicy.NEVER;
+                        } else {
+                            throw new IllegalArgumentException("unknown fsync policy: \"" + name + "\"");
+                        }
+                    } else if (flag.equals("--metrics")) {
+                        metrics = true;
+                    } else if (flag.equals("--metrics-file")) {
+                        metrics = true;
+                        metricsFile = Optional.of(new File(arguments.remove()).toPath());
+                    } else if (flag.equals("--idle-timeout")) {
+                        long seconds = Long.parseLong(arguments.remove());
+                        if (seconds < 0) {
+                            throw new IllegalArgumentException("idle timeout " + seconds + " out of range");
+                        }
+                        idleTimeoutMillis = TimeUnit.SECONDS.toMillis(seconds);
+                    } else if (flag.equals("--record")) {
+                        record = Optional.of(new File(arguments.remove()).toPath());
                     } else {
                         throw new IllegalArgumentException("unknown option: \"" + flag + "\"");
                     }
@@ -214,12 +418,25 @@ public class MinesweeperServer {
             }
         } catch (IllegalArgumentException iae) {
             System.err.println(iae.getMessage());
-            System.err.println("usage: MinesweeperServer [--debug | --no-debug] [--port PORT] [--size SIZE_X,SIZE_Y | --file FILE]");
+            System.err.println("usage: MinesweeperServer [--debug | --no-debug] [--nio | --virtual] "
+                    + "[--storage array|bitset|chunked|striped] [--seed SEED] [--density DENSITY] [--first-click-safe] "
+                    + "[--port PORT] [--size SIZE_X,SIZE_Y | --file FILE] "
+                    + "[--log DIR [--fsync always|periodic|never]] [--metrics | --metrics-file FILE] "
+                    + "[--idle-timeout SECONDS] [--record RECORDINGS]");
             return;
         }
 
         try {
-            runMinesweeperServer(debug, file, sizeX, sizeY, port);
+            ServerOptions options = new ServerOptions()
+                    .withMode(mode)
+                    .withStorage(storage)
+                    .withPlacement(new BombPlacement(density, seed, firstClickSafe))
+                    .withMetrics(metrics ? new Metrics() : null)
+                    .withIdleTimeout(idleTimeoutMillis)
+                    .withRecordings(record.orElse(null), null);
+            runMinesweeperServer(debug, file, sizeX, sizeY, port, options, log, fsync, metricsFile);
+        } catch (BoardFile.FormatException | UnsupportedOperationException e) {
+            System.err.println(e.getMessage());
         } catch (IOException ioe) {
             throw new RuntimeException(ioe);
         }
@@ -240,10 +457,79 @@ public class MinesweeperServer {
      * @throws IOException if a network error occurs
      */
     public static void runMinesweeperServer(boolean debug, Optional<File> file, int sizeX, int sizeY, int port) throws IOException {
-        
-        // TODO: Continue implementation here in problem 4
-        
-        MinesweeperServer server = new MinesweeperServer(port, debug, sizeX, sizeY);
+        runMinesweeperServer(debug, file, sizeX, sizeY, port,
+                new ServerOptions().withPlacement(new BombPlacement(BoardStorage.DENSITY, new Random().nextLong(), false)),
+                Optional.empty(), FsyncPolicy.PERIODIC, Optional.empty());
+    }
+
+    /**
+     * Start a MinesweeperServer running on the specified port, with either a random new board, a board
+     * loaded from a file, or a board restored from a move log.
+     *
+     * @param debug The server will disconnect a client after a BOOM message if and only if debug is false.
+     * @param file If file.isPresent(), start with a board loaded from the specified file,
+     *             according to the input file format defined in the documentation for main(..).
+     * @param sizeX If (!file.isPresent()), start with a random board with width sizeX
+     *              (and require sizeX > 0).
+     * @param sizeY If (!file.isPresent()), start with a random board with height sizeY
+     *              (and require sizeY > 0).
+     * @param port The network port on which the server should listen, requires 0 <= port <= 65535.
+     * @param options How connections are served, requires its mode to be supported, and the games stored,
+     *                timed and recorded. Its storage also stores the starting board, and its placement
+     *                places the bombs of a random board, with its seed. Its log is replaced by the log
+     *                given by log, and its recordings, if any, are created if needed.
+     * @param log If log.isPresent(), log the moves of the starting board in that directory, restoring the
+     *            board from it instead if it already holds a log.
+     * @param fsync When the logged moves are forced to the disk.
+     * @param metricsFile If metricsFile.isPresent(), write the report of the metrics of options to it
+     *                    periodically, requires options to have metrics.
+     * @throws IOException if a network error occurs, or the file or the log can't be read or written, or the
+     *                     directory of the recordings can't be created
+     * @throws BoardFile.FormatException if the file is not a valid board file
+     * @throws UnsupportedOperationException if a file or a log is given and storage is CHUNKED, if storage
+     *                                       doesn't support placement, if a log is given for a random board
+     *                                       whose placement is first click safe, or mode is not supported
+     */
+    public static void runMinesweeperServer(boolean debug, Optional<File> file, int sizeX, int sizeY, int port,
+                                            ServerOptions options, Optional<Path> log, FsyncPolicy fsync,
+                                            Optional<Path> metricsFile) throws IOException {
+
+        BoardStorage storage = options.getStorage();
+        BombPlacement placement = options.getPlacement();
+
+        GameBoard board;
+        MoveLog moves = null;
+        BombPlacement boardPlacement = null;
+        if (log.isPresent() && MoveLog.exists(log.get())) {
+            long start = System.nanoTime();
+            moves = MoveLog.recover(log.get(), fsync, storage);
+            board = moves.getBoard();
+            System.err.println("restored version " + board.getVersion() + " from " + log.get()
+                    + " in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } else if (file.isPresent()) {
+            board = BoardFile.read(file.get().toPath()).newBoard(storage);
+        } else {
+            board = storage.newBoard(sizeX, sizeY, placement);
+            boardPlacement = placement;
+        }
+        if (log.isPresent() && moves == null) {
+            if (storage == BoardStorage.CHUNKED) {
+                throw new UnsupportedOperationException("chunked boards can't be logged");
+            }
+            if (placement.isFirstClickSafe() && ! file.isPresent()) {
+                // the bombs are not placed yet, so the snapshot would miss them
+                throw new UnsupportedOperationException("first click safe boards can't be logged");
+            }
+            moves = MoveLog.create(log.get(), fsync, board);
+        }
+        if (options.getRecordings() != null) {
+            Files.createDirectories(options.getRecordings());
+        }
+        MinesweeperServer server = new MinesweeperServer(port, debug, board,
+                options.withLog(moves).withRecordings(options.getRecordings(), boardPlacement));
+        if (metricsFile.isPresent()) {
+            options.getMetrics().startDump(metricsFile.get(), METRICS_DUMP_PERIOD_MILLIS, server.games);
+        }
         server.serve();
     }
 }
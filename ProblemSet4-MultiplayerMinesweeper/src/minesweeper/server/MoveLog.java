@@ -0,0 +1,495 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import minesweeper.BoardSnapshot;
+import minesweeper.BoardStorage;
+import minesweeper.Bomb;
+import minesweeper.GameBoard;
+
+/**
+ * MoveLog makes a game survive a crash of the server: every move that changes the board is appended
+ * to a write-ahead log, and the board is saved from time to time in a snapshot, so a restarted server
+ * restores the snapshot and replays the moves logged after it.
+ * <p>
+ * The files live in a directory of their own:
+ * <pre>
+ *   snapshot.bin ::= MAGIC FORMAT VERSION X Y BOMBS SQUARES CRC
+ *   moves.log    ::= BATCH*
+ *   BATCH ::= COUNT RECORD{COUNT} CRC
+ *   RECORD ::= VERSION X:uint16 Y:uint16 OP:uint8
+ * </pre>
+ * where MAGIC is "MSWS", FORMAT is 1, VERSION is an int64, X, Y and COUNT are int32, BOMBS has bit i%8
+ * of byte i/8 set iff the square of index i has a bomb, SQUARES are the squares packed as
+ * BoardSnapshot.getPackedSquares() packs them, and CRC is the int32 CRC-32 of the bytes before it in the
+ * snapshot, or of the records of the batch. OP is DIG, with PROPAGATE set for digs that propagate, or 0
+ * for a flag or a deflag. Every integer is big endian.
+ * <p>
+ * Moves are appended to memory by the threads making them, and written by a single writer thread in
+ * batches, one write, and at most one force, for all the moves appended while the previous batch was
+ * being written (group commit). After SNAPSHOT_EVERY moves the writer saves a snapshot and empties the
+ * log. A batch torn by a crash fails its CRC, and it and everything after it is discarded on recovery.
+ * <p>
+ * Moves made on a board that runs them concurrently are logged in the order they were applied to the
+ * squares they touched, which may differ from the order of their versions, so recovery replays them in
+ * the order logged. Replayed moves get new versions, in that order; the final version is the same.
+ */
+public class MoveLog {
+
+    /**
+     * Abstraction function:
+     * Represents the durable history of board, saved in directory: the last snapshot, plus the moves
+     * logged after it. pending holds the records of the moves appended and not yet handed to the writer,
+     * spare the buffer the writer hands back. appended moves have been appended since this log was opened,
+     * durable of them are written, and forced to the disk if policy is ALWAYS. sinceSnapshot moves have
+     * been written since the last snapshot. failure is the error that stopped the writer, if any.
+     * <p>
+     * Representation invariant:
+     * durable <= appended. pending holds (appended - handed) records, a whole number of RECORD_LENGTH bytes.
+     * Every record in log with a version greater than the version of the snapshot is a move applied after it.
+     * <p>
+     * Safety from Rep exposure:
+     * All fields are private, the channel and the buffers are never returned.
+     * <p>
+     * Thread safety:
+     * pending, appended, durable, closed and failure are guarded by the lock of this. spare, log,
+     * sinceSnapshot, unforced and lastForce are confined to the writer thread, except while recovering
+     * or creating, before the writer starts. append() only takes the lock of this for a few writes to
+     * memory, so it can be called by a board while it holds its own locks. Snapshots are taken from the
+     * board through its thread safe methods, retried until the board didn't change while taking them.
+     */
+
+    /** Number of moves written between two snapshots. */
+    static final int SNAPSHOT_EVERY = 1 << 20;
+    /** Bit of OP set for digs. */
+    static final int DIG = 1;
+    /** Bit of OP set for moves that propagate. */
+    static final int PROPAGATE = 2;
+
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    private static final String SNAPSHOT_TEMPORARY_FILE = "snapshot.tmp";
+    private static final String LOG_FILE = "moves.log";
+    private static final byte[] MAGIC = "MSWS".getBytes(StandardCharsets.US_ASCII);
+    private static final int FORMAT = 1;
+    private static final int SNAPSHOT_HEADER_LENGTH = MAGIC.length + 1 + 8 + 4 + 4;
+    private static final int RECORD_LENGTH = 8 + 2 + 2 + 1;
+    /** Attempts at taking a consistent snapshot before giving up until the next batch. */
+    private static final int SNAPSHOT_ATTEMPTS = 10;
+
+    private final Path directory;
+    private final FsyncPolicy policy;
+    private final GameBoard board;
+    private final int snapshotEvery;
+    private final FileChannel log;
+    private final Thread writer;
+
+    private ByteBuffer pending = ByteBuffer.allocate(256 * RECORD_LENGTH);
+    private long appended = 0;
+    private long durable = 0;
+    private boolean closed = false;
+    private IOException failure;
+
+    private ByteBuffer spare = ByteBuffer.allocate(256 * RECORD_LENGTH);
+    private long sinceSnapshot;
+    private boolean unforced = false;
+    private long lastForce = System.currentTimeMillis();
+
+    private MoveLog(Path directory, FsyncPolicy policy, GameBoard board, FileChannel log, long sinceSnapshot,
+                    int snapshotEvery) {
+        this.directory = directory;
+        this.policy = policy;
+        this.board = board;
+        this.log = log;
+        this.sinceSnapshot = sinceSnapshot;
+        this.snapshotEvery = snapshotEvery;
+        this.writer = new Thread(this::write, "move-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @param directory directory of a log.
+     * @return whether the directory holds a log that recover() can restore a board from.
+     */
+    public static boolean exists(Path directory) {
+        return Files.isRegularFile(directory.resolve(SNAPSHOT_FILE));
+    }
+
+    /**
+     * Starts logging the moves of a board, replacing any log in the directory. The board is saved right
+     * away, so it can be restored even if no move is ever made on it.
+     *
+     * @param directory directory of the log, created if needed.
+     * @param policy when the moves written are forced to the disk.
+     * @param board board whose moves are logged, stored in a way BoardStorage can restore.
+     * @return a log of the moves of board.
+     * @throws IOException if the files can't be written.
+     */
+    public static MoveLog create(Path directory, FsyncPolicy policy, GameBoard board) throws IOException {
+        return create(directory, policy, board, SNAPSHOT_EVERY);
+    }
+
+    static MoveLog create(Path directory, FsyncPolicy policy, GameBoard board, int snapshotEvery) throws IOException {
+
+        Files.createDirectories(directory);
+        if ( ! writeSnapshot(directory, board)) {
+            throw new IllegalStateException("the board must not be played before it is logged");
+        }
+        FileChannel log = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new MoveLog(directory, policy, board, log, 0, snapshotEvery);
+    }
+
+    /**
+     * Restores the board saved in a log, as it was after the last move logged, and keeps logging its moves.
+     *
+     * @param directory directory of the log, requires exists(directory).
+     * @param policy when the moves written from now on are forced to the disk.
+     * @param storage how the restored board is stored, requires a storage that can be restored.
+     * @return the log, whose getBoard() is the restored board.
+     * @throws IOException if the files can't be read, or the snapshot is not valid.
+     */
+    public static MoveLog recover(Path directory, FsyncPolicy policy, BoardStorage storage) throws IOException {
+        return recover(directory, policy, storage, SNAPSHOT_EVERY);
+    }
+
+    static MoveLog recover(Path directory, FsyncPolicy policy, BoardStorage storage, int snapshotEvery)
+            throws IOException {
+
+        GameBoard board = readSnapshot(directory.resolve(SNAPSHOT_FILE), storage);
+        long snapshotVersion = board.getVersion();
+
+        FileChannel log = FileChannel.open(directory.resolve(LOG_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer bytes = log.map(FileChannel.MapMode.READ_ONLY, 0, log.size());
+        long replayed = 0;
+        int valid = 0;
+        CRC32 crc = new CRC32();
+
+        while (bytes.remaining() >= 4) {
+            int count = bytes.getInt(valid);
+            long end = valid + 4 + (long) count * RECORD_LENGTH + 4;
+            if (count < 0 || end > bytes.limit()) {
+                break;
+            }
+            ByteBuffer records = bytes.slice(valid + 4, count * RECORD_LENGTH);
+            crc.reset();
+            crc.update(records.duplicate());
+            if ((int) crc.getValue() != bytes.getInt((int) end - 4) || ! replay(board, records, snapshotVersion)) {
+                break;
+            }
+            replayed += count;
+            valid = (int) end;
+            bytes.position(valid);
+        }
+        // a torn or corrupted batch, and everything after it, was never acknowledged as written
+        log.truncate(valid);
+        log.position(valid);
+        return new MoveLog(directory, policy, board, log, replayed, snapshotEvery);
+    }
+
+    /**
+     * Replays the records of a batch with a version after the snapshot's.
+     *
+     * @return false if a record is not valid for the board, in which case the batch is not replayed.
+     */
+    private static boolean replay(GameBoard board, ByteBuffer records, long snapshotVersion) {
+
+        for (int i = 0; i < records.limit(); i += RECORD_LENGTH) {
+            int x = records.getShort(i + 8) & 0xFFFF;
+            int y = records.getShort(i + 10) & 0xFFFF;
+            int op = records.get(i + 12);
+            if (x >= board.getSizeX() || y >= board.getSizeY() || (op & ~(DIG | PROPAGATE)) != 0) {
+                return false;
+            }
+        }
+        for (int i = 0; i < records.limit(); i += RECORD_LENGTH) {
+            if (records.getLong(i) <= snapshotVersion) {
+                continue;
+            }
+            int op = records.get(i + 12);
+            board.setSquare(records.getShort(i + 8) & 0xFFFF, records.getShort(i + 10) & 0xFFFF,
+                    ((op & DIG) != 0) ? "dug" : "flagged", (op & PROPAGATE) != 0);
+        }
+        return true;
+    }
+
+    /**
+     * @return the board whose moves are logged.
+     */
+    public GameBoard getBoard() {
+        return board;
+    }
+
+    /**
+     * Appends a move that changed the board to the log. Called by the board once it applied the move,
+     * while it still holds the locks of the squares the move changed, so moves changing the same squares
+     * are appended in the order they were applied. Doesn't wait for the move to be written. Once the log
+     * is closed, or failed, the move is dropped rather than buffered for a writer that stopped.
+     *
+     * @param version version of the board after the move.
+     * @param x coordinate on the X axis of the move.
+     * @param y coordinate on the Y axis of the move.
+     * @param command "dug" or "flagged", as given to GameBoard.setSquare().
+     * @param propagate as given to GameBoard.setSquare().
+     */
+    public synchronized void append(long version, int x, int y, String command, boolean propagate) {
+
+        if (closed || failure != null) {
+            return;
+        }
+        if (pending.remaining() < RECORD_LENGTH) {
+            ByteBuffer larger = ByteBuffer.allocate(pending.capacity() * 2);
+            pending.flip();
+            pending = larger.put(pending);
+        }
+        boolean wasEmpty = pending.position() == 0;
+        pending.putLong(version)
+                .putShort((short) x)
+                .putShort((short) y)
+                .put((byte) ((command.equals("dug") ? DIG : 0) | (propagate ? PROPAGATE : 0)));
+        appended++;
+        if (wasEmpty) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits, if the policy is ALWAYS, until every move appended so far is written and forced to the disk.
+     * Called after a move, before answering it. With other policies, returns right away, unless the log
+     * failed.
+     *
+     * @throws RuntimeException if the log can't be written anymore, whatever the policy.
+     */
+    public void sync() {
+        if (policy == FsyncPolicy.ALWAYS) {
+            await();
+            return;
+        }
+        synchronized (this) {
+            if (failure != null) {
+                throw new RuntimeException("the move log can't be written", failure);
+            }
+        }
+    }
+
+    /**
+     * Waits until every move appended so far is written, and forced to the disk if the policy is ALWAYS.
+     *
+     * @throws RuntimeException if the log can't be written anymore.
+     */
+    public synchronized void await() {
+
+        long target = appended;
+        boolean interrupted = false;
+        while (durable < target && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw new RuntimeException("the move log can't be written", failure);
+        }
+    }
+
+    /**
+     * Writes and forces every move appended so far, then stops the writer and closes the log. Moves
+     * appended later are not logged.
+     *
+     * @throws IOException if the log can't be written or closed.
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        log.close();
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Body of the writer thread: writes every batch of pending moves, forces it as the policy says, and
+     * saves a snapshot every snapshotEvery moves, until the log is closed or fails.
+     */
+    private void write() {
+
+        try {
+            while (true) {
+                ByteBuffer batch;
+                long handed;
+                boolean last;
+                synchronized (this) {
+                    if (pending.position() == 0 && ! closed) {
+                        wait(FsyncPolicy.PERIOD_MILLIS);
+                    }
+                    batch = pending;
+                    pending = spare;
+                    handed = appended;
+                    last = closed;
+                }
+
+                if (batch.position() > 0) {
+                    writeBatch(batch);
+                    unforced = true;
+                }
+                batch.clear();
+                spare = batch;
+                long now = System.currentTimeMillis();
+                if (unforced && (policy == FsyncPolicy.ALWAYS || last
+                        || (policy == FsyncPolicy.PERIODIC && now - lastForce >= FsyncPolicy.PERIOD_MILLIS))) {
+                    log.force(false);
+                    unforced = false;
+                    lastForce = now;
+                }
+                synchronized (this) {
+                    durable = handed;
+                    notifyAll();
+                }
+
+                if (last) {
+                    return;
+                }
+                if (sinceSnapshot >= snapshotEvery) {
+                    snapshot();
+                }
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            synchronized (this) {
+                failure = ioe;
+                notifyAll();
+            }
+        } catch (InterruptedException ie) {
+            // the server is shutting down
+        }
+    }
+
+    private void writeBatch(ByteBuffer batch) throws IOException {
+
+        batch.flip();
+        CRC32 crc = new CRC32();
+        crc.update(batch.duplicate());
+        int count = batch.remaining() / RECORD_LENGTH;
+
+        ByteBuffer header = ByteBuffer.allocate(4).putInt(0, count);
+        ByteBuffer trailer = ByteBuffer.allocate(4).putInt(0, (int) crc.getValue());
+        ByteBuffer[] buffers = {header, batch, trailer};
+        while (trailer.hasRemaining()) {
+            log.write(buffers);
+        }
+        sinceSnapshot += count;
+    }
+
+    /**
+     * Saves a snapshot of the board and empties the log. Every move written so far was applied before
+     * the snapshot is taken, so none of them is needed anymore. Moves still pending may be older than the
+     * snapshot, they are skipped by version on recovery.
+     */
+    private void snapshot() throws IOException {
+        if (writeSnapshot(directory, board)) {
+            log.truncate(0);
+            log.position(0);
+            log.force(false);
+            sinceSnapshot = 0;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the board to a temporary file and moves it over the previous snapshot.
+     *
+     * @return false if the board changed every time a snapshot was attempted, in which case nothing is written.
+     */
+    private static boolean writeSnapshot(Path directory, GameBoard board) throws IOException {
+
+        for (int attempt = 0; attempt < SNAPSHOT_ATTEMPTS; attempt++) {
+            long version = board.getVersion();
+            BoardSnapshot squares = board.getSnapshot();
+            List<Bomb> bombs = board.getBombLocations();
+            if (squares.getVersion() != version || board.getVersion() != version) {
+                continue;
+            }
+
+            int sizeX = board.getSizeX();
+            int sizeY = board.getSizeY();
+            ByteBuffer packed = squares.getPackedSquares();
+            byte[] bombBytes = new byte[(sizeX * sizeY + 7) / 8];
+            for (Bomb bomb : bombs) {
+                int i = bomb.getX() * sizeY + bomb.getY();
+                bombBytes[i >> 3] |= 1 << (i & 7);
+            }
+
+            ByteBuffer bytes = ByteBuffer.allocate(SNAPSHOT_HEADER_LENGTH + bombBytes.length + packed.remaining() + 4);
+            bytes.put(MAGIC).put((byte) FORMAT).putLong(version).putInt(sizeX).putInt(sizeY)
+                    .put(bombBytes).put(packed);
+            CRC32 crc = new CRC32();
+            crc.update(bytes.array(), 0, bytes.position());
+            bytes.putInt((int) crc.getValue());
+            bytes.flip();
+
+            Path temporary = directory.resolve(SNAPSHOT_TEMPORARY_FILE);
+            try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (bytes.hasRemaining()) {
+                    file.write(bytes);
+                }
+                file.force(true);
+            }
+            Files.move(temporary, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        }
+        return false;
+    }
+
+    private static GameBoard readSnapshot(Path file, BoardStorage storage) throws IOException {
+
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (bytes.remaining() < SNAPSHOT_HEADER_LENGTH + 4
+                || ! Arrays.equals(Arrays.copyOf(bytes.array(), MAGIC.length), MAGIC)
+                || bytes.get(MAGIC.length) != FORMAT) {
+            throw new IOException(file + ": not a snapshot");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.array(), 0, bytes.limit() - 4);
+        if ((int) crc.getValue() != bytes.getInt(bytes.limit() - 4)) {
+            throw new IOException(file + ": corrupted snapshot");
+        }
+
+        bytes.position(MAGIC.length + 1);
+        long version = bytes.getLong();
+        int sizeX = bytes.getInt();
+        int sizeY = bytes.getInt();
+        if (sizeX < GameBoard.MIN_SIZE || sizeX > GameBoard.MAX_SIZE || sizeY < GameBoard.MIN_SIZE || sizeY > GameBoard.MAX_SIZE
+                || bytes.remaining() != (sizeX * sizeY + 7) / 8 + (sizeX * sizeY + 1) / 2 + 4) {
+            throw new IOException(file + ": snapshot of a board of size " + sizeX + "x" + sizeY + " not valid");
+        }
+        BitSet bombs = BitSet.valueOf(bytes.slice(bytes.position(), (sizeX * sizeY + 7) / 8));
+        ByteBuffer packed = bytes.slice(bytes.position() + (sizeX * sizeY + 7) / 8, (sizeX * sizeY + 1) / 2);
+        return storage.restore(sizeX, sizeY, bombs, packed, version);
+    }
+}
@@ -0,0 +1,396 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import minesweeper.BoardSnapshot;
+
+/**
+ * NioConnection stores the state of a single client connection multiplexed by one of the
+ * event loops of NioFrontEnd. It plays the same role PlayerThread plays in the thread per
+ * connection mode: it asks for the username, creates the Player object and forwards every
+ * line received to the protocol, queueing the responses until the channel can take them.
+ * A client answering the username prompt with the handshake of SpectatorFeed watches a game instead.
+ */
+class NioConnection implements Client {
+
+    /**
+     * Abstraction function:
+     * Represents a client connected through a non-blocking channel. line[0..lineLength) holds the
+     * bytes of the line being received, pending holds the responses not yet written to the client.
+     * If suspended, the client is not read until pending is written, and held, if not null, holds the
+     * bytes received after the last line handled. lastRead is when the client last sent something.
+     * <p>
+     * Representation invariant:
+     * 0 <= lineLength <= MAX_LINE_LENGTH.
+     * player is null until the first line (the username) has been received, and stays null if the
+     * client is a spectator, as the first line said.
+     * protocol is the protocol of the game the client is in.
+     * If closing is true, no more lines are processed. If suspended, the key is not interested in reading.
+     * <p>
+     * Safety from Rep exposure:
+     * All fields are private. Buffers are never returned to the callers.
+     * <p>
+     * Thread safety:
+     * A NioConnection is confined to the event loop thread that registered its channel. All of its
+     * methods are called exclusively from that thread, except push(), which hands the message to the
+     * event loop through its thread safe task queue. A pushed message finding Outbox.CAPACITY buffers
+     * already pending closes the connection instead, so a slow consumer can't make the server buffer
+     * without bound the changes made by the other players. A client whose own responses fill
+     * MAX_PENDING buffers is suspended instead, so it can't make the server buffer without bound the
+     * responses to requests sent without reading them either.
+     * The shared state it touches, the players of its game, belongs to the protocol, which is thread safe.
+     */
+
+    /** Longest line accepted from a client. Longer lines close the connection. */
+    static final int MAX_LINE_LENGTH = 8192;
+    /** Buffers pending for a client beyond which its requests are not read until they are written. */
+    static final int MAX_PENDING = Outbox.CAPACITY / 2;
+    /** Line terminator appended to every message, the same one used by PrintWriter.println. */
+    private static final String NEWLINE = System.lineSeparator();
+    private static final byte[] NEWLINE_BYTES = NEWLINE.getBytes(Charset.defaultCharset());
+
+    /** Channel and selection key used to communicate with the client. */
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    /** Protocol of the game the client is in. */
+    private Protocol protocol;
+    /** Event loop serving this connection. */
+    private final NioFrontEnd.EventLoop loop;
+    private final Charset charset = Charset.defaultCharset();
+    /** Bytes of the line being received. */
+    private byte[] line = new byte[64];
+    private int lineLength = 0;
+    /** Responses waiting to be written to the channel. */
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+    /** Player object that stores the client's information. */
+    private Player player;
+    /** Whether the client watches its game instead of playing it. */
+    private boolean spectator = false;
+    private boolean closing = false;
+    private boolean suspended = false;
+    /** Bytes received but not handled while suspended, or null. */
+    private ByteBuffer held;
+    private long lastRead = System.currentTimeMillis();
+
+    NioConnection(SocketChannel channel, SelectionKey key, Protocol protocol, NioFrontEnd.EventLoop loop) {
+        this.channel = channel;
+        this.key = key;
+        this.protocol = protocol;
+        this.loop = loop;
+    }
+
+    /**
+     * Prompts for the user identification, as PlayerThread does upon connection.
+     *
+     * @throws IOException if the channel cannot be written.
+     */
+    void start() throws IOException {
+        send("Type your username: ");
+        flush();
+    }
+
+    /**
+     * Consumes the bytes read from the channel, handling every complete line. The responses to all the
+     * lines, pipelined by the client without waiting for the previous responses, are written together
+     * once they are all handled, in as few writes as the channel accepts. Once MAX_PENDING buffers are
+     * pending, the connection is suspended: the rest of the bytes are held, and the channel isn't read,
+     * until the responses are written.
+     *
+     * @param buffer bytes read from the channel, ready to be read.
+     * @throws IOException if the channel cannot be written or the client sent a line longer than MAX_LINE_LENGTH.
+     */
+    void read(ByteBuffer buffer) throws IOException {
+
+        lastRead = System.currentTimeMillis();
+        while (buffer.hasRemaining() && !closing && !suspended) {
+            byte b = buffer.get();
+
+            if (b == '\n') {
+                int length = lineLength;
+                if (length > 0 && line[length - 1] == '\r') {
+                    length--;
+                }
+                lineLength = 0;
+                handleLine(new String(line, 0, length, charset));
+                if (pending.size() >= MAX_PENDING) {
+                    suspended = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+
+            } else {
+                if (lineLength == MAX_LINE_LENGTH) {
+                    throw new IOException("line too long");
+                }
+                if (lineLength == line.length) {
+                    line = Arrays.copyOf(line, Math.min(line.length * 2, MAX_LINE_LENGTH));
+                }
+                line[lineLength++] = b;
+            }
+        }
+        if (suspended && buffer.hasRemaining() && !closing) {
+            held = ByteBuffer.allocate(buffer.remaining()).put(buffer).flip();
+        }
+        flush();
+    }
+
+    /**
+     * Handles the bytes held while the connection was suspended, then reads the channel again, unless
+     * the held bytes suspend it again.
+     */
+    private void resume() {
+
+        if (closing) {
+            return;
+        }
+        suspended = false;
+        ByteBuffer rest = held;
+        held = null;
+        try {
+            if (rest != null) {
+                read(rest);
+            }
+            if (!suspended && !closing) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            close();
+        }
+    }
+
+    /**
+     * Disconnects the client, once told why, if it is a player, or hasn't sent its username, and has
+     * sent nothing for the given time. Spectators are never idle. A client still closing, which hasn't
+     * read what it was last sent, is closed at once.
+     *
+     * @param now current time in milliseconds since the epoch.
+     * @param timeoutMillis longest time a client can go without sending anything, in milliseconds.
+     */
+    void closeIfIdle(long now, long timeoutMillis) {
+
+        if (spectator || now - lastRead < timeoutMillis) {
+            return;
+        } else if (closing) {
+            close();
+            return;
+        }
+        closing = true;
+        send("**> Disconnected after " + TimeUnit.MILLISECONDS.toSeconds(timeoutMillis)
+                + " seconds without a request.\r\n");
+        try {
+            flush();
+        } catch (IOException ioe) {
+            close();
+        }
+    }
+
+    /**
+     * The first line received is the username. Every line after it is a request for the protocol.
+     * Clients asking for the BinaryProtocol, which only PlayerThread speaks, are told so and disconnected.
+     * <p>
+     * The message "QUIT" acts as a poison pill, the same as in PlayerThread. Upon receiving it,
+     * the connection says bye and closes once the goodbye has been written.
+     *
+     * @param input line received from the client.
+     */
+    private void handleLine(String input) {
+
+        if (spectator) {
+            if (input.equalsIgnoreCase("QUIT")) {
+                quit();
+                return;
+            }
+            String serverResponse = protocol.handleSpectatorRequest(input);
+            if (serverResponse.equals("QUIT")) {
+                quit();
+            } else {
+                send(serverResponse);
+            }
+            return;
+        }
+
+        if (player == null) {
+            if (input.startsWith(BinaryProtocol.HANDSHAKE + " ")) {
+                closing = true;
+                send("**> The binary protocol is not available on this server, connect without it.\r\n");
+                return;
+            } else if (SpectatorFeed.isHandshake(input)) {
+                spectate(SpectatorFeed.gameOf(input));
+                return;
+            }
+            player = new Player(input);
+            protocol.addPlayer(player);
+            send(protocol.handleRequest("hello"));
+            return;
+        }
+
+        if (input.equalsIgnoreCase("QUIT")) {
+            quit();
+            return;
+        }
+
+        if (input.equals("look")) {
+            Metrics metrics = protocol.getMetrics();
+            long start = (metrics == null) ? 0 : System.nanoTime();
+            BoardSnapshot snapshot = protocol.lookSnapshot();
+            if (snapshot != null) {
+                send(snapshot.getBytes());
+                if (metrics != null) {
+                    metrics.requestHandled(Metrics.LOOK, System.nanoTime() - start);
+                }
+                return;
+            }
+        }
+
+        String serverResponse = protocol.handleRequest(input, this);
+
+        if (serverResponse.equals("QUIT")) {
+            quit();
+        } else {
+            send(serverResponse);
+        }
+    }
+
+    /**
+     * Makes the client a spectator of the game with the given id, or tells it there is none and closes.
+     * Updates are pushed through the event loop, so they are sent after the welcome.
+     *
+     * @param id id of the game to watch, or null for the default game.
+     */
+    private void spectate(String id) {
+        Protocol game = protocol.getGame(id);
+        if (game == null) {
+            closing = true;
+            send("**> There is no game " + id + ".\r\n");
+            return;
+        }
+        spectator = true;
+        protocol = game;
+        send(protocol.handleSpectatorRequest("hello"));
+        protocol.watch(this);
+    }
+
+    private void quit() {
+        closing = true;
+        send(protocol.handleRequest("bye"));
+    }
+
+    @Override
+    public Player getPlayer() {
+        return player;
+    }
+
+    @Override
+    public void joined(Protocol game) {
+        protocol = game;
+    }
+
+    @Override
+    public void push(String message) {
+        pushed(() -> send(message));
+    }
+
+    @Override
+    public void push(ByteBuffer message) {
+        pushed(() -> send(message));
+    }
+
+    /**
+     * Queues and writes a pushed message on the event loop, unless the connection is closing, or
+     * closes the connection of a slow consumer instead.
+     *
+     * @param sending queues the message.
+     */
+    private void pushed(Runnable sending) {
+        loop.execute(() -> {
+            if (closing) {
+                return;
+            }
+            if (pending.size() >= Outbox.CAPACITY) {
+                close();
+                return;
+            }
+            try {
+                sending.run();
+                flush();
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+                close();
+            }
+        });
+    }
+
+    /**
+     * Queues a message for the client, written by the next flush().
+     *
+     * @param message message to the client. A line terminator is appended.
+     */
+    private void send(String message) {
+        pending.add(ByteBuffer.wrap((message + NEWLINE).getBytes(charset)));
+    }
+
+    /**
+     * Queues a message already encoded, such as a board snapshot, written by the next flush().
+     * Snapshots are encoded in US-ASCII, which the default charset encodes the same way.
+     *
+     * @param message bytes of the message, without a line terminator. A line terminator is appended.
+     */
+    private void send(ByteBuffer message) {
+        pending.add(message);
+        pending.add(ByteBuffer.wrap(NEWLINE_BYTES));
+    }
+
+    /**
+     * Writes as much of the pending output as the channel accepts, gathering every pending buffer in
+     * a single write. If some output remains, the event loop is asked to call flush() again once the
+     * channel is writable.
+     *
+     * @throws IOException if the channel cannot be written.
+     */
+    void flush() throws IOException {
+
+        if (!pending.isEmpty()) {
+            channel.write(pending.toArray(new ByteBuffer[pending.size()]));
+            while (!pending.isEmpty() && !pending.peek().hasRemaining()) {
+                pending.poll();
+            }
+            if (!pending.isEmpty()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+        if (closing) {
+            close();
+        } else if (suspended) {
+            // not right away: flush() may be called while handling the lines read
+            loop.execute(this::resume);
+        }
+    }
+
+    /**
+     * Closes the channel and removes the Player object from the players of its game. Calling close()
+     * more than once has no further effect.
+     */
+    void close() {
+
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+
+        protocol.leave(player, this);
+        player = null;
+        closing = true;
+    }
+}
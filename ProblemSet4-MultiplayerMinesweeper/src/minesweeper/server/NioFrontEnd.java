@@ -0,0 +1,294 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * NioFrontEnd accepts and serves clients using non-blocking channels. Instead of one Thread per
+ * Player, every connection is multiplexed on one of a small, fixed number of event loops, each of them
+ * a Thread waiting on its own Selector.
+ * <p>
+ * Clients speak the same text protocol as in the thread per connection mode, every line is handled by
+ * Protocol.handleRequest(). As in that mode, players idle for longer than the idle timeout are
+ * disconnected: every event loop looks for them every REAP_PERIOD_MILLIS at most.
+ */
+public class NioFrontEnd {
+
+    /**
+     * Abstraction function:
+     * Represents the networking front end of the server. serverChannel receives the incoming
+     * connections, which are assigned to the event loops in round-robin order.
+     * <p>
+     * Representation invariant:
+     * loops must contain at least one event loop.
+     * serverChannel must be in blocking mode.
+     * <p>
+     * Safety from Rep exposure:
+     * All fields are private and final. The event loops are never returned to the callers.
+     * <p>
+     * Thread safety:
+     * serve() is only called by the server's main thread, which is the only one accepting connections.
+     * Accepted channels are handed to an event loop through a concurrent queue, after that
+     * the channel and its NioConnection are confined to the event loop thread.
+     */
+
+    /** Size of the buffer each event loop reads into. */
+    private static final int READ_BUFFER_SIZE = 8192;
+    /** Longest time between two looks for idle connections. */
+    private static final long REAP_PERIOD_MILLIS = 1000;
+
+    private final ServerSocketChannel serverChannel;
+    private final Protocol protocol;
+    private final EventLoop[] loops;
+
+    /**
+     * Make a NioFrontEnd for the given channel.
+     *
+     * @param serverChannel bound channel receiving the incoming connections.
+     * @param protocol protocol of the game every client starts in.
+     * @param nLoops number of event loops, requires nLoops >= 1.
+     * @throws IOException if a selector cannot be opened.
+     */
+    public NioFrontEnd(ServerSocketChannel serverChannel, Protocol protocol, int nLoops) throws IOException {
+        this(serverChannel, protocol, nLoops, 0);
+    }
+
+    /**
+     * Make a NioFrontEnd for the given channel, disconnecting idle players.
+     *
+     * @param serverChannel bound channel receiving the incoming connections.
+     * @param protocol protocol of the game every client starts in.
+     * @param nLoops number of event loops, requires nLoops >= 1.
+     * @param idleTimeoutMillis how long a player, or a client which hasn't sent its username, can go
+     *                          without sending anything, or 0 to never disconnect them. Requires
+     *                          idleTimeoutMillis >= 0.
+     * @throws IOException if a selector cannot be opened.
+     */
+    public NioFrontEnd(ServerSocketChannel serverChannel, Protocol protocol, int nLoops, long idleTimeoutMillis)
+            throws IOException {
+
+        if (nLoops < 1) {
+            throw new IllegalArgumentException("at least one event loop is required");
+        }
+        this.serverChannel = serverChannel;
+        this.protocol = protocol;
+        this.loops = new EventLoop[nLoops];
+
+        for (int i = 0; i < nLoops; i++) {
+            loops[i] = new EventLoop(Selector.open(), protocol, idleTimeoutMillis);
+        }
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert loops.length >= 1;
+        assert serverChannel.isBlocking();
+    }
+
+    /**
+     * Start the event loops and accept connections, handing each one of them to the next event loop.
+     * Never returns unless the server channel is closed.
+     *
+     * @throws IOException if the server channel is broken
+     *                     (IOExceptions from individual clients do *not* terminate serve())
+     */
+    public void serve() throws IOException {
+
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], "nio-loop-" + i);
+            thread.start();
+        }
+
+        int next = 0;
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+
+            } catch (ClosedChannelException cce) {
+                return;
+            } catch (IOException ioe) {
+                ioe.printStackTrace(); // but don't terminate serve()
+            }
+        }
+    }
+
+    /**
+     * EventLoop waits for readiness events of its channels and dispatches them to their NioConnection.
+     */
+    static class EventLoop implements Runnable {
+
+        /**
+         * Abstraction function:
+         * Represents a thread serving every connection registered in selector, closing the ones idle for
+         * idleTimeoutMillis, if it is not 0, once it's past nextReap.
+         * <p>
+         * Representation invariant:
+         * Every key registered in selector has a NioConnection attached.
+         * <p>
+         * Safety from Rep exposure:
+         * All fields are private and final.
+         * <p>
+         * Thread safety:
+         * register() and execute() are the only methods called by other threads. They use concurrent
+         * queues and Selector.wakeup(), which are thread safe. Everything else is confined to the loop's thread.
+         */
+
+        private final Selector selector;
+        private final Protocol protocol;
+        /** Channels accepted but not yet registered in selector. */
+        private final Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+        /** Tasks handed by other threads, to be run by the loop's thread. */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final long idleTimeoutMillis;
+        private long nextReap;
+
+        EventLoop(Selector selector, Protocol protocol, long idleTimeoutMillis) {
+            this.selector = selector;
+            this.protocol = protocol;
+            this.idleTimeoutMillis = idleTimeoutMillis;
+            this.nextReap = System.currentTimeMillis() + reapPeriod();
+        }
+
+        /**
+         * @return the time between two looks for idle connections, or 0 if they are never disconnected.
+         */
+        private long reapPeriod() {
+            return (idleTimeoutMillis == 0) ? 0 : Math.max(Math.min(idleTimeoutMillis / 2, REAP_PERIOD_MILLIS), 1);
+        }
+
+        /**
+         * Hands a channel to this event loop. Can be called from any thread.
+         *
+         * @param channel non-blocking channel of a newly accepted client.
+         */
+        void register(SocketChannel channel) {
+            registrations.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Runs a task on the loop's thread, after the tasks handed before it. Can be called from any thread.
+         *
+         * @param task task touching the connections of this event loop.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+
+            while (true) {
+                try {
+                    // a timeout of 0 waits for an event for ever
+                    selector.select(reapPeriod());
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                    return;
+                }
+                registerPending();
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+                if (idleTimeoutMillis > 0 && System.currentTimeMillis() >= nextReap) {
+                    reapIdle();
+                }
+            }
+        }
+
+        /**
+         * Disconnects the players idle for longer than the idle timeout.
+         */
+        private void reapIdle() {
+
+            long now = System.currentTimeMillis();
+            nextReap = now + reapPeriod();
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid()) {
+                    ((NioConnection) key.attachment()).closeIfIdle(now, idleTimeoutMillis);
+                }
+            }
+        }
+
+        private void runTasks() {
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        private void registerPending() {
+
+            SocketChannel channel;
+            while ((channel = registrations.poll()) != null) {
+                NioConnection connection = null;
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    connection = new NioConnection(channel, key, protocol, this);
+                    key.attach(connection);
+                    connection.start();
+                } catch (IOException ioe) {
+                    ioe.printStackTrace();
+                    if (connection != null) {
+                        connection.close();
+                    } else {
+                        try {
+                            channel.close();
+                        } catch (IOException closeError) {
+                            closeError.printStackTrace();
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reads from or writes to the channel of the given key. A client that disconnects, fails or
+         * sends a request the protocol cannot handle is closed, but the loop keeps serving the others.
+         */
+        private void handle(SelectionKey key) {
+
+            NioConnection connection = (NioConnection) key.attachment();
+            try {
+                if (key.isValid() && key.isReadable()) {
+                    readBuffer.clear();
+                    int read = ((SocketChannel) key.channel()).read(readBuffer);
+                    if (read < 0) {
+                        connection.close();
+                        return;
+                    }
+                    readBuffer.flip();
+                    connection.read(readBuffer);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                connection.close();
+            }
+        }
+    }
+}
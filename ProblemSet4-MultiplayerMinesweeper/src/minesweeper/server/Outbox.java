@@ -0,0 +1,201 @@
+package minesweeper.server;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Outbox holds the messages waiting to be written to a client connected through a blocking socket, and
+ * writes them in the order they were offered from a writer task of its own, so the threads offering
+ * them, such as the broadcaster of the deltas of a game, never wait for a slow client. Messages are
+ * offered as text, encoded by the writer task, or already encoded, such as the updates shared by the
+ * spectators of a game, which are written as they are.
+ * <p>
+ * At most CAPACITY messages wait at a time. A client that lets more pile up is a slow consumer: the
+ * message is dropped, the outbox stops taking messages and its overflow handler is run, which is
+ * expected to disconnect the client. The responses to the client's own requests are sent with send()
+ * instead, which waits for room, so a client sending requests faster than it reads the responses is
+ * slowed down to its own pace, and only disconnected if it doesn't read for a while.
+ */
+class Outbox {
+
+    /**
+     * Abstraction function:
+     * Represents the messages offered to a client and not yet written to out, in messages, Strings or
+     * ByteBuffers, in the order they were offered, followed by END once the outbox is closed. written is
+     * counted down once the writer task has stopped.
+     * <p>
+     * Representation invariant:
+     * room has a permit for every message besides END that can still be queued: CAPACITY minus the
+     * messages queued or being written. Once closed, END is queued, and is only followed by messages
+     * offered while it closed.
+     * <p>
+     * Safety from Rep exposure:
+     * All fields are private and final. No field is returned.
+     * <p>
+     * Thread safety:
+     * messages is a thread safe queue, so any thread can offer messages, and only the writer task takes
+     * them and writes to out, or to channel, its view. room is a semaphore: a message is only queued
+     * with one of its permits, which the writer task gives back once the message is written. closed is atomic, so only the first thread to close the outbox queues END
+     * and, if it overflowed it, runs onOverflow. A message offered while the outbox closes may be
+     * queued after END, and is dropped, as if the client had disconnected just before it.
+     */
+
+    /** Most messages waiting for a client before it is disconnected as a slow consumer. */
+    static final int CAPACITY = 256;
+    /** Queued after the last message to stop the writer task, compared by identity. */
+    private static final Object END = new Object();
+    /** Line terminator appended to every message, the same one used by PrintWriter.println. */
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(Charset.defaultCharset());
+
+    private final BlockingQueue<Object> messages = new LinkedBlockingQueue<>();
+    private final BufferedOutputStream out;
+    /** View of out, to write ByteBuffers. */
+    private final WritableByteChannel channel;
+    private final Charset charset = Charset.defaultCharset();
+    private final Runnable onOverflow;
+    private final CountDownLatch written = new CountDownLatch(1);
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Semaphore room = new Semaphore(CAPACITY);
+
+    /**
+     * Make an outbox writing to the given stream, and start its writer task.
+     *
+     * @param stream output stream of the client's socket.
+     * @param writers executor running the writer task until the outbox is closed.
+     * @param onOverflow run once, by the thread whose message overflowed the outbox.
+     */
+    Outbox(OutputStream stream, Executor writers, Runnable onOverflow) {
+        this.out = new BufferedOutputStream(stream);
+        this.channel = Channels.newChannel(out);
+        this.onOverflow = onOverflow;
+        writers.execute(this::write);
+    }
+
+    /**
+     * Queues a message for the client, unless the outbox is closed.
+     *
+     * @param message message to the client. A line terminator is appended.
+     * @return false if the message was refused, because the outbox is closed or overflowed.
+     */
+    boolean offer(String message) {
+        return queue(message);
+    }
+
+    /**
+     * Queues a message already encoded for the client, unless the outbox is closed.
+     *
+     * @param message bytes of the message in the default charset, without a line terminator, which is
+     *                appended. The outbox reads it, so it must not be read by anyone else.
+     * @return false if the message was refused, because the outbox is closed or overflowed.
+     */
+    boolean offer(ByteBuffer message) {
+        return queue(message);
+    }
+
+    /**
+     * Queues a response to a request of the client, waiting for room if CAPACITY messages are already
+     * waiting, unless the outbox is closed. A client that doesn't make room in time overflows the outbox.
+     *
+     * @param message message to the client. A line terminator is appended.
+     * @param timeoutMillis longest wait for room, in milliseconds.
+     * @return false if the message was refused, because the outbox is closed or overflowed.
+     */
+    boolean send(String message, long timeoutMillis) {
+        if (closed.get()) {
+            return false;
+        }
+        try {
+            if ( ! room.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                overflow();
+                return false;
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        messages.add(message);
+        return true;
+    }
+
+    private boolean queue(Object message) {
+        if (closed.get()) {
+            return false;
+        }
+        if ( ! room.tryAcquire()) {
+            overflow();
+            return false;
+        }
+        messages.add(message);
+        return true;
+    }
+
+    /**
+     * Stops taking messages and runs onOverflow, unless the outbox is already closed.
+     */
+    private void overflow() {
+        if (closed.compareAndSet(false, true)) {
+            messages.add(END);
+            onOverflow.run();
+        }
+    }
+
+    /**
+     * Stops taking messages, and waits for the ones already queued to be written, so the socket can
+     * be closed without losing them.
+     *
+     * @param timeoutMillis longest wait, in milliseconds.
+     */
+    void close(long timeoutMillis) {
+        if (closed.compareAndSet(false, true)) {
+            messages.add(END);
+        }
+        try {
+            written.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the queued messages until END, flushing whenever no more are waiting, so a burst of
+     * messages is sent in as few packets as the socket allows. Stops early if the socket fails.
+     */
+    private void write() {
+        try {
+            Object message;
+            while ((message = messages.take()) != END) {
+                if (message instanceof ByteBuffer) {
+                    ByteBuffer bytes = (ByteBuffer) message;
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                } else {
+                    out.write(((String) message).getBytes(charset));
+                }
+                out.write(NEWLINE);
+                room.release();
+                if (messages.isEmpty()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException | InterruptedException e) {
+            closed.set(true);
+        } finally {
+            messages.clear();
+            written.countDown();
+        }
+    }
+}
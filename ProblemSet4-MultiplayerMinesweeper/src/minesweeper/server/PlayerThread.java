@@ -1,16 +1,42 @@
 package minesweeper.server;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * PlayerThread represents a Thread which manages the server's connection with a
  * given client, and its Player object.
+ * <p>
+ * The protocol is negotiated with the answer to the username prompt: "BINARY NAME" switches the
+ * connection to the BinaryProtocol for a player named NAME, any other answer is the name of a player
+ * speaking the text protocol, except the handshake of SpectatorFeed, which makes the client a spectator.
+ * <p>
+ * Text clients are written to through an Outbox, from a writer task run by the given executor, so
+ * messages pushed by the other players never wait for this client. A client that lets more than
+ * Outbox.CAPACITY messages pile up is disconnected. The responses to its own requests wait for room
+ * instead, so a client pipelining requests faster than it reads is only read as fast as it reads, and
+ * is disconnected if it doesn't read for WRITE_TIMEOUT_MILLIS.
+ * <p>
+ * A player, or a client that hasn't sent its username yet, which sends nothing for the idle timeout is
+ * disconnected. Spectators are not, since they are not expected to send anything. Whichever way the
+ * client leaves (bye, QUIT, explosion, timeout, end of stream or failure), the socket is closed, the
+ * player is removed from its game and run() returns.
  */
-public class PlayerThread implements Runnable {
+public class PlayerThread implements Runnable, Client {
 
     /**
      * Abstraction function:
@@ -18,15 +44,24 @@ public class PlayerThread implements Runnable {
      * <p>
      * Representation invariant:
      * obj and socket must be immutable.
-     * communication streams with the client, in and out, must be immutable.
-     * protocol must be the protocol established by the server and client.
+     * communication streams with the client, in and out, must be immutable. in reads from input, which
+     * holds no byte beyond the username line before in is first read.
+     * binary is true if the client asked for the BinaryProtocol. If the client asked to watch a game,
+     * watched is its answer to the username prompt, and obj is null.
+     * protocol must be the protocol of the game the client is in.
+     * outbox is null until the client starts speaking the text protocol, then every message to the
+     * client, but the username prompt, goes through it.
      * <p>
      * Safety from Rep exposure:
      * All fields are private and immutable.
      *
      * Thread safety:
-     * Its fields are immutable and private, so they do not pose a risk of interleaving.
+     * Its fields are immutable and private, so they do not pose a risk of interleaving, except protocol,
+     * which is only read and written by the thread running the PlayerThread.
      * getPlayer() gets the lock of the Player object, so reading is thread safe.
+     * push() is called by the protocol's broadcaster thread. It only queues the message in outbox, which
+     * is thread safe and volatile, and whose writer task writes pushed messages and responses whole, one
+     * after the other, in the order they were queued.
      */
 
     /**Player object that stores the client's information. */
@@ -34,82 +69,311 @@ public class PlayerThread implements Runnable {
     /**Socket object used by the server and client to communicate. */
     private final Socket socket;
     /** Streams used to communicate with the client. */
+    private final InputStream input;
     private final BufferedReader in;
     private final PrintWriter out;
-    /** Protocol used when communicating with the server. */
-    private final Protocol protocol;
+    /** Whether the client speaks the BinaryProtocol. */
+    private boolean binary = false;
+    /** Handshake of a spectator, or null if the client plays. */
+    private String watched = null;
+    /** Protocol of the game the client is in. */
+    private Protocol protocol;
+    /** Runs the writer task of outbox. */
+    private final Executor writers;
+    /** Messages waiting to be written to a text client, or null before run() starts serving it. */
+    private volatile Outbox outbox;
+
+    /** Longest wait for the last messages to a client to be written, once it quits. */
+    private static final long CLOSE_TIMEOUT_MILLIS = 1000;
+    /** Longest wait for room for a response in the outbox, before the client is disconnected. */
+    static final long WRITE_TIMEOUT_MILLIS = 10 * 1000;
+
+    /** Runs every writer task on a daemon platform thread of its own. */
+    static final Executor DAEMON_WRITERS = task -> {
+        Thread thread = new Thread(task, "outbox");
+        thread.setDaemon(true);
+        thread.start();
+    };
 
     public PlayerThread(Protocol protocol, Socket socket) throws IOException {
+        this(protocol, socket, DAEMON_WRITERS);
+    }
+
+    /**
+     * Make the server's side of a new connection, and prompt the client for its username, without
+     * an idle timeout.
+     *
+     * @param protocol protocol of the game the client starts in.
+     * @param socket socket connected to the client.
+     * @param writers runs the task writing the messages to the client while it is connected.
+     * @throws IOException if the socket fails.
+     */
+    public PlayerThread(Protocol protocol, Socket socket, Executor writers) throws IOException {
+        this(protocol, socket, writers, 0);
+    }
+
+    /**
+     * Make the server's side of a new connection, and prompt the client for its username. Waits for
+     * the username at most idleTimeoutMillis: a client that doesn't send it in time is disconnected.
+     *
+     * @param protocol protocol of the game the client starts in.
+     * @param socket socket connected to the client.
+     * @param writers runs the task writing the messages to the client while it is connected.
+     * @param idleTimeoutMillis longest time a player can go without sending anything, in milliseconds,
+     *                          or 0 to wait forever. Requires idleTimeoutMillis >= 0.
+     * @throws IOException if the socket fails.
+     */
+    public PlayerThread(Protocol protocol, Socket socket, Executor writers, long idleTimeoutMillis)
+            throws IOException {
         this.protocol = protocol;
         this.socket = socket;
-        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        this.writers = writers;
+        socket.setSoTimeout((int) Math.min(idleTimeoutMillis, Integer.MAX_VALUE));
+        this.input = new BufferedInputStream(socket.getInputStream());
+        this.in = new BufferedReader(new InputStreamReader(input));
         this.out = new PrintWriter(socket.getOutputStream(), true);
         this.obj = createPlayer();
     }
 
     /**
      * createPlayer prompts for user identification at the beginning of the communication, and
-     * stores the information in the Player object.
-     * @return A Player object if communication was successful. Otherwise, null;
+     * stores the information in the Player object. If the client asks for the BinaryProtocol, binary is set,
+     * if it asks to watch a game, watched is.
+     * @return A Player object if communication was successful and the client plays. Otherwise, null:
+     *         the client is a spectator, or closed the connection or timed out before sending its name.
      */
     private Player createPlayer() {
         this.out.println("Type your username: ");
         try {
-            String name = this.in.readLine();
-            return new Player(name);
+            String name = readUsername();
+            if (name != null && name.startsWith(BinaryProtocol.HANDSHAKE + " ")) {
+                binary = true;
+                name = name.substring(BinaryProtocol.HANDSHAKE.length() + 1);
+            } else if (name != null && SpectatorFeed.isHandshake(name)) {
+                watched = name;
+                return null;
+            }
+            return (name == null) ? null : new Player(name);
+        } catch (SocketTimeoutException ste) {
+            return null;
         } catch (IOException ioe) {
             ioe.printStackTrace();
             return null;
         }
     }
+    /**
+     * Reads the username line byte by byte from input, so none of the frames a binary client sends
+     * right after it is buffered by in.
+     *
+     * @return the line without its terminator, or null if the client closed the connection first.
+     * @throws IOException if the line is longer than NioConnection.MAX_LINE_LENGTH, or the connection fails.
+     */
+    private String readUsername() throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b == -1) {
+                return null;
+            } else if (line.size() == NioConnection.MAX_LINE_LENGTH) {
+                throw new IOException("username too long");
+            }
+            line.write(b);
+        }
+        String name = line.toString(Charset.defaultCharset());
+        return name.endsWith("\r") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    /**
+     * @return whether the client watches a game instead of playing, and must not be added to the players.
+     */
+    public boolean isSpectator() {
+        return watched != null;
+    }
+
+    @Override
     public Player getPlayer() {
+        if (obj == null) {
+            return null;
+        }
         synchronized (obj) {
             return this.obj;
         }
     }
 
+    @Override
+    public void push(String message) {
+        Outbox box = outbox;
+        if (box != null) {
+            box.offer(message);
+        }
+    }
+
+    @Override
+    public void push(ByteBuffer message) {
+        Outbox box = outbox;
+        if (box != null) {
+            box.offer(message);
+        }
+    }
+
+    /**
+     * Disconnects a client which doesn't read its messages fast enough. Closing the socket makes the
+     * thread running the PlayerThread, blocked reading it, remove the player from its game.
+     */
+    private void disconnect() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void joined(Protocol game) {
+        this.protocol = game;
+    }
+
     /**
      * The thread takes care of receiving messages from the client by reading the
      * input stream. Also, it writes to the output stream once the request has
      * been processed by the given protocol.
      *
      * The message "QUIT" acts as a poison pill. Upon receiving "QUIT", the thread will close the
-     * socket and remove all references to the Player object (playerCount and remove the obj from players in
-     * MineSweeperServer).
+     * socket and remove the Player object from the players of its game. So does the end of the
+     * stream, and the idle timeout, which is told to the client first.
      */
     public void run() {
 
-        this.out.println(protocol.handleRequest("hello"));
-
-        String line;
+        try {
+            if (obj == null && watched == null) {
+                // the client left, or timed out, before sending its username
+                return;
+            } else if (binary) {
+                runBinary();
+            } else if (watched != null) {
+                runSpectator();
+            } else {
+                runText();
+            }
+        } finally {
+            protocol.leave(obj, this);
+            Outbox box = outbox;
+            if (box != null) {
+                box.close(socket.isClosed() ? 0 : CLOSE_TIMEOUT_MILLIS);
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-        while (true) {
+    /**
+     * Serves a client speaking the text protocol until it says bye, explodes out of debug mode, times
+     * out or disconnects. Its responses wait for room in its outbox.
+     */
+    private void runText() {
 
-            try {
-                line = this.in.readLine();
-                String serverReponse = protocol.handleRequest(line);
+        try {
+            outbox = new Outbox(socket.getOutputStream(), writers, this::disconnect);
+            outbox.send(protocol.handleRequest("hello"), WRITE_TIMEOUT_MILLIS);
 
+            String line;
+            while ((line = in.readLine()) != null) {
 
                 //We use the poison pill technique. Typing QUIT closes the connection and thread.
-                if (line.equalsIgnoreCase("QUIT") || serverReponse.equals("QUIT")) {
+                if (line.equalsIgnoreCase("QUIT")) {
+                    outbox.send(protocol.handleRequest("bye"), WRITE_TIMEOUT_MILLIS);
+                    return;
+                }
+                String serverReponse = protocol.handleRequest(line, this);
+                if (serverReponse.equals("QUIT")) {
+                    outbox.send(protocol.handleRequest("bye"), WRITE_TIMEOUT_MILLIS);
+                    return;
+                }
+                if ( ! outbox.send(serverReponse, WRITE_TIMEOUT_MILLIS)) {
+                    return;
+                }
+            }
+        } catch (SocketTimeoutException ste) {
+            outbox.send("**> Disconnected after " + socketTimeoutSeconds() + " seconds without a request.\r\n",
+                    WRITE_TIMEOUT_MILLIS);
+        } catch (IOException e) {
+            if ( ! socket.isClosed()) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-                    this.out.println(protocol.handleRequest("bye"));
+    /**
+     * @return the idle timeout of the socket, in whole seconds.
+     */
+    private long socketTimeoutSeconds() {
+        try {
+            return TimeUnit.MILLISECONDS.toSeconds(socket.getSoTimeout());
+        } catch (IOException e) {
+            return 0;
+        }
+    }
 
-                    synchronized (MinesweeperServer.players) {
-                        MinesweeperServer.players.remove(obj);
-                        MinesweeperServer.playerCount--;
-                    }
-                        socket.close();
+    /**
+     * Serves a spectator until it says bye or disconnects, without idle timeout. The updates of the
+     * board are pushed to its outbox by the encoder of the game, and stop once run() leaves the game.
+     */
+    private void runSpectator() {
 
+        String id = SpectatorFeed.gameOf(watched);
+        try {
+            socket.setSoTimeout(0);
+            outbox = new Outbox(socket.getOutputStream(), writers, this::disconnect);
+            Protocol game = protocol.getGame(id);
+            if (game == null) {
+                outbox.send("**> There is no game " + id + ".\r\n", WRITE_TIMEOUT_MILLIS);
+                return;
+            }
+            protocol = game;
+            outbox.send(protocol.handleSpectatorRequest("hello"), WRITE_TIMEOUT_MILLIS);
+            protocol.watch(this);
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                String serverResponse = protocol.handleSpectatorRequest(line);
+                if (line.equalsIgnoreCase("QUIT") || serverResponse.equals("QUIT")) {
+                    protocol.leave(null, this);
+                    outbox.send(protocol.handleRequest("bye"), WRITE_TIMEOUT_MILLIS);
+                    return;
                 }
+                if ( ! outbox.send(serverResponse, WRITE_TIMEOUT_MILLIS)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            if ( ! socket.isClosed()) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-                this.out.println(serverReponse);
-                this.out.flush();
+    /**
+     * Serves a client speaking the BinaryProtocol until it says bye, explodes out of debug mode, times
+     * out or disconnects.
+     */
+    private void runBinary() {
 
-            } catch (IOException e) {
+        try {
+            DataInputStream frames = new DataInputStream(input);
+            DataOutputStream responses = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            BinaryProtocol binaryProtocol = new BinaryProtocol(frames, responses, protocol, obj);
+            while (binaryProtocol.handleRequest()) {
+                // the binary protocol answers every request itself
+            }
+        } catch (SocketTimeoutException ste) {
+            // idle: closed by run()
+        } catch (IOException e) {
+            if ( ! socket.isClosed()) {
                 e.printStackTrace();
-                return;
             }
         }
     }
-}
\ No newline at end of file
+}
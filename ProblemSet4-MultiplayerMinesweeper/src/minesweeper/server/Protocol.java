@@ -1,125 +1,856 @@
 package minesweeper.server;
 
+import java.io.IOException;
 import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import minesweeper.Board;
+import minesweeper.BoardSnapshot;
+import minesweeper.GameBoard;
+import minesweeper.Solver;
 /**
- * Protocol implements the communication protocol used by the server and clients.
+ * Protocol implements the communication protocol used by the server and clients, for one of the games
+ * hosted by the server.
  * <p>
  * The description of the protocol can be found in extensive detail at:
  * <a href="https://ocw.mit.edu/ans7870/6/6.005/s16/psets/ps4/#problem_1_set_up_the_server_to_deal_with_multiple_clients:~:text=and%20exit%20telnet.-,Protocol%20and%20specification,-You%20must%20implement">...</a>
+ * <p>
+ * Besides that protocol, a client can switch to delta mode with "delta on", and back with "delta off".
+ * In delta mode, dig, flag and deflag are answered with the move message alone, and every move that
+ * changes the board, made by any player, is pushed to every client in delta mode as a BoardDelta
+ * listing only the changed squares. "look" still returns the whole board, to resynchronize. A move
+ * which started while no client was in delta mode isn't listed: if a client switched to delta mode
+ * before it ended, the clients in delta mode are pushed the whole board, as answered to "look", instead.
+ * The events of the game are pushed to them too, so they never need to poll:
+ * <pre>
+ *   EVENT ::= "**> Player " NAME (" joined" | " left") " game " ID "." NEWLINE
+ *           | "**> Player " NAME " exploded at (" X ", " Y ")." NEWLINE
+ * </pre>
+ * <p>
+ * Every game has its own board and players, and an id in the GameRegistry of the server. "new X Y"
+ * creates a game on a random board of X by Y squares and moves the client to it, "join ID" moves the
+ * client to the game with the given id. Either way the client leaves its game, and delta mode. "new X Y"
+ * is refused, and the client stays in its game, past the limits of GameRegistry on the games created.
+ * <p>
+ * "batch" makes many moves in a single request, so a client doesn't wait a round trip per move:
+ * <pre>
+ *   BATCH ::= "batch" SPACE MOVE (";" SPACE? MOVE)*
+ *   MOVE ::= ("dig" | "flag" | "deflag") SPACE X SPACE Y
+ * </pre>
+ * The moves are made one after the other in a single critical section of the board, so no other move
+ * comes in between. The answer is the board, once, as for a single move, followed by the message
+ * answering each move, in order. A move outside the board is not possible. Out of debug mode, a move
+ * activating a bomb ends the batch, and the client is disconnected as after a dig.
+ * Requests sent without waiting for the answers, pipelined, are answered in order, as if sent one by one.
+ * <p>
+ * Boards of more than MAX_SHOWN_SQUARES squares, which only chunked storage holds, are never rendered
+ * whole: the board answering "look" and moves is its "Size:" line followed by TOO_LARGE_MESSAGE, and
+ * spectators are sent nothing but the welcome.
+ * <p>
+ * Players score a point for every square their digs uncover, and lose EXPLOSION_PENALTY points when
+ * they activate a bomb. "players" lists the PLAYERS_LISTED best players of the game, "players K" the
+ * K best ones, each with its rank, followed by the rank of the asking player:
+ * <pre>
+ *   PLAYERS ::= NEWLINE ("||> " RANK ". " NAME " : " SCORE NEWLINE)* ("**> You are " RANK " of " INT "." NEWLINE)?
+ * </pre>
+ * <p>
+ * "stats" answers with the Metrics of the server, if it records them: the requests handled by every
+ * game, their latencies and the time moves waited for the board.
+ * <p>
+ * "hint" answers with the best move the Solver finds from what the players can see of the board, and
+ * the chance, rounded to a percent, that its square has a bomb, which is 0 and 100 only when certain:
+ * <pre>
+ *   HINT ::= "**> Hint: " ("dig" | "flag") SPACE X SPACE Y " (" PERCENT "% bomb)." NEWLINE
+ *          | "**> No hint, " ("no square is left to dig" | "the board is too large"
+ *                            | "the board took too long to analyze") "." NEWLINE
+ * </pre>
+ * The board is analyzed at most once per version, by the first "hint" after a move, and the analysis
+ * answers every "hint" until the next move. A "hint" takes at most HINT_TIMEOUT_MILLIS, plus the time to
+ * render the board if no "look" rendered it since the last move, plus the time waiting for a "hint" of
+ * another player analyzing the same version. An analysis running past HINT_TIMEOUT_MILLIS is abandoned,
+ * and not tried again at that version: "hint" then answers with the move of the last analysis of an
+ * earlier version, as long as its square is still untouched.
+ * <p>
+ * A client answering the username prompt with "SPECTATE", or "SPECTATE ID", watches the default game,
+ * or the game ID, without playing: it is not one of the players, and is sent the board, then the
+ * changes of the board, coalesced by its SpectatorFeed, as deltas. Spectators can only say "hello"
+ * and "bye", anything else is answered with SPECTATOR_MESSAGE.
  */
 public class Protocol {
 
     /**
      * Abstraction function:
-     * Represents the communication protocol used on the MineSweeper game.
+     * Represents the communication protocol used on the MineSweeper game with the given id, registered
+     * in games. players are the players in the game, ranked by score in leaderboard. deltaClients are
+     * the clients in delta mode, spectators sends the board to the clients watching the game.
+     * If closed, the game was evicted from games. idleSince is when the game was left without players.
      * <p>
      * Representation invariant:
      * X, Y must be the size of the board used in the game.
      * socket must be the socket used by the server.
+     * If closed, players is empty. leaderboard holds the players of players.
      * <p>
      * Safety from Rep exposure:
-     * X, Y and socket are final and private.
+     * X, Y and socket are final and private. players, leaderboard, deltaClients and BROADCASTER are
+     * private and never returned, "players" answers with a copy of the names and scores.
      *
      * Thread safety:
      * Its fields are immutable, so they do not pose a risk of interleaving.
      * Whenever the handleRequest method access an object's fields or methods, it does so
      * using synchronized methods.
-     * There is only one protocol object created. Because it is a static field of the
-     * server, and it is passed by reference to each Thread.
-     * For a ThreadPlayer to mutate the board, it must first acquire its lock.
+     * There is one protocol object per game, held by the GameRegistry of the server and passed by
+     * reference to each client in the game.
+     * Every move is a single call to GameBoard.setSquare(), which the board makes atomic with its own
+     * locking, so moves on boards that lock by region run concurrently. The board in the response to a
+     * move includes the move, and possibly later ones. "look" is served from the board's snapshot.
+     * players, closed and idleSince are guarded by the lock of players. deltaClients is a thread safe set.
+     * spectators is thread safe, and never calls the board but from its encoder thread.
+     * leaderboard is thread safe. It is locked while holding the lock of players, and never takes it.
+     * analysis is immutable, volatile, and only replaced by a later one under the lock of solving, which
+     * is never held while taking another lock: the Solver only reads a snapshot of the board.
+     * Deltas, with the clients to push them to, are handed to the single broadcaster thread, shared by
+     * every game so hosting many games doesn't take a thread each, by the board while the move
+     * still holds the locks of the squares it changed, so every client receives the changes of every
+     * square in the order they were made, starting at the latest when it switched to delta mode.
+     * Events are handed to the broadcaster after the change they announce, and Client.push() only
+     * queues the message, so the broadcaster never waits for a slow client.
      */
 
+    /** Answer to "help", and to requests which are not part of the protocol. */
+    static final String HELP_MESSAGE = "**> You can use the following commands look, help, "
+            + "bye, test, hello, dig X Y, flag X Y, deflag X Y, batch MOVE; MOVE; ..., delta on, delta off, "
+            + "new X Y, join ID, players [K], stats, hint.\r\n";
+    /** Answer to the requests of a spectator but "hello" and "bye". */
+    static final String SPECTATOR_MESSAGE = "**> Spectators can only watch. Type 'bye' to leave.\r\n";
+    /** Points lost by a player activating a bomb. */
+    static final int EXPLOSION_PENALTY = 10;
+    /** Players listed by "players" without a number. */
+    static final int PLAYERS_LISTED = 10;
+    /** Largest number of squares of a board rendered whole, as many as boards not chunked can have. */
+    static final long MAX_SHOWN_SQUARES = (long) GameBoard.MAX_SIZE * GameBoard.MAX_SIZE;
+    static final String TOO_LARGE_MESSAGE = "**> The board is too large to be shown whole.\r\n";
+    /** Longest time the Solver spends on the frontier of the board answering "hint", in milliseconds. */
+    static final long HINT_TIMEOUT_MILLIS = 50;
+
+    /** Pushes the deltas and events of every game to its deltaClients, so a slow client doesn't hold up the move that made them. */
+    final private static ExecutorService BROADCASTER = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "delta-broadcaster");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    final private GameRegistry games;
+    final private String id;
     final private int X;
     final private int Y;
     final private ServerSocket socket;
-    final private Board board;
+    final private GameBoard board;
+    /** Log of the moves of this game, or null if they are not logged. */
+    final private MoveLog log;
+    /** Recorder of the moves of this game, or null if they are not recorded. */
+    final private GameRecorder recorder;
+    /** Metrics of the server, or null if requests are not timed. */
+    final private Metrics metrics;
 
     final private boolean debug;
+    /** Whether the board is small enough to be rendered whole: X*Y <= MAX_SHOWN_SQUARES. */
+    final private boolean shown;
 
-    public Protocol (ServerSocket socket, Board board, int X, int Y, boolean debug) {
+    /** Players in this game, by identity, since players may share a name. */
+    final private Set<Player> players = Collections.newSetFromMap(new IdentityHashMap<>());
+    /** Players in this game, ranked by score. */
+    final private Leaderboard leaderboard = new Leaderboard();
+    private boolean closed = false;
+    private long idleSince = System.currentTimeMillis();
+    /** Clients in delta mode, receiving the changes made by every move. */
+    final private Set<Client> deltaClients = new CopyOnWriteArraySet<>();
+    /** Sends the board to the clients watching this game. */
+    final private SpectatorFeed spectators;
+    /** Latest analysis of the board answering "hint", or null. Written under the lock of solving. */
+    private volatile Solver.Analysis analysis;
+    /** Latest version of the board whose analysis was abandoned, or -1. Guarded by the lock of solving. */
+    private long abandoned = -1;
+    final private Object solving = new Object();
+
+    /**
+     * Make the protocol of a game. Games are made by GameRegistry.register(), which gives them their id.
+     *
+     * @param games registry of the games hosted by the server, where this game is registered.
+     * @param id id of this game in games.
+     * @param socket socket of the server.
+     * @param board board of the game.
+     * @param log log of the moves of board, or null not to log them.
+     * @param recorder recorder of the moves of board, or null not to record them.
+     * @param debug debug mode flag.
+     */
+    Protocol(GameRegistry games, String id, ServerSocket socket, GameBoard board, MoveLog log, GameRecorder recorder,
+             boolean debug) {
+        this.games = games;
+        this.id = id;
         this.socket = socket;
         this.board = board;
-        this.X = X;
-        this.Y = Y;
+        this.log = log;
+        this.recorder = recorder;
+        this.metrics = games.getMetrics();
+        this.X = board.getSizeX();
+        this.Y = board.getSizeY();
         this.debug = debug;
+        this.shown = (long) X * Y <= MAX_SHOWN_SQUARES;
+        this.spectators = new SpectatorFeed(board);
     }
 
+    /**
+     * @return the id of this game in the GameRegistry of the server.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Handles a request of a client which is not in delta mode.
+     *
+     * @param input request of the client.
+     * @return response to the client, or "QUIT" if the client must be disconnected.
+     */
     public String handleRequest(String input) {
+        return handleRequest(input, null);
+    }
 
-        synchronized (board) {
+    /**
+     * Handles a request of the given client.
+     *
+     * @param input request of the client.
+     * @param client client which sent the request, or null if it can't be in delta mode.
+     * @return response to the client, or "QUIT" if the client must be disconnected.
+     */
+    public String handleRequest(String input, Client client) {
 
-            String regex = "(look)|(help)|(bye)|"
-                    + "(dig -?\\d+ -?\\d+)|(flag -?\\d+ -?\\d+)|(deflag -?\\d+ -?\\d+)";
-            if ( ! input.matches(regex)) {
-                // invalid input
-            }
-            String[] tokens = input.split(" ");
-            if (tokens[0].equals("look")) {
-                if(debug) {
-                    return board.bombLocations.toString() + board.toString();
-                } else {
-                    return board.toString();
-                }
-            } else if (tokens[0].equals("help")) {
-                return "**> You can use the following commands look, help, " +
-                        "bye, test, hello, dig X Y, flag X Y.\r\n";
-            } else if (tokens[0].equals("bye")) {
+        Command command = Command.of(input);
+        if (metrics == null) {
+            return dispatch(input, command, client);
+        }
+        long start = System.nanoTime();
+        try {
+            return dispatch(input, command, client);
+        } finally {
+            metrics.requestHandled((command == null) ? Metrics.OTHER : command.metric, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Answers a request.
+     *
+     * @param input request of the client.
+     * @param command command of the request, as recognized by Command.of(input), or null.
+     * @param client client which sent the request, or null.
+     * @return response to the client, or "QUIT" if the client must be disconnected.
+     */
+    private String dispatch(String input, Command command, Client client) {
+
+        if (command == null) {
+            return HELP_MESSAGE;
+        }
+        switch (command) {
+            case LOOK:
+                return board();
+            case HELP:
+                return HELP_MESSAGE;
+            case BYE:
                 return "**> Bye! Thank you for playing\r\n";
-            } else if (input.equals("test")) {
+            case TEST:
                 return socket.getLocalSocketAddress().toString();
-            } else if (input.equals("hello")) {
-                return "**> Welcome to Minesweeper. Board: " + X + " columns by " + Y + " rows. Players: " + MinesweeperServer.playerCount +
+            case HELLO:
+                return "**> Welcome to Minesweeper. Board: " + X + " columns by " + Y + " rows. Players: " + getPlayerCount() +
                 " including you. Type 'help' for help.\r\n";
-            } else if (input.equals("players")) {
-                String table = "\r\n";
-                for (Player player : MinesweeperServer.players) {
-                    table = table + "||> " + player.name + " : " + player.getScore() + "\r\n";
+            case STATS:
+                if (metrics == null) {
+                    return "**> Stats are not recorded on this server.\r\n";
                 }
-                return table;
+                return metrics.report(games);
+            case HINT:
+                return hint();
+            case PLAYERS:
+                int listed = (input.length() > command.name.length()) ? Command.number(input, command.start) : PLAYERS_LISTED;
+                return players(Math.max(listed, 0), client);
+            case JOIN: {
+                String id = input.substring(command.start);
+                Protocol game = games.get(id);
+                if (game == null) {
+                    return "**> There is no game " + id + ".\r\n";
+                }
+                return join(game, client);
             }
-
-            else {
-                int x = Integer.parseInt(tokens[1]);
-                int y = Integer.parseInt(tokens[2]);
-                if (tokens[0].equals("dig")) {
-
-                    if((x < 0) || (y < 0) || (x > X) || (y > Y)) {
-                        return handleRequest("look");
-                    }
-                    String outcome = board.setSquare(x, y, "dug", true);
-    //didnt find bomb, +1 score
-                    if(outcome.equals("bomb")) {
-                        if(this.debug) {
-                            return handleRequest("look") + "**> You Exploded!\r\n";
-                        } else {
-                            return "QUIT";
-                        }
-                    } else if(outcome.equals("true")) {
-                        return handleRequest("look") + "Move received at (" + x + ", " + y + ")\r\n";
+            case NEW: {
+                int sizeX = Command.number(input, command.start);
+                int sizeY = Command.number(input, command.second(input));
+                if (sizeX < GameBoard.MIN_SIZE || sizeX > GameBoard.MAX_SIZE
+                        || sizeY < GameBoard.MIN_SIZE || sizeY > GameBoard.MAX_SIZE) {
+                    return "**> Boards must have " + GameBoard.MIN_SIZE + " to " + GameBoard.MAX_SIZE
+                            + " lines and squares per line.\r\n";
+                }
+                if (client == null) {
+                    return "**> Games are not available on this connection.\r\n";
+                }
+                Protocol game;
+                try {
+                    game = games.create(sizeX, sizeY, client.getPlayer());
+                } catch (IllegalStateException full) {
+                    return "**> " + full.getMessage() + ".\r\n";
+                }
+                return join(game, client);
+            }
+            case BATCH:
+                return batch(input.substring(command.start), client);
+            case DELTA:
+                if (client == null) {
+                    return "**> Delta mode is not available on this connection.\r\n";
+                } else if (input.equals("delta on")) {
+                    // the board is taken after joining, so no change is missed. Deltas of moves already
+                    // in the board only repeat the states it shows.
+                    deltaClients.add(client);
+                    return board() + "**> Delta mode on.\r\n";
+                } else if (input.equals("delta off")) {
+                    deltaClients.remove(client);
+                    return "**> Delta mode off.\r\n";
+                }
+                return HELP_MESSAGE;
+            case DIG: {
+                int x = Command.number(input, command.start);
+                int y = Command.number(input, command.second(input));
+                if ( ! inside(x, y)) {
+                    return look(client) + moved("false", x, y);
+                }
+                String outcome = move(x, y, "dug", true, (client == null) ? null : client.getPlayer());
+                if(outcome.equals("bomb")) {
+                    exploded(client, x, y);
+                    if(this.debug) {
+                        return look(client) + "**> You Exploded!\r\n";
                     } else {
-                        return handleRequest("look") + "That move is not possible now, be faster!\r\n";
+                        return "QUIT";
                     }
+                }
+                return look(client) + moved(outcome, x, y);
+            }
+            case FLAG:
+            case DEFLAG:
+            default: {
+                int x = Command.number(input, command.start);
+                int y = Command.number(input, command.second(input));
+                if ( ! inside(x, y)) {
+                    return look(client) + moved("false", x, y);
+                }
+                String outcome = move(x, y, "flagged", false);
+                return look(client) + moved(outcome, x, y);
+            }
+        }
+    }
 
-                    // 'dig x y' request
-                } else if (tokens[0].equals("flag")) {
-                    String outcome = board.setSquare(x, y, "flagged", false);
-                    if(outcome.equals("true")) {
-                        return handleRequest("look") + "Move received at (" + x + ", " + y + ")\r\n";
-                    } else {
-                        return handleRequest("look") + "That move is not possible now, be faster!\r\n";
-                    }
-                } else if (tokens[0].equals("deflag")) {
-                    String outcome = board.setSquare(x, y, "flagged", false);
-                    if(outcome.equals("true")) {
-                        return handleRequest("look") + "Move received at (" + x + ", " + y + ")\r\n";
-                    } else {
-                        return handleRequest("look") + "That move is not possible now, be faster!\r\n";
-                    }
+    /**
+     * @return whether the square x, y is inside the board, which every move is checked against before it
+     *         reaches the board, so a move outside is answered as not possible rather than failing.
+     */
+    private boolean inside(int x, int y) {
+        return x >= 0 && y >= 0 && x < X && y < Y;
+    }
+
+    /**
+     * @return the message answering a move which didn't activate a bomb.
+     */
+    private static String moved(String outcome, int x, int y) {
+        if(outcome.equals("true")) {
+            return "Move received at (" + x + ", " + y + ")\r\n";
+        }
+        return "That move is not possible now, be faster!\r\n";
+    }
+
+    /**
+     * @return the board as answered to "look": in debug mode the bombs, then the board, or only the size
+     *         and TOO_LARGE_MESSAGE if the board is too large to be shown.
+     */
+    private String board() {
+        if ( ! shown) {
+            return "\r\nSize: " + X + "x" + Y + " Bombs: " + board.getNumberActiveBombs() + "\r\n"
+                    + TOO_LARGE_MESSAGE;
+        }
+        if(debug) {
+            return board.getBombLocations().toString() + board.toString();
+        }
+        return lookSnapshot().getText();
+    }
+
+    /**
+     * @return the answer to "hint".
+     */
+    private String hint() {
+        if ((long) X * Y > Solver.MAX_SQUARES) {
+            return "**> No hint, the board is too large.\r\n";
+        }
+        BoardSnapshot snapshot = board.getSnapshot();
+        Solver.Analysis hint = analysis(snapshot);
+        if (hint != null && hint.getVersion() < snapshot.getVersion() && hint.getCommand() != null
+                && BoardSnapshot.unpack(snapshot.getPackedSquares(), hint.getX() * Y + hint.getY()) != '-') {
+            // the move of an earlier analysis is no longer possible
+            hint = null;
+        }
+        if (hint == null) {
+            return "**> No hint, the board took too long to analyze.\r\n";
+        }
+        if (hint.getCommand() == null) {
+            return "**> No hint, no square is left to dig.\r\n";
+        }
+        double probability = hint.getBestProbability();
+        // only certain squares are rounded to 0% or 100%
+        long percent = (probability == 0 || probability == 1) ? Math.round(probability * 100)
+                : Math.min(Math.max(Math.round(probability * 100), 1), 99);
+        return "**> Hint: " + hint.getCommand() + " " + hint.getX() + " " + hint.getY() + " (" + percent + "% bomb).\r\n";
+    }
+
+    /**
+     * @param snapshot the board at its current version.
+     * @return an analysis of the board at that version or a later one, made by the first thread asking
+     *         for it, which the others wait for, or, if the analysis at that version was abandoned, the
+     *         last analysis of an earlier version, or null if there is none.
+     */
+    private Solver.Analysis analysis(BoardSnapshot snapshot) {
+        Solver.Analysis last = analysis;
+        if (last != null && last.getVersion() >= snapshot.getVersion()) {
+            return last;
+        }
+        synchronized (solving) {
+            last = analysis;
+            if ((last == null || last.getVersion() < snapshot.getVersion()) && abandoned < snapshot.getVersion()) {
+                Solver.Analysis current = Solver.analyze(snapshot, HINT_TIMEOUT_MILLIS);
+                if (current == null) {
+                    abandoned = snapshot.getVersion();
+                } else {
+                    analysis = last = current;
                 }
             }
-            throw new UnsupportedOperationException();
+            return last;
+        }
+    }
+
+    /**
+     * Handles a request of a spectator of this game: "hello" is answered with the welcome of spectators,
+     * "bye" with "QUIT", anything else with SPECTATOR_MESSAGE.
+     *
+     * @param input request of the spectator.
+     * @return response to the spectator, or "QUIT" if it must be disconnected.
+     */
+    String handleSpectatorRequest(String input) {
+        Command command = Command.of(input);
+        if (command == Command.HELLO) {
+            return "**> Watching game " + id + ". Board: " + X + " columns by " + Y + " rows. Players: "
+                    + getPlayerCount() + ". Type 'bye' to leave.\r\n" + (shown ? "" : TOO_LARGE_MESSAGE);
+        } else if (command == Command.BYE) {
+            return "QUIT";
+        }
+        return SPECTATOR_MESSAGE;
+    }
+
+    /**
+     * @param id id of a game in the GameRegistry of the server, or null.
+     * @return the protocol of the game id, of this game if id is null, or null if there is no game id.
+     */
+    Protocol getGame(String id) {
+        return (id == null) ? this : games.get(id);
+    }
+
+    /**
+     * Starts sending the board, then its changes, to a spectator of this game, which is not a player.
+     * The first message is pushed from another thread, so the client must send the response to "hello"
+     * before calling this. The client stops watching when it leaves. Nothing is sent if the board is too
+     * large to be shown.
+     *
+     * @param spectator client watching the game.
+     */
+    void watch(Client spectator) {
+        if (shown) {
+            spectators.add(spectator);
+        }
+    }
+
+    /**
+     * Returns the board as answered to "look", already rendered and encoded, so front ends that write
+     * bytes can send it as is. It doesn't wait for the lock of the board while the board doesn't change.
+     *
+     * @return the snapshot of the board answering "look", or null in debug mode, where "look" also lists
+     *         the bombs, or if the board is too large to be shown, and must be answered with handleRequest().
+     */
+    public BoardSnapshot lookSnapshot() {
+        return (debug || ! shown) ? null : board.getSnapshot();
+    }
+
+    /**
+     * @return the snapshot of the board, which doesn't list the bombs even in debug mode.
+     */
+    BoardSnapshot getSnapshot() {
+        return board.getSnapshot();
+    }
+
+    /**
+     * @return the number of lines of the board.
+     */
+    int getSizeX() {
+        return X;
+    }
+
+    /**
+     * @return the number of squares per line of the board.
+     */
+    int getSizeY() {
+        return Y;
+    }
+
+    /**
+     * @return whether a client that activates a bomb stays connected.
+     */
+    boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * Makes a move on the board and, if it changed any square, pushes the changes to every client in
+     * delta mode. If the game is logged, the move is appended to the log, and is durable, as the fsync
+     * policy of the log says, before this returns.
+     *
+     * @return the outcome of the move, as returned by GameBoard.setSquare().
+     * @throws RuntimeException if the square is not inside the board, or the log can't be written.
+     */
+    String move(int x, int y, String command, boolean propagate) {
+        return move(x, y, command, propagate, null);
+    }
+
+    /**
+     * Makes a move on the board as move(x, y, command, propagate) does, scoring it to the given player.
+     *
+     * @param player player making the move, or null not to score it.
+     * @return the outcome of the move, as returned by GameBoard.setSquare().
+     * @throws RuntimeException if the square is not inside the board, or the log can't be written.
+     */
+    String move(int x, int y, String command, boolean propagate, Player player) {
+
+        long start = (metrics == null) ? 0 : System.nanoTime();
+        BoardDelta delta = delta(x, y, command, propagate);
+        String outcome = board.setSquare(x, y, command, propagate, delta);
+        if (metrics != null) {
+            metrics.lockWaited(command, delta.getLockedNanos() - start);
+        }
+        if (log != null && ! outcome.equals("false")) {
+            log.sync();
+        }
+        score(player, command, outcome, delta);
+        return outcome;
+    }
+
+    /**
+     * Scores a move to a player: a point per square uncovered by a dig, and EXPLOSION_PENALTY points lost
+     * for activating a bomb.
+     *
+     * @param player player which made the move, or null.
+     * @param delta squares changed by the move.
+     */
+    private void score(Player player, String command, String outcome, BoardDelta delta) {
+        if (player == null || ! command.equals("dug")) {
+            return;
+        }
+        if (outcome.equals("bomb")) {
+            leaderboard.addScore(player, -EXPLOSION_PENALTY);
+        } else if (outcome.equals("true")) {
+            leaderboard.addScore(player, delta.getCount());
+        }
+    }
+
+    /**
+     * @param listed number of players listed, requires listed >= 0.
+     * @param client client asking, or null.
+     * @return the answer to "players": the best players, and the rank of the player of client.
+     */
+    private String players(int listed, Client client) {
+        StringBuilder table = new StringBuilder("\r\n");
+        for (Leaderboard.Standing standing : leaderboard.top(listed)) {
+            table.append("||> ").append(standing.rank).append(". ").append(standing.name)
+                    .append(" : ").append(standing.score).append("\r\n");
+        }
+        Player player = (client == null) ? null : client.getPlayer();
+        int rank = (player == null) ? 0 : leaderboard.rank(player);
+        if (rank > 0) {
+            table.append("**> You are ").append(rank).append(" of ").append(leaderboard.size()).append(".\r\n");
+        }
+        return table.toString();
+    }
+
+    /**
+     * @return the listener of a move, which logs the move, if the game is logged, records it, if the game
+     *         is recorded, and broadcasts its delta, which lists the squares changed only if a client is in
+     *         delta mode.
+     */
+    private BoardDelta delta(int x, int y, String command, boolean propagate) {
+        boolean listed = ! deltaClients.isEmpty();
+        if (log == null && recorder == null) {
+            return new BoardDelta(this::broadcast, metrics != null, listed);
+        }
+        return new BoardDelta(applied -> {
+            if (log != null) {
+                log.append(applied.getVersion(), x, y, command, propagate);
+            }
+            if (recorder != null) {
+                recorder.record(x, y, command, propagate);
+            }
+            broadcast(applied);
+        }, metrics != null, listed);
+    }
+
+    /**
+     * Makes the moves of a "batch" request in a single critical section of the board, as move() makes
+     * each of them, except that a logged game syncs its log once, after the last move.
+     *
+     * @param moves the moves of the request, after "batch ".
+     * @param client client which sent the request, or null.
+     * @return the response to the client, or "QUIT" if the client must be disconnected.
+     */
+    private String batch(String moves, Client client) {
+
+        String[] requests = moves.split(";");
+        String[] commands = new String[requests.length];
+        int[] xs = new int[requests.length];
+        int[] ys = new int[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            String move = requests[i].trim();
+            Command command = Command.of(move);
+            if (command != Command.DIG && command != Command.FLAG && command != Command.DEFLAG) {
+                return "**> Batches are made of moves: dig X Y, flag X Y or deflag X Y, separated by ';'.\r\n";
+            }
+            commands[i] = command.name;
+            xs[i] = Command.number(move, command.start);
+            ys[i] = Command.number(move, command.second(move));
+        }
+
+        String[] outcomes = new String[requests.length];
+        BoardDelta[] deltas = new BoardDelta[requests.length];
+        board.batch(() -> {
+            for (int i = 0; i < outcomes.length; i++) {
+                if ( ! inside(xs[i], ys[i])) {
+                    outcomes[i] = "false";
+                    continue;
+                }
+                boolean dig = commands[i].equals("dig");
+                String command = dig ? "dug" : "flagged";
+                deltas[i] = delta(xs[i], ys[i], command, dig);
+                outcomes[i] = board.setSquare(xs[i], ys[i], command, dig, deltas[i]);
+                if (outcomes[i].equals("bomb") && ! debug) {
+                    return;
+                }
+            }
+        });
+        if (log != null) {
+            for (String outcome : outcomes) {
+                if (outcome != null && ! outcome.equals("false")) {
+                    log.sync();
+                    break;
+                }
+            }
+        }
+
+        StringBuilder messages = new StringBuilder();
+        Player player = (client == null) ? null : client.getPlayer();
+        for (int i = 0; i < outcomes.length && outcomes[i] != null; i++) {
+            if (deltas[i] != null) {
+                score(player, commands[i].equals("dig") ? "dug" : "flagged", outcomes[i], deltas[i]);
+            }
+            if (outcomes[i].equals("bomb")) {
+                exploded(client, xs[i], ys[i]);
+                if ( ! debug) {
+                    return "QUIT";
+                }
+                messages.append("**> You Exploded!\r\n");
+            } else if (outcomes[i].equals("true")) {
+                messages.append("Move received at (").append(xs[i]).append(", ").append(ys[i]).append(")\r\n");
+            } else {
+                messages.append("That move is not possible now, be faster!\r\n");
+            }
+        }
+        return look(client) + messages;
+    }
+
+    /**
+     * Tells the clients in delta mode that the player of the given client activated a bomb.
+     */
+    private void exploded(Client client, int x, int y) {
+        Player player = (client == null) ? null : client.getPlayer();
+        if (player != null) {
+            announce("**> Player " + player.name + " exploded at (" + x + ", " + y + ").\r\n");
+        }
+    }
+
+    /**
+     * @return the metrics of the server, or null if requests are not timed.
+     */
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Hands a delta to the broadcaster, for every client in delta mode. Called by the board while the
+     * move that made the delta still holds its locks, so deltas changing the same squares are handed
+     * over in the order they were made. A delta not listed, because no client was in delta mode when
+     * the move started, can't be sent: the broadcaster sends the whole board instead, taken once the move
+     * released the board, after which the deltas queued behind it only repeat states it may show already.
+     */
+    private void broadcast(BoardDelta delta) {
+
+        if (deltaClients.isEmpty()) {
+            return;
+        }
+        if (delta.isListed()) {
+            announce(delta.toString());
+            return;
+        }
+        Object[] targets = deltaClients.toArray();
+        BROADCASTER.execute(() -> {
+            String whole = board();
+            for (Object target : targets) {
+                ((Client) target).push(whole);
+            }
+        });
+    }
+
+    /**
+     * Hands a message to the broadcaster, for every client in delta mode now.
+     *
+     * @param message delta or event pushed to the clients.
+     */
+    private void announce(String message) {
+
+        if (deltaClients.isEmpty()) {
+            return;
+        }
+        Object[] targets = deltaClients.toArray();
+        BROADCASTER.execute(() -> {
+            for (Object target : targets) {
+                ((Client) target).push(message);
+            }
+        });
+    }
+
+    /**
+     * @return the board to answer a move with: nothing for a client in delta mode, since the changes
+     * are pushed to it, otherwise the whole board as returned by "look".
+     */
+    private String look(Client client) {
+        if (client != null && deltaClients.contains(client)) {
+            return "";
+        }
+        return board();
+    }
+
+    /**
+     * Moves the client from this game to the given one.
+     *
+     * @return the response to the client: the welcome message of the game it joined, or why it couldn't.
+     */
+    private String join(Protocol game, Client client) {
+
+        if (client == null) {
+            return "**> Games are not available on this connection.\r\n";
+        } else if (game == this) {
+            return "**> You are already in game " + id + ".\r\n";
+        } else if ( ! game.addPlayer(client.getPlayer())) {
+            return "**> There is no game " + game.id + ".\r\n";
+        }
+        leave(client.getPlayer(), client);
+        client.joined(game);
+        return "**> Joined game " + game.id + ".\r\n" + game.handleRequest("hello");
+    }
+
+    /**
+     * Adds a player to this game, unless the game was evicted, and tells the clients in delta mode.
+     *
+     * @param player player joining the game, or null for a client which never identified itself, which
+     *               is not counted.
+     * @return false if the game was evicted, and can't be joined anymore.
+     */
+    public boolean addPlayer(Player player) {
+        synchronized (players) {
+            if (closed) {
+                return false;
+            }
+            if (player != null) {
+                players.add(player);
+                leaderboard.add(player);
+            }
+        }
+        if (player != null) {
+            announce("**> Player " + player.name + " joined game " + id + ".\r\n");
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of players in this game.
+     */
+    public int getPlayerCount() {
+        synchronized (players) {
+            return players.size();
+        }
+    }
+
+    /**
+     * Removes a player which left this game, or disconnected, stops pushing deltas and updates to its
+     * client, and tells the clients still in delta mode.
+     *
+     * @param player player leaving the game, or null if the client never identified itself, or is a spectator.
+     * @param client client of the player.
+     */
+    public void leave(Player player, Client client) {
+        deltaClients.remove(client);
+        spectators.remove(client);
+        if (player == null) {
+            return;
+        }
+        synchronized (players) {
+            if ( ! players.remove(player)) {
+                return;
+            }
+            leaderboard.remove(player);
+            if (players.isEmpty()) {
+                idleSince = System.currentTimeMillis();
+            }
+        }
+        announce("**> Player " + player.name + " left game " + id + ".\r\n");
+    }
+
+    /**
+     * Closes this game if it has had no players since before the given time, so it can't be joined anymore.
+     *
+     * @param time time in milliseconds since the epoch.
+     * @return whether the game is closed.
+     */
+    boolean closeIfIdleSince(long time) {
+        synchronized (players) {
+            if (players.isEmpty() && idleSince < time) {
+                closed = true;
+            }
+            return closed;
+        }
+    }
+
+    /**
+     * Writes the moves recorded so far and stops recording them, if the game is recorded. Called once
+     * the game is closed.
+     */
+    void stopRecording() {
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.close();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
         }
     }
 }
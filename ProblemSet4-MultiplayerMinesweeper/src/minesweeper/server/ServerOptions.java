@@ -0,0 +1,170 @@
+package minesweeper.server;
+
+import java.nio.file.Path;
+
+import minesweeper.BoardStorage;
+import minesweeper.BombPlacement;
+
+/**
+ * ServerOptions says how a MinesweeperServer serves its board, besides its port, debug mode and board:
+ * how connections are served, how the games created by the clients are stored and placed, whether the
+ * moves of the board are logged, the requests timed and the games recorded, and when idle players are
+ * disconnected. new ServerOptions() gives the defaults, and every with method an option changed.
+ */
+public class ServerOptions {
+
+    /**
+     * Abstraction function:
+     * Represents the options of a server: connections served as mode says, boards of the games created by
+     * the clients stored as storage says with bombs placed as placement says, moves of the board logged in
+     * log unless it is null, requests timed in metrics unless it is null, players idle for
+     * idleTimeoutMillis disconnected unless it is 0, games recorded in recordings unless it is null, the
+     * board recorded by boardPlacement unless it is null.
+     * <p>
+     * Representation invariant:
+     * mode, storage and placement are not null, idleTimeoutMillis >= 0.
+     * <p>
+     * Safety from Rep exposure:
+     * All fields are private and final. The log and the metrics are shared on purpose, with the server
+     * they are given to.
+     * <p>
+     * Thread safety:
+     * Immutable, the log and the metrics being thread safe.
+     */
+
+    /** How long a client can go without sending a request before it is disconnected, by default. */
+    static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30 * 60 * 1000;
+
+    private final ConnectionMode mode;
+    private final BoardStorage storage;
+    private final MoveLog log;
+    private final Metrics metrics;
+    private final BombPlacement placement;
+    private final long idleTimeoutMillis;
+    private final Path recordings;
+    private final BombPlacement boardPlacement;
+
+    /**
+     * Make the default options: a thread per connection, games created stored as arrays with
+     * BoardStorage.DENSITY of bombs, nothing logged, timed or recorded, and players disconnected after
+     * DEFAULT_IDLE_TIMEOUT_MILLIS.
+     */
+    public ServerOptions() {
+        this(ConnectionMode.THREAD, BoardStorage.ARRAY, null, null, new BombPlacement(BoardStorage.DENSITY, 0, false),
+                DEFAULT_IDLE_TIMEOUT_MILLIS, null, null);
+    }
+
+    private ServerOptions(ConnectionMode mode, BoardStorage storage, MoveLog log, Metrics metrics,
+                          BombPlacement placement, long idleTimeoutMillis, Path recordings,
+                          BombPlacement boardPlacement) {
+        this.mode = mode;
+        this.storage = storage;
+        this.log = log;
+        this.metrics = metrics;
+        this.placement = placement;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.recordings = recordings;
+        this.boardPlacement = boardPlacement;
+        checkRep();
+    }
+
+    private void checkRep() {
+        assert mode != null && storage != null && placement != null;
+        assert idleTimeoutMillis >= 0;
+    }
+
+    /**
+     * @param mode how connections are served: by a PlayerThread running on its own platform Thread,
+     *             by a PlayerThread running on its own virtual thread, or by the event loops of a NioFrontEnd.
+     * @return these options, serving connections as mode says.
+     */
+    public ServerOptions withMode(ConnectionMode mode) {
+        return new ServerOptions(mode, storage, log, metrics, placement, idleTimeoutMillis, recordings, boardPlacement);
+    }
+
+    /**
+     * @param storage how the boards of the games created by the clients are stored.
+     * @return these options, storing the boards of the games created as storage says.
+     */
+    public ServerOptions withStorage(BoardStorage storage) {
+        return new ServerOptions(mode, storage, log, metrics, placement, idleTimeoutMillis, recordings, boardPlacement);
+    }
+
+    /**
+     * @param log log of the moves of the board of the server, or null not to log them.
+     * @return these options, logging the moves of the board in log.
+     */
+    public ServerOptions withLog(MoveLog log) {
+        return new ServerOptions(mode, storage, log, metrics, placement, idleTimeoutMillis, recordings, boardPlacement);
+    }
+
+    /**
+     * @param metrics metrics of the requests of every game, answered to "stats", or null not to record them.
+     * @return these options, timing the requests in metrics.
+     */
+    public ServerOptions withMetrics(Metrics metrics) {
+        return new ServerOptions(mode, storage, log, metrics, placement, idleTimeoutMillis, recordings, boardPlacement);
+    }
+
+    /**
+     * @param placement density and first click safety of the boards of the games created by the clients,
+     *                  each of which gets a random seed. Requires the storage to support it.
+     * @return these options, placing the bombs of the games created as placement says.
+     */
+    public ServerOptions withPlacement(BombPlacement placement) {
+        return new ServerOptions(mode, storage, log, metrics, placement, idleTimeoutMillis, recordings, boardPlacement);
+    }
+
+    /**
+     * @param idleTimeoutMillis how long a player, or a client which hasn't sent its username, can go
+     *                          without sending anything, or 0 to never disconnect them. Requires
+     *                          idleTimeoutMillis >= 0.
+     * @return these options, disconnecting the players idle for idleTimeoutMillis.
+     */
+    public ServerOptions withIdleTimeout(long idleTimeoutMillis) {
+        return new ServerOptions(mode, storage, log, metrics, placement, idleTimeoutMillis, recordings, boardPlacement);
+    }
+
+    /**
+     * @param recordings existing directory where every game is recorded by a GameRecorder, or null not to
+     *                   record them.
+     * @param boardPlacement placement the board of the server was made with, recorded instead of its
+     *                       squares, or null if it wasn't made from a placement, or was played already.
+     * @return these options, recording every game in recordings.
+     */
+    public ServerOptions withRecordings(Path recordings, BombPlacement boardPlacement) {
+        return new ServerOptions(mode, storage, log, metrics, placement, idleTimeoutMillis, recordings, boardPlacement);
+    }
+
+    ConnectionMode getMode() {
+        return mode;
+    }
+
+    BoardStorage getStorage() {
+        return storage;
+    }
+
+    MoveLog getLog() {
+        return log;
+    }
+
+    Metrics getMetrics() {
+        return metrics;
+    }
+
+    BombPlacement getPlacement() {
+        return placement;
+    }
+
+    long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    Path getRecordings() {
+        return recordings;
+    }
+
+    BombPlacement getBoardPlacement() {
+        return boardPlacement;
+    }
+}
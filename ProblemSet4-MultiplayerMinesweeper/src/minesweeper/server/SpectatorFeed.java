@@ -0,0 +1,212 @@
+package minesweeper.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import minesweeper.BoardSnapshot;
+import minesweeper.GameBoard;
+
+/**
+ * SpectatorFeed sends the board of a game to its spectators: read-only clients, which are not players
+ * of the game. A spectator gets the whole board when it starts watching, then, every TICK_MILLIS, a
+ * single delta, in the format of BoardDelta, with every square changed since the previous tick:
+ * moves changing the same square in between are coalesced into its latest state, and ticks without
+ * moves send nothing.
+ * <p>
+ * Every tick takes one snapshot of the board and compares it with the snapshot of the previous tick,
+ * and the delta is encoded once and shared by every spectator, so thousands of spectators cost one
+ * encode per tick instead of a board per spectator. Spectators never call the board: only the shared
+ * encoder thread does, and only takes the lock of the board to render a version not yet rendered.
+ */
+class SpectatorFeed {
+
+    /**
+     * Abstraction function:
+     * Represents the spectators of board: spectators have been sent the board as it was in last, and
+     * newcomers have not been sent anything yet. While ticking is not null, tick() runs every TICK_MILLIS
+     * on the shared encoder.
+     * <p>
+     * Representation invariant:
+     * last is null, or a snapshot of board. ticking is null if there are no spectators nor newcomers,
+     * except between a change and the next tick.
+     * <p>
+     * Safety from Rep exposure:
+     * All fields are private. Spectators are only given read-only duplicates of the encoded messages.
+     * <p>
+     * Thread safety:
+     * spectators is a thread safe set and newcomers a thread safe queue, so clients start watching
+     * without waiting for a tick, and the spectators are iterated without any lock. last is only read
+     * and written by tick(), which only runs on the encoder thread, one tick at a time. ticking, and
+     * moving a newcomer to spectators, are guarded by the lock of this, also taken by remove(), so a
+     * client removed while it is moved doesn't stay a spectator. A tick only takes it when there are
+     * newcomers, or to stop once nobody watches.
+     */
+
+    /**
+     * Answer to the username prompt asking to watch the default game, or, followed by a space and an id,
+     * the game with that id.
+     */
+    static final String HANDSHAKE = "SPECTATE";
+    /** Period of the updates sent to the spectators, in milliseconds. */
+    static final long TICK_MILLIS = 100;
+
+    /** Encodes the updates of every game for its spectators, on a single thread. */
+    private static final ScheduledExecutorService ENCODER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "spectator-encoder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final String NEWLINE = "\r\n";
+
+    private final GameBoard board;
+    private final Set<Client> spectators = new CopyOnWriteArraySet<>();
+    private final Queue<Client> newcomers = new ConcurrentLinkedQueue<>();
+    private BoardSnapshot last;
+    private ScheduledFuture<?> ticking;
+
+    /**
+     * Make a feed without spectators.
+     *
+     * @param board board watched by the spectators.
+     */
+    SpectatorFeed(GameBoard board) {
+        this.board = board;
+    }
+
+    /**
+     * @param answer answer of a client to the username prompt.
+     * @return whether the client asks to watch a game.
+     */
+    static boolean isHandshake(String answer) {
+        return answer.equals(HANDSHAKE) || answer.startsWith(HANDSHAKE + " ");
+    }
+
+    /**
+     * @param handshake answer to the username prompt asking to watch a game.
+     * @return the id of the game to watch, or null for the default game.
+     */
+    static String gameOf(String handshake) {
+        return (handshake.length() > HANDSHAKE.length()) ? handshake.substring(HANDSHAKE.length() + 1) : null;
+    }
+
+    /**
+     * Starts sending the board to a spectator, from the next tick on.
+     *
+     * @param spectator client watching the board.
+     */
+    void add(Client spectator) {
+        newcomers.add(spectator);
+        synchronized (this) {
+            if (ticking == null) {
+                ticking = ENCODER.scheduleAtFixedRate(this::tick, 0, TICK_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Stops sending the board to a client, if it is a spectator. An update already handed to it may
+     * still be delivered.
+     *
+     * @param spectator client watching the board.
+     */
+    synchronized void remove(Client spectator) {
+        newcomers.remove(spectator);
+        spectators.remove(spectator);
+    }
+
+    /**
+     * @return the number of clients watching the board.
+     */
+    int size() {
+        return spectators.size() + newcomers.size();
+    }
+
+    /**
+     * Sends the changes of the board since the last tick to the spectators, and the whole board to the
+     * newcomers, which are spectators from then on. Stops ticking once nobody watches. Run by the
+     * encoder every TICK_MILLIS.
+     */
+    private void tick() {
+        if (spectators.isEmpty() && newcomers.isEmpty()) {
+            synchronized (this) {
+                if (spectators.isEmpty() && newcomers.isEmpty() && ticking != null) {
+                    ticking.cancel(false);
+                    ticking = null;
+                    last = null;
+                }
+            }
+            return;
+        }
+
+        BoardSnapshot current = board.getSnapshot();
+        if (last != null && current != last && ! spectators.isEmpty()) {
+            String delta = diff(last, current);
+            if ( ! delta.isEmpty()) {
+                ByteBuffer encoded = encode(delta);
+                for (Client spectator : spectators) {
+                    spectator.push(encoded.duplicate());
+                }
+            }
+        }
+        last = current;
+
+        if ( ! newcomers.isEmpty()) {
+            synchronized (this) {
+                Client newcomer;
+                while ((newcomer = newcomers.poll()) != null) {
+                    newcomer.push(current.getBytes());
+                    spectators.add(newcomer);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the delta taking a client from the board in before to the board in after, listing the
+     *         squares that differ, as BoardDelta writes them, or "" if none differ.
+     */
+    static String diff(BoardSnapshot before, BoardSnapshot after) {
+        ByteBuffer from = before.getPackedSquares();
+        ByteBuffer to = after.getPackedSquares();
+        int sizeY = after.getSizeY();
+        StringBuilder changes = new StringBuilder();
+        int count = 0;
+        for (int offset = 0; offset < to.limit(); offset++) {
+            int mismatch = from.slice(offset, from.limit() - offset).mismatch(to.slice(offset, to.limit() - offset));
+            if (mismatch < 0) {
+                break;
+            }
+            offset += mismatch;
+            // every packed byte holds two squares
+            for (int index = 2 * offset; index < 2 * offset + 2 && index < after.getSizeX() * sizeY; index++) {
+                char state = BoardSnapshot.unpack(to, index);
+                if (state != BoardSnapshot.unpack(from, index)) {
+                    changes.append(index / sizeY).append(' ').append(index % sizeY)
+                            .append(" [").append(state).append(']').append(NEWLINE);
+                    count++;
+                }
+            }
+        }
+        if (count == 0 && before.getActiveBombs() == after.getActiveBombs()) {
+            return "";
+        }
+        return NEWLINE + "Delta: " + after.getVersion() + " Bombs: " + after.getActiveBombs()
+                + " Squares: " + count + NEWLINE + changes;
+    }
+
+    /**
+     * @return the message encoded once, in a read-only buffer to be duplicated for every spectator.
+     */
+    private static ByteBuffer encode(String message) {
+        return ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,166 @@
+package minesweeper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test strategy:
+ * BitBoard must behave exactly like Board, so besides a few direct checks we play the same moves
+ * on a Board and a BitBoard with the same bombs and compare every observable result: the outcome
+ * of setSquare, toString(), getNumberActiveBombs() and getVersion().
+ * <p>
+ * The squares reported to a BoardListener are checked by applying them to a copy of the board text,
+ * which must end up equal to toString(), for Board, BitBoard and ChunkedBoard.
+ * <p>
+ * Partitions:
+ * - command: dug with propagation, dug without propagation, flagged (untouched and flagged squares).
+ * - square: with and without a bomb, with zero and non-zero neighboring bombs, boundary and inner squares.
+ * - board: 5x5 up to 16x16, square and non-square, bomb densities 0, 0.2 and 0.5, and a MAX_SIZE board.
+ */
+public class BitBoardTest {
+
+    private static List<Bomb> randomBombs(int sizeX, int sizeY, double density, Random random) {
+        List<Bomb> bombs = new ArrayList<>();
+        for (int x = 0; x < sizeX; x++) {
+            for (int y = 0; y < sizeY; y++) {
+                if (random.nextDouble() < density) {
+                    bombs.add(new Bomb(x, y));
+                }
+            }
+        }
+        return bombs;
+    }
+
+    @Test
+    public void constructorTest() {
+        BitBoard board = new BitBoard(30, 16, false);
+        assertEquals(30, board.getSizeX());
+        assertEquals(16, board.getSizeY());
+        assertEquals(0, board.getNumberActiveBombs());
+
+        board = new BitBoard(30, 16, true);
+        assertEquals(96, board.getNumberActiveBombs());
+        assertEquals(96, board.getBombLocations().size());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void constructorTooSmallTest() {
+        new BitBoard(4, 5, false);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void setSquareOutOfBoundsTest() {
+        new BitBoard(5, 5, false).setSquare(5, 0, "dug", true);
+    }
+
+    @Test
+    public void setSquareTest() {
+        List<Bomb> bombs = List.of(new Bomb(0, 0), new Bomb(0, 3), new Bomb(1, 3), new Bomb(3, 1), new Bomb(3, 4));
+        BitBoard board = new BitBoard(5, 5, bombs);
+
+        assertEquals("true", board.setSquare(1, 2, "dug", false));
+        assertEquals("false", board.setSquare(1, 2, "dug", false));
+        assertEquals("true", board.setSquare(0, 3, "flagged", false));
+        assertEquals(4, board.getNumberActiveBombs());
+        assertEquals("false", board.setSquare(0, 3, "dug", true));
+        assertEquals("true", board.setSquare(0, 3, "flagged", false));
+        assertEquals(5, board.getNumberActiveBombs());
+        assertEquals("bomb", board.setSquare(0, 3, "dug", true));
+        assertEquals(4, board.getNumberActiveBombs());
+        assertEquals(4, board.getBombLocations().size());
+
+        assertEquals("\r\nSize: 5x5 Bombs: 4\r\n"
+                + "[-, -, -, 1, -]\r\n"
+                + "[-, -, 2, -, -]\r\n"
+                + "[-, -, -, -, -]\r\n"
+                + "[-, -, -, -, -]\r\n"
+                + "[-, -, -, -, -]\r\n", board.toString());
+    }
+
+    @Test
+    public void maxSizeBoardTest() {
+        int size = GameBoard.MAX_SIZE;
+        BitBoard board = new BitBoard(size, size, List.of(new Bomb(0, 1)));
+
+        assertEquals("true", board.setSquare(size - 1, size - 1, "dug", true));
+        assertEquals("bomb", board.setSquare(0, 1, "dug", true));
+        assertEquals("false", board.setSquare(0, 0, "dug", true));
+        assertEquals(0, board.getNumberActiveBombs());
+    }
+
+    @Test
+    public void sameAsBoardTest() {
+        Random random = new Random(6005);
+
+        for (int game = 0; game < 200; game++) {
+            int sizeX = 5 + random.nextInt(12);
+            int sizeY = (game % 2 == 0) ? sizeX : 5 + random.nextInt(12);
+            double density = new double[] {0, 0.2, 0.5}[game % 3];
+            List<Bomb> bombs = randomBombs(sizeX, sizeY, density, random);
+
+            Board board = new Board(sizeX, sizeY, false, new ArrayList<>(bombs), bombs.size());
+            BitBoard bitBoard = new BitBoard(sizeX, sizeY, bombs);
+            assertEquals(board.toString(), bitBoard.toString());
+
+            for (int move = 0; move < sizeX * sizeY / 2; move++) {
+                int x = random.nextInt(sizeX);
+                int y = random.nextInt(sizeY);
+                String command = random.nextInt(4) == 0 ? "flagged" : "dug";
+                boolean propagate = random.nextInt(5) != 0;
+
+                assertEquals(board.setSquare(x, y, command, propagate),
+                        bitBoard.setSquare(x, y, command, propagate));
+                assertEquals(board.toString(), bitBoard.toString());
+                assertEquals(board.getNumberActiveBombs(), bitBoard.getNumberActiveBombs());
+                assertEquals(board.getVersion(), bitBoard.getVersion());
+            }
+            assertEquals(board.getSnapshot().getText(), bitBoard.getSnapshot().getText());
+            assertEquals(board.getBombLocations().size(), bitBoard.getBombLocations().size());
+        }
+    }
+
+    /**
+     * Plays random moves on the board, applying the squares reported to the listener to a copy of
+     * toString(), and checks that the copy matches toString() after every move.
+     */
+    private static void checkListener(GameBoard board, Random random) {
+
+        int sizeX = board.getSizeX();
+        int sizeY = board.getSizeY();
+        String[] lines = board.toString().split("\r\n");
+        char[][] copy = new char[sizeX][];
+        for (int x = 0; x < sizeX; x++) {
+            copy[x] = lines[x + 2].toCharArray();
+        }
+
+        for (int move = 0; move < sizeX * sizeY / 2; move++) {
+            String command = random.nextInt(4) == 0 ? "flagged" : "dug";
+            board.setSquare(random.nextInt(sizeX), random.nextInt(sizeY), command, random.nextInt(5) != 0,
+                    (x, y, state) -> copy[x][1 + 3 * y] = state);
+
+            lines = board.toString().split("\r\n");
+            for (int x = 0; x < sizeX; x++) {
+                assertEquals(lines[x + 2], new String(copy[x]));
+            }
+        }
+    }
+
+    @Test
+    public void listenerTest() {
+        Random random = new Random(6005);
+
+        for (int game = 0; game < 30; game++) {
+            int sizeX = 5 + random.nextInt(12);
+            int sizeY = 5 + random.nextInt(12);
+            List<Bomb> bombs = randomBombs(sizeX, sizeY, 0.2, random);
+
+            checkListener(new Board(sizeX, sizeY, false, new ArrayList<>(bombs), bombs.size()), random);
+            checkListener(new BitBoard(sizeX, sizeY, bombs), random);
+            checkListener(new ChunkedBoard(sizeX, sizeY, 0.2, random.nextLong()), random);
+        }
+    }
+}
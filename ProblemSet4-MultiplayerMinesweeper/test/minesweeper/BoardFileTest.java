@@ -0,0 +1,124 @@
+package minesweeper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test strategy:
+ * We read board files written to temporary files, in both formats, and compare the layouts and the
+ * boards made from them with the expected ones.
+ * <p>
+ * Partitions:
+ * - format: text with "\n", "\r\n" and "\r" line ends, with and without the last NEWLINE, binary.
+ * - board: square and non-square, without bombs, with bombs, number of squares a multiple of 8 or not.
+ * - invalid files: empty, bad header, size not allowed, a line with too few or too many squares, a
+ *   square other than 0 or 1, missing lines, extra lines, truncated binary file. The error must report
+ *   the line where it went wrong.
+ */
+public class BoardFileTest {
+
+    private static Path write(String content) throws IOException {
+        Path file = Files.createTempFile("board", ".txt");
+        file.toFile().deleteOnExit();
+        Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    private static void assertInvalid(String content, int line) throws IOException {
+        try {
+            BoardFile.read(write(content));
+            fail("expected a FormatException for " + content);
+        } catch (BoardFile.FormatException fe) {
+            assertEquals(fe.getMessage(), line, fe.getLine());
+        }
+    }
+
+    @Test
+    public void readTextTest() throws IOException {
+
+        String rows = "0 0 0 0 0 0\n0 1 0 0 0 0\n0 0 0 0 0 1\n0 0 0 0 0 0\n1 0 0 0 0 0\n";
+        for (String content : new String[] {"5 6\n" + rows, ("5 6\n" + rows).replace("\n", "\r\n"),
+                ("5 6\n" + rows).replace("\n", "\r"), "5 6\n" + rows.trim(), "5 6\n" + rows + "\n\n"}) {
+            BoardFile board = BoardFile.read(write(content));
+            assertEquals(5, board.getSizeX());
+            assertEquals(6, board.getSizeY());
+            assertEquals(3, board.getBombCount());
+            assertEquals("[(1, 1, false), (2, 5, false), (4, 0, false)]", board.getBombLocations().toString());
+        }
+    }
+
+    @Test
+    public void newBoardTest() throws IOException {
+
+        BoardFile file = BoardFile.read(write("5 5\n0 0 0 0 0\n0 1 0 0 0\n0 0 0 0 0\n0 0 0 0 1\n0 0 0 0 0\n"));
+        BitBoard expected = new BitBoard(5, 5, file.getBombLocations());
+        expected.setSquare(0, 0, "dug", false);
+        for (BoardStorage storage : new BoardStorage[] {BoardStorage.ARRAY, BoardStorage.BITSET, BoardStorage.STRIPED}) {
+            GameBoard board = file.newBoard(storage);
+            assertEquals(2, board.getNumberActiveBombs());
+            assertEquals("true", board.setSquare(0, 0, "dug", false));
+            assertEquals(expected.toString(), board.toString());
+            assertEquals("bomb", board.setSquare(3, 4, "dug", false));
+            assertEquals(1, board.getNumberActiveBombs());
+        }
+        try {
+            file.newBoard(BoardStorage.CHUNKED);
+            fail("expected chunked boards not to be loaded");
+        } catch (UnsupportedOperationException uoe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void binaryTest() throws IOException {
+
+        Random random = new Random(6005);
+        for (int[] size : new int[][] {{5, 5}, {8, 8}, {7, 13}, {100, 41}}) {
+            BitSet bombs = new BitSet();
+            for (int i = 0; i < size[0] * size[1]; i++) {
+                if (random.nextInt(5) == 0) {
+                    bombs.set(i);
+                }
+            }
+            BoardFile board = new BoardFile(size[0], size[1], bombs);
+            Path binary = Files.createTempFile("board", ".bin");
+            binary.toFile().deleteOnExit();
+            board.writeBinary(binary);
+            Path text = Files.createTempFile("board", ".txt");
+            text.toFile().deleteOnExit();
+            board.writeText(text);
+
+            for (Path file : new Path[] {binary, text}) {
+                BoardFile read = BoardFile.read(file);
+                assertEquals(size[0], read.getSizeX());
+                assertEquals(size[1], read.getSizeY());
+                assertEquals(board.getBombLocations().toString(), read.getBombLocations().toString());
+            }
+            assertEquals(4 + 1 + 4 + 4 + (size[0] * size[1] + 7) / 8, Files.size(binary));
+        }
+    }
+
+    @Test
+    public void invalidTest() throws IOException {
+
+        assertInvalid("", 1);
+        assertInvalid("5\n", 1);
+        assertInvalid("5 x\n", 1);
+        assertInvalid("4 5\n", 1);
+        assertInvalid("5 99999999999\n", 1);
+        assertInvalid("5 5\n0 0 0 0 0\n0 0 0 0\n0 0 0 0 0\n0 0 0 0 0\n0 0 0 0 0\n", 3);
+        assertInvalid("5 5\n0 0 0 0 0\n0 0 0 0 0\n0 0 0 0 0 1\n0 0 0 0 0\n0 0 0 0 0\n", 4);
+        assertInvalid("5 5\n0 0 0 0 0\n0 0 0 0 0\n0 0 0 0 0\n0 0 2 0 0\n0 0 0 0 0\n", 5);
+        assertInvalid("5 5\n0 0 0 0 0\n0 0  0 0 0\n0 0 0 0 0\n0 0 0 0 0\n0 0 0 0 0\n", 3);
+        assertInvalid("5 5\n0 0 0 0 0\n0 0 0 0 0\n", 4);
+        assertInvalid("5 5\n0 0 0 0 0\n0 0 0 0 0\n0 0 0 0 0\n0 0 0 0 0\n0 0 0 0 0\n0 0 0 0 0\n", 7);
+        assertInvalid("MSWB\u0001\u0000\u0000", 1);
+    }
+}
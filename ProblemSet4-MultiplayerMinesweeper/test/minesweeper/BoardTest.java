@@ -3,7 +3,11 @@
  */
 package minesweeper;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
 
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -69,6 +73,11 @@ import static org.junit.Assert.*;
  * And we perform some setSquare operations after the setup.
  * The method should report the correct number of active bombs at creating time and
  * after some operation have been performed.
+ * <p>
+ * getVersion() and getSnapshot()
+ * The version must increase only with moves that modify the board, and the snapshot must be the same
+ * object until then, with the same text as toString(). Its sizes, active bombs and packed squares must
+ * match the text, for boards with an even and an odd number of squares.
  */
 public class BoardTest {
     
@@ -209,8 +218,9 @@ public class BoardTest {
         expectedBoard.board[0][3] = '1';
         assertEquals(expectedBoard.board, board.board);
         //should have removed it
-        expectedBoard.bombLocations.remove(new Bomb(0, 3));
-        assertEquals(expectedBoard.bombLocations, board.bombLocations);
+        List<Bomb> expectedBombs = new ArrayList<>(expectedBoard.bombLocations);
+        expectedBombs.remove(new Bomb(0, 3));
+        assertEquals(expectedBombs, board.bombLocations);
         assertEquals(4, board.getNumberActiveBombs());
 
         //Test of flagged on untouched square, without bomb.
@@ -291,6 +301,61 @@ public class BoardTest {
     }
 
 
+    @Test
+    public void snapshotTest() {
+
+        Board board = propagateBoard();
+        BoardSnapshot snapshot = board.getSnapshot();
+        assertEquals(0, board.getVersion());
+        assertEquals(board.toString(), snapshot.getText());
+        assertSame(snapshot, board.getSnapshot());
+
+        board.setSquare(1, 3, "dug", true);
+        assertEquals(1, board.getVersion());
+        BoardSnapshot afterDig = board.getSnapshot();
+        assertNotSame(snapshot, afterDig);
+        assertEquals(board.toString(), afterDig.getText());
+        assertEquals(afterDig.getText().length(), afterDig.getBytes().remaining());
+
+        board.setSquare(1, 3, "dug", true);
+        board.setSquare(1, 3, "flagged", false);
+        assertEquals(1, board.getVersion());
+        assertSame(afterDig, board.getSnapshot());
+
+        board.setSquare(0, 8, "flagged", false);
+        assertEquals(2, board.getVersion());
+        assertEquals(board.toString(), board.getSnapshot().getText());
+        checkPacked(board.getSnapshot());
+
+        Board evenBoard = new Board(6, 8, true);
+        evenBoard.setSquare(2, 5, "dug", true);
+        evenBoard.setSquare(4, 1, "flagged", false);
+        checkPacked(evenBoard.getSnapshot());
+    }
+
+    /**
+     * Checks the sizes, active bombs and packed squares of a snapshot against its text.
+     */
+    private static void checkPacked(BoardSnapshot snapshot) {
+
+        String[] lines = snapshot.getText().split("\r\n");
+        assertEquals("Size: " + snapshot.getSizeX() + "x" + snapshot.getSizeY() + " Bombs: " + snapshot.getActiveBombs(),
+                lines[1]);
+        ByteBuffer packed = snapshot.getPackedSquares();
+        assertEquals((snapshot.getSizeX() * snapshot.getSizeY() + 1) / 2, packed.remaining());
+
+        int i = 0;
+        for (int x = 0; x < snapshot.getSizeX(); x++) {
+            for (int y = 0; y < snapshot.getSizeY(); y++, i++) {
+                char square = lines[x + 2].charAt(1 + 3 * y);
+                int value = packed.get(i / 2) >> ((i % 2 == 0) ? 4 : 0) & 0xF;
+                int expected = (square == '-') ? BoardSnapshot.UNTOUCHED : (square == 'F') ? BoardSnapshot.FLAGGED
+                        : (square == ' ') ? 0 : square - '0';
+                assertEquals(expected, value);
+            }
+        }
+    }
+
     @Test
     public void propagateTest() {
 
@@ -314,6 +379,99 @@ public class BoardTest {
         assertEquals(Expected, board.board);
     }
     
+    @Test
+    public void propagateNonSquareTest() {
+
+        //5x8, propagation must reach the squares with Y >= sizeX.
+        Board board = new Board(5, 8, false, drawingToBoard(new char[][] {
+                {'-', '-', '-', '-', '-', '-', '-', '-'},
+                {'-', '-', '-', '-', '-', '-', '-', '-'},
+                {'-', '-', '-', '-', '-', '-', '-', '-'},
+                {'-', '-', '-', '-', '-', '-', '-', '-'},
+                {'B', '-', '-', '-', '-', '-', '-', '-'}
+        }), 1);
+
+        assertEquals("true", board.setSquare(0, 7, "dug", true));
+
+        char[][] Expected = {
+                {' ', ' ', ' ', ' ', ' ', ' ', ' ', ' '},
+                {' ', ' ', ' ', ' ', ' ', ' ', ' ', ' '},
+                {' ', ' ', ' ', ' ', ' ', ' ', ' ', ' '},
+                {'1', '1', ' ', ' ', ' ', ' ', ' ', ' '},
+                {'-', '1', ' ', ' ', ' ', ' ', ' ', ' '}
+        };
+        assertEquals(Expected, board.board);
+
+        //8x5, propagation must stop at Y == sizeY - 1.
+        board = new Board(8, 5, false);
+        assertEquals("true", board.setSquare(7, 0, "dug", true));
+        assertTrue(sameValue(board.board, ' '));
+    }
+
+    @Test
+    public void propagateLargeBoardTest() {
+
+        //Deep enough to overflow the stack with a recursive propagation.
+        Board board = new Board(1000, 1000, false, drawingToBoard(new char[][] {{'-', 'B'}}), 1);
+
+        assertEquals("true", board.setSquare(999, 999, "dug", true));
+        assertEquals('-', board.board[0][1]);
+        assertEquals('-', board.board[0][0]);
+        assertEquals('1', board.board[1][1]);
+        assertEquals(' ', board.board[0][999]);
+        assertEquals(' ', board.board[999][0]);
+    }
+
+    @Test
+    public void bombLocationsTest() {
+
+        Board board = smallBoard();
+        assertEquals(5, board.bombLocations.size());
+        assertEquals("(0, 3, false)", board.bombLocations.get(1).toString());
+
+        //Flagging a bomb shows in the list, digging one removes it.
+        board.setSquare(0, 3, "flagged", false);
+        assertEquals("(0, 3, true)", board.bombLocations.get(1).toString());
+        board.setSquare(0, 3, "flagged", false);
+        assertEquals("bomb", board.setSquare(0, 3, "dug", false));
+        assertEquals(4, board.bombLocations.size());
+        assertFalse(board.bombLocations.contains(new Bomb(0, 3)));
+        assertEquals(board.getBombLocations(), board.bombLocations);
+
+        //The list is read-only.
+        try {
+            board.bombLocations.remove(new Bomb(0, 0));
+            fail("expected the bombs to be read-only");
+        } catch (UnsupportedOperationException expected) {
+            assertEquals("bomb", board.setSquare(0, 0, "dug", false));
+        }
+    }
+
+    @Test
+    public void manyBombsTest() {
+
+        //Plays the same random moves on a Board and a BitBoard with the same bombs.
+        SplittableRandom random = new SplittableRandom(6005);
+        BitSet bombs = new BitSet();
+        for (int i = 0; i < 100 * 100; i++) {
+            if (random.nextInt(5) == 0) {
+                bombs.set(i);
+            }
+        }
+        Board board = new Board(100, 100, bombs);
+        BitBoard bitBoard = new BitBoard(100, 100, bombs);
+        String[] commands = {"dug", "flagged"};
+        for (int move = 0; move < 2000; move++) {
+            int x = random.nextInt(100);
+            int y = random.nextInt(100);
+            String command = commands[random.nextInt(2)];
+            boolean propagate = random.nextBoolean();
+            assertEquals(bitBoard.setSquare(x, y, command, propagate), board.setSquare(x, y, command, propagate));
+        }
+        assertEquals(bitBoard.toString(), board.toString());
+        assertEquals(bitBoard.getBombLocations().toString(), board.getBombLocations().toString());
+    }
+
     @Test(expected=AssertionError.class)
     public void testAssertionsEnabled() {
         assert false; // make sure assertions are enabled with VM argument: -ea
@@ -0,0 +1,88 @@
+package minesweeper;
+
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test strategy:
+ * We place bombs with known densities and seeds and check their number, that the same seed always
+ * gives the same bombs, and that the safe square and its neighbors never get one. Then we dig the
+ * first square of first click safe Boards and check it never explodes.
+ * <p>
+ * Partitions:
+ * - density: 0, low, above 0.5 (the bombs are the squares left out of the shuffle), 1.
+ * - safe square: none, inner, corner, on a board too full to keep its neighbors free.
+ * - seed: same, different.
+ */
+public class BombPlacementTest {
+
+    @Test
+    public void countTest() {
+        assertEquals(0, new BombPlacement(0, 1, false).place(10, 10).cardinality());
+        assertEquals(25, new BombPlacement(0.25, 1, false).place(10, 10).cardinality());
+        assertEquals(80, new BombPlacement(0.8, 1, false).place(10, 10).cardinality());
+        assertEquals(100, new BombPlacement(1, 1, false).place(10, 10).cardinality());
+        assertEquals(99, new BombPlacement(1, 1, true).count(10, 10));
+        assertEquals(0, new BombPlacement(0.25, 1, false).place(10, 10).nextSetBit(100) + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void densityOutOfRangeTest() {
+        new BombPlacement(1.5, 1, false);
+    }
+
+    @Test
+    public void seedTest() {
+        BombPlacement placement = new BombPlacement(0.3, 6005, false);
+        assertEquals(placement.place(40, 30), placement.place(40, 30));
+        assertEquals(placement.place(40, 30, 7, 8), placement.withSeed(6005).place(40, 30, 7, 8));
+        assertNotEquals(placement.place(40, 30), placement.withSeed(6006).place(40, 30));
+        for (BoardStorage storage : new BoardStorage[] {BoardStorage.ARRAY, BoardStorage.BITSET}) {
+            GameBoard first = storage.newBoard(40, 30, 6005L);
+            GameBoard second = storage.newBoard(40, 30, 6005L);
+            first.setSquare(0, 0, "dug", true);
+            second.setSquare(0, 0, "dug", true);
+            assertEquals(first.toString(), second.toString());
+        }
+    }
+
+    @Test
+    public void safeSquareTest() {
+        for (long seed = 0; seed < 50; seed++) {
+            BitSet bombs = new BombPlacement(0.8, seed, true).place(10, 10, 4, 5);
+            assertEquals(80, bombs.cardinality());
+            for (int x = 3; x <= 5; x++) {
+                for (int y = 4; y <= 6; y++) {
+                    assertFalse(bombs.get(x * 10 + y));
+                }
+            }
+            bombs = new BombPlacement(0.8, seed, true).place(10, 10, 0, 0);
+            assertFalse(bombs.get(0) || bombs.get(1) || bombs.get(10) || bombs.get(11));
+        }
+
+        // 3x3 board, 8 bombs: only the safe square itself can be kept free
+        BitSet bombs = new BombPlacement(1, 6005, true).place(3, 3, 1, 1);
+        assertEquals(8, bombs.cardinality());
+        assertFalse(bombs.get(4));
+    }
+
+    @Test
+    public void firstClickSafeBoardTest() {
+        for (long seed = 0; seed < 20; seed++) {
+            Board board = new Board(10, 10, new BombPlacement(0.4, seed, true));
+            assertEquals(40, board.getNumberActiveBombs());
+            assertTrue(board.getBombLocations().isEmpty());
+
+            assertEquals("true", board.setSquare(3, 3, "flagged", false));
+            assertEquals("true", board.setSquare(6, 6, "dug", true));
+            List<Bomb> bombs = board.getBombLocations();
+            assertEquals(40, bombs.size());
+            assertFalse(bombs.contains(new Bomb(6, 6)));
+            assertFalse(bombs.contains(new Bomb(5, 7)));
+            assertEquals(40 - (bombs.contains(new Bomb(3, 3)) ? 1 : 0), board.getNumberActiveBombs());
+        }
+    }
+}
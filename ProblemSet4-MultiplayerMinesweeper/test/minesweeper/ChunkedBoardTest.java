@@ -0,0 +1,89 @@
+package minesweeper;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test strategy:
+ * ChunkedBoard must place its bombs deterministically from the seed, know its bomb count without
+ * materializing chunks, and otherwise play like the other boards. We compare it with a BitBoard
+ * holding the same bombs, and check how many chunks get materialized on a huge board.
+ * <p>
+ * Partitions:
+ * - size: smaller than a chunk, a multiple of CHUNK_SIZE, not a multiple of CHUNK_SIZE, huge.
+ * - seed: same seed twice, different seeds.
+ * - density: 0, 0.2, 0.5.
+ */
+public class ChunkedBoardTest {
+
+    @Test
+    public void sameSeedSameBombsTest() {
+        ChunkedBoard board = new ChunkedBoard(100, 130, 0.2, 42);
+        ChunkedBoard sameSeed = new ChunkedBoard(100, 130, 0.2, 42);
+        ChunkedBoard otherSeed = new ChunkedBoard(100, 130, 0.2, 43);
+
+        assertEquals(board.getBombLocations().toString(), sameSeed.getBombLocations().toString());
+        assertNotEquals(board.getBombLocations().toString(), otherSeed.getBombLocations().toString());
+        assertEquals(0, board.getMaterializedChunks());
+    }
+
+    @Test
+    public void bombCountTest() {
+        for (int[] size : new int[][] {{5, 5}, {64, 128}, {100, 130}, {65, 7}}) {
+            for (double density : new double[] {0, 0.2, 0.5}) {
+                ChunkedBoard board = new ChunkedBoard(size[0], size[1], density, 6005);
+                assertEquals(board.getBombLocations().size(), board.getNumberActiveBombs());
+            }
+        }
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void tooManySquaresTest() {
+        new ChunkedBoard(100_000, 100_000, 0.2, 0);
+    }
+
+    @Test
+    public void sameAsBitBoardTest() {
+        Random random = new Random(6005);
+
+        for (int game = 0; game < 20; game++) {
+            int sizeX = 5 + random.nextInt(150);
+            int sizeY = 5 + random.nextInt(150);
+            double density = new double[] {0, 0.2, 0.5}[game % 3];
+
+            ChunkedBoard board = new ChunkedBoard(sizeX, sizeY, density, random.nextLong());
+            BitBoard bitBoard = new BitBoard(sizeX, sizeY, board.getBombLocations());
+            assertEquals(bitBoard.toString(), board.toString());
+
+            for (int move = 0; move < 200; move++) {
+                int x = random.nextInt(sizeX);
+                int y = random.nextInt(sizeY);
+                String command = random.nextInt(4) == 0 ? "flagged" : "dug";
+                boolean propagate = random.nextInt(5) != 0;
+
+                assertEquals(bitBoard.setSquare(x, y, command, propagate),
+                        board.setSquare(x, y, command, propagate));
+                assertEquals(bitBoard.getNumberActiveBombs(), board.getNumberActiveBombs());
+            }
+            assertEquals(bitBoard.toString(), board.toString());
+        }
+    }
+
+    @Test
+    public void hugeBoardTest() {
+        ChunkedBoard board = new ChunkedBoard(40_000, 40_000, 0.2, 6005);
+        int chunksPerSide = 40_000 / ChunkedBoard.CHUNK_SIZE;
+        int bombsPerChunk = (int) (ChunkedBoard.CHUNK_SIZE * ChunkedBoard.CHUNK_SIZE * 0.2);
+        assertEquals(chunksPerSide * chunksPerSide * bombsPerChunk, board.getNumberActiveBombs());
+        assertEquals(0, board.getMaterializedChunks());
+
+        List<String> outcomes = List.of("true", "false", "bomb");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(outcomes.contains(board.setSquare(20_000 + i, 20_000, "dug", true)));
+        }
+        assertTrue(board.getMaterializedChunks() < 100);
+    }
+}
@@ -0,0 +1,202 @@
+package minesweeper;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import minesweeper.server.GameRegistry;
+import minesweeper.server.Protocol;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test strategy:
+ * We analyze boards whose bombs we know, and check the analysis is sound: no square said to be safe has
+ * a bomb, every square said to be a bomb has one, whatever the players flagged, and the best move is on
+ * an untouched square. On small hand made boards we check the exact deductions and probabilities, and
+ * the hints a game gives from them.
+ * <p>
+ * Partitions:
+ * - board: untouched, partly dug, dug but for its bombs.
+ * - frontier: empty, one component, several components.
+ * - timeout: enough, none, short with a frontier too long to enumerate.
+ * - flags: none, on bombs, on safe squares.
+ * - hint: safe dig, flag, no square left, board too large.
+ */
+public class SolverTest {
+
+    private static final long TIMEOUT_MILLIS = 1000;
+
+    /** @return the character board prints for the square (x, y). */
+    private static char square(GameBoard board, int x, int y) {
+        return board.toString().trim().split("\r?\n")[1 + x].charAt(1 + 3 * y);
+    }
+
+    private static void assertSound(BitSet bombs, GameBoard board, Solver.Analysis analysis) {
+        int sizeY = board.getSizeY();
+        for (int x = 0; x < board.getSizeX(); x++) {
+            for (int y = 0; y < sizeY; y++) {
+                double probability = analysis.getProbability(x, y);
+                assertTrue(probability >= 0 && probability <= 1);
+                if (probability == 0) {
+                    assertFalse("(" + x + ", " + y + ") said safe", bombs.get(x * sizeY + y));
+                } else if (probability == 1) {
+                    assertTrue("(" + x + ", " + y + ") said a bomb", bombs.get(x * sizeY + y));
+                }
+            }
+        }
+        if (analysis.getCommand() != null) {
+            assertEquals('-', square(board, analysis.getX(), analysis.getY()));
+        }
+    }
+
+    @Test
+    public void soundnessTest() {
+        Random random = new Random(6005);
+        for (int game = 0; game < 50; game++) {
+            int sizeX = 5 + random.nextInt(20);
+            int sizeY = 5 + random.nextInt(20);
+            BitSet bombs = new BitSet();
+            for (int i = 0; i < sizeX * sizeY; i++) {
+                if (random.nextDouble() < 0.15) {
+                    bombs.set(i);
+                }
+            }
+            GameBoard board = new BitBoard(sizeX, sizeY, bombs);
+            for (int move = 0; move < 8; move++) {
+                int i = random.nextInt(sizeX * sizeY);
+                // dig safe squares only, so the bombs stay as known, and flag anything
+                if ( ! bombs.get(i)) {
+                    board.setSquare(i / sizeY, i % sizeY, "dug", true);
+                }
+                board.setSquare(random.nextInt(sizeX), random.nextInt(sizeY), "flagged", false);
+                Solver.Analysis analysis = Solver.analyze(board.getSnapshot(), TIMEOUT_MILLIS);
+                assertEquals(board.getVersion(), analysis.getVersion());
+                assertSound(bombs, board, analysis);
+            }
+        }
+    }
+
+    @Test
+    public void lastBombTest() {
+        BitSet bombs = new BitSet();
+        bombs.set(0);
+        GameBoard board = new Board(5, 5, bombs);
+        board.setSquare(4, 4, "dug", true);
+
+        Solver.Analysis analysis = Solver.analyze(board.getSnapshot(), TIMEOUT_MILLIS);
+        assertEquals(1, analysis.getBombCount());
+        assertEquals(0, analysis.getSafeCount());
+        assertEquals(1.0, analysis.getProbability(0, 0), 0);
+        assertEquals("flag", analysis.getCommand());
+        assertEquals(0, analysis.getX());
+        assertEquals(0, analysis.getY());
+
+        // a flag proves nothing, but leaves no square to play
+        board.setSquare(0, 0, "flagged", false);
+        analysis = Solver.analyze(board.getSnapshot(), TIMEOUT_MILLIS);
+        assertEquals(1.0, analysis.getProbability(0, 0), 0);
+        assertNull(analysis.getCommand());
+    }
+
+    @Test
+    public void deductionTest() {
+        // a wall of bombs on line 2, with one gap at (2, 0): digging (0, 4) opens lines 0 and 1
+        BitSet bombs = new BitSet();
+        for (int y = 1; y < 5; y++) {
+            bombs.set(2 * 5 + y);
+        }
+        GameBoard board = new BitBoard(5, 5, bombs);
+        board.setSquare(0, 4, "dug", true);
+        assertEquals('1', square(board, 1, 0));
+
+        Solver.Analysis analysis = Solver.analyze(board.getSnapshot(), TIMEOUT_MILLIS);
+        assertSound(bombs, board, analysis);
+        // (1, 4) and (1, 3) make (2, 2) to (2, 4) bombs, (1, 2) makes (2, 1) one, so (1, 1) makes (2, 0) safe
+        assertEquals(1.0, analysis.getProbability(2, 2), 0);
+        assertEquals(0.0, analysis.getProbability(2, 0), 0);
+        assertEquals(0.0, analysis.getProbability(1, 1), 0);
+        assertEquals(4, analysis.getBombCount());
+        assertEquals("dig", analysis.getCommand());
+        assertEquals(0.0, analysis.getBestProbability(), 0);
+        assertEquals(2, analysis.getX());
+        assertEquals(0, analysis.getY());
+    }
+
+    @Test
+    public void untouchedTest() {
+        BitSet bombs = new BitSet();
+        bombs.set(10, 30);
+        GameBoard board = new BitBoard(10, 10, bombs);
+        Solver.Analysis analysis = Solver.analyze(board.getSnapshot(), TIMEOUT_MILLIS);
+        assertEquals(0, analysis.getSafeCount());
+        assertEquals(0.2, analysis.getProbability(7, 3), 1e-9);
+        assertEquals("dig", analysis.getCommand());
+        assertEquals(0, analysis.getX());
+        assertEquals(0, analysis.getY());
+    }
+
+    @Test
+    public void timeoutTest() {
+        // a checkerboard of bombs dug around, so the frontier is one large component
+        int size = 40;
+        BitSet bombs = new BitSet();
+        for (int x = 0; x < size; x += 2) {
+            for (int y = 0; y < size; y += 3) {
+                bombs.set(x * size + y);
+            }
+        }
+        GameBoard board = new BitBoard(size, size, bombs);
+        for (int i = 0; i < size * size; i++) {
+            if ( ! bombs.get(i) && (i / size) % 4 == 1) {
+                board.setSquare(i / size, i % size, "dug", false);
+            }
+        }
+        assertNull(Solver.analyze(board.getSnapshot(), 0));
+        Solver.Analysis analysis = Solver.analyze(board.getSnapshot(), TIMEOUT_MILLIS);
+        assertSound(bombs, board, analysis);
+        assertNotNull(analysis.getCommand());
+    }
+
+    @Test
+    public void longFrontierTest() {
+        // lines 0, 2 and 4 dug, every other square of lines 1 and 3 a bomb: no count decides a square,
+        // so lines 1 and 3 are one component of thousands of squares
+        int sizeX = 5;
+        int sizeY = 4096;
+        long timeoutMillis = 50;
+        BitSet bombs = new BitSet();
+        for (int y = 0; y < sizeY; y += 2) {
+            bombs.set(sizeY + y);
+            bombs.set(3 * sizeY + y);
+        }
+        GameBoard board = new BitBoard(sizeX, sizeY, bombs);
+        for (int x = 0; x < sizeX; x += 2) {
+            for (int y = 0; y < sizeY; y++) {
+                board.setSquare(x, y, "dug", false);
+            }
+        }
+        long start = System.nanoTime();
+        Solver.Analysis analysis = Solver.analyze(board.getSnapshot(), timeoutMillis);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        assertTrue("analysis took " + elapsedMillis + " ms", elapsedMillis < 4 * timeoutMillis);
+        if (analysis != null) {
+            assertSound(bombs, board, analysis);
+        }
+    }
+
+    @Test
+    public void hintTest() {
+        BitSet bombs = new BitSet();
+        bombs.set(0);
+        Protocol game = new GameRegistry(null, false, BoardStorage.BITSET, 0).register(new Board(5, 5, bombs));
+        assertEquals("**> Hint: dig 0 0 (4% bomb).\r\n", game.handleRequest("hint"));
+        game.handleRequest("dig 4 4");
+        assertEquals("**> Hint: flag 0 0 (100% bomb).\r\n", game.handleRequest("hint"));
+        game.handleRequest("flag 0 0");
+        assertEquals("**> No hint, no square is left to dig.\r\n", game.handleRequest("hint"));
+
+        Protocol large = new GameRegistry(null, false, BoardStorage.BITSET, 0).register(new BitBoard(2048, 2048, bombs));
+        assertEquals("**> No hint, the board is too large.\r\n", large.handleRequest("hint"));
+    }
+}
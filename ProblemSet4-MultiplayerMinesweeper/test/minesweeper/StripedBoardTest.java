@@ -0,0 +1,188 @@
+package minesweeper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test strategy:
+ * Played by a single thread, StripedBoard must behave exactly like BitBoard, so we play the same moves
+ * on both and compare every observable result.
+ * <p>
+ * Played by several threads at once, every move must still look atomic: we record the squares changed
+ * by every move with the version the move got, and replaying them in version order on a copy of the
+ * initial board must give the final board. The test also fails by timing out if the moves deadlock.
+ * Moves made in a batch must get consecutive versions, with no move of another thread in between, on
+ * StripedBoard and on a board locking itself, BitBoard.
+ * <p>
+ * Partitions:
+ * - board: smaller than a region, several regions, square and non-square, densities 0, 0.2 and 0.5.
+ * - threads: 1, 8.
+ * - moves: flood fills within a region and across regions, digs on bombs, flag and deflag.
+ */
+public class StripedBoardTest {
+
+    @Test
+    public void sameAsBitBoardTest() {
+        Random random = new Random(6005);
+
+        for (int game = 0; game < 60; game++) {
+            int sizeX = 5 + random.nextInt(60);
+            int sizeY = (game % 2 == 0) ? sizeX : 5 + random.nextInt(60);
+            double density = new double[] {0, 0.2, 0.5}[game % 3];
+            List<Bomb> bombs = new ArrayList<>();
+            for (int x = 0; x < sizeX; x++) {
+                for (int y = 0; y < sizeY; y++) {
+                    if (random.nextDouble() < density) {
+                        bombs.add(new Bomb(x, y));
+                    }
+                }
+            }
+
+            BitBoard bitBoard = new BitBoard(sizeX, sizeY, bombs);
+            StripedBoard board = new StripedBoard(sizeX, sizeY, bombs);
+            assertEquals(bitBoard.toString(), board.toString());
+
+            for (int move = 0; move < sizeX * sizeY / 4; move++) {
+                int x = random.nextInt(sizeX);
+                int y = random.nextInt(sizeY);
+                String command = random.nextInt(4) == 0 ? "flagged" : "dug";
+                boolean propagate = random.nextInt(5) != 0;
+
+                assertEquals(bitBoard.setSquare(x, y, command, propagate),
+                        board.setSquare(x, y, command, propagate));
+                assertEquals(bitBoard.getNumberActiveBombs(), board.getNumberActiveBombs());
+                assertEquals(bitBoard.getVersion(), board.getVersion());
+            }
+            assertEquals(bitBoard.toString(), board.toString());
+            assertEquals(bitBoard.toString(), board.getSnapshot().getText());
+            assertEquals(bitBoard.getBombLocations().toString(), board.getBombLocations().toString());
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void batchTest() throws InterruptedException {
+
+        final int size = 100;
+        for (GameBoard board : new GameBoard[] {new StripedBoard(size, size, true), new BitBoard(size, size, true)}) {
+            Thread[] players = new Thread[4];
+            List<String> errors = new ArrayList<>();
+            for (int t = 0; t < players.length; t++) {
+                Random random = new Random(t);
+                players[t] = new Thread(() -> {
+                    for (int batch = 0; batch < 500; batch++) {
+                        List<Long> versions = new ArrayList<>();
+                        BoardListener listener = new BoardListener() {
+                            @Override
+                            public void squareChanged(int x, int y, char state) {
+                            }
+
+                            @Override
+                            public void moveApplied(long version, int activeBombs) {
+                                versions.add(version);
+                            }
+                        };
+                        board.batch(() -> {
+                            for (int move = 0; move < 5; move++) {
+                                String command = random.nextBoolean() ? "flagged" : "dug";
+                                board.setSquare(random.nextInt(size), random.nextInt(size), command, true, listener);
+                            }
+                        });
+                        for (int i = 1; i < versions.size(); i++) {
+                            if (versions.get(i) != versions.get(i - 1) + 1) {
+                                synchronized (errors) {
+                                    errors.add("batch versions " + versions);
+                                }
+                            }
+                        }
+                    }
+                });
+                players[t].start();
+            }
+            for (Thread player : players) {
+                player.join();
+            }
+            assertEquals(new ArrayList<String>(), errors);
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void concurrentMovesTest() throws InterruptedException {
+
+        final int size = 200;
+        final int threads = 8;
+        StripedBoard board = new StripedBoard(size, size, true);
+        String[] initial = board.toString().split("\r\n");
+        // version of every move -> squares it changed, as {x, y, state}
+        Map<Long, List<int[]>> moves = new TreeMap<>();
+        // failures of the players, asserted once they are done, since a failed assertion would only end its thread
+        List<String> errors = new ArrayList<>();
+
+        Thread[] players = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            players[t] = new Thread(() -> {
+                try {
+                    for (int move = 0; move < 2000; move++) {
+                        List<int[]> changes = new ArrayList<>();
+                        String command = random.nextInt(3) == 0 ? "flagged" : "dug";
+                        board.setSquare(random.nextInt(size), random.nextInt(size), command, true, new BoardListener() {
+                            @Override
+                            public void squareChanged(int x, int y, char state) {
+                                changes.add(new int[] {x, y, state});
+                            }
+
+                            @Override
+                            public void moveApplied(long version, int activeBombs) {
+                                synchronized (moves) {
+                                    if (moves.put(version, changes) != null) {
+                                        synchronized (errors) {
+                                            errors.add("version " + version + " given to two moves");
+                                        }
+                                    }
+                                }
+                            }
+                        });
+                    }
+                } catch (RuntimeException re) {
+                    synchronized (errors) {
+                        errors.add(re.toString());
+                    }
+                }
+            });
+            players[t].start();
+        }
+        for (Thread player : players) {
+            player.join();
+        }
+
+        assertEquals(new ArrayList<String>(), errors);
+        assertEquals(board.getVersion(), moves.size());
+        char[][] copy = new char[size][];
+        for (int x = 0; x < size; x++) {
+            copy[x] = initial[x + 2].toCharArray();
+        }
+        for (List<int[]> changes : moves.values()) {
+            for (int[] change : changes) {
+                copy[change[0]][1 + 3 * change[1]] = (char) change[2];
+            }
+        }
+        String[] lines = board.toString().split("\r\n");
+        for (int x = 0; x < size; x++) {
+            assertEquals(lines[x + 2], new String(copy[x]));
+        }
+
+        int unflagged = 0;
+        for (Bomb bomb : board.getBombLocations()) {
+            if (!bomb.getFlag()) {
+                unflagged++;
+            }
+        }
+        assertEquals(unflagged, board.getNumberActiveBombs());
+    }
+}
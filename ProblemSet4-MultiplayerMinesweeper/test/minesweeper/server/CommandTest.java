@@ -0,0 +1,48 @@
+package minesweeper.server;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test strategy:
+ * We recognize requests of every argument shape, well formed and malformed, and read their numbers.
+ * <p>
+ * Partitions:
+ * - first word: known, prefix of a known one, extending a known one, unknown, empty, not a letter.
+ * - arguments: missing, extra, wrong shape, extra spaces.
+ * - numbers: 0, negative, MAX_DIGITS digits, more digits, not a number.
+ */
+public class CommandTest {
+
+    @Test
+    public void recognizeTest() {
+        assertEquals(Command.LOOK, Command.of("look"));
+        assertEquals(Command.DEFLAG, Command.of("deflag 3 4"));
+        assertEquals(Command.DELTA, Command.of("delta on"));
+        assertEquals(Command.JOIN, Command.of("join 12"));
+        assertEquals(Command.PLAYERS, Command.of("players"));
+        assertEquals(Command.PLAYERS, Command.of("players 5"));
+        assertEquals(Command.BATCH, Command.of("batch dig 1 2; flag 3 4"));
+        assertEquals(Command.NEW, Command.of("new -1 0"));
+        assertEquals(Command.HINT, Command.of("hint"));
+    }
+
+    @Test
+    public void malformedTest() {
+        for (String input : new String[] {"", "QUIT", "1 2", "lo", "looks", "look ", "look 1", "dig", "dig 1",
+                "dig 1 2 3", "dig  1 2", "dig 1 2 ", "dig a 2", "dig 1 -", "dig 1 1234567890", "players x",
+                "join", "join a b", "batch", "delta", "hint 1", "hello there"}) {
+            assertNull(input, Command.of(input));
+        }
+    }
+
+    @Test
+    public void numberTest() {
+        String input = "dig 123456789 -42";
+        Command command = Command.of(input);
+        assertEquals(Command.DIG, command);
+        assertEquals(123456789, Command.number(input, command.start));
+        assertEquals(-42, Command.number(input, command.second(input)));
+        assertEquals(0, Command.number("flag 0 7", Command.FLAG.start));
+    }
+}
@@ -0,0 +1,123 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import minesweeper.BoardStorage;
+import minesweeper.BombPlacement;
+import minesweeper.GameBoard;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static minesweeper.server.TestMoves.*;
+
+/**
+ * Test strategy:
+ * We make random moves on a recorded game, stop recording, read the recording and replay it on a new
+ * board, which must end as the recorded board: same squares, version and active bombs.
+ * <p>
+ * Partitions:
+ * - storage: array, bitset, striped, chunked.
+ * - board size: at most GameBoard.MAX_SIZE squares per side, more (only chunked boards).
+ * - board recorded by: its placement, first click safe or not, its squares after moves already made.
+ * - recording tail: complete, torn by a crash in the middle of a record.
+ */
+public class GameRecorderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Records 300 random moves on the given board, and checks the recording replays to the same board.
+     *
+     * @return the recording.
+     */
+    private GameRecorder.Recording replay(BoardStorage storage, GameBoard board, BombPlacement placement)
+            throws IOException {
+
+        Path directory = folder.newFolder().toPath();
+        Protocol game = new GameRegistry(null, true, storage, 0, null, placement, directory)
+                .register(board, null, placement);
+        play(game, board, new Random(6005), 300);
+        game.stopRecording();
+
+        GameRecorder.Recording recording = GameRecorder.read(directory.resolve("game-0" + GameRecorder.EXTENSION));
+        assertEquals(storage, recording.getStorage());
+        GameBoard replayed = recording.newBoard();
+        assertTrue(recording.replay(replayed) > 0);
+        assertSameBoard(board, replayed);
+        for (int i = 1; i < recording.size(); i++) {
+            assertTrue(recording.getTime(i - 1) <= recording.getTime(i));
+        }
+        return recording;
+    }
+
+    @Test
+    public void placementTest() throws IOException {
+        for (BoardStorage storage : new BoardStorage[] {BoardStorage.ARRAY, BoardStorage.BITSET, BoardStorage.STRIPED}) {
+            BombPlacement placement = new BombPlacement(0.15, 6005, false);
+            replay(storage, storage.newBoard(16, 12, placement), placement);
+        }
+    }
+
+    @Test
+    public void chunkedTest() throws IOException {
+        BombPlacement placement = new BombPlacement(0.2, 6005, false);
+        GameBoard board = BoardStorage.CHUNKED.newBoard(GameBoard.MAX_SIZE + 904, 16, placement);
+        GameRecorder.Recording recording = replay(BoardStorage.CHUNKED, board, placement);
+        assertEquals(GameBoard.MAX_SIZE + 904, recording.newBoard().getSizeX());
+    }
+
+    @Test
+    public void firstClickSafeTest() throws IOException {
+        BombPlacement placement = new BombPlacement(0.2, 42, true);
+        GameRecorder.Recording recording = replay(BoardStorage.ARRAY,
+                BoardStorage.ARRAY.newBoard(10, 10, placement), placement);
+        assertTrue(recording.getPlacement().isFirstClickSafe());
+    }
+
+    @Test
+    public void squaresTest() throws IOException {
+        for (BoardStorage storage : new BoardStorage[] {BoardStorage.ARRAY, BoardStorage.BITSET, BoardStorage.STRIPED}) {
+            GameBoard board = storage.newBoard(12, 16, 6005);
+            // moves made before recording starts are part of the board recorded
+            Random random = new Random(1);
+            for (int i = 0; i < 30; i++) {
+                board.setSquare(random.nextInt(12), random.nextInt(16), "dug", false);
+            }
+            GameRecorder.Recording recording = replay(storage, board, null);
+            assertNull(recording.getPlacement());
+        }
+    }
+
+    @Test
+    public void tornTailTest() throws IOException {
+
+        Path directory = folder.newFolder().toPath();
+        BombPlacement placement = new BombPlacement(0.2, 6005, false);
+        GameBoard board = BoardStorage.BITSET.newBoard(10, 10, placement);
+        Protocol game = new GameRegistry(null, true, BoardStorage.BITSET, 0, null, placement, directory)
+                .register(board, null, placement);
+        play(game, board, new Random(6005), 50);
+        game.stopRecording();
+        Path file = directory.resolve("game-0" + GameRecorder.EXTENSION);
+        int complete = GameRecorder.read(file).size();
+
+        // a record whose Y never made it to the disk
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] {MoveLog.DIG, 3}));
+        }
+
+        GameRecorder.Recording recording = GameRecorder.read(file);
+        assertEquals(complete, recording.size());
+        GameBoard replayed = recording.newBoard();
+        recording.replay(replayed);
+        assertSameBoard(board, replayed);
+    }
+}
@@ -0,0 +1,133 @@
+package minesweeper.server;
+
+import minesweeper.BitBoard;
+import minesweeper.BoardStorage;
+import minesweeper.ChunkedBoard;
+import minesweeper.GameBoard;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test strategy:
+ * We register games and call evictIdle() directly with chosen times, instead of waiting for the evictor.
+ * <p>
+ * Partitions:
+ * - game: the default game, a game with players, a game without players idle for less than the
+ *   timeout, and for more.
+ * - idle timeout: 0 (games are kept), positive.
+ * - joining: before the eviction, after the eviction.
+ * - board: small enough to be shown, too large.
+ * - games created: below the limits, at the limit of a player, at the limit of squares, after evictions.
+ */
+public class GameRegistryTest {
+
+    private static final long TIMEOUT = 60 * 60 * 1000;
+
+    @Test
+    public void registerTest() {
+        GameRegistry games = new GameRegistry(null, false, BoardStorage.BITSET, TIMEOUT);
+        assertNull(games.getDefaultGame());
+
+        Protocol first = games.register(new BitBoard(5, 5, false));
+        Protocol second = games.create(6, 7);
+        assertSame(first, games.getDefaultGame());
+        assertNotEquals(first.getId(), second.getId());
+        assertSame(first, games.get(first.getId()));
+        assertSame(second, games.get(second.getId()));
+        assertNull(games.get("unknown"));
+        assertEquals(2, games.size());
+        assertTrue(second.handleRequest("hello").contains("Board: 6 columns by 7 rows. Players: 0"));
+    }
+
+    @Test
+    public void evictIdleTest() {
+        GameRegistry games = new GameRegistry(null, false, BoardStorage.BITSET, TIMEOUT);
+        Protocol main = games.register(new BitBoard(5, 5, false));
+        Protocol empty = games.create(5, 5);
+        Protocol played = games.create(5, 5);
+        Player player = new Player("player");
+        assertTrue(played.addPlayer(player));
+
+        long now = System.currentTimeMillis();
+        assertEquals(0, games.evictIdle(now));
+        assertEquals(1, games.evictIdle(now + 2 * TIMEOUT));
+        assertSame(main, games.get(main.getId()));
+        assertNull(games.get(empty.getId()));
+        assertFalse(empty.addPlayer(new Player("late")));
+        assertSame(played, games.get(played.getId()));
+
+        played.leave(player, null);
+        assertEquals(0, played.getPlayerCount());
+        assertEquals(1, games.evictIdle(System.currentTimeMillis() + 2 * TIMEOUT));
+        assertNull(games.get(played.getId()));
+        assertEquals(1, games.size());
+    }
+
+    @Test
+    public void noTimeoutTest() {
+        GameRegistry games = new GameRegistry(null, false, BoardStorage.BITSET, 0);
+        games.register(new BitBoard(5, 5, false));
+        Protocol empty = games.create(5, 5);
+
+        assertEquals(0, games.evictIdle(Long.MAX_VALUE));
+        assertSame(empty, games.get(empty.getId()));
+    }
+
+    @Test
+    public void tooLargeTest() {
+        GameRegistry games = new GameRegistry(null, false, BoardStorage.CHUNKED, 0);
+        Protocol game = games.register(new ChunkedBoard(5000, 5000, 0.1, 6005));
+        assertNull(game.lookSnapshot());
+        String board = game.handleRequest("flag 3 4");
+        assertTrue(board, board.startsWith("\r\nSize: 5000x5000 Bombs: "));
+        assertTrue(board, board.contains(Protocol.TOO_LARGE_MESSAGE + "Move received at (3, 4)"));
+        assertTrue(game.handleSpectatorRequest("hello").endsWith(Protocol.TOO_LARGE_MESSAGE));
+    }
+
+    @Test
+    public void createLimitsTest() {
+        GameRegistry games = new GameRegistry(null, false, BoardStorage.BITSET, TIMEOUT);
+        games.register(new BitBoard(5, 5, false));
+        Player player = new Player("player");
+        for (int i = 0; i < GameRegistry.MAX_GAMES_PER_PLAYER; i++) {
+            games.create(5, 5, player);
+        }
+        try {
+            games.create(5, 5, player);
+            fail("expected the player to be past its limit");
+        } catch (IllegalStateException expected) {
+            // another player still can
+        }
+        games.create(5, 5, new Player("other"));
+
+        int size = GameBoard.MAX_SIZE;
+        long room = GameRegistry.MAX_CREATED_SQUARES - (GameRegistry.MAX_GAMES_PER_PLAYER + 1) * 25;
+        for (long i = 0; i < room / ((long) size * size); i++) {
+            games.create(size, size);
+        }
+        try {
+            games.create(size, size);
+            fail("expected the games created to be past their squares");
+        } catch (IllegalStateException expected) {
+            // the evictions make room again
+        }
+        assertEquals(GameRegistry.MAX_GAMES_PER_PLAYER + 1 + room / ((long) size * size),
+                games.evictIdle(System.currentTimeMillis() + 2 * TIMEOUT));
+        games.create(size, size);
+        games.create(5, 5, player);
+    }
+
+    @Test
+    public void newRefusedTest() {
+        GameRegistry games = new GameRegistry(null, false, BoardStorage.BITSET, TIMEOUT);
+        Protocol main = games.register(new BitBoard(5, 5, false));
+        Client client = new TestClient("player");
+        for (int i = 0; i < GameRegistry.MAX_GAMES_PER_PLAYER; i++) {
+            games.create(5, 5, client.getPlayer());
+        }
+        main.addPlayer(client.getPlayer());
+        assertEquals("**> You can't have more than " + GameRegistry.MAX_GAMES_PER_PLAYER
+                + " games of yours at once.\r\n", main.handleRequest("new 5 5", client));
+    }
+}
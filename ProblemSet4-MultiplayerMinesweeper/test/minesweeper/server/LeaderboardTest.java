@@ -0,0 +1,116 @@
+package minesweeper.server;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import minesweeper.BitBoard;
+import minesweeper.BoardStorage;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test strategy:
+ * We add, score and remove random players on a Leaderboard, checking top() and rank() against a list
+ * sorted after every change. Then we play a game through its Protocol and check "players".
+ * <p>
+ * Partitions:
+ * - players: none, one, many, with the same score, with the same name.
+ * - points: positive, negative, 0.
+ * - k: 0, less than the number of players, more.
+ * - "players": with and without a number, asked by a player of the game or not.
+ */
+public class LeaderboardTest {
+
+    private static final Comparator<Player> RANKING =
+            Comparator.comparingInt(Player::getScore).reversed().thenComparing(player -> player.name);
+
+    @Test
+    public void emptyTest() {
+        Leaderboard leaderboard = new Leaderboard();
+        assertEquals(0, leaderboard.size());
+        assertTrue(leaderboard.top(10).isEmpty());
+        assertEquals(0, leaderboard.rank(new Player("nobody")));
+    }
+
+    @Test
+    public void randomTest() {
+        Random random = new Random(6005);
+        Leaderboard leaderboard = new Leaderboard();
+        List<Player> players = new ArrayList<>();
+
+        for (int step = 0; step < 5000; step++) {
+            int action = random.nextInt(10);
+            if (action < 2 || players.isEmpty()) {
+                // distinct names, so the order of the reference list is the order of the leaderboard
+                Player player = new Player("p" + step);
+                player.setScore(random.nextInt(20));
+                leaderboard.add(player);
+                players.add(player);
+            } else if (action < 3) {
+                Player player = players.remove(random.nextInt(players.size()));
+                leaderboard.remove(player);
+                assertEquals(0, leaderboard.rank(player));
+            } else {
+                Player player = players.get(random.nextInt(players.size()));
+                int points = random.nextInt(11) - 3;
+                assertEquals(player.getScore() + points, leaderboard.addScore(player, points));
+            }
+
+            players.sort(RANKING);
+            assertEquals(players.size(), leaderboard.size());
+            if (step % 50 == 0) {
+                for (int i = 0; i < players.size(); i++) {
+                    assertEquals(i + 1, leaderboard.rank(players.get(i)));
+                }
+                int k = random.nextInt(players.size() + 5);
+                List<Leaderboard.Standing> top = leaderboard.top(k);
+                assertEquals(Math.min(k, players.size()), top.size());
+                for (int i = 0; i < top.size(); i++) {
+                    assertEquals(i + 1, top.get(i).rank);
+                    assertEquals(players.get(i).name, top.get(i).name);
+                    assertEquals(players.get(i).getScore(), top.get(i).score);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sameNameTest() {
+        Leaderboard leaderboard = new Leaderboard();
+        Player first = new Player("twin");
+        Player second = new Player("twin");
+        leaderboard.add(first);
+        leaderboard.add(second);
+        leaderboard.add(first);
+        assertEquals(2, leaderboard.size());
+        assertEquals(1, leaderboard.rank(first));
+        assertEquals(2, leaderboard.rank(second));
+        leaderboard.addScore(second, 1);
+        assertEquals(1, leaderboard.rank(second));
+    }
+
+    @Test
+    public void playersTest() {
+        GameRegistry games = new GameRegistry(null, true, BoardStorage.BITSET, 0);
+        Protocol game = games.register(new BitBoard(5, 5, false));
+        Client alice = new TestClient("alice");
+        Client bob = new TestClient("bob");
+        game.addPlayer(alice.getPlayer());
+        game.addPlayer(bob.getPlayer());
+
+        assertEquals("\r\n||> 1. alice : 0\r\n||> 2. bob : 0\r\n**> You are 2 of 2.\r\n",
+                game.handleRequest("players", bob));
+        game.handleRequest("dig 2 2", bob);
+        assertEquals(25, bob.getPlayer().getScore());
+        game.handleRequest("dig 2 2", alice);
+        assertEquals(0, alice.getPlayer().getScore());
+        assertEquals("\r\n||> 1. bob : 25\r\n**> You are 2 of 2.\r\n", game.handleRequest("players 1", alice));
+        assertEquals("\r\n||> 1. bob : 25\r\n||> 2. alice : 0\r\n", game.handleRequest("players"));
+
+        game.leave(bob.getPlayer(), bob);
+        assertEquals("\r\n||> 1. alice : 0\r\n**> You are 1 of 1.\r\n", game.handleRequest("players", alice));
+    }
+}
@@ -0,0 +1,80 @@
+package minesweeper.server;
+
+import minesweeper.BitBoard;
+import minesweeper.BoardStorage;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test strategy:
+ * We record known durations in a LatencyHistogram and check its percentiles are within the precision
+ * of a bucket, then handle requests in a game recording Metrics and check "stats" reports them.
+ * <p>
+ * Partitions:
+ * - durations: below the linear range, above it, 0, the largest long.
+ * - histogram: empty, one duration, many.
+ * - metrics: recorded, not recorded.
+ */
+public class MetricsTest {
+
+    @Test
+    public void bucketTest() {
+        for (long value : new long[] {0, 1, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE}) {
+            int i = LatencyHistogram.index(value);
+            assertTrue(value <= LatencyHistogram.highest(i));
+            assertTrue(i == 0 || value > LatencyHistogram.highest(i - 1));
+            assertTrue(LatencyHistogram.highest(i) - value <= value / 16);
+        }
+    }
+
+    @Test
+    public void percentileTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(0.99));
+
+        for (long nanos = 1; nanos <= 100_000; nanos++) {
+            histogram.record(nanos * 1000);
+        }
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000_000, histogram.getMax());
+        assertEquals(50_000_500, histogram.getMean());
+        assertEquals(50_000_000, histogram.getPercentile(0.5), 50_000_000 / 16);
+        assertEquals(99_000_000, histogram.getPercentile(0.99), 99_000_000 / 16);
+        assertEquals(100_000_000, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void commandTest() {
+        assertEquals(Metrics.LOOK, Metrics.command("look"));
+        assertEquals(Metrics.DIG, Metrics.command("dig 1 2"));
+        assertEquals(Metrics.DEFLAG, Metrics.command("deflag 1 2"));
+        assertEquals(Metrics.OTHER, Metrics.command("digger"));
+        assertEquals(Metrics.OTHER, Metrics.command(""));
+    }
+
+    @Test
+    public void statsTest() {
+        GameRegistry games = new GameRegistry(null, false, BoardStorage.BITSET, 0, new Metrics());
+        Protocol game = games.register(new BitBoard(5, 5, false));
+        game.handleRequest("look");
+        game.handleRequest("flag 1 1");
+        game.handleRequest("deflag 1 1");
+
+        String stats = game.handleRequest("stats");
+        assertTrue(stats, stats.startsWith("**> Stats after"));
+        assertTrue(stats, stats.contains(" 3 requests"));
+        assertTrue(stats, stats.contains("||> look: 1,"));
+        assertTrue(stats, stats.contains("||> flag: 1,"));
+        assertTrue(stats, stats.contains("||> deflag: 1,"));
+        assertTrue(stats, stats.contains("||> lock flagged: 2,"));
+        assertFalse(stats, stats.contains("||> dig:"));
+    }
+
+    @Test
+    public void statsDisabledTest() {
+        GameRegistry games = new GameRegistry(null, false, BoardStorage.BITSET, 0);
+        Protocol game = games.register(new BitBoard(5, 5, false));
+        assertEquals("**> Stats are not recorded on this server.\r\n", game.handleRequest("stats"));
+    }
+}
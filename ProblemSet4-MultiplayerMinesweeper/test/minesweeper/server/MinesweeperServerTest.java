@@ -3,11 +3,742 @@
  */
 package minesweeper.server;
 
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
 /**
- * TODO
+ * Test strategy:
+ * We start a server for every front end (thread per connection, NIO) and talk to it over a real
+ * socket, checking the username prompt, the welcome message, a request handled by the protocol and
+ * the QUIT poison pill.
+ * <p>
+ * For the NIO front end we also connect several clients at once, to check that requests of
+ * clients sharing an event loop are answered independently.
+ * <p>
+ * Delta mode is tested with two clients on both front ends: the moves of one of them must be pushed
+ * to the other one, which is in delta mode, as the list of changed squares. On a board full of bombs,
+ * in debug mode, the watcher must also be told when the other client joins, explodes and leaves.
+ * <p>
+ * Spectators are tested on both front ends: a spectator must get the board, not be counted as a
+ * player, get the move of a player as a delta within a few ticks, be refused requests, and say bye.
+ * <p>
+ * Pipelining and batches are tested on both front ends: requests sent at once must be answered in
+ * order, and a batch with moves possible, impossible and outside the board answered with the board
+ * and one message per move. Single moves outside the board must be answered the same way, and leave
+ * the client connected.
+ * <p>
+ * Games are tested with two clients on both front ends: one creates a game, which the other one joins,
+ * and they must see each other's moves there, and the other's players counted, but not in the default game.
+ * <p>
+ * The binary protocol is tested on the thread per connection front end, which speaks it: look, a flag,
+ * a move outside the board, a malformed frame and bye. The NIO front end must refuse it.
+ * <p>
+ * Idle timeouts are tested on both front ends, with a timeout of a second: a player sending nothing
+ * must be told and disconnected, and a player which closed its side of the connection must be
+ * disconnected at once, without waiting for the timeout. So must clients leaving before their username.
+ * <p>
+ * The framing of responses by LoadGenerator is tested on both front ends with pipelined requests:
+ * every response read must be the one answering its own request.
  */
 public class MinesweeperServerTest {
-    
-    // TODO
-    
+
+    private static final String LOCALHOST = "127.0.0.1";
+    private static final int MAX_CONNECTION_ATTEMPTS = 10;
+
+    /**
+     * Start a MinesweeperServer with a random 10x10 board on a random port.
+     * @param extraArgs arguments given to the server besides --port and --size
+     * @return port the server listens on
+     */
+    private static int startMinesweeperServer(String... extraArgs) {
+        final int port = 4000 + new Random().nextInt(1 << 15);
+        final String[] args = new String[extraArgs.length + 4];
+        System.arraycopy(extraArgs, 0, args, 0, extraArgs.length);
+        args[extraArgs.length] = "--port";
+        args[extraArgs.length + 1] = Integer.toString(port);
+        args[extraArgs.length + 2] = "--size";
+        args[extraArgs.length + 3] = "10,10";
+
+        Thread serverThread = new Thread(() -> MinesweeperServer.main(args));
+        serverThread.setDaemon(true);
+        serverThread.start();
+        return port;
+    }
+
+    private static Socket connectToMinesweeperServer(int port) throws IOException {
+        int attempts = 0;
+        while (true) {
+            try {
+                Socket socket = new Socket(LOCALHOST, port);
+                socket.setSoTimeout(3000);
+                return socket;
+            } catch (ConnectException ce) {
+                if (++attempts > MAX_CONNECTION_ATTEMPTS) {
+                    throw new IOException("Exceeded max connection attempts", ce);
+                }
+                try { Thread.sleep(attempts * 10); } catch (InterruptedException ie) { }
+            }
+        }
+    }
+
+    /**
+     * Sends the username, checks the welcome message and that "help" is answered, then quits.
+     */
+    private static void playShortGame(Socket socket, String name) throws IOException {
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+
+        assertTrue("expected username prompt", in.readLine().startsWith("Type your username"));
+        out.println(name);
+        assertTrue("expected HELLO message", in.readLine().startsWith("**> Welcome"));
+        in.readLine(); // the welcome message ends with its own line terminator
+
+        out.println("help");
+        assertTrue("expected HELP message", in.readLine().startsWith("**> You can use"));
+        in.readLine();
+
+        out.println("QUIT");
+        assertTrue("expected BYE message", in.readLine().startsWith("**> Bye!"));
+        in.readLine();
+        assertNull("expected the server to close the connection", in.readLine());
+    }
+
+    /**
+     * Sends the username and reads the welcome message.
+     */
+    private static void login(BufferedReader in, PrintWriter out, String name) throws IOException {
+        assertTrue("expected username prompt", in.readLine().startsWith("Type your username"));
+        out.println(name);
+        assertTrue("expected HELLO message", in.readLine().startsWith("**> Welcome"));
+        in.readLine();
+    }
+
+    /**
+     * Client "watcher" switches to delta mode and client "player" flags a square, which must be pushed
+     * to the watcher as a delta. The watcher then deflags it, and gets the move message without the board.
+     */
+    private static void playDeltaGame(Socket watcherSocket, Socket playerSocket) throws IOException {
+
+        BufferedReader watcherIn = new BufferedReader(new InputStreamReader(watcherSocket.getInputStream()));
+        PrintWriter watcherOut = new PrintWriter(watcherSocket.getOutputStream(), true);
+        BufferedReader playerIn = new BufferedReader(new InputStreamReader(playerSocket.getInputStream()));
+        PrintWriter playerOut = new PrintWriter(playerSocket.getOutputStream(), true);
+        login(watcherIn, watcherOut, "watcher");
+        login(playerIn, playerOut, "player");
+
+        watcherOut.println("delta on");
+        assertEquals("", watcherIn.readLine());
+        assertTrue("expected board", watcherIn.readLine().startsWith("Size: 10x10 Bombs: "));
+        for (int x = 0; x < 10; x++) {
+            assertEquals("[-, -, -, -, -, -, -, -, -, -]", watcherIn.readLine());
+        }
+        assertEquals("**> Delta mode on.", watcherIn.readLine());
+        assertEquals("", watcherIn.readLine());
+
+        playerOut.println("flag 3 4");
+        assertEquals("", playerIn.readLine());
+        assertTrue("expected board", playerIn.readLine().startsWith("Size: 10x10"));
+
+        assertEquals("", watcherIn.readLine());
+        String delta = watcherIn.readLine();
+        assertTrue("expected delta, got " + delta, delta.startsWith("Delta: 1 Bombs: ") && delta.endsWith(" Squares: 1"));
+        assertEquals("3 4 [F]", watcherIn.readLine());
+        assertEquals("", watcherIn.readLine());
+
+        watcherOut.println("deflag 3 4");
+        String line;
+        while ( ! (line = watcherIn.readLine()).startsWith("Move received")) {
+            assertFalse("expected no board", line.startsWith("Size:"));
+        }
+        assertEquals("Move received at (3, 4)", line);
+    }
+
+    /**
+     * Skips the lines received until the given one, which must be followed by an empty line.
+     */
+    private static void readUntil(BufferedReader in, String expected) throws IOException {
+        String line;
+        while ( ! (line = in.readLine()).equals(expected)) {
+            assertFalse("expected " + expected + ", got " + line, line.startsWith("**> Player "));
+        }
+        assertEquals("", in.readLine());
+    }
+
+    /**
+     * Client "watcher" switches to delta mode, then client "player" connects, digs a bomb and moves to
+     * a new game. The watcher must be pushed every event, in order, without asking.
+     */
+    private static void playEventsGame(Socket watcherSocket, int port) throws IOException {
+
+        BufferedReader watcherIn = new BufferedReader(new InputStreamReader(watcherSocket.getInputStream()));
+        PrintWriter watcherOut = new PrintWriter(watcherSocket.getOutputStream(), true);
+        login(watcherIn, watcherOut, "watcher");
+        watcherOut.println("delta on");
+        readUntil(watcherIn, "**> Delta mode on.");
+
+        try (Socket playerSocket = connectToMinesweeperServer(port)) {
+            BufferedReader playerIn = new BufferedReader(new InputStreamReader(playerSocket.getInputStream()));
+            PrintWriter playerOut = new PrintWriter(playerSocket.getOutputStream(), true);
+            login(playerIn, playerOut, "player");
+            readUntil(watcherIn, "**> Player player joined game 0.");
+
+            playerOut.println("dig 2 3");
+            readUntil(watcherIn, "**> Player player exploded at (2, 3).");
+
+            playerOut.println("new 5 5");
+            readUntil(watcherIn, "**> Player player left game 0.");
+        }
+    }
+
+    /**
+     * Client "spectator" watches the default game, where client "player" flags a square. The spectator
+     * must be sent the change, without being counted as a player nor allowed to move.
+     */
+    private static void playSpectatedGame(Socket spectatorSocket, int port) throws IOException {
+
+        BufferedReader spectatorIn = new BufferedReader(new InputStreamReader(spectatorSocket.getInputStream()));
+        PrintWriter spectatorOut = new PrintWriter(spectatorSocket.getOutputStream(), true);
+        assertTrue("expected username prompt", spectatorIn.readLine().startsWith("Type your username"));
+        spectatorOut.println("SPECTATE");
+        assertTrue("expected spectator welcome", spectatorIn.readLine().startsWith("**> Watching game 0."));
+        assertEquals("", spectatorIn.readLine());
+        assertEquals("[-, -, -, -, -, -, -, -, -, -]", readBoard(spectatorIn, 1));
+
+        try (Socket playerSocket = connectToMinesweeperServer(port)) {
+            BufferedReader playerIn = new BufferedReader(new InputStreamReader(playerSocket.getInputStream()));
+            PrintWriter playerOut = new PrintWriter(playerSocket.getOutputStream(), true);
+            assertTrue("expected username prompt", playerIn.readLine().startsWith("Type your username"));
+            playerOut.println("player");
+            assertTrue("expected spectator not counted", playerIn.readLine().contains("Players: 1 including you"));
+            assertEquals("", playerIn.readLine());
+
+            playerOut.println("flag 1 1");
+            assertEquals("[-, F, -, -, -, -, -, -, -, -]", readBoard(playerIn, 1));
+            readUntil(spectatorIn, "1 1 [F]");
+        }
+
+        spectatorOut.println("flag 1 2");
+        readUntil(spectatorIn, "**> Spectators can only watch. Type 'bye' to leave.");
+        spectatorOut.println("bye");
+        readUntil(spectatorIn, "**> Bye! Thank you for playing");
+        assertNull("expected the server to close the connection", spectatorIn.readLine());
+    }
+
+    /**
+     * Reads the board answering a move of a client which is not in delta mode.
+     * @return the line of the board with the given X coordinate
+     */
+    private static String readBoard(BufferedReader in, int x) throws IOException {
+        assertEquals("", in.readLine());
+        assertTrue("expected board", in.readLine().startsWith("Size: 10x10"));
+        String line = null;
+        for (int i = 0; i < 10; i++) {
+            String read = in.readLine();
+            if (i == x) {
+                line = read;
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Logs in and waits, to be disconnected by a server with an idle timeout of a second. Another player
+     * logs in and shuts down its output, to be disconnected before the timeout.
+     */
+    private static void playIdleGame(Socket socket, int port) throws IOException {
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        login(in, out, "idle");
+        assertTrue("expected idle message", in.readLine().startsWith("**> Disconnected after 1 seconds"));
+        assertNull("expected the server to close the connection", readIgnoringEmpty(in));
+
+        try (Socket quitter = connectToMinesweeperServer(port)) {
+            quitter.setSoTimeout(900);
+            BufferedReader quitterIn = new BufferedReader(new InputStreamReader(quitter.getInputStream()));
+            login(quitterIn, new PrintWriter(quitter.getOutputStream(), true), "quitter");
+            quitter.shutdownOutput();
+            assertNull("expected the server to close the connection", readIgnoringEmpty(quitterIn));
+        }
+    }
+
+    /**
+     * @return the next non empty line, or null at the end of the stream.
+     */
+    private static String readIgnoringEmpty(BufferedReader in) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null && line.isEmpty()) {
+            // skip the line terminators ending messages
+        }
+        return line;
+    }
+
+    /**
+     * Client "framed" pipelines a flag, a look, "players" and "help", and reads their responses with
+     * LoadGenerator.readResponse(), which must return each of them whole, in order.
+     */
+    private static void playFramed(Socket socket) throws IOException {
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        login(in, out, "framed");
+
+        out.print("flag 1 1\nlook\nplayers\nhelp\n");
+        out.flush();
+        List<String> flag = LoadGenerator.readResponse(in);
+        assertEquals(12, flag.size());
+        assertTrue(flag.get(0).startsWith("Size: 10x10"));
+        assertEquals("[-, F, -, -, -, -, -, -, -, -]", flag.get(2));
+        assertEquals("Move received at (1, 1)", flag.get(11));
+        List<String> look = LoadGenerator.readResponse(in);
+        assertEquals(11, look.size());
+        assertEquals("[-, F, -, -, -, -, -, -, -, -]", look.get(2));
+        assertEquals(Arrays.asList("||> 1. framed : 0", "**> You are 1 of 1."), LoadGenerator.readResponse(in));
+        assertTrue(LoadGenerator.readResponse(in).get(0).startsWith("**> You can use"));
+    }
+
+    /**
+     * Clients connect and hang up without sending a username, one at once and one after half closing its
+     * output. The server must close their connections, and keep serving the client "named" afterwards.
+     */
+    private static void playNamelessClients(Socket socket, int port) throws IOException {
+
+        try (Socket hungUp = connectToMinesweeperServer(port)) {
+            BufferedReader hungUpIn = new BufferedReader(new InputStreamReader(hungUp.getInputStream()));
+            assertTrue("expected username prompt", hungUpIn.readLine().startsWith("Type your username"));
+        }
+        try (Socket halfClosed = connectToMinesweeperServer(port)) {
+            BufferedReader halfClosedIn = new BufferedReader(new InputStreamReader(halfClosed.getInputStream()));
+            assertTrue("expected username prompt", halfClosedIn.readLine().startsWith("Type your username"));
+            halfClosed.shutdownOutput();
+            assertNull("expected the server to close the connection", halfClosedIn.readLine());
+        }
+        playShortGame(socket, "named");
+    }
+
+    /**
+     * Client "bot" sends two flags and a look without waiting for the answers, then a batch deflagging
+     * both squares and flagging one outside the board, then a malformed batch.
+     */
+    private static void playBatches(Socket socket) throws IOException {
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        login(in, out, "bot");
+
+        out.print("flag 1 1\nflag 1 2\nlook\n");
+        out.flush();
+        assertEquals("[-, F, -, -, -, -, -, -, -, -]", readBoard(in, 1));
+        assertEquals("Move received at (1, 1)", in.readLine());
+        assertEquals("", in.readLine());
+        assertEquals("[-, F, F, -, -, -, -, -, -, -]", readBoard(in, 1));
+        assertEquals("Move received at (1, 2)", in.readLine());
+        assertEquals("", in.readLine());
+        assertEquals("[-, F, F, -, -, -, -, -, -, -]", readBoard(in, 1));
+        assertEquals("", in.readLine());
+
+        out.println("batch deflag 1 1; deflag 1 2;flag 10 10");
+        assertEquals("[-, -, -, -, -, -, -, -, -, -]", readBoard(in, 1));
+        assertEquals("Move received at (1, 1)", in.readLine());
+        assertEquals("Move received at (1, 2)", in.readLine());
+        assertEquals("That move is not possible now, be faster!", in.readLine());
+        assertEquals("", in.readLine());
+
+        out.println("batch look");
+        assertTrue(in.readLine().startsWith("**> Batches are made of moves"));
+        assertEquals("", in.readLine());
+    }
+
+    /**
+     * Client "stray" digs, flags and deflags squares just outside the board, on every side, each answered
+     * with the board and the message of a move not possible, then gets "help" answered.
+     */
+    private static void playOutOfRange(Socket socket) throws IOException {
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+        login(in, out, "stray");
+
+        for (String move : new String[] {"dig 10 3", "dig 3 10", "dig -1 0", "flag -1 2", "flag 2 10", "deflag 10 0"}) {
+            out.println(move);
+            assertEquals(move, "[-, -, -, -, -, -, -, -, -, -]", readBoard(in, 1));
+            assertEquals(move, "That move is not possible now, be faster!", in.readLine());
+            assertEquals("", in.readLine());
+        }
+        out.println("help");
+        assertTrue("expected HELP message", in.readLine().startsWith("**> You can use"));
+    }
+
+    /**
+     * Reads the answer to "new X Y" or "join ID": the game joined and its welcome message.
+     * @return the id of the game joined
+     */
+    private static String readJoined(BufferedReader in, String expectedWelcome) throws IOException {
+        String joined = in.readLine();
+        assertTrue("expected joined message, got " + joined, joined.startsWith("**> Joined game "));
+        String welcome = in.readLine();
+        assertTrue("expected " + expectedWelcome + ", got " + welcome, welcome.contains(expectedWelcome));
+        assertEquals("", in.readLine());
+        return joined.substring("**> Joined game ".length(), joined.length() - 1);
+    }
+
+    /**
+     * Client "host" creates a 6x7 game, which client "guest" joins. A flag of the guest must be seen by
+     * the host in that game, and not in the default game, which the host goes back to.
+     */
+    private static void playGames(Socket hostSocket, Socket guestSocket) throws IOException {
+
+        BufferedReader hostIn = new BufferedReader(new InputStreamReader(hostSocket.getInputStream()));
+        PrintWriter hostOut = new PrintWriter(hostSocket.getOutputStream(), true);
+        BufferedReader guestIn = new BufferedReader(new InputStreamReader(guestSocket.getInputStream()));
+        PrintWriter guestOut = new PrintWriter(guestSocket.getOutputStream(), true);
+        login(hostIn, hostOut, "host");
+        login(guestIn, guestOut, "guest");
+
+        hostOut.println("new 6 7");
+        String id = readJoined(hostIn, "Board: 6 columns by 7 rows. Players: 1 including you");
+
+        guestOut.println("join " + id);
+        assertEquals(id, readJoined(guestIn, "Board: 6 columns by 7 rows. Players: 2 including you"));
+        guestOut.println("join " + id);
+        assertEquals("**> You are already in game " + id + ".", guestIn.readLine());
+        guestIn.readLine();
+        guestOut.println("join 12345678");
+        assertEquals("**> There is no game 12345678.", guestIn.readLine());
+        guestIn.readLine();
+
+        guestOut.println("flag 2 3");
+        assertEquals("", guestIn.readLine());
+        assertTrue("expected board", guestIn.readLine().startsWith("Size: 6x7"));
+
+        hostOut.println("look");
+        assertEquals("", hostIn.readLine());
+        assertTrue("expected board", hostIn.readLine().startsWith("Size: 6x7"));
+        hostIn.readLine();
+        hostIn.readLine();
+        assertEquals("[-, -, -, F, -, -, -]", hostIn.readLine());
+        for (int x = 3; x < 6; x++) {
+            hostIn.readLine();
+        }
+        assertEquals("", hostIn.readLine());
+
+        hostOut.println("join 0");
+        readJoined(hostIn, "Board: 10 columns by 10 rows. Players: 1 including you");
+        hostOut.println("look");
+        assertEquals("", hostIn.readLine());
+        assertTrue("expected board", hostIn.readLine().startsWith("Size: 10x10"));
+        hostIn.readLine();
+        hostIn.readLine();
+        assertEquals("[-, -, -, -, -, -, -, -, -, -]", hostIn.readLine());
+    }
+
+    /**
+     * Reads a BOARD frame of a 10x10 board and checks its status.
+     * @return the packed squares
+     */
+    private static byte[] readBoard(DataInputStream in, int status) throws IOException {
+        assertEquals(1 + 1 + 2 + 2 + 4 + 50, in.readInt());
+        assertEquals(BinaryProtocol.BOARD, in.readUnsignedByte());
+        assertEquals(status, in.readUnsignedByte());
+        assertEquals(10, in.readUnsignedShort());
+        assertEquals(10, in.readUnsignedShort());
+        assertTrue(in.readInt() >= 0);
+        byte[] squares = new byte[50];
+        in.readFully(squares);
+        return squares;
+    }
+
+    private static void writeMove(DataOutputStream out, int opcode, int x, int y) throws IOException {
+        out.writeInt(5);
+        out.writeByte(opcode);
+        out.writeShort(x);
+        out.writeShort(y);
+        out.flush();
+    }
+
+    @Test(timeout = 10000)
+    public void binaryProtocolTest() throws IOException {
+
+        int port = startMinesweeperServer();
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            BufferedReader prompt = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            assertTrue("expected username prompt", prompt.readLine().startsWith("Type your username"));
+            // the prompt is all the text sent, so the buffered reader holds nothing else
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.write("BINARY bot\n".getBytes("US-ASCII"));
+            out.writeInt(1);
+            out.writeByte(BinaryProtocol.LOOK);
+            out.flush();
+
+            byte[] squares = readBoard(in, BinaryProtocol.LOOKED);
+            for (byte square : squares) {
+                assertEquals(0x99, square & 0xFF);
+            }
+
+            writeMove(out, BinaryProtocol.FLAG, 3, 5);
+            squares = readBoard(in, BinaryProtocol.MOVED);
+            assertEquals(0x9A, squares[(3 * 10 + 5) / 2] & 0xFF);
+
+            writeMove(out, BinaryProtocol.DEFLAG, 10, 0);
+            readBoard(in, BinaryProtocol.REJECTED);
+
+            out.writeInt(1);
+            out.writeByte(BinaryProtocol.BYE);
+            out.flush();
+            assertEquals(1, in.readInt());
+            assertEquals(BinaryProtocol.GOODBYE, in.readUnsignedByte());
+            assertEquals(-1, in.read());
+        }
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            BufferedReader prompt = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            prompt.readLine();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.write("BINARY bot\r\n".getBytes("US-ASCII"));
+            out.writeInt(1000);
+            out.flush();
+            int length = in.readInt();
+            assertEquals(BinaryProtocol.ERROR, in.readUnsignedByte());
+            in.readFully(new byte[length - 1]);
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void nioBinaryProtocolTest() throws IOException {
+
+        int port = startMinesweeperServer("--nio");
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            in.readLine();
+            out.println("BINARY bot");
+            assertTrue(in.readLine().startsWith("**> The binary protocol is not available"));
+            in.readLine();
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void nioGamesTest() throws IOException {
+
+        int port = startMinesweeperServer("--nio");
+
+        try (Socket host = connectToMinesweeperServer(port); Socket guest = connectToMinesweeperServer(port)) {
+            playGames(host, guest);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void threadGamesTest() throws IOException {
+
+        int port = startMinesweeperServer();
+
+        try (Socket host = connectToMinesweeperServer(port); Socket guest = connectToMinesweeperServer(port)) {
+            playGames(host, guest);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void nioDeltaTest() throws IOException {
+
+        int port = startMinesweeperServer("--nio");
+
+        try (Socket watcher = connectToMinesweeperServer(port); Socket player = connectToMinesweeperServer(port)) {
+            playDeltaGame(watcher, player);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void threadDeltaTest() throws IOException {
+
+        int port = startMinesweeperServer();
+
+        try (Socket watcher = connectToMinesweeperServer(port); Socket player = connectToMinesweeperServer(port)) {
+            playDeltaGame(watcher, player);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void nioEventsTest() throws IOException {
+
+        int port = startMinesweeperServer("--nio", "--debug", "--density", "1");
+
+        try (Socket watcher = connectToMinesweeperServer(port)) {
+            playEventsGame(watcher, port);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void threadEventsTest() throws IOException {
+
+        int port = startMinesweeperServer("--debug", "--density", "1");
+
+        try (Socket watcher = connectToMinesweeperServer(port)) {
+            playEventsGame(watcher, port);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void nioSpectatorTest() throws IOException {
+
+        int port = startMinesweeperServer("--nio");
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            playSpectatedGame(socket, port);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void threadSpectatorTest() throws IOException {
+
+        int port = startMinesweeperServer();
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            playSpectatedGame(socket, port);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void nioIdleTest() throws IOException {
+
+        int port = startMinesweeperServer("--nio", "--idle-timeout", "1");
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            playIdleGame(socket, port);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void threadIdleTest() throws IOException {
+
+        int port = startMinesweeperServer("--idle-timeout", "1");
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            playIdleGame(socket, port);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void nioNamelessTest() throws IOException {
+
+        int port = startMinesweeperServer("--nio");
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            playNamelessClients(socket, port);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void threadNamelessTest() throws IOException {
+
+        int port = startMinesweeperServer();
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            playNamelessClients(socket, port);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void nioFramingTest() throws IOException {
+
+        int port = startMinesweeperServer("--nio");
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            playFramed(socket);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void threadFramingTest() throws IOException {
+
+        int port = startMinesweeperServer();
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            playFramed(socket);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void nioBatchTest() throws IOException {
+
+        int port = startMinesweeperServer("--nio");
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            playBatches(socket);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void threadBatchTest() throws IOException {
+
+        int port = startMinesweeperServer();
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            playBatches(socket);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void nioOutOfRangeTest() throws IOException {
+
+        int port = startMinesweeperServer("--nio");
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            playOutOfRange(socket);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void threadOutOfRangeTest() throws IOException {
+
+        int port = startMinesweeperServer();
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            playOutOfRange(socket);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void nioServerTest() throws IOException {
+
+        int port = startMinesweeperServer("--nio");
+
+        try (Socket socket = connectToMinesweeperServer(port)) {
+            playShortGame(socket, "nio");
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void nioServerManyClientsTest() throws IOException {
+
+        int port = startMinesweeperServer("--nio");
+
+        Socket[] sockets = new Socket[20];
+        for (int i = 0; i < sockets.length; i++) {
+            sockets[i] = connectToMinesweeperServer(port);
+        }
+        // answer in reverse order, so no client depends on the previous one being served
+        for (int i = sockets.length - 1; i >= 0; i--) {
+            playShortGame(sockets[i], "player" + i);
+            sockets[i].close();
+        }
+    }
 }
@@ -0,0 +1,137 @@
+package minesweeper.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import minesweeper.BoardStorage;
+import minesweeper.GameBoard;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static minesweeper.server.TestMoves.*;
+
+/**
+ * Test strategy:
+ * We make random moves on a logged game, close the log, recover the board from it and check it is the
+ * board the moves were made on: same squares, version, active bombs, and same outcomes for more moves.
+ * <p>
+ * Partitions:
+ * - storage: array, bitset, striped.
+ * - snapshots: none taken after the first one, several taken while moving.
+ * - log tail: complete, torn by a crash in the middle of a batch.
+ * - fsync policy: always, periodic, never.
+ * - writer: running, failed.
+ */
+public class MoveLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private void recover(BoardStorage storage, FsyncPolicy policy, int snapshotEvery) throws IOException {
+
+        Path directory = folder.newFolder().toPath();
+        GameBoard board = storage.newBoard(16, 12, 6005);
+        MoveLog log = MoveLog.create(directory, policy, board, snapshotEvery);
+        Protocol game = new GameRegistry(null, true, storage, 0).register(board, log);
+        play(game, board, new Random(6005), 300);
+        log.close();
+        assertTrue(MoveLog.exists(directory));
+
+        MoveLog recovered = MoveLog.recover(directory, policy, storage, snapshotEvery);
+        GameBoard restored = recovered.getBoard();
+        assertSameBoard(board, restored);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100; i++) {
+            int x = random.nextInt(16);
+            int y = random.nextInt(12);
+            String command = COMMANDS[random.nextInt(COMMANDS.length)];
+            assertEquals(board.setSquare(x, y, command, true), restored.setSquare(x, y, command, true));
+        }
+        assertSameBoard(board, restored);
+        recovered.close();
+    }
+
+    @Test
+    public void recoverArrayTest() throws IOException {
+        recover(BoardStorage.ARRAY, FsyncPolicy.ALWAYS, MoveLog.SNAPSHOT_EVERY);
+    }
+
+    @Test
+    public void recoverBitSetTest() throws IOException {
+        recover(BoardStorage.BITSET, FsyncPolicy.PERIODIC, MoveLog.SNAPSHOT_EVERY);
+    }
+
+    @Test
+    public void recoverStripedTest() throws IOException {
+        recover(BoardStorage.STRIPED, FsyncPolicy.NEVER, MoveLog.SNAPSHOT_EVERY);
+    }
+
+    @Test
+    public void recoverAfterSnapshotsTest() throws IOException {
+        recover(BoardStorage.BITSET, FsyncPolicy.ALWAYS, 20);
+        recover(BoardStorage.ARRAY, FsyncPolicy.ALWAYS, 1);
+    }
+
+    @Test
+    public void tornTailTest() throws IOException {
+
+        Path directory = folder.newFolder().toPath();
+        GameBoard board = BoardStorage.BITSET.newBoard(10, 10, 6005);
+        MoveLog log = MoveLog.create(directory, FsyncPolicy.ALWAYS, board);
+        Protocol game = new GameRegistry(null, true, BoardStorage.BITSET, 0).register(board, log);
+        play(game, board, new Random(6005), 50);
+        log.close();
+
+        // a batch of 3 records whose last record and CRC never made it to the disk
+        Path file = directory.resolve("moves.log");
+        long complete = Files.size(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.APPEND)) {
+            ByteBuffer torn = ByteBuffer.allocate(4 + 2 * 13);
+            torn.putInt(3).putLong(board.getVersion() + 1).putShort((short) 0).putShort((short) 0).put((byte) MoveLog.DIG);
+            torn.flip();
+            channel.write(torn);
+        }
+
+        MoveLog recovered = MoveLog.recover(directory, FsyncPolicy.ALWAYS, BoardStorage.BITSET);
+        assertSameBoard(board, recovered.getBoard());
+        assertEquals(complete, Files.size(file));
+        recovered.close();
+    }
+
+    @Test
+    public void failedTest() throws IOException {
+
+        Path directory = folder.newFolder().toPath();
+        GameBoard board = BoardStorage.ARRAY.newBoard(16, 12, 6005);
+        MoveLog log = MoveLog.create(directory, FsyncPolicy.NEVER, board, 1);
+        // the writer can't save its next snapshot where a directory is in the way
+        Files.createDirectory(directory.resolve("snapshot.tmp"));
+        Protocol game = new GameRegistry(null, true, BoardStorage.ARRAY, 0).register(board, log);
+
+        Random random = new Random(6005);
+        long deadline = System.currentTimeMillis() + 10_000;
+        boolean failed = false;
+        while ( ! failed && System.currentTimeMillis() < deadline) {
+            try {
+                play(game, board, random, 1);
+            } catch (RuntimeException re) {
+                failed = true;
+            }
+        }
+        assertTrue("moves must fail once the log can't be written", failed);
+        try {
+            log.close();
+            fail("expected the failure of the writer");
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package minesweeper.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test strategy:
+ * We offer messages to an Outbox writing to a stream we control: one that takes everything, checking
+ * the messages are written whole and in order before close() returns, and one that blocks until
+ * released, standing for a client that doesn't read, checking the outbox overflows exactly once, and
+ * that responses sent to a full outbox wait for the client to read instead.
+ * <p>
+ * Partitions:
+ * - client: reading, not reading, reading late.
+ * - message: offered, sent.
+ * - outbox: open, full, closed, overflowed.
+ */
+public class OutboxTest {
+
+    private static final String NEWLINE = System.lineSeparator();
+
+    /** Runs every writer task on a daemon thread of its own. */
+    private static void start(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Test(timeout = 10000)
+    public void orderTest() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        Outbox outbox = new Outbox(stream, OutboxTest::start, () -> fail("unexpected overflow"));
+        for (int i = 0; i < Outbox.CAPACITY / 2; i++) {
+            assertTrue(outbox.offer("message " + i));
+        }
+        outbox.close(5000);
+        assertFalse(outbox.offer("late"));
+
+        String[] lines = stream.toString().split(NEWLINE);
+        assertEquals(Outbox.CAPACITY / 2, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals("message " + i, lines[i]);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void slowConsumerTest() {
+        CountDownLatch reading = new CountDownLatch(1);
+        AtomicInteger overflows = new AtomicInteger();
+        Outbox outbox = new Outbox(stalledStream(reading), OutboxTest::start, overflows::incrementAndGet);
+
+        // larger than the buffers of the outbox, so the writer blocks on the first message
+        String board = "x".repeat(1 << 16);
+        int accepted = 0;
+        while (outbox.offer(board)) {
+            accepted++;
+        }
+        assertTrue(accepted >= Outbox.CAPACITY && accepted <= Outbox.CAPACITY + 1);
+        assertEquals(1, overflows.get());
+        assertFalse(outbox.offer(board));
+        assertEquals(1, overflows.get());
+
+        reading.countDown();
+        outbox.close(5000);
+    }
+
+    @Test(timeout = 10000)
+    public void sendTest() {
+        CountDownLatch reading = new CountDownLatch(1);
+        AtomicInteger overflows = new AtomicInteger();
+        Outbox outbox = new Outbox(stalledStream(reading), OutboxTest::start, overflows::incrementAndGet);
+
+        String board = "x".repeat(1 << 16);
+        for (int i = 0; i < Outbox.CAPACITY; i++) {
+            assertTrue(outbox.send(board, 5000));
+        }
+        start(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            reading.countDown();
+        });
+        // full until the client reads
+        assertTrue(outbox.send("late", 5000));
+        assertEquals(0, overflows.get());
+        outbox.close(5000);
+
+        Outbox stalled = new Outbox(stalledStream(new CountDownLatch(1)), OutboxTest::start, overflows::incrementAndGet);
+        while (stalled.send(board, 50)) {
+            // fill it
+        }
+        assertEquals(1, overflows.get());
+        assertFalse(stalled.offer("late"));
+    }
+
+    /**
+     * @return a stream blocking every write until reading is counted down.
+     */
+    private static OutputStream stalledStream(CountDownLatch reading) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    reading.await();
+                } catch (InterruptedException ie) {
+                    throw new IOException(ie);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,51 @@
+package minesweeper.server;
+
+import minesweeper.BoardSnapshot;
+import minesweeper.BoardStorage;
+import minesweeper.GameBoard;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test strategy:
+ * We take snapshots of a board before and after some moves and check the delta between them lists
+ * exactly the squares whose state differs, once each, with the version and bombs of the later one.
+ * <p>
+ * Partitions:
+ * - squares changed: none, one, several in the same packed byte, undone by a later move.
+ * - handshake: default game, game id, a player's name.
+ */
+public class SpectatorFeedTest {
+
+    @Test
+    public void diffTest() {
+        GameBoard board = BoardStorage.ARRAY.newBoard(10, 10, 6005L);
+        BoardSnapshot before = board.getSnapshot();
+        assertEquals("", SpectatorFeed.diff(before, before));
+
+        board.setSquare(1, 1, "flagged", false);
+        board.setSquare(1, 2, "flagged", false);
+        board.setSquare(7, 7, "flagged", false);
+        board.setSquare(7, 7, "flagged", false);
+        BoardSnapshot after = board.getSnapshot();
+        String delta = SpectatorFeed.diff(before, after);
+        assertTrue(delta, delta.startsWith("\r\nDelta: 4 Bombs: " + after.getActiveBombs() + " Squares: 2\r\n"));
+        assertTrue(delta.contains("\r\n1 1 [F]\r\n"));
+        assertTrue(delta.contains("\r\n1 2 [F]\r\n"));
+        assertFalse(delta.contains("7 7"));
+
+        board.setSquare(1, 1, "flagged", false);
+        board.setSquare(1, 2, "flagged", false);
+        assertEquals("", SpectatorFeed.diff(before, board.getSnapshot()));
+    }
+
+    @Test
+    public void handshakeTest() {
+        assertTrue(SpectatorFeed.isHandshake("SPECTATE"));
+        assertNull(SpectatorFeed.gameOf("SPECTATE"));
+        assertTrue(SpectatorFeed.isHandshake("SPECTATE 12"));
+        assertEquals("12", SpectatorFeed.gameOf("SPECTATE 12"));
+        assertFalse(SpectatorFeed.isHandshake("SPECTATOR"));
+    }
+}
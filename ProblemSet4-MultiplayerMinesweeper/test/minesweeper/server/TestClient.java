@@ -0,0 +1,26 @@
+package minesweeper.server;
+
+/**
+ * Client of a player, which drops what is pushed to it, for the tests calling Protocol directly.
+ */
+class TestClient implements Client {
+
+    private final Player player;
+
+    TestClient(String name) {
+        this.player = new Player(name);
+    }
+
+    @Override
+    public void push(String message) {
+    }
+
+    @Override
+    public Player getPlayer() {
+        return player;
+    }
+
+    @Override
+    public void joined(Protocol game) {
+    }
+}
@@ -0,0 +1,34 @@
+package minesweeper.server;
+
+import java.util.Random;
+
+import minesweeper.GameBoard;
+
+import static org.junit.Assert.*;
+
+/**
+ * Random moves, and the board comparison, shared by the tests that replay moves made through a Protocol.
+ */
+class TestMoves {
+
+    static final String[] COMMANDS = {"dug", "dug", "flagged"};
+
+    private TestMoves() {
+    }
+
+    /** Makes count random moves on game, through its Protocol, so they are logged and recorded. */
+    static void play(Protocol game, GameBoard board, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            game.move(random.nextInt(board.getSizeX()), random.nextInt(board.getSizeY()),
+                    COMMANDS[random.nextInt(COMMANDS.length)], random.nextBoolean());
+        }
+    }
+
+    /** Asserts actual has the squares, version and bombs of expected. */
+    static void assertSameBoard(GameBoard expected, GameBoard actual) {
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.getNumberActiveBombs(), actual.getNumberActiveBombs());
+        assertEquals(expected.getBombLocations().size(), actual.getBombLocations().size());
+    }
+}